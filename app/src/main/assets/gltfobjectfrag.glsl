@@ -14,9 +14,15 @@
 
 precision mediump float;
 
-// For our default material we'll just use red with no lighting. In full glTF the material's
-// physically-based rendering properties would be parsed from the JSON. Those details are beyond the
-// scope of this helloworld.gltf rendering sample.
+// Only the base color of the material is shaded, without lighting. Primitives without a material
+// get a red factor and, like materials without a base color texture, a white texture. In full glTF
+// the remaining physically-based rendering properties would be applied here as well. Those details
+// are beyond the scope of this rendering sample.
+uniform vec4 u_BaseColorFactor;
+uniform sampler2D u_BaseColorTexture;
+
+varying vec2 v_TexCoord;
+
 void main() {
-    gl_FragColor = vec4(1.0, 0.0, 0.0, 1.0);
+    gl_FragColor = u_BaseColorFactor * texture2D(u_BaseColorTexture, v_TexCoord);
 }
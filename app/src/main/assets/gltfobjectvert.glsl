@@ -12,10 +12,24 @@
  * under the License.
  */
 
+// Compiled in variants, see GLTFProgram. With INSTANCING, for GLES 3.0 instancing, the model view
+// projection matrix is shared by every instance, while each instance streams its node's world
+// matrix through a per-instance attribute.
 uniform mat4 u_ModelViewProjection;
 
 attribute vec4 a_Position;
+attribute vec2 a_TexCoord;
+#ifdef INSTANCING
+attribute mat4 a_InstanceMatrix;
+#endif
+
+varying vec2 v_TexCoord;
 
 void main() {
+    v_TexCoord = a_TexCoord;
+#ifdef INSTANCING
+    gl_Position = u_ModelViewProjection * a_InstanceMatrix * a_Position;
+#else
     gl_Position = u_ModelViewProjection * a_Position;
+#endif
 }
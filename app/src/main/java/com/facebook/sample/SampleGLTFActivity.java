@@ -21,12 +21,17 @@ import android.os.Bundle;
 import android.view.TextureView;
 import android.view.View;
 
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.rendering.GLTFAssetCache;
+
 public class SampleGLTFActivity extends AppCompatActivity {
     private SampleGLTFView glTFView;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Debug builds check every GL call; release builds make them unchecked.
+        GLBackend.setValidating(BuildConfig.DEBUG);
 
         setContentView(R.layout.activity_main);
         glTFView = (SampleGLTFView) findViewById(R.id.gltf_view);
@@ -57,4 +62,10 @@ public class SampleGLTFActivity extends AppCompatActivity {
         glTFView.setVisibility(View.VISIBLE);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        GLTFAssetCache.getShared().trimMemory(level);
+    }
+
 }
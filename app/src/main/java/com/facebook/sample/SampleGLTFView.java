@@ -28,10 +28,15 @@ import android.view.Choreographer;
 import android.view.TextureView;
 
 import com.facebook.sample.gles.EGLRenderTarget;
+import com.facebook.sample.gles.GL;
+import com.facebook.sample.gles.GLBackend;
 import com.facebook.sample.gles.GLHelpers;
+import com.facebook.sample.rendering.FrameProfiler;
 import com.facebook.sample.rendering.SampleGLTFRenderer;
+import com.facebook.sample.rendering.UploadQueue;
 
-import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 
 public class SampleGLTFView extends TextureView {
@@ -43,6 +48,7 @@ public class SampleGLTFView extends TextureView {
 
     private RenderThread renderThread;
     private final SampleGLTFRenderer gltfObject = new SampleGLTFRenderer();
+    private final FrameProfiler frameProfiler = new FrameProfiler();
     private Context context;
 
     public SampleGLTFView(Context context) {
@@ -70,6 +76,14 @@ public class SampleGLTFView extends TextureView {
         renderThread.handler.sendMessage(msg);
     }
 
+    /**
+     * Returns the profiler of the render thread's frames, whose percentiles may be polled from
+     * any thread.
+     */
+    public FrameProfiler getFrameProfiler() {
+        return frameProfiler;
+    }
+
     public void releaseResources() {
         renderThread.handler.sendEmptyMessage(RenderThread.MSG_SURFACE_DESTROYED);
     }
@@ -83,10 +97,16 @@ public class SampleGLTFView extends TextureView {
         private static final float Z_NEAR = 1f;
         private static final float Z_FAR = 1000f;
 
+        // Time each frame may spend on the GL work of loading, out of about 16 ms at 60 Hz.
+        private static final long UPLOAD_BUDGET_NANOS = 4 * 1000 * 1000;
+
         private Handler handler;
         private Choreographer.FrameCallback frameCallback = new ChoreographerCallback();
 
+        private final GL gl = GLBackend.get();
         private EGLRenderTarget eglRenderTarget;
+        private final UploadQueue uploadQueue = new UploadQueue();
+        private Future<Void> loadFuture;
 
         private float[] modelMatrix = new float[16];
         private float[] viewMatrix = new float[16];
@@ -133,20 +153,20 @@ public class SampleGLTFView extends TextureView {
 
             Choreographer.getInstance().postFrameCallback(frameCallback);
 
-            GLES20.glViewport(0, 0, width, height);
+            gl.glViewport(0, 0, width, height);
             GLHelpers.checkGlError("glViewport");
+            gltfObject.setViewport(width, height);
 
             aspectRatio = (float) width / height;
             Matrix.perspectiveM(projectionMatrix, 0, FOVY, aspectRatio, Z_NEAR, Z_FAR);
             Matrix.setIdentityM(viewMatrix, 0);
             Matrix.setIdentityM(modelMatrix, 0);
-            GLES20.glClearColor(1.f, 1.f, 1.f, 1.f);
+            gl.glClearColor(1.f, 1.f, 1.f, 1.f);
 
-            try {
-                gltfObject.createOnGlThread(context, "helloworld.gltf");
-            } catch (IOException e) {
-               Log.e(TAG, e.getMessage());
-            }
+            gltfObject.setFrameProfiler(frameProfiler);
+            // Buffers are uploaded in a context of their own, so frames only pay for the textures.
+            gltfObject.setUploadThread(eglRenderTarget.getUploadThread());
+            loadFuture = gltfObject.loadAsync(context, "helloworld.gltf", uploadQueue);
         }
 
         private void onVSync() {
@@ -157,14 +177,38 @@ public class SampleGLTFView extends TextureView {
             Choreographer.getInstance().postFrameCallback(frameCallback);
 
             eglRenderTarget.makeCurrent();
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            frameProfiler.beginFrame();
+            checkLoad();
+            uploadQueue.drain(UPLOAD_BUDGET_NANOS);
+            frameProfiler.endPhase(FrameProfiler.METRIC_UPLOAD);
+            gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
             updateCamera();
             gltfObject.updateModelMatrix(modelMatrix, SCALE_FACTOR * aspectRatio);
 
+            // The renderer ends the update and cull phases itself.
             gltfObject.draw(viewMatrix, projectionMatrix);
+            frameProfiler.endPhase(FrameProfiler.METRIC_SUBMIT);
 
+            frameProfiler.endGpuWork();
             eglRenderTarget.swapBuffers();
+            frameProfiler.endPhase(FrameProfiler.METRIC_SWAP);
+            frameProfiler.endFrame();
+        }
+
+        // Reports a load that failed on its loader thread.
+        private void checkLoad() {
+            if (loadFuture == null || !loadFuture.isDone()) {
+                return;
+            }
+            try {
+                loadFuture.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Could not load glTF asset", e.getCause());
+            }
+            loadFuture = null;
         }
 
         private void updateCamera() {
@@ -177,8 +221,16 @@ public class SampleGLTFView extends TextureView {
         }
 
         private void onSurfaceDestroyed() {
-            eglRenderTarget.release();
-            gltfObject.release();
+            // The renderer hands its shared assets back to the cache while the context is still
+            // current; they stay resident for the next surface.
+            if (eglRenderTarget.hasValidContext()) {
+                eglRenderTarget.makeCurrent();
+                // Abandons the load if it is still going; its queued work is skipped.
+                gltfObject.release();
+                frameProfiler.release();
+                eglRenderTarget.release();
+            }
+            quitSafely();
         }
     }
 }
@@ -0,0 +1,333 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+
+import java.nio.Buffer;
+
+/**
+ * Forwards every call to the Android GL bindings, with no checks, for release builds. The GLES
+ * 3.0 calls need a GLES 3.0 context.
+ */
+public class AndroidGL implements GL {
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        GLES20.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        GLES20.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        GLES20.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        GLES20.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        GLES20.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        GLES20.glDeleteTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        GLES20.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        GLES20.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        GLES20.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int format, int type, Buffer pixels) {
+        GLES20.glTexImage2D(target, level, internalformat, width, height, border, format, type,
+                pixels);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int imageSize, Buffer data) {
+        GLES20.glCompressedTexImage2D(target, level, internalformat, width, height, border,
+                imageSize, data);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        GLUtils.texImage2D(target, level, bitmap, border);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        GLES20.glGenerateMipmap(target);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return GLES20.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        GLES20.glShaderSource(shader, string);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        GLES20.glCompileShader(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        GLES20.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return GLES20.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        GLES20.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return GLES20.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        GLES20.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        GLES20.glLinkProgram(program);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        GLES20.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return GLES20.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        GLES20.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        GLES20.glUseProgram(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return GLES20.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return GLES20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        GLES30.glProgramParameteri(program, pname, value);
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        GLES30.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat,
+                binaryFormatOffset, binary);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        GLES30.glProgramBinary(program, binaryFormat, binary, length);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        GLES20.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform4fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GLES20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        GLES20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, int offset) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttrib2f(int index, float x, float y) {
+        GLES20.glVertexAttrib2f(index, x, y);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        GLES30.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        GLES20.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        GLES20.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        GLES20.glClear(mask);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        GLES20.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset,
+            int instanceCount) {
+        GLES30.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        GLES30.glGenQueries(n, ids, offset);
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        GLES30.glDeleteQueries(n, ids, offset);
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        GLES30.glBeginQuery(target, id);
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        GLES30.glEndQuery(target);
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        GLES30.glGetQueryObjectuiv(id, pname, params, offset);
+    }
+
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        return GLES30.glFenceSync(condition, flags);
+    }
+
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeout) {
+        return GLES30.glClientWaitSync(sync, flags, timeout);
+    }
+
+    @Override
+    public void glDeleteSync(long sync) {
+        GLES30.glDeleteSync(sync);
+    }
+
+    @Override
+    public void glFlush() {
+        GLES20.glFlush();
+    }
+
+    @Override
+    public void glFinish() {
+        GLES20.glFinish();
+    }
+
+    @Override
+    public int glGetError() {
+        return GLES20.glGetError();
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return GLES20.glGetString(name);
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        GLES20.glGetIntegerv(pname, params, offset);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        GLES20.glEnable(cap);
+    }
+}
@@ -23,66 +23,49 @@ import android.opengl.EGLDisplay;
 import android.opengl.EGLSurface;
 import android.opengl.GLUtils;
 
+/**
+ * A window surface and a context to render to it with. Contexts are created in the
+ * {@link EGLShareGroup}, so GL objects outlive the render target that created them, and a
+ * {@link GLUploadThread} can upload them in the background.
+ */
 public class EGLRenderTarget {
     private EGLDisplay eglDisplay;
     private EGLConfig eglConfig;
     private EGLContext eglContext;
     private EGLSurface eglSurface;
+    private int glesVersion;
+    private GLUploadThread uploadThread;
 
     public EGLRenderTarget() {
         init();
     }
 
     private void init() {
-        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
-        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
-            abortWithEGLError("eglGetDisplay");
-        }
-
-        int[] version = new int[2];
-        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
-            abortWithEGLError("eglInitialize");
-        }
-
-        final int[] attributeList = {
-                EGL14.EGL_RED_SIZE, 8,
-                EGL14.EGL_GREEN_SIZE, 8,
-                EGL14.EGL_BLUE_SIZE, 8,
-                EGL14.EGL_ALPHA_SIZE, 8,
-                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
-                EGL14.EGL_NONE
-        };
-
-        EGLConfig[] configs = new EGLConfig[1];
-        int[] numConfigs = new int[1];
-        if (!EGL14.eglChooseConfig(
-                eglDisplay,
-                attributeList,
-                0,
-                configs,
-                0,
-                configs.length,
-                numConfigs,
-                0)) {
-            abortWithEGLError("eglChooseConfig");
-        }
-
-        if (numConfigs[0] <= 0) {
-            abortWithEGLError("No EGL config found for attribute list");
+        EGLShareGroup shareGroup = EGLShareGroup.get();
+        eglDisplay = shareGroup.getDisplay();
+        eglConfig = shareGroup.getConfig();
+        glesVersion = shareGroup.getGlesVersion();
+        eglContext = shareGroup.createContext();
+        if (eglContext == EGL14.EGL_NO_CONTEXT) {
+            abortWithEGLError("eglCreateContext");
         }
+    }
 
-        eglConfig = configs[0];
-
-        int[] contextAttribs = {
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
-                EGL14.EGL_NONE
-        };
-        eglContext = EGL14.eglCreateContext(
-                eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+    /** Returns the major GLES version of the context, 3 when available and 2 otherwise. */
+    public int getGlesVersion() {
+        return glesVersion;
+    }
 
-        if (eglContext == null) {
-            abortWithEGLError("eglCreateContext");
+    /**
+     * Returns a thread with a context shared with this target's, for uploads that shouldn't stall
+     * its rendering, starting it on first use. It ends with release.
+     */
+    public GLUploadThread getUploadThread() {
+        if (uploadThread == null) {
+            uploadThread = new GLUploadThread("GLUploadThread");
+            uploadThread.start();
         }
+        return uploadThread;
     }
 
     public void createRenderSurface(SurfaceTexture surfaceTexture) {
@@ -102,6 +85,7 @@ public class EGLRenderTarget {
         }
 
         makeCurrent();
+        GLBackend.prepareContext();
     }
 
     public void swapBuffers() {
@@ -123,7 +107,14 @@ public class EGLRenderTarget {
         }
     }
 
+    // The display stays initialized for the share group.
     public void release() {
+        if (uploadThread != null) {
+            uploadThread.release();
+            uploadThread = null;
+        }
+        EGL14.eglMakeCurrent(
+                eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
         EGL14.eglDestroySurface(eglDisplay, eglSurface);
         EGL14.eglDestroyContext(eglDisplay, eglContext);
         eglDisplay = EGL14.EGL_NO_DISPLAY;
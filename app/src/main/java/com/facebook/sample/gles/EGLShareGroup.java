@@ -0,0 +1,179 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLUtils;
+
+/**
+ * The process wide EGL share group every {@link EGLRenderTarget} creates its context in. A root
+ * context, never used for rendering, anchors the group, so that buffers, textures and programs
+ * outlive the surfaces and contexts of the views that created them, and a view that comes back
+ * after a rotation finds them still there.
+ */
+public class EGLShareGroup {
+    private static EGLShareGroup instance;
+
+    private final EGLDisplay eglDisplay;
+    private EGLConfig eglConfig;
+    private EGLContext rootContext;
+    private final EGLSurface rootSurface;
+    private int glesVersion;
+    private boolean rootContextPrepared;
+
+    private EGLShareGroup() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            abortWithEGLError("eglGetDisplay");
+        }
+
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            abortWithEGLError("eglInitialize");
+        }
+
+        // Prefer GLES 3.0, which renderers use for instancing, and fall back to GLES 2.0.
+        eglConfig = chooseConfig(EGLExt.EGL_OPENGL_ES3_BIT_KHR);
+        if (eglConfig != null) {
+            rootContext = createContext(3, EGL14.EGL_NO_CONTEXT);
+            glesVersion = 3;
+        }
+        if (rootContext == null || rootContext == EGL14.EGL_NO_CONTEXT) {
+            eglConfig = chooseConfig(EGL14.EGL_OPENGL_ES2_BIT);
+            if (eglConfig == null) {
+                abortWithEGLError("No EGL config found for attribute list");
+            }
+            rootContext = createContext(2, EGL14.EGL_NO_CONTEXT);
+            glesVersion = 2;
+        }
+        if (rootContext == null || rootContext == EGL14.EGL_NO_CONTEXT) {
+            abortWithEGLError("eglCreateContext");
+        }
+
+        // Lets the root context be made current on threads that have none, see runWithContext.
+        int[] surfaceAttribs = {
+                EGL14.EGL_WIDTH, 1,
+                EGL14.EGL_HEIGHT, 1,
+                EGL14.EGL_NONE
+        };
+        rootSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig, surfaceAttribs, 0);
+        if (rootSurface == null || rootSurface == EGL14.EGL_NO_SURFACE) {
+            abortWithEGLError("eglCreatePbufferSurface");
+        }
+    }
+
+    /** Returns the share group, creating it on first use. */
+    public static synchronized EGLShareGroup get() {
+        if (instance == null) {
+            instance = new EGLShareGroup();
+        }
+        return instance;
+    }
+
+    private EGLConfig chooseConfig(int renderableType) {
+        final int[] attributeList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(
+                eglDisplay,
+                attributeList,
+                0,
+                configs,
+                0,
+                configs.length,
+                numConfigs,
+                0)) {
+            abortWithEGLError("eglChooseConfig");
+        }
+
+        return numConfigs[0] > 0 ? configs[0] : null;
+    }
+
+    private EGLContext createContext(int clientVersion, EGLContext shareContext) {
+        int[] contextAttribs = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion,
+                EGL14.EGL_NONE
+        };
+        return EGL14.eglCreateContext(eglDisplay, eglConfig, shareContext, contextAttribs, 0);
+    }
+
+    /** Creates a context in the share group, or returns EGL_NO_CONTEXT on failure. */
+    public EGLContext createContext() {
+        EGLContext context = createContext(glesVersion, rootContext);
+        return context != null ? context : EGL14.EGL_NO_CONTEXT;
+    }
+
+    public EGLDisplay getDisplay() {
+        return eglDisplay;
+    }
+
+    /** The config every context and surface of the group is created with. */
+    public EGLConfig getConfig() {
+        return eglConfig;
+    }
+
+    /** Returns the major GLES version of the group's contexts, 3 when available and 2 otherwise. */
+    public int getGlesVersion() {
+        return glesVersion;
+    }
+
+    /**
+     * Runs {@code task} with a context of the share group current. A thread that already has a
+     * current context is assumed to be rendering with one of the group's; other threads, such as
+     * the UI thread, borrow the root context for the duration of the task.
+     */
+    public synchronized void runWithContext(Runnable task) {
+        if (EGL14.eglGetCurrentContext() != null
+                && EGL14.eglGetCurrentContext() != EGL14.EGL_NO_CONTEXT) {
+            task.run();
+            return;
+        }
+        if (!EGL14.eglMakeCurrent(eglDisplay, rootSurface, rootSurface, rootContext)) {
+            abortWithEGLError("eglMakeCurrent");
+        }
+        if (!rootContextPrepared) {
+            GLBackend.prepareContext();
+            rootContextPrepared = true;
+        }
+        try {
+            task.run();
+        } finally {
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                    EGL14.EGL_NO_CONTEXT);
+        }
+    }
+
+    private static void abortWithEGLError(String msg) {
+        int error = EGL14.eglGetError();
+        throw new RuntimeException(msg + ": EGL error: 0x" +
+                Integer.toHexString(error) + ": " +
+                GLUtils.getEGLErrorString(error));
+    }
+}
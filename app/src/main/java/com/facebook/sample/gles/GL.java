@@ -0,0 +1,109 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.graphics.Bitmap;
+
+import java.nio.Buffer;
+
+/**
+ * The GL calls the renderer makes, named and typed as in {@link android.opengl.GLES20} and
+ * {@link android.opengl.GLES30}, whose constants they take. Code gets the implementation in use
+ * from {@link GLBackend#get()} rather than calling the static bindings, so that the calls can be
+ * checked, or redirected, in one place.
+ */
+public interface GL {
+    // Buffers
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+    void glBindBuffer(int target, int buffer);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    // Textures
+    void glGenTextures(int n, int[] textures, int offset);
+    void glDeleteTextures(int n, int[] textures, int offset);
+    void glActiveTexture(int texture);
+    void glBindTexture(int target, int texture);
+    void glTexParameteri(int target, int pname, int param);
+    void glTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int format, int type, Buffer pixels);
+    void glCompressedTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int imageSize, Buffer data);
+    /** Uploads {@code bitmap} as {@link android.opengl.GLUtils#texImage2D} does. */
+    void texImage2D(int target, int level, Bitmap bitmap, int border);
+    void glGenerateMipmap(int target);
+
+    // Shaders and programs
+    int glCreateShader(int type);
+    void glShaderSource(int shader, String string);
+    void glCompileShader(int shader);
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    void glDeleteShader(int shader);
+    int glCreateProgram();
+    void glAttachShader(int program, int shader);
+    void glLinkProgram(int program);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetProgramInfoLog(int program);
+    void glDeleteProgram(int program);
+    void glUseProgram(int program);
+    int glGetAttribLocation(int program, String name);
+    int glGetUniformLocation(int program, String name);
+    void glProgramParameteri(int program, int pname, int value);
+    void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary);
+    void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+
+    // Uniforms and vertex attributes
+    void glUniform1i(int location, int x);
+    void glUniform4fv(int location, int count, float[] v, int offset);
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset);
+    void glEnableVertexAttribArray(int index);
+    void glDisableVertexAttribArray(int index);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            int offset);
+    void glVertexAttrib2f(int index, float x, float y);
+    void glVertexAttribDivisor(int index, int divisor);
+
+    // Drawing
+    void glViewport(int x, int y, int width, int height);
+    void glClearColor(float red, float green, float blue, float alpha);
+    void glClear(int mask);
+    void glDrawElements(int mode, int count, int type, int offset);
+    void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount);
+
+    // Queries
+    void glGenQueries(int n, int[] ids, int offset);
+    void glDeleteQueries(int n, int[] ids, int offset);
+    void glBeginQuery(int target, int id);
+    void glEndQuery(int target);
+    void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+
+    // Synchronization
+    long glFenceSync(int condition, int flags);
+    int glClientWaitSync(long sync, int flags, long timeout);
+    void glDeleteSync(long sync);
+    void glFlush();
+    void glFinish();
+
+    // State
+    int glGetError();
+    String glGetString(int name);
+    void glGetIntegerv(int pname, int[] params, int offset);
+    void glEnable(int cap);
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+/**
+ * Holds the {@link GL} every GL call goes through. Release builds keep the default, which
+ * forwards to the bindings with no checks; debug builds select validation once at startup,
+ * before any GL object is created, since objects keep the GL they were created with.
+ */
+public final class GLBackend {
+    private static GL gl = new AndroidGL();
+
+    private GLBackend() {}
+
+    public static GL get() {
+        return gl;
+    }
+
+    /** Replaces the GL calls go through, for instance with one that records them. */
+    public static void set(GL backend) {
+        gl = backend;
+    }
+
+    /** Selects whether GL calls are checked, see {@link ValidatingGL}. */
+    public static void setValidating(boolean validating) {
+        if (validating != isValidating()) {
+            gl = validating ? new ValidatingGL(gl) : ((ValidatingGL) gl).getDelegate();
+        }
+    }
+
+    public static boolean isValidating() {
+        return gl instanceof ValidatingGL;
+    }
+
+    /**
+     * Prepares the current context, once after it was first made current, for the calls of the
+     * selected GL: a validating one gets the driver's KHR_debug messages.
+     */
+    public static void prepareContext() {
+        if (gl instanceof ValidatingGL) {
+            ((ValidatingGL) gl).enableDebugOutput();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * A point in the command stream of a context up to which the GPU must have completed the work
+ * before other contexts of the {@link EGLShareGroup} may use what it created or changed. Polling
+ * it never blocks. GLES 2.0 has no sync objects, so there the thread inserting a fence waits for
+ * the GPU with glFinish instead, and the fence is signaled from the start.
+ */
+public class GLFence {
+    private static final String TAG = GLFence.class.getSimpleName();
+
+    private final GL gl = GLBackend.get();
+    private long sync;
+    private boolean signaled;
+
+    private GLFence() {}
+
+    /**
+     * Inserts a fence after the commands the current context has issued so far, and flushes
+     * them so that the fence can signal. {@code glesVersion} is the major GLES version of the
+     * context, as {@link EGLShareGroup#getGlesVersion} returns it or as read once per context
+     * with {@link GLHelpers#getGlesMajorVersion}, which is too slow to query for every fence.
+     */
+    public static GLFence insert(int glesVersion) {
+        GLFence fence = new GLFence();
+        GL gl = fence.gl;
+        if (glesVersion >= 3) {
+            fence.sync = gl.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            gl.glFlush();
+        }
+        if (fence.sync == 0) {
+            gl.glFinish();
+            fence.signaled = true;
+        }
+        return fence;
+    }
+
+    /**
+     * Returns whether the GPU has completed the commands before the fence. May be called from any
+     * context of the share group; the sync object is deleted once it has signaled.
+     */
+    public boolean isSignaled() {
+        if (!signaled) {
+            int status = gl.glClientWaitSync(sync, 0, 0);
+            if (status == GLES30.GL_WAIT_FAILED) {
+                // Waiting again won't help; carry on rather than stall forever.
+                Log.e(TAG, "glClientWaitSync failed: 0x"
+                        + Integer.toHexString(gl.glGetError()));
+            }
+            signaled = status != GLES30.GL_TIMEOUT_EXPIRED;
+        }
+        if (signaled && sync != 0) {
+            gl.glDeleteSync(sync);
+            sync = 0;
+        }
+        return signaled;
+    }
+}
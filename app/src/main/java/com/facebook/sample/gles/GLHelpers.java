@@ -21,8 +21,16 @@ import android.util.Log;
 public class GLHelpers {
     private static final String TAG = GLHelpers.class.getSimpleName();
 
+    /**
+     * Throws if a GL call before this one failed, when the calls go through a validating GL.
+     * Otherwise it returns at once: glGetError waits for the driver, which release builds can't
+     * afford on every draw.
+     */
     public static void checkGlError(String op) {
-        int error = GLES20.glGetError();
+        if (!GLBackend.isValidating()) {
+            return;
+        }
+        int error = GLBackend.get().glGetError();
         if (error == GLES20.GL_NO_ERROR) {
             return;
         }
@@ -30,4 +38,32 @@ public class GLHelpers {
         Log.e(TAG, msg);
         throw new RuntimeException(msg);
     }
+
+    /** Returns whether the current context advertises {@code extension} in GL_EXTENSIONS. */
+    public static boolean hasExtension(String extension) {
+        String extensions = GLBackend.get().glGetString(GLES20.GL_EXTENSIONS);
+        if (extensions == null) {
+            return false;
+        }
+        for (String name : extensions.split(" ")) {
+            if (name.equals(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the major GLES version of the current context, parsed from GL_VERSION, which reads
+     * "OpenGL ES N.M" followed by vendor details. Returns 2 if the string can't be parsed.
+     */
+    public static int getGlesMajorVersion() {
+        String version = GLBackend.get().glGetString(GLES20.GL_VERSION);
+        String prefix = "OpenGL ES ";
+        if (version != null && version.startsWith(prefix) && version.length() > prefix.length()
+                && Character.isDigit(version.charAt(prefix.length()))) {
+            return Character.digit(version.charAt(prefix.length()), 10);
+        }
+        return 2;
+    }
 }
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.opengl.GLES20;
+
+import java.util.Arrays;
+
+/**
+ * Shadows the GL state a renderer changes per draw and only issues calls that change it. Counts
+ * the calls issued and skipped so the savings can be measured.
+ *
+ * The cache assumes it sees every change to the state it tracks. Call {@link #invalidate()}
+ * whenever other code may have touched the context, or after deleting bound objects.
+ */
+public class GLStateCache {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_ATTRIBUTES = 16;
+
+    private final GL gl = GLBackend.get();
+    private int program;
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+    private int texture2D; // bound to texture unit 0, the only one renderers use
+    private final int[] attributeEnabled = new int[MAX_ATTRIBUTES]; // UNKNOWN, 0 or 1
+    // Buffer, size, type, normalized, stride and offset of each attribute's last pointer.
+    private final int[] attributePointers = new int[MAX_ATTRIBUTES * 6];
+
+    private int issuedCallCount;
+    private int skippedCallCount;
+
+    public GLStateCache() {
+        invalidate();
+    }
+
+    /** Forgets all tracked state, so the next call of each kind is always issued. */
+    public void invalidate() {
+        program = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        texture2D = UNKNOWN;
+        Arrays.fill(attributeEnabled, UNKNOWN);
+        Arrays.fill(attributePointers, UNKNOWN);
+    }
+
+    public void resetCounters() {
+        issuedCallCount = 0;
+        skippedCallCount = 0;
+    }
+
+    public int getIssuedCallCount() {
+        return issuedCallCount;
+    }
+
+    public int getSkippedCallCount() {
+        return skippedCallCount;
+    }
+
+    public void useProgram(int program) {
+        if (this.program == program) {
+            ++skippedCallCount;
+            return;
+        }
+        this.program = program;
+        ++issuedCallCount;
+        gl.glUseProgram(program);
+    }
+
+    public void bindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            if (arrayBuffer == buffer) {
+                ++skippedCallCount;
+                return;
+            }
+            arrayBuffer = buffer;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (elementArrayBuffer == buffer) {
+                ++skippedCallCount;
+                return;
+            }
+            elementArrayBuffer = buffer;
+        }
+        ++issuedCallCount;
+        gl.glBindBuffer(target, buffer);
+    }
+
+    /** Binds a GL_TEXTURE_2D texture to texture unit 0, which must be the active unit. */
+    public void bindTexture2D(int texture) {
+        if (texture2D == texture) {
+            ++skippedCallCount;
+            return;
+        }
+        texture2D = texture;
+        ++issuedCallCount;
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+    }
+
+    public void enableVertexAttribArray(int index) {
+        setVertexAttribArrayEnabled(index, true);
+    }
+
+    public void disableVertexAttribArray(int index) {
+        setVertexAttribArrayEnabled(index, false);
+    }
+
+    private void setVertexAttribArrayEnabled(int index, boolean enabled) {
+        int state = enabled ? 1 : 0;
+        if (index < MAX_ATTRIBUTES) {
+            if (attributeEnabled[index] == state) {
+                ++skippedCallCount;
+                return;
+            }
+            attributeEnabled[index] = state;
+        }
+        ++issuedCallCount;
+        if (enabled) {
+            gl.glEnableVertexAttribArray(index);
+        } else {
+            gl.glDisableVertexAttribArray(index);
+        }
+    }
+
+    /** Sets a pointer into the bound GL_ARRAY_BUFFER, which must be bound through this cache. */
+    public void vertexAttribPointer(
+            int index, int size, int type, boolean normalized, int stride, int offset) {
+        if (index < MAX_ATTRIBUTES) {
+            int base = index * 6;
+            int normalizedValue = normalized ? 1 : 0;
+            if (arrayBuffer != UNKNOWN
+                    && attributePointers[base] == arrayBuffer
+                    && attributePointers[base + 1] == size
+                    && attributePointers[base + 2] == type
+                    && attributePointers[base + 3] == normalizedValue
+                    && attributePointers[base + 4] == stride
+                    && attributePointers[base + 5] == offset) {
+                ++skippedCallCount;
+                return;
+            }
+            attributePointers[base] = arrayBuffer;
+            attributePointers[base + 1] = size;
+            attributePointers[base + 2] = type;
+            attributePointers[base + 3] = normalizedValue;
+            attributePointers[base + 4] = stride;
+            attributePointers[base + 5] = offset;
+        }
+        ++issuedCallCount;
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLUtils;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * A thread with a context of its own in the {@link EGLShareGroup}, current on a 1x1 pbuffer
+ * surface, that uploads buffers and textures while render threads keep drawing. Posted tasks run
+ * in order. Other contexts must only use what a task created or changed once a {@link GLFence}
+ * the task inserted after its work has signaled.
+ */
+public class GLUploadThread extends HandlerThread {
+    private Handler handler;
+
+    private EGLDisplay eglDisplay;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+
+    public GLUploadThread(String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+
+        handler = new Handler(getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                createContext();
+            }
+        });
+    }
+
+    /** Runs {@code task} on the thread, with its context current. */
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    /** Lets the tasks posted so far run, then destroys the context and ends the thread. */
+    public void release() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                destroyContext();
+                quit();
+            }
+        });
+    }
+
+    private void createContext() {
+        EGLShareGroup shareGroup = EGLShareGroup.get();
+        eglDisplay = shareGroup.getDisplay();
+        eglContext = shareGroup.createContext();
+        if (eglContext == EGL14.EGL_NO_CONTEXT) {
+            abortWithEGLError("eglCreateContext");
+        }
+        int[] surfaceAttribs = {
+                EGL14.EGL_WIDTH, 1,
+                EGL14.EGL_HEIGHT, 1,
+                EGL14.EGL_NONE
+        };
+        eglSurface = EGL14.eglCreatePbufferSurface(
+                eglDisplay, shareGroup.getConfig(), surfaceAttribs, 0);
+        if (eglSurface == null || eglSurface == EGL14.EGL_NO_SURFACE) {
+            abortWithEGLError("eglCreatePbufferSurface");
+        }
+        if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+            abortWithEGLError("eglMakeCurrent");
+        }
+        GLBackend.prepareContext();
+    }
+
+    private void destroyContext() {
+        EGL14.eglMakeCurrent(
+                eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(eglDisplay, eglSurface);
+        EGL14.eglDestroyContext(eglDisplay, eglContext);
+        eglSurface = EGL14.EGL_NO_SURFACE;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+    }
+
+    private static void abortWithEGLError(String msg) {
+        int error = EGL14.eglGetError();
+        throw new RuntimeException(msg + ": EGL error: 0x" +
+                Integer.toHexString(error) + ": " +
+                GLUtils.getEGLErrorString(error));
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.opengl.GLES30;
+
+/**
+ * Measures how long the GPU spends on the commands between {@link #begin} and {@link #end} with
+ * EXT_disjoint_timer_query. Results arrive a few frames late, so a small ring of queries is kept
+ * in flight and {@link #poll} returns the oldest one once it is available, without waiting.
+ *
+ * The Java bindings only reach the query functions through GLES 3.0, where the extension's
+ * functions are the core ones, so GLES 2.0 contexts have no timer.
+ */
+public class GpuTimer {
+    // From EXT_disjoint_timer_query, which the bindings have no constants for.
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private static final int QUERY_COUNT = 4;
+
+    private final GL gl = GLBackend.get();
+    private final int[] queries = new int[QUERY_COUNT];
+    private final int[] result = new int[1];
+    private int first;   // oldest query in flight
+    private int pending; // queries in flight
+    private boolean running;
+
+    private GpuTimer() {}
+
+    /** Returns a timer for the current context, or null if it can't time GPU work. */
+    public static GpuTimer create() {
+        if (GLHelpers.getGlesMajorVersion() < 3
+                || !GLHelpers.hasExtension("GL_EXT_disjoint_timer_query")) {
+            return null;
+        }
+        GpuTimer timer = new GpuTimer();
+        timer.gl.glGenQueries(QUERY_COUNT, timer.queries, 0);
+        // Reading the flag clears it, so only disjoint events after this one are seen.
+        timer.gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, timer.result, 0);
+        return timer;
+    }
+
+    /** Starts timing, unless every query is still in flight; then this frame goes untimed. */
+    public void begin() {
+        if (pending == QUERY_COUNT) {
+            return;
+        }
+        gl.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[(first + pending) % QUERY_COUNT]);
+        running = true;
+    }
+
+    public void end() {
+        if (!running) {
+            return;
+        }
+        gl.glEndQuery(GL_TIME_ELAPSED_EXT);
+        running = false;
+        ++pending;
+    }
+
+    /**
+     * Returns the GPU nanoseconds of the oldest timing still to be read if it is available, and
+     * -1 otherwise. After a disjoint event, such as a frequency change, the timings in flight
+     * are meaningless and dropped.
+     */
+    public long poll() {
+        if (pending == 0) {
+            return -1;
+        }
+        gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+        if (result[0] != 0) {
+            first = (first + pending) % QUERY_COUNT;
+            pending = 0;
+            return -1;
+        }
+        int query = queries[first];
+        gl.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+        if (result[0] == 0) {
+            return -1;
+        }
+        gl.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, result, 0);
+        first = (first + 1) % QUERY_COUNT;
+        --pending;
+        // 32 bits of nanoseconds hold a little over 4 seconds, far beyond any frame.
+        return result[0] & 0xffffffffL;
+    }
+
+    /** Deletes the queries. Needs the timer's context current. */
+    public void release() {
+        gl.glDeleteQueries(QUERY_COUNT, queries, 0);
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Linked programs saved to disk with glGetProgramBinary, so that later runs load them with
+ * glProgramBinary instead of compiling and linking their shaders. Each binary is stored under the
+ * SHA-1 of its shader sources, with the GL vendor, renderer and version strings of the driver that
+ * produced it; a binary from another driver, or one the driver rejects, is deleted and the
+ * program is compiled again.
+ *
+ * Program binaries are core in GLES 3.0. On GLES 2.0, where the Android bindings don't expose
+ * OES_get_program_binary, the cache does nothing and programs are always compiled.
+ */
+public class ProgramBinaryCache {
+    private static final String TAG = ProgramBinaryCache.class.getSimpleName();
+
+    private static final int FILE_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final GL gl = GLBackend.get();
+    private final File directory;
+    private boolean capabilitiesKnown;
+    private boolean supported;
+    private int[] formats; // the binary formats the driver loads
+    private String driver;
+    private int hitCount;
+    private int missCount;
+
+    /** Creates a cache of the binaries in {@code directory}, which is created if needed. */
+    public ProgramBinaryCache(File directory) {
+        this.directory = directory;
+    }
+
+    /** Returns how many programs were loaded from a binary. */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /** Returns how many programs had no usable binary and were compiled. */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /** Returns whether the current context can save and load program binaries. */
+    synchronized boolean isSupported() {
+        if (!capabilitiesKnown) {
+            int[] formatCount = new int[1];
+            if (GLHelpers.getGlesMajorVersion() >= 3) {
+                gl.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+            }
+            formats = new int[formatCount[0]];
+            if (formats.length > 0) {
+                gl.glGetIntegerv(GLES30.GL_PROGRAM_BINARY_FORMATS, formats, 0);
+            }
+            supported = formats.length > 0;
+            driver = gl.glGetString(GLES20.GL_VENDOR) + '\n'
+                    + gl.glGetString(GLES20.GL_RENDERER) + '\n'
+                    + gl.glGetString(GLES20.GL_VERSION);
+            capabilitiesKnown = true;
+        }
+        return supported;
+    }
+
+    /**
+     * Returns a program loaded from the saved binary of the two shaders, or 0 if there is none
+     * the driver accepts.
+     */
+    synchronized int load(String vertexSource, String fragmentSource) {
+        if (!isSupported()) {
+            return 0;
+        }
+        File file = getFile(vertexSource, fragmentSource);
+        if (!file.exists()) {
+            ++missCount;
+            return 0;
+        }
+        int format = 0;
+        byte[] binary = null;
+        try {
+            DataInputStream input = new DataInputStream(new FileInputStream(file));
+            try {
+                if (input.readInt() == FILE_VERSION && driver.equals(input.readUTF())) {
+                    format = input.readInt();
+                    int length = input.readInt();
+                    if (length < 0) {
+                        throw new IOException("Negative binary length " + length);
+                    }
+                    binary = new byte[length];
+                    input.readFully(binary);
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            discard(file, "could not be read: " + e.getMessage());
+            return 0;
+        }
+        if (binary == null) {
+            discard(file, "was saved by another driver");
+            return 0;
+        }
+        if (!isFormatSupported(format)) {
+            // glProgramBinary would fail with GL_INVALID_ENUM.
+            discard(file, "has a format the driver doesn't load");
+            return 0;
+        }
+
+        int program = gl.glCreateProgram();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length);
+        buffer.put(binary).rewind();
+        gl.glProgramBinary(program, format, buffer, binary.length);
+        int[] linkStatus = new int[1];
+        // A binary of a supported format that the driver rejects only fails to link.
+        gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            gl.glDeleteProgram(program);
+            discard(file, "was rejected by the driver");
+            return 0;
+        }
+        ++hitCount;
+        return program;
+    }
+
+    /** Saves the binary of {@code program}, linked from the two shaders. */
+    synchronized void save(String vertexSource, String fragmentSource, int program) {
+        if (!isSupported()) {
+            return;
+        }
+        int[] length = new int[1];
+        gl.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]);
+        int[] format = new int[1];
+        gl.glGetProgramBinary(program, length[0], length, 0, format, 0, buffer);
+        GLHelpers.checkGlError("glGetProgramBinary");
+        byte[] binary = new byte[length[0]];
+        buffer.get(binary);
+
+        // Written aside and renamed, so that a crash never leaves a partial binary behind.
+        File file = getFile(vertexSource, fragmentSource);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary));
+            try {
+                output.writeInt(FILE_VERSION);
+                output.writeUTF(driver);
+                output.writeInt(format[0]);
+                output.writeInt(binary.length);
+                output.write(binary);
+            } finally {
+                output.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not rename " + temporary);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save program binary: " + e.getMessage());
+            temporary.delete();
+        }
+    }
+
+    private boolean isFormatSupported(int format) {
+        for (int supportedFormat : formats) {
+            if (supportedFormat == format) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void discard(File file, String reason) {
+        Log.i(TAG, "Program binary " + file.getName() + " " + reason + ", recompiling");
+        file.delete();
+        ++missCount;
+    }
+
+    private File getFile(String vertexSource, String fragmentSource) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Android release provides SHA-1
+        }
+        digest.update(vertexSource.getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(fragmentSource.getBytes(UTF_8));
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(directory, name.append(".bin").toString());
+    }
+}
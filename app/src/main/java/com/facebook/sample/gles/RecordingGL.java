@@ -0,0 +1,626 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Records the calls made to it instead of issuing them, so that loads and frames run without a
+ * GPU, on a plain JVM included, and what they would have sent to the driver can be measured:
+ * how many calls of each kind, how many bytes of buffer and texture data, and the calls
+ * themselves with their arguments.
+ *
+ * The stream of calls is a compact int array. Each call is its {@link Call} ordinal, the number
+ * of arguments that follow, and the arguments: ints as they are, booleans as 0 or 1, floats as
+ * their raw bits, longs as two ints, high first, buffers, strings and bitmaps as their size. Array
+ * arguments aren't recorded.
+ *
+ * Queries answer as a driver that succeeds at everything would: names count up from 1, shaders
+ * compile, programs link, fences are signaled and there are never errors.
+ */
+public class RecordingGL implements GL {
+    /** The calls of {@link GL}, in its order. */
+    public enum Call {
+        GEN_BUFFERS, DELETE_BUFFERS, BIND_BUFFER, BUFFER_DATA, BUFFER_SUB_DATA, GEN_TEXTURES,
+        DELETE_TEXTURES, ACTIVE_TEXTURE, BIND_TEXTURE, TEX_PARAMETERI, TEX_IMAGE2D,
+        COMPRESSED_TEX_IMAGE2D, TEX_IMAGE2D_BITMAP, GENERATE_MIPMAP, CREATE_SHADER, SHADER_SOURCE,
+        COMPILE_SHADER, GET_SHADERIV, GET_SHADER_INFO_LOG, DELETE_SHADER, CREATE_PROGRAM,
+        ATTACH_SHADER, LINK_PROGRAM, GET_PROGRAMIV, GET_PROGRAM_INFO_LOG, DELETE_PROGRAM,
+        USE_PROGRAM, GET_ATTRIB_LOCATION, GET_UNIFORM_LOCATION, PROGRAM_PARAMETERI,
+        GET_PROGRAM_BINARY, PROGRAM_BINARY, UNIFORM1I, UNIFORM4FV, UNIFORM_MATRIX4FV,
+        ENABLE_VERTEX_ATTRIB_ARRAY, DISABLE_VERTEX_ATTRIB_ARRAY, VERTEX_ATTRIB_POINTER,
+        VERTEX_ATTRIB2F, VERTEX_ATTRIB_DIVISOR, VIEWPORT, CLEAR_COLOR, CLEAR, DRAW_ELEMENTS,
+        DRAW_ELEMENTS_INSTANCED, GEN_QUERIES, DELETE_QUERIES, BEGIN_QUERY, END_QUERY,
+        GET_QUERY_OBJECTUIV, FENCE_SYNC, CLIENT_WAIT_SYNC, DELETE_SYNC, FLUSH, FINISH, GET_ERROR,
+        GET_STRING, GET_INTEGERV, ENABLE
+    }
+
+    private static final int CALL_COUNT = Call.values().length;
+
+    private final int glesMajorVersion;
+    private final String extensions;
+    private int[] commands = new int[1024];
+    private int size;
+    private final int[] callCounts = new int[CALL_COUNT];
+    private long uploadedBytes;
+    private int nextName = 1;
+    private final HashMap<String, Integer> attributeLocations = new HashMap<>();
+    private final HashMap<String, Integer> uniformLocations = new HashMap<>();
+
+    /** Records the calls of a GLES 3.0 context without extensions. */
+    public RecordingGL() {
+        this(3, "");
+    }
+
+    /**
+     * Records the calls of a context of the GLES major version, advertising the extensions, a
+     * space separated list as GL_EXTENSIONS returns.
+     */
+    public RecordingGL(int glesMajorVersion, String extensions) {
+        this.glesMajorVersion = glesMajorVersion;
+        this.extensions = extensions;
+    }
+
+    /** Returns how many times {@code call} was made since the last reset. */
+    public synchronized int getCallCount(Call call) {
+        return callCounts[call.ordinal()];
+    }
+
+    /** Returns how many calls were made since the last reset. */
+    public synchronized int getCallCount() {
+        int count = 0;
+        for (int callCount : callCounts) {
+            count += callCount;
+        }
+        return count;
+    }
+
+    /** Returns the bytes of buffer and texture data uploaded since the last reset. */
+    public synchronized long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /** Returns a copy of the calls recorded since the last reset, in the format described above. */
+    public synchronized int[] getCommands() {
+        return Arrays.copyOf(commands, size);
+    }
+
+    /**
+     * Forgets the calls, counts and bytes recorded so far, for instance at the start of a frame.
+     * Names and locations handed out stay valid.
+     */
+    public synchronized void reset() {
+        size = 0;
+        Arrays.fill(callCounts, 0);
+        uploadedBytes = 0;
+    }
+
+    @Override
+    public synchronized void glGenBuffers(int n, int[] buffers, int offset) {
+        recordNames(Call.GEN_BUFFERS, n, buffers, offset);
+    }
+
+    @Override
+    public synchronized void glDeleteBuffers(int n, int[] buffers, int offset) {
+        begin(Call.DELETE_BUFFERS, 1);
+        put(n);
+    }
+
+    @Override
+    public synchronized void glBindBuffer(int target, int buffer) {
+        begin(Call.BIND_BUFFER, 2);
+        put(target);
+        put(buffer);
+    }
+
+    @Override
+    public synchronized void glBufferData(int target, int size, Buffer data, int usage) {
+        begin(Call.BUFFER_DATA, 4);
+        put(target);
+        put(size);
+        put(getByteSize(data));
+        put(usage);
+        if (data != null) {
+            uploadedBytes += size;
+        }
+    }
+
+    @Override
+    public synchronized void glBufferSubData(int target, int offset, int size, Buffer data) {
+        begin(Call.BUFFER_SUB_DATA, 3);
+        put(target);
+        put(offset);
+        put(size);
+        uploadedBytes += size;
+    }
+
+    @Override
+    public synchronized void glGenTextures(int n, int[] textures, int offset) {
+        recordNames(Call.GEN_TEXTURES, n, textures, offset);
+    }
+
+    @Override
+    public synchronized void glDeleteTextures(int n, int[] textures, int offset) {
+        begin(Call.DELETE_TEXTURES, 1);
+        put(n);
+    }
+
+    @Override
+    public synchronized void glActiveTexture(int texture) {
+        begin(Call.ACTIVE_TEXTURE, 1);
+        put(texture);
+    }
+
+    @Override
+    public synchronized void glBindTexture(int target, int texture) {
+        begin(Call.BIND_TEXTURE, 2);
+        put(target);
+        put(texture);
+    }
+
+    @Override
+    public synchronized void glTexParameteri(int target, int pname, int param) {
+        begin(Call.TEX_PARAMETERI, 3);
+        put(target);
+        put(pname);
+        put(param);
+    }
+
+    @Override
+    public synchronized void glTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int format, int type, Buffer pixels) {
+        begin(Call.TEX_IMAGE2D, 9);
+        put(target);
+        put(level);
+        put(internalformat);
+        put(width);
+        put(height);
+        put(border);
+        put(format);
+        put(type);
+        put(getByteSize(pixels));
+        uploadedBytes += getByteSize(pixels);
+    }
+
+    @Override
+    public synchronized void glCompressedTexImage2D(int target, int level, int internalformat,
+            int width, int height, int border, int imageSize, Buffer data) {
+        begin(Call.COMPRESSED_TEX_IMAGE2D, 7);
+        put(target);
+        put(level);
+        put(internalformat);
+        put(width);
+        put(height);
+        put(border);
+        put(imageSize);
+        uploadedBytes += imageSize;
+    }
+
+    @Override
+    public synchronized void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        begin(Call.TEX_IMAGE2D_BITMAP, 3);
+        put(target);
+        put(level);
+        put(border);
+        uploadedBytes += bitmap.getByteCount();
+    }
+
+    @Override
+    public synchronized void glGenerateMipmap(int target) {
+        begin(Call.GENERATE_MIPMAP, 1);
+        put(target);
+    }
+
+    @Override
+    public synchronized int glCreateShader(int type) {
+        begin(Call.CREATE_SHADER, 1);
+        put(type);
+        return nextName++;
+    }
+
+    @Override
+    public synchronized void glShaderSource(int shader, String string) {
+        begin(Call.SHADER_SOURCE, 2);
+        put(shader);
+        put(string.length());
+    }
+
+    @Override
+    public synchronized void glCompileShader(int shader) {
+        begin(Call.COMPILE_SHADER, 1);
+        put(shader);
+    }
+
+    @Override
+    public synchronized void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        begin(Call.GET_SHADERIV, 2);
+        put(shader);
+        put(pname);
+        params[offset] = pname == GLES20.GL_COMPILE_STATUS ? GLES20.GL_TRUE : 0;
+    }
+
+    @Override
+    public synchronized String glGetShaderInfoLog(int shader) {
+        begin(Call.GET_SHADER_INFO_LOG, 1);
+        put(shader);
+        return "";
+    }
+
+    @Override
+    public synchronized void glDeleteShader(int shader) {
+        begin(Call.DELETE_SHADER, 1);
+        put(shader);
+    }
+
+    @Override
+    public synchronized int glCreateProgram() {
+        begin(Call.CREATE_PROGRAM, 0);
+        return nextName++;
+    }
+
+    @Override
+    public synchronized void glAttachShader(int program, int shader) {
+        begin(Call.ATTACH_SHADER, 2);
+        put(program);
+        put(shader);
+    }
+
+    @Override
+    public synchronized void glLinkProgram(int program) {
+        begin(Call.LINK_PROGRAM, 1);
+        put(program);
+    }
+
+    @Override
+    public synchronized void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        begin(Call.GET_PROGRAMIV, 2);
+        put(program);
+        put(pname);
+        params[offset] = pname == GLES20.GL_LINK_STATUS ? GLES20.GL_TRUE : 0;
+    }
+
+    @Override
+    public synchronized String glGetProgramInfoLog(int program) {
+        begin(Call.GET_PROGRAM_INFO_LOG, 1);
+        put(program);
+        return "";
+    }
+
+    @Override
+    public synchronized void glDeleteProgram(int program) {
+        begin(Call.DELETE_PROGRAM, 1);
+        put(program);
+    }
+
+    @Override
+    public synchronized void glUseProgram(int program) {
+        begin(Call.USE_PROGRAM, 1);
+        put(program);
+    }
+
+    @Override
+    public synchronized int glGetAttribLocation(int program, String name) {
+        begin(Call.GET_ATTRIB_LOCATION, 1);
+        put(program);
+        // Four locations apart, so that matrix attributes never overlap the next attribute.
+        return getLocation(attributeLocations, name) * 4;
+    }
+
+    @Override
+    public synchronized int glGetUniformLocation(int program, String name) {
+        begin(Call.GET_UNIFORM_LOCATION, 1);
+        put(program);
+        return getLocation(uniformLocations, name);
+    }
+
+    @Override
+    public synchronized void glProgramParameteri(int program, int pname, int value) {
+        begin(Call.PROGRAM_PARAMETERI, 3);
+        put(program);
+        put(pname);
+        put(value);
+    }
+
+    @Override
+    public synchronized void glGetProgramBinary(int program, int bufSize, int[] length,
+            int lengthOffset, int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        begin(Call.GET_PROGRAM_BINARY, 2);
+        put(program);
+        put(bufSize);
+        length[lengthOffset] = 0;
+    }
+
+    @Override
+    public synchronized void glProgramBinary(int program, int binaryFormat, Buffer binary,
+            int length) {
+        begin(Call.PROGRAM_BINARY, 4);
+        put(program);
+        put(binaryFormat);
+        put(getByteSize(binary));
+        put(length);
+    }
+
+    @Override
+    public synchronized void glUniform1i(int location, int x) {
+        begin(Call.UNIFORM1I, 2);
+        put(location);
+        put(x);
+    }
+
+    @Override
+    public synchronized void glUniform4fv(int location, int count, float[] v, int offset) {
+        begin(Call.UNIFORM4FV, 2);
+        put(location);
+        put(count);
+    }
+
+    @Override
+    public synchronized void glUniformMatrix4fv(int location, int count, boolean transpose,
+            float[] value, int offset) {
+        begin(Call.UNIFORM_MATRIX4FV, 3);
+        put(location);
+        put(count);
+        put(transpose ? 1 : 0);
+    }
+
+    @Override
+    public synchronized void glEnableVertexAttribArray(int index) {
+        begin(Call.ENABLE_VERTEX_ATTRIB_ARRAY, 1);
+        put(index);
+    }
+
+    @Override
+    public synchronized void glDisableVertexAttribArray(int index) {
+        begin(Call.DISABLE_VERTEX_ATTRIB_ARRAY, 1);
+        put(index);
+    }
+
+    @Override
+    public synchronized void glVertexAttribPointer(int index, int size, int type,
+            boolean normalized, int stride, int offset) {
+        begin(Call.VERTEX_ATTRIB_POINTER, 6);
+        put(index);
+        put(size);
+        put(type);
+        put(normalized ? 1 : 0);
+        put(stride);
+        put(offset);
+    }
+
+    @Override
+    public synchronized void glVertexAttrib2f(int index, float x, float y) {
+        begin(Call.VERTEX_ATTRIB2F, 3);
+        put(index);
+        put(Float.floatToRawIntBits(x));
+        put(Float.floatToRawIntBits(y));
+    }
+
+    @Override
+    public synchronized void glVertexAttribDivisor(int index, int divisor) {
+        begin(Call.VERTEX_ATTRIB_DIVISOR, 2);
+        put(index);
+        put(divisor);
+    }
+
+    @Override
+    public synchronized void glViewport(int x, int y, int width, int height) {
+        begin(Call.VIEWPORT, 4);
+        put(x);
+        put(y);
+        put(width);
+        put(height);
+    }
+
+    @Override
+    public synchronized void glClearColor(float red, float green, float blue, float alpha) {
+        begin(Call.CLEAR_COLOR, 4);
+        put(Float.floatToRawIntBits(red));
+        put(Float.floatToRawIntBits(green));
+        put(Float.floatToRawIntBits(blue));
+        put(Float.floatToRawIntBits(alpha));
+    }
+
+    @Override
+    public synchronized void glClear(int mask) {
+        begin(Call.CLEAR, 1);
+        put(mask);
+    }
+
+    @Override
+    public synchronized void glDrawElements(int mode, int count, int type, int offset) {
+        begin(Call.DRAW_ELEMENTS, 4);
+        put(mode);
+        put(count);
+        put(type);
+        put(offset);
+    }
+
+    @Override
+    public synchronized void glDrawElementsInstanced(int mode, int count, int type, int offset,
+            int instanceCount) {
+        begin(Call.DRAW_ELEMENTS_INSTANCED, 5);
+        put(mode);
+        put(count);
+        put(type);
+        put(offset);
+        put(instanceCount);
+    }
+
+    @Override
+    public synchronized void glGenQueries(int n, int[] ids, int offset) {
+        recordNames(Call.GEN_QUERIES, n, ids, offset);
+    }
+
+    @Override
+    public synchronized void glDeleteQueries(int n, int[] ids, int offset) {
+        begin(Call.DELETE_QUERIES, 1);
+        put(n);
+    }
+
+    @Override
+    public synchronized void glBeginQuery(int target, int id) {
+        begin(Call.BEGIN_QUERY, 2);
+        put(target);
+        put(id);
+    }
+
+    @Override
+    public synchronized void glEndQuery(int target) {
+        begin(Call.END_QUERY, 1);
+        put(target);
+    }
+
+    @Override
+    public synchronized void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        begin(Call.GET_QUERY_OBJECTUIV, 2);
+        put(id);
+        put(pname);
+        // Every query is available at once, and measured nothing.
+        params[offset] = pname == GLES30.GL_QUERY_RESULT_AVAILABLE ? GLES20.GL_TRUE : 0;
+    }
+
+    @Override
+    public synchronized long glFenceSync(int condition, int flags) {
+        begin(Call.FENCE_SYNC, 2);
+        put(condition);
+        put(flags);
+        return nextName++;
+    }
+
+    @Override
+    public synchronized int glClientWaitSync(long sync, int flags, long timeout) {
+        begin(Call.CLIENT_WAIT_SYNC, 4);
+        putLong(sync);
+        put(flags);
+        // There is no GPU to wait for.
+        return GLES30.GL_ALREADY_SIGNALED;
+    }
+
+    @Override
+    public synchronized void glDeleteSync(long sync) {
+        begin(Call.DELETE_SYNC, 2);
+        putLong(sync);
+    }
+
+    @Override
+    public synchronized void glFlush() {
+        begin(Call.FLUSH, 0);
+    }
+
+    @Override
+    public synchronized void glFinish() {
+        begin(Call.FINISH, 0);
+    }
+
+    @Override
+    public synchronized int glGetError() {
+        begin(Call.GET_ERROR, 0);
+        return GLES20.GL_NO_ERROR;
+    }
+
+    @Override
+    public synchronized String glGetString(int name) {
+        begin(Call.GET_STRING, 1);
+        put(name);
+        switch (name) {
+            case GLES20.GL_VERSION:
+                return "OpenGL ES " + glesMajorVersion + ".0 RecordingGL";
+            case GLES20.GL_EXTENSIONS:
+                return extensions;
+            default:
+                return "RecordingGL";
+        }
+    }
+
+    @Override
+    public synchronized void glGetIntegerv(int pname, int[] params, int offset) {
+        begin(Call.GET_INTEGERV, 1);
+        put(pname);
+        // No program binary formats, no disjoint timer events, no limits worth reporting.
+        params[offset] = 0;
+    }
+
+    @Override
+    public synchronized void glEnable(int cap) {
+        begin(Call.ENABLE, 1);
+        put(cap);
+    }
+
+    private void begin(Call call, int argumentCount) {
+        if (size + 2 + argumentCount > commands.length) {
+            commands = Arrays.copyOf(commands, Math.max(commands.length * 2,
+                    size + 2 + argumentCount));
+        }
+        commands[size++] = call.ordinal();
+        commands[size++] = argumentCount;
+        ++callCounts[call.ordinal()];
+    }
+
+    private void put(int value) {
+        commands[size++] = value;
+    }
+
+    private void putLong(long value) {
+        put((int) (value >>> 32));
+        put((int) value);
+    }
+
+    private void recordNames(Call call, int n, int[] names, int offset) {
+        begin(call, 1);
+        put(n);
+        for (int i = 0; i < n; ++i) {
+            names[offset + i] = nextName++;
+        }
+    }
+
+    // Each name gets the next free location, the same in every program.
+    private static int getLocation(HashMap<String, Integer> locations, String name) {
+        Integer location = locations.get(name);
+        if (location == null) {
+            location = locations.size();
+            locations.put(name, location);
+        }
+        return location;
+    }
+
+    private static int getByteSize(Buffer buffer) {
+        if (buffer == null) {
+            return 0;
+        }
+        int elementSize;
+        if (buffer instanceof ByteBuffer) {
+            elementSize = 1;
+        } else if (buffer instanceof ShortBuffer || buffer instanceof CharBuffer) {
+            elementSize = 2;
+        } else if (buffer instanceof DoubleBuffer || buffer instanceof LongBuffer) {
+            elementSize = 8;
+        } else {
+            elementSize = 4;
+        }
+        return buffer.remaining() * elementSize;
+    }
+}
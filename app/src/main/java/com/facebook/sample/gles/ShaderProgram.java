@@ -16,15 +16,33 @@
 package com.facebook.sample.gles;
 
 import android.opengl.GLES20;
-import android.util.Log;
+import android.opengl.GLES30;
 
+/**
+ * A linked GL program. Shaders that fail to compile, or a program that fails to link, throw with
+ * the driver's info log. With a {@link ProgramBinaryCache}, the program is loaded from a binary
+ * saved by an earlier run when there is one, and its binary saved otherwise.
+ */
 public class ShaderProgram {
-    private static final String TAG = ShaderProgram.class.getSimpleName();
-
+    private final GL gl = GLBackend.get();
     private int shaderProgramHandle;
 
     public ShaderProgram(String vertexShader, String fragmentShader) {
-        shaderProgramHandle = createProgram(vertexShader, fragmentShader);
+        this(vertexShader, fragmentShader, null);
+    }
+
+    public ShaderProgram(String vertexShader, String fragmentShader,
+            ProgramBinaryCache binaryCache) {
+        if (binaryCache != null) {
+            shaderProgramHandle = binaryCache.load(vertexShader, fragmentShader);
+        }
+        if (shaderProgramHandle == 0) {
+            boolean retrievable = binaryCache != null && binaryCache.isSupported();
+            shaderProgramHandle = createProgram(gl, vertexShader, fragmentShader, retrievable);
+            if (retrievable) {
+                binaryCache.save(vertexShader, fragmentShader, shaderProgramHandle);
+            }
+        }
     }
 
     public int getShaderHandle() {
@@ -32,7 +50,7 @@ public class ShaderProgram {
     }
 
     public void release() {
-        GLES20.glDeleteProgram(shaderProgramHandle);
+        gl.glDeleteProgram(shaderProgramHandle);
         shaderProgramHandle = -1;
     }
 
@@ -44,54 +62,60 @@ public class ShaderProgram {
     }
 
     public int getAttribute(String name) {
-        int loc = GLES20.glGetAttribLocation(shaderProgramHandle, name);
+        int loc = gl.glGetAttribLocation(shaderProgramHandle, name);
         checkLocation(loc, name);
         return loc;
     }
 
     public int getUniform(String name) {
-        int loc = GLES20.glGetUniformLocation(shaderProgramHandle, name);
+        int loc = gl.glGetUniformLocation(shaderProgramHandle, name);
         checkLocation(loc, name);
         return loc;
     }
 
-    private static int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        int program = GLES20.glCreateProgram();
+    private static int createProgram(GL gl, String vertexSource, String fragmentSource,
+            boolean retrievable) {
+        int vertexShader = loadShader(gl, GLES20.GL_VERTEX_SHADER, vertexSource);
+        int pixelShader = loadShader(gl, GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int program = gl.glCreateProgram();
         GLHelpers.checkGlError("glCreateProgram");
         if (program == 0) {
-            Log.e(TAG, "Could not create program");
-            return 0;
+            throw new RuntimeException("Could not create program");
         }
-        GLES20.glAttachShader(program, vertexShader);
+        gl.glAttachShader(program, vertexShader);
         GLHelpers.checkGlError("glAttachShader");
-        GLES20.glAttachShader(program, pixelShader);
+        gl.glAttachShader(program, pixelShader);
         GLHelpers.checkGlError("glAttachShader");
-        GLES20.glLinkProgram(program);
+        if (retrievable) {
+            // Some drivers only keep what glGetProgramBinary needs when asked before linking.
+            gl.glProgramParameteri(
+                    program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+        gl.glLinkProgram(program);
+        // The program keeps what it needs; the shaders go once it does.
+        gl.glDeleteShader(vertexShader);
+        gl.glDeleteShader(pixelShader);
         int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
         if (linkStatus[0] != GLES20.GL_TRUE) {
-            Log.e(TAG, "Could not link program: ");
-            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            program = 0;
+            String log = gl.glGetProgramInfoLog(program);
+            gl.glDeleteProgram(program);
+            throw new RuntimeException("Could not link program: " + log);
         }
         return program;
     }
 
-    private static int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
+    private static int loadShader(GL gl, int shaderType, String source) {
+        int shader = gl.glCreateShader(shaderType);
         GLHelpers.checkGlError("glCreateShader type=" + shaderType);
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
+        gl.glShaderSource(shader, source);
+        gl.glCompileShader(shader);
         int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
         if (compiled[0] == 0) {
-            Log.e(TAG, "Could not compile shader " + shaderType + ":");
-            Log.e(TAG, " " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
+            String log = gl.glGetShaderInfoLog(shader);
+            gl.glDeleteShader(shader);
+            throw new RuntimeException("Could not compile shader " + shaderType + ": " + log);
         }
         return shader;
     }
@@ -0,0 +1,510 @@
+/**
+ * Copyright 2016-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.gles;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES31Ext;
+import android.os.Build;
+import android.util.Log;
+
+import java.nio.Buffer;
+
+/**
+ * Checks glGetError after every call it forwards, and throws on an error, naming the call and
+ * the code that made it. Every call then waits for the driver, so this is for debug builds only.
+ *
+ * With {@link #enableDebugOutput}, contexts that support KHR_debug also report the driver's
+ * messages, which often explain an error, as synchronous output: through a callback where the
+ * platform bindings implement one, otherwise from the message log read after each call, and
+ * not at all where the bindings can't read that either.
+ */
+public class ValidatingGL implements GL {
+    private static final String TAG = ValidatingGL.class.getSimpleName();
+
+    private static final int DEBUG_LOG_BATCH = 16;
+
+    private final GL gl;
+    private volatile boolean pollDebugLog;
+    // Filled by each read of the message log.
+    private final int[] debugSources = new int[DEBUG_LOG_BATCH];
+    private final int[] debugTypes = new int[DEBUG_LOG_BATCH];
+    private final int[] debugIds = new int[DEBUG_LOG_BATCH];
+    private final int[] debugSeverities = new int[DEBUG_LOG_BATCH];
+
+    public ValidatingGL(GL gl) {
+        this.gl = gl;
+    }
+
+    /** Returns the GL the checked calls are forwarded to. */
+    public GL getDelegate() {
+        return gl;
+    }
+
+    /** Turns KHR_debug output on for the current context, if it supports it. */
+    public void enableDebugOutput() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP
+                || !GLHelpers.hasExtension("GL_KHR_debug")) {
+            return;
+        }
+        gl.glEnable(GLES31Ext.GL_DEBUG_OUTPUT_KHR);
+        // Synchronous messages arrive within the call that caused them.
+        gl.glEnable(GLES31Ext.GL_DEBUG_OUTPUT_SYNCHRONOUS_KHR);
+        try {
+            GLES31Ext.glDebugMessageCallbackKHR(new GLES31Ext.DebugProcKHR() {
+                @Override
+                public void onMessage(int source, int type, int id, int severity,
+                        String message) {
+                    logDebugMessage(null, type, severity, message);
+                }
+            });
+        } catch (UnsupportedOperationException e) {
+            // The Java bindings don't implement the callback on most releases, nor, on some, the
+            // log read it falls back to, so that is tried once here. Without either, errors are
+            // still caught by glGetError.
+            try {
+                readDebugLog("glEnable");
+                pollDebugLog = true;
+            } catch (UnsupportedOperationException unsupported) {
+                Log.w(TAG, "KHR_debug messages can't be read, checking glGetError only");
+            }
+        }
+    }
+
+    private void check(String call) {
+        if (pollDebugLog) {
+            readDebugLog(call);
+        }
+        int error = gl.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            String message = call + ": glError 0x" + Integer.toHexString(error)
+                    + " at " + getCallSite();
+            Log.e(TAG, message);
+            throw new RuntimeException(message);
+        }
+    }
+
+    // Synchronized for the arrays, which GL threads sharing this share too.
+    private synchronized void readDebugLog(String call) {
+        String[] messages;
+        do {
+            messages = GLES31Ext.glGetDebugMessageLogKHR(DEBUG_LOG_BATCH,
+                    debugSources, 0, debugTypes, 0, debugIds, 0, debugSeverities, 0);
+            for (int i = 0; i < messages.length; ++i) {
+                logDebugMessage(call, debugTypes[i], debugSeverities[i], messages[i]);
+            }
+        } while (messages.length == DEBUG_LOG_BATCH);
+    }
+
+    // Logs a message of the driver, attributed to the call being checked, or, from the callback,
+    // with the stack of the call that caused it.
+    private static void logDebugMessage(String call, int type, int severity, String message) {
+        if (severity == GLES31Ext.GL_DEBUG_SEVERITY_NOTIFICATION_KHR) {
+            return;
+        }
+        String text = (call != null ? call + " at " + getCallSite() : "GL") + ": " + message;
+        if (type == GLES31Ext.GL_DEBUG_TYPE_ERROR_KHR
+                || severity == GLES31Ext.GL_DEBUG_SEVERITY_HIGH_KHR) {
+            if (call != null) {
+                Log.e(TAG, text);
+            } else {
+                Log.e(TAG, text, new Throwable("GL call site"));
+            }
+        } else {
+            Log.w(TAG, text);
+        }
+    }
+
+    // The first frame outside this class: the code that made the call.
+    private static String getCallSite() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (!element.getClassName().equals(ValidatingGL.class.getName())) {
+                return element.toString();
+            }
+        }
+        return "unknown";
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        gl.glGenBuffers(n, buffers, offset);
+        check("glGenBuffers");
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        gl.glDeleteBuffers(n, buffers, offset);
+        check("glDeleteBuffers");
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        gl.glBindBuffer(target, buffer);
+        check("glBindBuffer");
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        gl.glBufferData(target, size, data, usage);
+        check("glBufferData");
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        gl.glBufferSubData(target, offset, size, data);
+        check("glBufferSubData");
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        gl.glGenTextures(n, textures, offset);
+        check("glGenTextures");
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        gl.glDeleteTextures(n, textures, offset);
+        check("glDeleteTextures");
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        gl.glActiveTexture(texture);
+        check("glActiveTexture");
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        gl.glBindTexture(target, texture);
+        check("glBindTexture");
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        gl.glTexParameteri(target, pname, param);
+        check("glTexParameteri");
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int format, int type, Buffer pixels) {
+        gl.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+        check("glTexImage2D");
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int imageSize, Buffer data) {
+        gl.glCompressedTexImage2D(target, level, internalformat, width, height, border, imageSize,
+                data);
+        check("glCompressedTexImage2D");
+    }
+
+    @Override
+    public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        gl.texImage2D(target, level, bitmap, border);
+        check("texImage2D");
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        gl.glGenerateMipmap(target);
+        check("glGenerateMipmap");
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        int result = gl.glCreateShader(type);
+        check("glCreateShader");
+        return result;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        gl.glShaderSource(shader, string);
+        check("glShaderSource");
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        gl.glCompileShader(shader);
+        check("glCompileShader");
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        gl.glGetShaderiv(shader, pname, params, offset);
+        check("glGetShaderiv");
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        String result = gl.glGetShaderInfoLog(shader);
+        check("glGetShaderInfoLog");
+        return result;
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        gl.glDeleteShader(shader);
+        check("glDeleteShader");
+    }
+
+    @Override
+    public int glCreateProgram() {
+        int result = gl.glCreateProgram();
+        check("glCreateProgram");
+        return result;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        gl.glAttachShader(program, shader);
+        check("glAttachShader");
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        gl.glLinkProgram(program);
+        check("glLinkProgram");
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        gl.glGetProgramiv(program, pname, params, offset);
+        check("glGetProgramiv");
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        String result = gl.glGetProgramInfoLog(program);
+        check("glGetProgramInfoLog");
+        return result;
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        gl.glDeleteProgram(program);
+        check("glDeleteProgram");
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        gl.glUseProgram(program);
+        check("glUseProgram");
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        int result = gl.glGetAttribLocation(program, name);
+        check("glGetAttribLocation");
+        return result;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        int result = gl.glGetUniformLocation(program, name);
+        check("glGetUniformLocation");
+        return result;
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        gl.glProgramParameteri(program, pname, value);
+        check("glProgramParameteri");
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        gl.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat,
+                binaryFormatOffset, binary);
+        check("glGetProgramBinary");
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        gl.glProgramBinary(program, binaryFormat, binary, length);
+        check("glProgramBinary");
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        gl.glUniform1i(location, x);
+        check("glUniform1i");
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        gl.glUniform4fv(location, count, v, offset);
+        check("glUniform4fv");
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        gl.glUniformMatrix4fv(location, count, transpose, value, offset);
+        check("glUniformMatrix4fv");
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        gl.glEnableVertexAttribArray(index);
+        check("glEnableVertexAttribArray");
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        gl.glDisableVertexAttribArray(index);
+        check("glDisableVertexAttribArray");
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, int offset) {
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        check("glVertexAttribPointer");
+    }
+
+    @Override
+    public void glVertexAttrib2f(int index, float x, float y) {
+        gl.glVertexAttrib2f(index, x, y);
+        check("glVertexAttrib2f");
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        gl.glVertexAttribDivisor(index, divisor);
+        check("glVertexAttribDivisor");
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        gl.glViewport(x, y, width, height);
+        check("glViewport");
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        gl.glClearColor(red, green, blue, alpha);
+        check("glClearColor");
+    }
+
+    @Override
+    public void glClear(int mask) {
+        gl.glClear(mask);
+        check("glClear");
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        gl.glDrawElements(mode, count, type, offset);
+        check("glDrawElements");
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset,
+            int instanceCount) {
+        gl.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+        check("glDrawElementsInstanced");
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        gl.glGenQueries(n, ids, offset);
+        check("glGenQueries");
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        gl.glDeleteQueries(n, ids, offset);
+        check("glDeleteQueries");
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        gl.glBeginQuery(target, id);
+        check("glBeginQuery");
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        gl.glEndQuery(target);
+        check("glEndQuery");
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        gl.glGetQueryObjectuiv(id, pname, params, offset);
+        check("glGetQueryObjectuiv");
+    }
+
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        long result = gl.glFenceSync(condition, flags);
+        check("glFenceSync");
+        return result;
+    }
+
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeout) {
+        int result = gl.glClientWaitSync(sync, flags, timeout);
+        check("glClientWaitSync");
+        return result;
+    }
+
+    @Override
+    public void glDeleteSync(long sync) {
+        gl.glDeleteSync(sync);
+        check("glDeleteSync");
+    }
+
+    @Override
+    public void glFlush() {
+        gl.glFlush();
+        check("glFlush");
+    }
+
+    @Override
+    public void glFinish() {
+        gl.glFinish();
+        check("glFinish");
+    }
+
+    @Override
+    public int glGetError() {
+        return gl.glGetError();
+    }
+
+    @Override
+    public String glGetString(int name) {
+        String result = gl.glGetString(name);
+        check("glGetString");
+        return result;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        gl.glGetIntegerv(pname, params, offset);
+        check("glGetIntegerv");
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        gl.glEnable(cap);
+        check("glEnable");
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads from the APK assets. Assets stored uncompressed (see aaptOptions in build.gradle) are
+ * memory mapped straight out of the APK.
+ */
+public final class AndroidAssetSource implements GLTFAssetSource {
+    private final AssetManager assets;
+
+    public AndroidAssetSource(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return assets.open(path);
+    }
+
+    @Override
+    public ByteBuffer map(String path) throws IOException {
+        AssetFileDescriptor fd;
+        try {
+            fd = assets.openFd(path);
+        } catch (FileNotFoundException e) {
+            // openFd fails for compressed assets.
+            return null;
+        }
+        FileInputStream input = fd.createInputStream();
+        try {
+            return input.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.net.Uri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Resolves external buffer uris relative to a glTF file of a {@link GLTFAssetSource}. Files the
+ * source can map, such as uncompressed assets (see aaptOptions in build.gradle), are memory
+ * mapped; anything else is read into a direct buffer.
+ */
+class AssetBufferResolver implements SampleGLTFReader.BufferResolver {
+    private final GLTFAssetSource source;
+    private final String baseDir;
+
+    AssetBufferResolver(GLTFAssetSource source, String gltfAssetName) {
+        this.source = source;
+        this.baseDir = gltfAssetName.substring(0, gltfAssetName.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public ByteBuffer resolve(String uri, int byteLength) throws IOException {
+        String path = baseDir + Uri.decode(uri);
+        ByteBuffer mapping = source.map(path);
+        if (mapping == null) {
+            return read(path, byteLength);
+        }
+        if (byteLength < 0) {
+            byteLength = mapping.capacity();
+        }
+        if (mapping.capacity() < byteLength) {
+            throw new IOException(path + " is shorter than its byteLength " + byteLength);
+        }
+        mapping.limit(byteLength);
+        return mapping.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer read(String path, int byteLength) throws IOException {
+        InputStream input = source.open(path);
+        try {
+            if (byteLength < 0) {
+                // Compressed assets don't know their length up front.
+                return readFully(input);
+            }
+            ByteBuffer data = ByteBuffer.allocateDirect(byteLength).order(ByteOrder.nativeOrder());
+            byte[] chunk = new byte[8192];
+            int read;
+            while (data.hasRemaining()
+                    && (read = input.read(chunk, 0, Math.min(chunk.length, data.remaining()))) > 0) {
+                data.put(chunk, 0, read);
+            }
+            if (data.hasRemaining()) {
+                throw new IOException(path + " is shorter than its byteLength " + byteLength);
+            }
+            data.rewind();
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static ByteBuffer readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk)) > 0) {
+            bytes.write(chunk, 0, read);
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect(bytes.size()).order(ByteOrder.nativeOrder());
+        data.put(bytes.toByteArray());
+        data.rewind();
+        return data;
+    }
+}
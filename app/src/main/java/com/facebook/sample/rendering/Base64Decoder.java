@@ -0,0 +1,174 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Decodes base64 text, such as the payload of a glTF data URI, straight into a direct ByteBuffer.
+ * Decoded bytes are staged in a small scratch array rather than a full size byte[], so the only
+ * full size copy is the output buffer that gets handed to GLES20.glBufferData.
+ */
+final class Base64Decoder {
+    private static final int INVALID = -1;
+    private static final int WHITESPACE = -2;
+    private static final int PADDING = -3;
+
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); ++i) {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+        DECODE_TABLE['='] = PADDING;
+        DECODE_TABLE[' '] = WHITESPACE;
+        DECODE_TABLE['\t'] = WHITESPACE;
+        DECODE_TABLE['\n'] = WHITESPACE;
+        DECODE_TABLE['\r'] = WHITESPACE;
+    }
+
+    // Must be a multiple of 3 so that whole quads always fit.
+    private static final int CHUNK_SIZE = 3 * 1024;
+
+    /** Payloads are split into ranges of at least this many characters by {@link #split}. */
+    static final int SPLIT_LENGTH = 1 << 20;
+
+    private Base64Decoder() {}
+
+    /**
+     * Decodes {@code source} from {@code start} to its end into a new native order direct buffer
+     * of exactly {@code byteLength} bytes. Data beyond {@code byteLength} is ignored.
+     */
+    static ByteBuffer decode(CharSequence source, int start, int byteLength) throws IOException {
+        ByteBuffer output = ByteBuffer.allocateDirect(byteLength).order(ByteOrder.nativeOrder());
+        decodeFully(source, start, output);
+        output.rewind();
+        return output;
+    }
+
+    /**
+     * Decodes {@code source} from {@code start} to its end into the remaining space of
+     * {@code output}, which the data has to fill.
+     */
+    static void decodeFully(CharSequence source, int start, ByteBuffer output) throws IOException {
+        int expected = output.remaining();
+        decode(source, start, source.length(), output);
+        if (output.hasRemaining()) {
+            throw new IOException("base64 data decodes to " + (expected - output.remaining())
+                    + " bytes, expected " + expected);
+        }
+    }
+
+    /**
+     * Splits decoding {@code source} from {@code start} into the whole of {@code output} into
+     * tasks of whole quads, each writing its own region of the output, so that they can run in
+     * parallel. The output offset of a range is derived from its character offset, which only
+     * holds for payloads without whitespace. A task returns false if its range did not decode to
+     * the expected size; the output then has to be decoded again with {@link #decodeFully}.
+     */
+    static ArrayList<Callable<Boolean>> split(
+            final CharSequence source, int start, final ByteBuffer output, int rangeCount) {
+        ArrayList<Callable<Boolean>> ranges = new ArrayList<>(rangeCount);
+        final int capacity = output.capacity();
+        int quadCount = (source.length() - start + 3) / 4;
+        int quadsPerRange = Math.max(1, (quadCount + rangeCount - 1) / rangeCount);
+        for (int quad = 0; quad < quadCount && quad * 3 < capacity; quad += quadsPerRange) {
+            final int charStart = start + quad * 4;
+            final int charEnd = Math.min(source.length(), charStart + quadsPerRange * 4);
+            final int byteStart = quad * 3;
+            final int byteEnd = charEnd == source.length()
+                    ? capacity : Math.min(capacity, byteStart + quadsPerRange * 3);
+            ranges.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    ByteBuffer region = output.duplicate();
+                    region.limit(byteEnd);
+                    region.position(byteStart);
+                    try {
+                        decode(source, charStart, charEnd, region);
+                    } catch (IOException e) {
+                        // A misaligned range; decodeFully reports real errors.
+                        return false;
+                    }
+                    return !region.hasRemaining();
+                }
+            });
+        }
+        return ranges;
+    }
+
+    /**
+     * Decodes the characters {@code [start, end)} of {@code source} into {@code output}, stopping
+     * at the first padding character or when {@code output} is full.
+     */
+    static void decode(CharSequence source, int start, int end, ByteBuffer output)
+            throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int chunkLength = 0;
+        int quad = 0;
+        int quadLength = 0;
+        for (int i = start; i < end; ++i) {
+            char c = source.charAt(i);
+            int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : INVALID;
+            if (value >= 0) {
+                quad = (quad << 6) | value;
+                if (++quadLength == 4) {
+                    chunk[chunkLength++] = (byte) (quad >> 16);
+                    chunk[chunkLength++] = (byte) (quad >> 8);
+                    chunk[chunkLength++] = (byte) quad;
+                    quad = 0;
+                    quadLength = 0;
+                    if (chunkLength == CHUNK_SIZE) {
+                        if (!flush(chunk, chunkLength, output)) {
+                            return;
+                        }
+                        chunkLength = 0;
+                    }
+                }
+            } else if (value == PADDING) {
+                break;
+            } else if (value != WHITESPACE) {
+                throw new IOException("Invalid base64 character at offset " + i);
+            }
+        }
+
+        // A trailing partial quad (padded or not) holds one or two more bytes.
+        switch (quadLength) {
+            case 1:
+                throw new IOException("Truncated base64 data");
+            case 2:
+                chunk[chunkLength++] = (byte) (quad >> 4);
+                break;
+            case 3:
+                chunk[chunkLength++] = (byte) (quad >> 10);
+                chunk[chunkLength++] = (byte) (quad >> 2);
+                break;
+        }
+        flush(chunk, chunkLength, output);
+    }
+
+    // Returns false once the output buffer is full.
+    private static boolean flush(byte[] chunk, int length, ByteBuffer output) {
+        output.put(chunk, 0, Math.min(length, output.remaining()));
+        return output.hasRemaining();
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+/**
+ * A bounding volume hierarchy over axis-aligned boxes, for frustum culling. Boxes are stored as
+ * {@link #BOUNDS_SIZE} floats each: min x, y, z then max x, y, z.
+ *
+ * The tree is built once by median splits along the longest axis of the box centers. When boxes
+ * move, {@link #refit()} recomputes the node bounds without changing the tree, which keeps
+ * queries correct at some cost in tightness. Neither refit nor queries allocate.
+ */
+final class BoundingVolumeHierarchy {
+    static final int BOUNDS_SIZE = 6;
+
+    private static final int LEAF_SIZE = 4;
+
+    private final float[] itemBounds;
+    private final int itemCount;
+    // Item indices ordered so that every node covers a contiguous range.
+    private final int[] items;
+    private int nodeCount;
+    private final int[] nodeStart;
+    private final int[] nodeEnd;
+    private final int[] nodeLeft; // first child, the second one follows it; -1 for leaves
+    private final float[] nodeBounds;
+    private final int[] stack;
+
+    /**
+     * Builds the hierarchy over the first {@code itemCount} boxes of {@code itemBounds}. The
+     * array is kept; call {@link #refit()} after changing it.
+     */
+    BoundingVolumeHierarchy(float[] itemBounds, int itemCount) {
+        this.itemBounds = itemBounds;
+        this.itemCount = itemCount;
+        items = new int[itemCount];
+        for (int i = 0; i < itemCount; ++i) {
+            items[i] = i;
+        }
+        float[] centers = new float[itemCount * 3];
+        for (int i = 0; i < itemCount; ++i) {
+            for (int c = 0; c < 3; ++c) {
+                centers[i * 3 + c] =
+                        (itemBounds[i * BOUNDS_SIZE + c] + itemBounds[i * BOUNDS_SIZE + 3 + c]) / 2;
+            }
+        }
+
+        int maxNodes = Math.max(1, 2 * itemCount - 1);
+        nodeStart = new int[maxNodes];
+        nodeEnd = new int[maxNodes];
+        nodeLeft = new int[maxNodes];
+        nodeBounds = new float[maxNodes * BOUNDS_SIZE];
+        int[] nodeDepth = new int[maxNodes];
+        int[] pending = new int[maxNodes];
+        int pendingCount = 0;
+        int maxDepth = 0;
+
+        nodeEnd[0] = itemCount;
+        nodeCount = 1;
+        pending[pendingCount++] = 0;
+        while (pendingCount > 0) {
+            int node = pending[--pendingCount];
+            int start = nodeStart[node];
+            int end = nodeEnd[node];
+            nodeLeft[node] = -1;
+            maxDepth = Math.max(maxDepth, nodeDepth[node]);
+            if (end - start <= LEAF_SIZE) {
+                continue;
+            }
+            int axis = getLongestAxis(centers, start, end);
+            if (axis < 0) {
+                continue; // all centers coincide, splitting wouldn't separate anything
+            }
+            int middle = (start + end) >>> 1;
+            select(centers, axis, start, end, middle);
+
+            int left = nodeCount;
+            nodeCount += 2;
+            nodeLeft[node] = left;
+            nodeStart[left] = start;
+            nodeEnd[left] = middle;
+            nodeStart[left + 1] = middle;
+            nodeEnd[left + 1] = end;
+            nodeDepth[left] = nodeDepth[left + 1] = nodeDepth[node] + 1;
+            pending[pendingCount++] = left;
+            pending[pendingCount++] = left + 1;
+        }
+        // A depth first query holds at most one pending sibling per level.
+        stack = new int[maxDepth + 2];
+        refit();
+    }
+
+    /** Recomputes the node bounds after item boxes changed. Children always follow parents. */
+    void refit() {
+        for (int node = nodeCount - 1; node >= 0; --node) {
+            int offset = node * BOUNDS_SIZE;
+            for (int c = 0; c < 3; ++c) {
+                nodeBounds[offset + c] = Float.POSITIVE_INFINITY;
+                nodeBounds[offset + 3 + c] = Float.NEGATIVE_INFINITY;
+            }
+            int left = nodeLeft[node];
+            if (left < 0) {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; ++i) {
+                    union(nodeBounds, offset, itemBounds, items[i] * BOUNDS_SIZE);
+                }
+            } else {
+                union(nodeBounds, offset, nodeBounds, left * BOUNDS_SIZE);
+                union(nodeBounds, offset, nodeBounds, (left + 1) * BOUNDS_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Writes the indices of the items that may be visible in {@code frustum} to {@code output},
+     * which must hold at least the item count, and returns how many there are. Items of nodes
+     * entirely inside the frustum are taken without testing them one by one.
+     */
+    int query(Frustum frustum, int[] output) {
+        if (itemCount == 0) {
+            return 0;
+        }
+        int count = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int result = frustum.classify(nodeBounds, node * BOUNDS_SIZE);
+            if (result == Frustum.OUTSIDE) {
+                continue;
+            }
+            int start = nodeStart[node];
+            int end = nodeEnd[node];
+            if (result == Frustum.INSIDE) {
+                System.arraycopy(items, start, output, count, end - start);
+                count += end - start;
+            } else if (nodeLeft[node] < 0) {
+                for (int i = start; i < end; ++i) {
+                    if (frustum.classify(itemBounds, items[i] * BOUNDS_SIZE) != Frustum.OUTSIDE) {
+                        output[count++] = items[i];
+                    }
+                }
+            } else {
+                stack[top++] = nodeLeft[node] + 1;
+                stack[top++] = nodeLeft[node];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the axis-aligned box enclosing {@code bounds} transformed by the affine column-major
+     * {@code matrix}.
+     */
+    static void transformBounds(float[] matrix, int matrixOffset,
+            float[] bounds, int boundsOffset, float[] output, int outputOffset) {
+        for (int row = 0; row < 3; ++row) {
+            float min = matrix[matrixOffset + 12 + row];
+            float max = min;
+            for (int column = 0; column < 3; ++column) {
+                float scale = matrix[matrixOffset + column * 4 + row];
+                float a = scale * bounds[boundsOffset + column];
+                float b = scale * bounds[boundsOffset + 3 + column];
+                min += Math.min(a, b);
+                max += Math.max(a, b);
+            }
+            output[outputOffset + row] = min;
+            output[outputOffset + 3 + row] = max;
+        }
+    }
+
+    private static void union(float[] output, int outputOffset, float[] bounds, int offset) {
+        for (int c = 0; c < 3; ++c) {
+            output[outputOffset + c] = Math.min(output[outputOffset + c], bounds[offset + c]);
+            output[outputOffset + 3 + c] =
+                    Math.max(output[outputOffset + 3 + c], bounds[offset + 3 + c]);
+        }
+    }
+
+    // Returns the axis along which the centers of items[start, end) spread the most, or -1 if
+    // they all coincide.
+    private int getLongestAxis(float[] centers, int start, int end) {
+        int axis = -1;
+        float longest = 0;
+        for (int c = 0; c < 3; ++c) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = start; i < end; ++i) {
+                float center = centers[items[i] * 3 + c];
+                min = Math.min(min, center);
+                max = Math.max(max, center);
+            }
+            if (max - min > longest) {
+                longest = max - min;
+                axis = c;
+            }
+        }
+        return axis;
+    }
+
+    // Reorders items[start, end) so that items[nth] has the center it would have if sorted along
+    // axis, with smaller centers before it and larger ones after.
+    private void select(float[] centers, int axis, int start, int end, int nth) {
+        int low = start;
+        int high = end - 1;
+        while (low < high) {
+            float pivot = centers[items[(low + high) >>> 1] * 3 + axis];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (centers[items[i] * 3 + axis] < pivot) {
+                    ++i;
+                }
+                while (centers[items[j] * 3 + axis] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    int item = items[i];
+                    items[i++] = items[j];
+                    items[j--] = item;
+                }
+            }
+            if (nth <= j) {
+                high = j;
+            } else if (nth >= i) {
+                low = i;
+            } else {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.opengl.GLES20;
+
+import com.facebook.sample.gles.GL;
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.GLHelpers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The data of one GL buffer, gathered from ranges of glTF buffers, and the render objects that
+ * read it. The buffer is laid out off the GL thread, then uploaded at most {@link #CHUNK_SIZE}
+ * bytes a step, by the render thread through an {@link UploadQueue} or by a
+ * {@link com.facebook.sample.gles.GLUploadThread}. A chunk within one range of a direct buffer,
+ * such as a bufferView of a memory-mapped GLB, is read by GL in place; only chunks gathered from
+ * several ranges, or from heap buffers, are copied into staging memory first.
+ *
+ * Each render object counts the uploads it still waits for in pendingUploads, and is drawn once
+ * none are left. Uploads done in another context are only completed on the render thread, once
+ * they are fenced.
+ */
+final class BufferUpload implements UploadQueue.Task {
+    static final int CHUNK_SIZE = 256 << 10;
+
+    private final GL gl = GLBackend.get();
+    private final int target;
+    private int size;
+    // Ranges in increasing offset order: the bytes of sources[i] from starts[i] to
+    // starts[i] + lengths[i] go to offsets[i] in the buffer. The arrays grow together.
+    private ByteBuffer[] sources = new ByteBuffer[4];
+    private int[] starts = new int[4];
+    private int[] lengths = new int[4];
+    private int[] offsets = new int[4];
+    private int rangeCount;
+    // Render objects that read their positions, texture coordinates or indices from the buffer.
+    private final ArrayList<SampleGLTFRenderer.GLTFRenderObject> vertexUsers = new ArrayList<>();
+    private final ArrayList<SampleGLTFRenderer.GLTFRenderObject> texcoordUsers =
+            new ArrayList<>();
+    private final ArrayList<SampleGLTFRenderer.GLTFRenderObject> indexUsers = new ArrayList<>();
+
+    private int bufferId;
+    private int uploadedBytes;
+    private int nextRange;
+    private ByteBuffer staging;
+
+    BufferUpload(int target) {
+        this.target = target;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Appends {@code length} bytes of {@code source} from {@code start} on, 4 byte aligned as
+     * vertex attribute offsets must be, and returns their offset in the buffer.
+     */
+    int add(ByteBuffer source, int start, int length) {
+        int offset = (size + 3) & ~3;
+        if (rangeCount == offsets.length) {
+            int capacity = rangeCount * 2;
+            sources = Arrays.copyOf(sources, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        sources[rangeCount] = source;
+        starts[rangeCount] = start;
+        lengths[rangeCount] = length;
+        offsets[rangeCount] = offset;
+        ++rangeCount;
+        size = offset + length;
+        return offset;
+    }
+
+    void addVertexUser(SampleGLTFRenderer.GLTFRenderObject renderObject) {
+        vertexUsers.add(renderObject);
+        ++renderObject.pendingUploads;
+    }
+
+    void addTexcoordUser(SampleGLTFRenderer.GLTFRenderObject renderObject) {
+        texcoordUsers.add(renderObject);
+        ++renderObject.pendingUploads;
+    }
+
+    void addIndexUser(SampleGLTFRenderer.GLTFRenderObject renderObject) {
+        indexUsers.add(renderObject);
+        ++renderObject.pendingUploads;
+    }
+
+    /** Names the buffer the data goes to, and points the users at it. */
+    void setBufferId(int bufferId) {
+        this.bufferId = bufferId;
+        for (SampleGLTFRenderer.GLTFRenderObject renderObject : vertexUsers) {
+            renderObject.vertexBufferId = bufferId;
+        }
+        for (SampleGLTFRenderer.GLTFRenderObject renderObject : texcoordUsers) {
+            renderObject.texcoordBufferId = bufferId;
+        }
+        for (SampleGLTFRenderer.GLTFRenderObject renderObject : indexUsers) {
+            renderObject.indexBufferId = bufferId;
+        }
+    }
+
+    // Uploads the next chunk and, once the last is done, lets the users draw.
+    @Override
+    public boolean run() {
+        if (!upload()) {
+            return false;
+        }
+        complete();
+        return true;
+    }
+
+    /**
+     * Uploads the next chunk of ranges with one call, leaving the target bound to nothing.
+     * Returns true once the whole buffer is uploaded.
+     */
+    boolean upload() {
+        gl.glBindBuffer(target, bufferId);
+        if (uploadedBytes == 0) {
+            gl.glBufferData(target, size, null, GLES20.GL_STATIC_DRAW);
+        }
+        int end = Math.min(uploadedBytes + CHUNK_SIZE, size);
+        ByteBuffer data = sliceRange(end);
+        if (data == null) {
+            data = gather(end);
+        }
+        gl.glBufferSubData(target, uploadedBytes, end - uploadedBytes, data);
+        gl.glBindBuffer(target, 0);
+        GLHelpers.checkGlError("glTF buffer upload");
+        uploadedBytes = end;
+        if (uploadedBytes < size) {
+            return false;
+        }
+        staging = null;
+        return true;
+    }
+
+    // Returns the chunk that ends at end as a view of its source, if the chunk lies within one
+    // range of a direct buffer, or null.
+    private ByteBuffer sliceRange(int end) {
+        if (nextRange == rangeCount) {
+            return null;
+        }
+        int offset = offsets[nextRange];
+        int rangeEnd = offset + lengths[nextRange];
+        if (!sources[nextRange].isDirect() || offset > uploadedBytes || end > rangeEnd) {
+            return null;
+        }
+        ByteBuffer slice = sources[nextRange].duplicate();
+        slice.limit(starts[nextRange] + end - offset);
+        slice.position(starts[nextRange] + uploadedBytes - offset);
+        if (end == rangeEnd) {
+            // The GPU has its copy, which the buffer shouldn't keep the source alive for.
+            sources[nextRange++] = null;
+        }
+        return slice;
+    }
+
+    // Copies the ranges of the chunk that ends at end into staging memory, and returns it.
+    private ByteBuffer gather(int end) {
+        if (staging == null) {
+            staging = ByteBuffer.allocateDirect(Math.min(size, CHUNK_SIZE))
+                    .order(ByteOrder.nativeOrder());
+        }
+        staging.clear();
+        while (nextRange < rangeCount && offsets[nextRange] < end) {
+            int offset = offsets[nextRange];
+            int from = Math.max(uploadedBytes, offset);
+            int to = Math.min(end, offset + lengths[nextRange]);
+            ByteBuffer source = sources[nextRange].duplicate();
+            source.limit(starts[nextRange] + to - offset);
+            source.position(starts[nextRange] + from - offset);
+            staging.position(from - uploadedBytes);
+            staging.put(source);
+            if (to < offset + lengths[nextRange]) {
+                break; // continued by the next chunk
+            }
+            // The GPU has its copy, which the buffer shouldn't keep the source alive for.
+            sources[nextRange++] = null;
+        }
+        staging.limit(end - uploadedBytes).position(0);
+        return staging;
+    }
+
+    /** Counts the upload as done for the render objects that read the buffer. */
+    void complete() {
+        for (SampleGLTFRenderer.GLTFRenderObject renderObject : vertexUsers) {
+            --renderObject.pendingUploads;
+        }
+        for (SampleGLTFRenderer.GLTFRenderObject renderObject : texcoordUsers) {
+            --renderObject.pendingUploads;
+        }
+        for (SampleGLTFRenderer.GLTFRenderObject renderObject : indexUsers) {
+            --renderObject.pendingUploads;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A struct-of-arrays copy of a {@link SampleGLTFReader.GLTFScene} for rendering. Every property is
+ * stored in a primitive array indexed by the glTF index of its object, so walking the scene
+ * neither boxes Integers nor chases one object per node, accessor or bufferView.
+ *
+ * Variable length lists (scene roots, node children, mesh primitives) are stored CSR style: the
+ * entries of item {@code i} are {@code items[start[i]]} to {@code items[start[i + 1] - 1]}.
+ * Primitive attributes live in a fixed table of {@link #ATTRIBUTE_SLOT_COUNT} slots per primitive
+ * instead of a map keyed by attribute name.
+ */
+final class CompactGLTFScene {
+    static final int ATTRIBUTE_POSITION = 0;
+    static final int ATTRIBUTE_NORMAL = 1;
+    static final int ATTRIBUTE_TANGENT = 2;
+    static final int ATTRIBUTE_TEXCOORD_0 = 3;
+    static final int ATTRIBUTE_TEXCOORD_1 = 4;
+    static final int ATTRIBUTE_COLOR_0 = 5;
+    static final int ATTRIBUTE_JOINTS_0 = 6;
+    static final int ATTRIBUTE_WEIGHTS_0 = 7;
+    static final int ATTRIBUTE_SLOT_COUNT = 8;
+
+    private static final String[] ATTRIBUTE_NAMES = {
+            "POSITION", "NORMAL", "TANGENT", "TEXCOORD_0", "TEXCOORD_1", "COLOR_0", "JOINTS_0",
+            "WEIGHTS_0"
+    };
+
+    int defaultScene;
+    int[] sceneNodeStart;
+    int[] sceneNodes;
+
+    int nodeCount;
+    int[] nodeMesh; // -1 for nodes without a mesh
+    int[] nodeChildStart;
+    int[] nodeChildren;
+    float[] nodeLocalMatrix; // 16 floats per node, column-major
+
+    int meshCount;
+    int[] meshPrimitiveStart;
+    // Levels of detail, CSR style and finest first; a mesh is always its own first level. Levels
+    // are chosen by the object space error in meshLodThresholds, or, if meshLodByCoverage, by the
+    // minimum screen coverage in it.
+    int[] meshLodStart;
+    int[] meshLods;
+    float[] meshLodThresholds;
+    boolean[] meshLodByCoverage;
+
+    int primitiveCount;
+    int[] primitiveAttributes; // [primitive * ATTRIBUTE_SLOT_COUNT + slot], -1 if not present
+    int[] primitiveIndices;
+    int[] primitiveMode;
+    int[] primitiveMaterial; // -1 for the default material
+
+    int materialCount;
+    float[] materialBaseColorFactor; // 4 floats per material, RGBA
+    int[] materialBaseColorTexture; // -1 if untextured
+    int[] materialBaseColorTexCoord;
+
+    int textureCount;
+    int[] textureSource;
+    int[] textureKtx2Source; // KHR_texture_basisu image, -1 if none
+    int[] textureSampler;
+
+    int samplerCount;
+    int[] samplerMagFilter; // 0 if left to the renderer
+    int[] samplerMinFilter;
+    int[] samplerWrapS;
+    int[] samplerWrapT;
+
+    int accessorCount;
+    int[] accessorBufferView;
+    int[] accessorByteOffset;
+    int[] accessorComponentType;
+    boolean[] accessorNormalized;
+    int[] accessorComponentCount;
+    int[] accessorElementCount;
+    boolean[] accessorValid;
+    // Min x, y, z then max x, y, z of each accessor, BoundingVolumeHierarchy.BOUNDS_SIZE floats
+    // apiece, as stored, so integers for normalized accessors. Components the accessor doesn't
+    // have are zero; accessorHasBounds is false when the file omits min/max, see
+    // getAccessorBounds.
+    float[] accessorBounds;
+    boolean[] accessorHasBounds;
+
+    int bufferViewCount;
+    int[] bufferViewBuffer;
+    int[] bufferViewByteOffset;
+    int[] bufferViewByteLength;
+    int[] bufferViewByteStride;
+    int[] bufferViewTarget;
+
+    // Buffers and images keep their objects so that external files are still resolved lazily.
+    SampleGLTFReader.GLTFScene.Buffer[] buffers;
+    SampleGLTFReader.GLTFScene.Image[] images;
+
+    private CompactGLTFScene() {}
+
+    /** Returns the attribute slot for a glTF attribute semantic, or -1 if it has none. */
+    static int getAttributeSlot(String name) {
+        for (int i = 0; i < ATTRIBUTE_NAMES.length; ++i) {
+            if (ATTRIBUTE_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops the buffers and images once everything has been uploaded, so that a scene kept for
+     * its hierarchy and levels of detail doesn't pin the file's data.
+     */
+    void releaseData() {
+        buffers = new SampleGLTFReader.GLTFScene.Buffer[0];
+        images = new SampleGLTFReader.GLTFScene.Image[0];
+    }
+
+    int getAttribute(int primitive, int slot) {
+        return primitiveAttributes[primitive * ATTRIBUTE_SLOT_COUNT + slot];
+    }
+
+    /**
+     * Writes the min and max of the first three components of an accessor to {@code output}, as
+     * the vertex shader sees them: normalized accessors are mapped to [0, 1] or [-1, 1]. Uses the
+     * bounds from the file when present, otherwise scans the accessor's data, which loads its
+     * buffer.
+     */
+    void getAccessorBounds(int accessor, float[] output, int offset) {
+        int bounds = accessor * BoundingVolumeHierarchy.BOUNDS_SIZE;
+        int componentType = accessorComponentType[accessor];
+        if (!accessorHasBounds[accessor] && !scanAccessorBounds(accessor)) {
+            Arrays.fill(output, offset, offset + BoundingVolumeHierarchy.BOUNDS_SIZE, 0);
+            return;
+        }
+        System.arraycopy(accessorBounds, bounds, output, offset,
+                BoundingVolumeHierarchy.BOUNDS_SIZE);
+        // Like glTF's min and max, the bounds of normalized accessors are the stored integers.
+        if (accessorNormalized[accessor]) {
+            for (int c = 0; c < BoundingVolumeHierarchy.BOUNDS_SIZE; ++c) {
+                output[offset + c] = normalize(output[offset + c], componentType);
+            }
+        }
+    }
+
+    // Computes the bounds of an accessor the file has none for from its data, returning false if
+    // it has no data.
+    private boolean scanAccessorBounds(int accessor) {
+        int bounds = accessor * BoundingVolumeHierarchy.BOUNDS_SIZE;
+        int componentType = accessorComponentType[accessor];
+        int bufferView = accessorBufferView[accessor];
+        int count = accessorElementCount[accessor];
+        int componentSize = SampleGLTFReader.getComponentSize(componentType);
+        ByteBuffer data = bufferView >= 0 ? buffers[bufferViewBuffer[bufferView]].getData() : null;
+        if (data == null || count == 0 || componentSize == 0) {
+            return false;
+        }
+        int components = Math.min(3, accessorComponentCount[accessor]);
+        int stride = bufferViewByteStride[bufferView] != 0
+                ? bufferViewByteStride[bufferView]
+                : accessorComponentCount[accessor] * componentSize;
+        int start = bufferViewByteOffset[bufferView] + accessorByteOffset[accessor];
+        Arrays.fill(accessorBounds, bounds, bounds + BoundingVolumeHierarchy.BOUNDS_SIZE, 0);
+        for (int c = 0; c < components; ++c) {
+            accessorBounds[bounds + c] = Float.POSITIVE_INFINITY;
+            accessorBounds[bounds + 3 + c] = Float.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < count; ++i) {
+            for (int c = 0; c < components; ++c) {
+                float value = readComponent(
+                        data, start + i * stride + c * componentSize, componentType, false);
+                accessorBounds[bounds + c] = Math.min(accessorBounds[bounds + c], value);
+                accessorBounds[bounds + 3 + c] = Math.max(accessorBounds[bounds + 3 + c], value);
+            }
+        }
+        accessorHasBounds[accessor] = true;
+        return true;
+    }
+
+    /** Reads one component at {@code position}, converted to float as GL does for attributes. */
+    static float readComponent(ByteBuffer data, int position, int componentType,
+            boolean normalized) {
+        float value;
+        switch (componentType) {
+            case SampleGLTFReader.COMPONENT_TYPE_BYTE:
+                value = data.get(position);
+                break;
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE:
+                value = data.get(position) & 0xFF;
+                break;
+            case SampleGLTFReader.COMPONENT_TYPE_SHORT:
+                value = data.getShort(position);
+                break;
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT:
+                value = data.getShort(position) & 0xFFFF;
+                break;
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_INT:
+                value = data.getInt(position) & 0xFFFFFFFFL;
+                break;
+            case SampleGLTFReader.COMPONENT_TYPE_FLOAT:
+                return data.getFloat(position);
+            default:
+                return 0;
+        }
+        return normalized ? normalize(value, componentType) : value;
+    }
+
+    // Maps an integer component to [0, 1] or [-1, 1] the way GLES 3.0 normalizes attributes.
+    private static float normalize(float value, int componentType) {
+        switch (componentType) {
+            case SampleGLTFReader.COMPONENT_TYPE_BYTE:
+                return Math.max(value / 127f, -1f);
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE:
+                return value / 255f;
+            case SampleGLTFReader.COMPONENT_TYPE_SHORT:
+                return Math.max(value / 32767f, -1f);
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT:
+                return value / 65535f;
+            default:
+                return value;
+        }
+    }
+
+    static CompactGLTFScene from(SampleGLTFReader.GLTFScene gltfScene) {
+        CompactGLTFScene compact = new CompactGLTFScene();
+        compact.defaultScene = gltfScene.scene >= 0 ? gltfScene.scene : 0;
+
+        int sceneCount = gltfScene.scenes.size();
+        compact.sceneNodeStart = new int[sceneCount + 1];
+        for (int i = 0; i < sceneCount; ++i) {
+            compact.sceneNodeStart[i + 1] =
+                    compact.sceneNodeStart[i] + gltfScene.scenes.get(i).nodes.size();
+        }
+        compact.sceneNodes = new int[compact.sceneNodeStart[sceneCount]];
+        for (int i = 0; i < sceneCount; ++i) {
+            copy(gltfScene.scenes.get(i).nodes, compact.sceneNodes, compact.sceneNodeStart[i]);
+        }
+
+        int nodeCount = gltfScene.nodes.size();
+        int meshCount = gltfScene.meshes.size();
+        compact.nodeCount = nodeCount;
+        compact.nodeMesh = new int[nodeCount];
+        compact.nodeChildStart = new int[nodeCount + 1];
+        compact.nodeLocalMatrix = new float[nodeCount * TransformHierarchy.MATRIX_SIZE];
+        for (int i = 0; i < nodeCount; ++i) {
+            SampleGLTFReader.GLTFScene.Node node = gltfScene.nodes.get(i);
+            // A reference to a missing mesh counts as none, so that nodeMesh is always safe to use.
+            compact.nodeMesh[i] = node.mesh >= 0 && node.mesh < meshCount ? node.mesh : -1;
+            if (node.matrix != null) {
+                System.arraycopy(node.matrix, 0, compact.nodeLocalMatrix,
+                        i * TransformHierarchy.MATRIX_SIZE, TransformHierarchy.MATRIX_SIZE);
+            } else {
+                TransformHierarchy.composeMatrix(compact.nodeLocalMatrix,
+                        i * TransformHierarchy.MATRIX_SIZE, node.translation, node.rotation, node.scale);
+            }
+            compact.nodeChildStart[i + 1] = compact.nodeChildStart[i] + node.children.size();
+        }
+        compact.nodeChildren = new int[compact.nodeChildStart[nodeCount]];
+        for (int i = 0; i < nodeCount; ++i) {
+            copy(gltfScene.nodes.get(i).children, compact.nodeChildren, compact.nodeChildStart[i]);
+        }
+
+        compact.meshCount = meshCount;
+        compact.meshPrimitiveStart = new int[meshCount + 1];
+        for (int i = 0; i < meshCount; ++i) {
+            compact.meshPrimitiveStart[i + 1] =
+                    compact.meshPrimitiveStart[i] + gltfScene.meshes.get(i).primitives.size();
+        }
+        compact.meshLodStart = new int[meshCount + 1];
+        for (int i = 0; i < meshCount; ++i) {
+            compact.meshLodStart[i + 1] =
+                    compact.meshLodStart[i] + 1 + gltfScene.meshes.get(i).lods.size();
+        }
+        compact.meshLods = new int[compact.meshLodStart[meshCount]];
+        compact.meshLodThresholds = new float[compact.meshLodStart[meshCount]];
+        compact.meshLodByCoverage = new boolean[meshCount];
+        for (int i = 0; i < meshCount; ++i) {
+            SampleGLTFReader.GLTFScene.Mesh mesh = gltfScene.meshes.get(i);
+            int start = compact.meshLodStart[i];
+            compact.meshLods[start] = i;
+            copy(mesh.lods, compact.meshLods, start + 1);
+            // Missing coverage values are zero, which any coverage meets; MSFT_lod files without
+            // coverage thus always draw their finest level.
+            compact.meshLodByCoverage[i] = mesh.lodErrors == null;
+            float[] thresholds = compact.meshLodByCoverage[i]
+                    ? mesh.lodScreenCoverage : mesh.lodErrors;
+            if (thresholds != null) {
+                System.arraycopy(thresholds, 0, compact.meshLodThresholds, start,
+                        Math.min(thresholds.length, compact.meshLodStart[i + 1] - start));
+            }
+        }
+        int primitiveCount = compact.meshPrimitiveStart[meshCount];
+        compact.primitiveCount = primitiveCount;
+        compact.primitiveAttributes = new int[primitiveCount * ATTRIBUTE_SLOT_COUNT];
+        Arrays.fill(compact.primitiveAttributes, -1);
+        compact.primitiveIndices = new int[primitiveCount];
+        compact.primitiveMode = new int[primitiveCount];
+        compact.primitiveMaterial = new int[primitiveCount];
+        int primitiveIndex = 0;
+        for (int i = 0; i < meshCount; ++i) {
+            for (SampleGLTFReader.GLTFScene.Primitive primitive : gltfScene.meshes.get(i).primitives) {
+                for (Map.Entry<String, Integer> attribute : primitive.attributes.entrySet()) {
+                    int slot = getAttributeSlot(attribute.getKey());
+                    if (slot >= 0) {
+                        compact.primitiveAttributes[primitiveIndex * ATTRIBUTE_SLOT_COUNT + slot] =
+                                attribute.getValue();
+                    }
+                }
+                compact.primitiveIndices[primitiveIndex] = primitive.indices;
+                compact.primitiveMode[primitiveIndex] = primitive.mode;
+                compact.primitiveMaterial[primitiveIndex] = primitive.material;
+                ++primitiveIndex;
+            }
+        }
+
+        int materialCount = gltfScene.materials.size();
+        compact.materialCount = materialCount;
+        compact.materialBaseColorFactor = new float[materialCount * 4];
+        compact.materialBaseColorTexture = new int[materialCount];
+        compact.materialBaseColorTexCoord = new int[materialCount];
+        for (int i = 0; i < materialCount; ++i) {
+            SampleGLTFReader.GLTFScene.Material material = gltfScene.materials.get(i);
+            System.arraycopy(material.baseColorFactor, 0, compact.materialBaseColorFactor, i * 4,
+                    Math.min(4, material.baseColorFactor.length));
+            compact.materialBaseColorTexture[i] = material.baseColorTexture;
+            compact.materialBaseColorTexCoord[i] = material.baseColorTexCoord;
+        }
+
+        int textureCount = gltfScene.textures.size();
+        compact.textureCount = textureCount;
+        compact.textureSource = new int[textureCount];
+        compact.textureKtx2Source = new int[textureCount];
+        compact.textureSampler = new int[textureCount];
+        for (int i = 0; i < textureCount; ++i) {
+            SampleGLTFReader.GLTFScene.Texture texture = gltfScene.textures.get(i);
+            compact.textureSource[i] = texture.source;
+            compact.textureKtx2Source[i] = texture.ktx2Source;
+            compact.textureSampler[i] = texture.sampler;
+        }
+
+        int samplerCount = gltfScene.samplers.size();
+        compact.samplerCount = samplerCount;
+        compact.samplerMagFilter = new int[samplerCount];
+        compact.samplerMinFilter = new int[samplerCount];
+        compact.samplerWrapS = new int[samplerCount];
+        compact.samplerWrapT = new int[samplerCount];
+        for (int i = 0; i < samplerCount; ++i) {
+            SampleGLTFReader.GLTFScene.Sampler sampler = gltfScene.samplers.get(i);
+            compact.samplerMagFilter[i] = sampler.magFilter;
+            compact.samplerMinFilter[i] = sampler.minFilter;
+            compact.samplerWrapS[i] = sampler.wrapS;
+            compact.samplerWrapT[i] = sampler.wrapT;
+        }
+
+        int accessorCount = gltfScene.accessors.size();
+        compact.accessorCount = accessorCount;
+        compact.accessorBufferView = new int[accessorCount];
+        compact.accessorByteOffset = new int[accessorCount];
+        compact.accessorComponentType = new int[accessorCount];
+        compact.accessorNormalized = new boolean[accessorCount];
+        compact.accessorComponentCount = new int[accessorCount];
+        compact.accessorElementCount = new int[accessorCount];
+        compact.accessorValid = new boolean[accessorCount];
+        compact.accessorBounds = new float[accessorCount * BoundingVolumeHierarchy.BOUNDS_SIZE];
+        compact.accessorHasBounds = new boolean[accessorCount];
+        for (int i = 0; i < accessorCount; ++i) {
+            SampleGLTFReader.GLTFScene.Accessor accessor = gltfScene.accessors.get(i);
+            compact.accessorBufferView[i] = accessor.bufferView;
+            compact.accessorByteOffset[i] = accessor.byteOffset;
+            compact.accessorComponentType[i] = accessor.componentType;
+            compact.accessorNormalized[i] = accessor.normalized;
+            compact.accessorComponentCount[i] = SampleGLTFReader.getComponentCount(accessor.type);
+            compact.accessorElementCount[i] = accessor.count;
+            compact.accessorValid[i] = accessor.valid;
+            if (accessor.min != null && accessor.max != null) {
+                compact.accessorHasBounds[i] = true;
+                int bounds = i * BoundingVolumeHierarchy.BOUNDS_SIZE;
+                int components = Math.min(3, Math.min(accessor.min.length, accessor.max.length));
+                for (int c = 0; c < components; ++c) {
+                    compact.accessorBounds[bounds + c] = accessor.min[c];
+                    compact.accessorBounds[bounds + 3 + c] = accessor.max[c];
+                }
+            }
+        }
+
+        int bufferViewCount = gltfScene.bufferViews.size();
+        compact.bufferViewCount = bufferViewCount;
+        compact.bufferViewBuffer = new int[bufferViewCount];
+        compact.bufferViewByteOffset = new int[bufferViewCount];
+        compact.bufferViewByteLength = new int[bufferViewCount];
+        compact.bufferViewByteStride = new int[bufferViewCount];
+        compact.bufferViewTarget = new int[bufferViewCount];
+        for (int i = 0; i < bufferViewCount; ++i) {
+            SampleGLTFReader.GLTFScene.BufferView bufferView = gltfScene.bufferViews.get(i);
+            compact.bufferViewBuffer[i] = bufferView.buffer;
+            compact.bufferViewByteOffset[i] = bufferView.byteOffset;
+            compact.bufferViewByteLength[i] = bufferView.byteLength;
+            compact.bufferViewByteStride[i] = bufferView.byteStride;
+            compact.bufferViewTarget[i] = bufferView.target;
+        }
+
+        compact.buffers = gltfScene.buffers.toArray(
+                new SampleGLTFReader.GLTFScene.Buffer[gltfScene.buffers.size()]);
+        compact.images = gltfScene.images.toArray(
+                new SampleGLTFReader.GLTFScene.Image[gltfScene.images.size()]);
+        return compact;
+    }
+
+    private static void copy(ArrayList<Integer> source, int[] destination, int offset) {
+        for (int i = 0; i < source.size(); ++i) {
+            destination[offset + i] = source.get(i);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.util.Arrays;
+
+/**
+ * The draws of one frame, ordered by sort key so that draws sharing GL state are submitted
+ * together. Keys are small dense integers, ranked once at load time from the state each draw
+ * needs, so ordering a frame is a counting sort: linear, stable and free of allocations.
+ */
+final class DrawList {
+    private final int[] keyStarts;
+    private final int[] draws;
+    private int drawCount;
+
+    /** Creates a list for up to {@code capacity} draws with keys in [0, keyCount). */
+    DrawList(int capacity, int keyCount) {
+        draws = new int[capacity];
+        keyStarts = new int[keyCount + 1];
+    }
+
+    /** Replaces the list with {@code items[0, itemCount)} ordered by {@code itemKeys[item]}. */
+    void sort(int[] items, int itemCount, int[] itemKeys) {
+        Arrays.fill(keyStarts, 0);
+        for (int i = 0; i < itemCount; ++i) {
+            ++keyStarts[itemKeys[items[i]] + 1];
+        }
+        for (int key = 1; key < keyStarts.length; ++key) {
+            keyStarts[key] += keyStarts[key - 1];
+        }
+        for (int i = 0; i < itemCount; ++i) {
+            draws[keyStarts[itemKeys[items[i]]]++] = items[i];
+        }
+        drawCount = itemCount;
+    }
+
+    int size() {
+        return drawCount;
+    }
+
+    int get(int index) {
+        return draws[index];
+    }
+}
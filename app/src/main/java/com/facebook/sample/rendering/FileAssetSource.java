@@ -0,0 +1,51 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads from a directory of the file system, for instance files downloaded at runtime, or
+ * scenes loaded on a desktop JVM without an Android Context. Every file is memory mapped.
+ */
+public final class FileAssetSource implements GLTFAssetSource {
+    private final File directory;
+
+    public FileAssetSource(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return new FileInputStream(new File(directory, path));
+    }
+
+    @Override
+    public ByteBuffer map(String path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(directory, path), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import com.facebook.sample.gles.GpuTimer;
+
+/**
+ * Times the frames of a render thread and counts what they draw. The render thread marks the end
+ * of each phase of a frame; the CPU time of every phase, the GPU time of the frame where the
+ * context supports EXT_disjoint_timer_query, and the counters of the renderer all go into
+ * histograms. Recording never locks or allocates. Any thread may poll percentiles with
+ * {@link #getSnapshot}, into a snapshot it allocated once.
+ *
+ * A frame runs {@link #beginFrame}, {@link #endPhase} for each phase in order,
+ * {@link #endGpuWork} right before the buffers are swapped, and {@link #endFrame}.
+ */
+public final class FrameProfiler {
+    /** Whole frames, from beginFrame to endFrame, in nanoseconds. */
+    public static final int METRIC_FRAME = 0;
+    /** Running the GL work of loads posted to the upload queue. */
+    public static final int METRIC_UPLOAD = 1;
+    /** Updating the camera, models and node transforms. */
+    public static final int METRIC_UPDATE = 2;
+    /** Frustum culling, level of detail selection and sorting the draws. */
+    public static final int METRIC_CULL = 3;
+    /** Issuing the GL calls of the draws. */
+    public static final int METRIC_SUBMIT = 4;
+    /** Swapping the buffers, which blocks when the GPU or compositor is behind. */
+    public static final int METRIC_SWAP = 5;
+    /** GPU nanoseconds between beginFrame and endGpuWork, recorded a few frames late. */
+    public static final int METRIC_GPU = 6;
+    public static final int METRIC_DRAW_CALLS = 7;
+    public static final int METRIC_TRIANGLES = 8;
+    /** State changing GL calls issued, after redundant ones were skipped. */
+    public static final int METRIC_STATE_CHANGES = 9;
+    public static final int METRIC_COUNT = 10;
+
+    /** Percentiles of every metric, indexed by the METRIC_ constants. */
+    public static final class Snapshot {
+        public final long[] count = new long[METRIC_COUNT];
+        public final long[] p50 = new long[METRIC_COUNT];
+        public final long[] p95 = new long[METRIC_COUNT];
+        public final long[] p99 = new long[METRIC_COUNT];
+    }
+
+    private final Histogram[] histograms = new Histogram[METRIC_COUNT];
+    private GpuTimer gpuTimer;
+    private boolean gpuTimerCreated;
+    private long frameStartNanos;
+    private long phaseStartNanos;
+
+    public FrameProfiler() {
+        for (int metric = 0; metric < METRIC_COUNT; ++metric) {
+            histograms[metric] = new Histogram();
+        }
+    }
+
+    /** Starts a frame. Needs the frame's context current. */
+    public void beginFrame() {
+        if (!gpuTimerCreated) {
+            gpuTimer = GpuTimer.create();
+            gpuTimerCreated = true;
+        }
+        if (gpuTimer != null) {
+            long gpuNanos;
+            while ((gpuNanos = gpuTimer.poll()) >= 0) {
+                histograms[METRIC_GPU].record(gpuNanos);
+            }
+            gpuTimer.begin();
+        }
+        frameStartNanos = System.nanoTime();
+        phaseStartNanos = frameStartNanos;
+    }
+
+    /** Records the time since the previous phase ended, or the frame began, as {@code metric}. */
+    public void endPhase(int metric) {
+        long now = System.nanoTime();
+        histograms[metric].record(now - phaseStartNanos);
+        phaseStartNanos = now;
+    }
+
+    /** Ends the GPU timing of the frame. */
+    public void endGpuWork() {
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
+
+    public void endFrame() {
+        histograms[METRIC_FRAME].record(System.nanoTime() - frameStartNanos);
+    }
+
+    /** Records one value of a counter metric, such as METRIC_DRAW_CALLS. */
+    public void record(int metric, long value) {
+        histograms[metric].record(value);
+    }
+
+    /** Fills {@code snapshot} with the percentiles recorded since the last reset. */
+    public void getSnapshot(Snapshot snapshot) {
+        for (int metric = 0; metric < METRIC_COUNT; ++metric) {
+            Histogram histogram = histograms[metric];
+            snapshot.count[metric] = histogram.getCount();
+            snapshot.p50[metric] = histogram.getPercentile(50);
+            snapshot.p95[metric] = histogram.getPercentile(95);
+            snapshot.p99[metric] = histogram.getPercentile(99);
+        }
+    }
+
+    /** Forgets everything recorded so far, for instance to measure from a known point on. */
+    public void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /** Deletes the GPU timer. Needs the context of the frames current. */
+    public void release() {
+        if (gpuTimer != null) {
+            gpuTimer.release();
+            gpuTimer = null;
+        }
+        gpuTimerCreated = false;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+/**
+ * The six clip planes of a view-projection matrix, for testing axis-aligned bounding boxes.
+ * Planes are extracted in the space the matrix transforms from, so passing projection * view *
+ * model tests boxes given in model space.
+ */
+final class Frustum {
+    static final int OUTSIDE = 0;
+    static final int INTERSECTING = 1;
+    static final int INSIDE = 2;
+
+    private static final int PLANE_COUNT = 6;
+
+    // a, b, c, d per plane, with ax + by + cz + d >= 0 on the inner side.
+    private final float[] planes = new float[PLANE_COUNT * 4];
+
+    /** Extracts the planes from a column-major clip matrix. */
+    void set(float[] matrix, int offset) {
+        for (int i = 0; i < PLANE_COUNT; ++i) {
+            // Left, right, bottom, top, near and far are row 3 plus or minus rows 0, 1 and 2.
+            int row = i / 2;
+            float sign = (i & 1) == 0 ? 1 : -1;
+            for (int column = 0; column < 4; ++column) {
+                planes[i * 4 + column] = matrix[offset + column * 4 + 3]
+                        + sign * matrix[offset + column * 4 + row];
+            }
+        }
+    }
+
+    /**
+     * Classifies the box of {@link BoundingVolumeHierarchy#BOUNDS_SIZE} floats at
+     * {@code offset}. May report INTERSECTING for boxes just outside a frustum corner, which
+     * only costs a draw.
+     */
+    int classify(float[] bounds, int offset) {
+        int result = INSIDE;
+        for (int i = 0; i < PLANE_COUNT * 4; i += 4) {
+            float a = planes[i], b = planes[i + 1], c = planes[i + 2], d = planes[i + 3];
+            // The corner furthest along the plane normal, then the one furthest against it.
+            float far = d
+                    + a * bounds[offset + (a > 0 ? 3 : 0)]
+                    + b * bounds[offset + (b > 0 ? 4 : 1)]
+                    + c * bounds[offset + (c > 0 ? 5 : 2)];
+            if (far < 0) {
+                return OUTSIDE;
+            }
+            float near = d
+                    + a * bounds[offset + (a > 0 ? 0 : 3)]
+                    + b * bounds[offset + (b > 0 ? 1 : 4)]
+                    + c * bounds[offset + (c > 0 ? 2 : 5)];
+            if (near < 0) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+}
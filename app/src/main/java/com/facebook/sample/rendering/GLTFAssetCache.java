@@ -0,0 +1,357 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.sample.rendering;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Build;
+
+import com.facebook.sample.gles.EGLShareGroup;
+import com.facebook.sample.gles.GL;
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.ProgramBinaryCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The GPU resources of loaded glTF assets and the shader programs that draw them, shared through
+ * reference counts by every renderer given the same cache, by default the process wide
+ * {@link #getShared()} one. A renderer created again for a new surface, after a rotation say,
+ * finds its asset parsed and uploaded already and skips loading altogether.
+ *
+ * Assets are keyed by their identity: the asset name and the load options that change what gets
+ * uploaded. Within an asset, uploads are indexed by bufferView. Released assets stay resident,
+ * least recently released first out, until the byte budget or {@link #trimMemory} needs their
+ * memory; released programs stay until trimMemory. Textures live in the cache's
+ * {@link TextureCache}.
+ *
+ * GL objects are created and deleted in the contexts of {@link EGLShareGroup}; eviction from a
+ * thread without a current context borrows the group's root context. Evicted resources are
+ * taken out of the cache under its lock but deleted after it is released, so that a thread
+ * waiting for a context never holds up the renderers using the cache.
+ */
+public final class GLTFAssetCache {
+    public static final long DEFAULT_BUDGET_BYTES = 64L << 20;
+
+    private static GLTFAssetCache shared;
+
+    // What renderers instantiate an asset from. Nothing in it changes once it is published.
+    static final class Asset {
+        final String key;
+        CompactGLTFScene scene; // without buffer and image data, which only loading needs
+        ArrayList<SampleGLTFRenderer.GLTFRenderObject> renderObjects;
+        // The render objects of mesh m are meshObjectCount[m] from meshFirstObject[m] on.
+        int[] meshFirstObject;
+        int[] meshObjectCount;
+        float[] meshBounds; // local bounds of each mesh, BoundingVolumeHierarchy.BOUNDS_SIZE each
+        int[] bufferIds;
+        TextureCache.Entry[] textureEntries; // glTF texture -> acquired entry, if used
+        long byteSize; // of the geometry; textures are accounted for by the texture cache
+        private int refCount;
+
+        Asset(String key) {
+            this.key = key;
+        }
+    }
+
+    // Uniforms are program state, so a program in use by renderers of one thread isn't handed
+    // to another thread, whose draws would race on them; that thread links a copy.
+    private static final class Program {
+        final GLTFProgram program;
+        Thread thread;
+        int refCount;
+
+        Program(GLTFProgram program) {
+            this.program = program;
+        }
+    }
+
+    // Access ordered, so iteration starts at the least recently used asset.
+    private final GL gl = GLBackend.get();
+    private final LinkedHashMap<String, Asset> assets = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, ArrayList<Program>> programs = new HashMap<>();
+    private final TextureCache textureCache = new TextureCache();
+    private ProgramBinaryCache programBinaryCache;
+    private long budgetBytes = DEFAULT_BUDGET_BYTES;
+    private long residentBytes;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /** Returns the cache renderers use unless given one with setAssetCache. */
+    public static synchronized GLTFAssetCache getShared() {
+        if (shared == null) {
+            shared = new GLTFAssetCache();
+        }
+        return shared;
+    }
+
+    public TextureCache getTextureCache() {
+        return textureCache;
+    }
+
+    /**
+     * Returns the cache of linked program binaries, kept across runs in the code cache directory
+     * of {@code context}'s application.
+     */
+    public synchronized ProgramBinaryCache getProgramBinaryCache(Context context) {
+        if (programBinaryCache == null) {
+            File directory = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                    ? context.getCodeCacheDir() : context.getCacheDir();
+            programBinaryCache = new ProgramBinaryCache(new File(directory, "gltf_programs"));
+        }
+        return programBinaryCache;
+    }
+
+    /**
+     * Sets how many bytes of geometry the cache should keep resident, evicting released assets
+     * right away if they no longer fit. Textures have a budget of their own, see
+     * {@link TextureCache#setBudgetBytes}.
+     */
+    public void setBudgetBytes(long bytes) {
+        final ArrayList<Asset> evicted;
+        synchronized (this) {
+            budgetBytes = bytes;
+            evicted = evict(bytes);
+        }
+        if (evicted.isEmpty()) {
+            return;
+        }
+        EGLShareGroup.get().runWithContext(new Runnable() {
+            @Override
+            public void run() {
+                deleteAssets(evicted);
+            }
+        });
+    }
+
+    public synchronized long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /** Returns the bytes of geometry of all resident assets, released ones included. */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /** Returns how many renderers found their asset resident. */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /** Returns how many renderers had to load their asset. */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /** Returns how many released assets were deleted to stay within the budget or free memory. */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Frees released resources as the system asks, with a level from
+     * {@link ComponentCallbacks2#onTrimMemory}. Memory running low, or the process going into the
+     * background list, evicts every released asset, program and texture; a moderate shortage
+     * evicts released resources down to half of their budgets. A hidden UI keeps everything, for
+     * a quick return.
+     */
+    public void trimMemory(int level) {
+        final long maxBytes;
+        final ArrayList<Asset> evictedAssets;
+        final ArrayList<GLTFProgram> evictedPrograms;
+        synchronized (this) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                maxBytes = 0;
+            } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+                maxBytes = budgetBytes / 2;
+            } else {
+                return;
+            }
+            evictedAssets = evict(maxBytes);
+            evictedPrograms = maxBytes == 0
+                    ? evictReleasedPrograms() : new ArrayList<GLTFProgram>();
+        }
+        EGLShareGroup.get().runWithContext(new Runnable() {
+            @Override
+            public void run() {
+                deleteAssets(evictedAssets);
+                textureCache.trimTo(maxBytes == 0 ? 0 : textureCache.getBudgetBytes() / 2);
+                for (GLTFProgram program : evictedPrograms) {
+                    program.release();
+                }
+            }
+        });
+    }
+
+    /** Returns the asset stored under {@code key} and takes a reference to it, or null. */
+    synchronized Asset acquire(String key) {
+        Asset asset = assets.get(key);
+        if (asset == null) {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        ++asset.refCount;
+        return asset;
+    }
+
+    /**
+     * Publishes a loaded asset with a reference taken for the caller, and returns it. If another
+     * renderer published one under the same key meanwhile, that one is returned instead and
+     * {@code asset} is deleted.
+     */
+    Asset put(Asset asset) {
+        ArrayList<Asset> evicted;
+        synchronized (this) {
+            Asset existing = assets.get(asset.key);
+            if (existing != null) {
+                ++existing.refCount;
+                evicted = new ArrayList<>();
+                evicted.add(asset);
+                asset = existing;
+            } else {
+                asset.refCount = 1;
+                assets.put(asset.key, asset);
+                residentBytes += asset.byteSize;
+                evicted = evict(budgetBytes);
+            }
+        }
+        deleteAssets(evicted);
+        return asset;
+    }
+
+    /** Gives up a reference taken by {@link #acquire} or {@link #put}. */
+    void release(Asset asset) {
+        ArrayList<Asset> evicted;
+        synchronized (this) {
+            if (--asset.refCount > 0) {
+                return;
+            }
+            evicted = evict(budgetBytes);
+        }
+        deleteAssets(evicted);
+    }
+
+    /** Deletes an asset that was never published, its uploads abandoned part way. */
+    void discard(Asset asset) {
+        delete(asset);
+    }
+
+    /**
+     * Returns a program of the variant {@code key} names that renderers of the calling thread may
+     * use, and takes a reference to it, or null if there is none.
+     */
+    synchronized GLTFProgram acquireProgram(String key) {
+        ArrayList<Program> candidates = programs.get(key);
+        if (candidates != null) {
+            Thread thread = Thread.currentThread();
+            for (Program program : candidates) {
+                if (program.refCount == 0 || program.thread == thread) {
+                    program.thread = thread;
+                    ++program.refCount;
+                    return program.program;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Adds a program linked by the calling thread, with a reference taken for it. */
+    synchronized void putProgram(String key, GLTFProgram gltfProgram) {
+        ArrayList<Program> candidates = programs.get(key);
+        if (candidates == null) {
+            candidates = new ArrayList<>();
+            programs.put(key, candidates);
+        }
+        Program program = new Program(gltfProgram);
+        program.thread = Thread.currentThread();
+        program.refCount = 1;
+        candidates.add(program);
+    }
+
+    /** Gives up a reference taken by {@link #acquireProgram} or {@link #putProgram}. */
+    synchronized void releaseProgram(GLTFProgram gltfProgram) {
+        for (ArrayList<Program> candidates : programs.values()) {
+            for (Program program : candidates) {
+                if (program.program == gltfProgram) {
+                    --program.refCount;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Takes released assets out of the cache, least recently used first, until at most maxBytes
+    // remain or none are left, and returns them for deleteAssets. Needs the lock.
+    private ArrayList<Asset> evict(long maxBytes) {
+        ArrayList<Asset> evicted = new ArrayList<>();
+        Iterator<Asset> iterator = assets.values().iterator();
+        while (residentBytes > maxBytes && iterator.hasNext()) {
+            Asset asset = iterator.next();
+            if (asset.refCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            residentBytes -= asset.byteSize;
+            evicted.add(asset);
+            ++evictionCount;
+        }
+        return evicted;
+    }
+
+    // Deletes assets no longer in the cache, which no other thread can reach any more. Needs a
+    // current context, and is called without the lock.
+    private void deleteAssets(ArrayList<Asset> evicted) {
+        for (Asset asset : evicted) {
+            delete(asset);
+        }
+    }
+
+    private void delete(Asset asset) {
+        gl.glDeleteBuffers(asset.bufferIds.length, asset.bufferIds, 0);
+        for (TextureCache.Entry entry : asset.textureEntries) {
+            if (entry != null) {
+                textureCache.release(entry);
+            }
+        }
+    }
+
+    // Takes released programs out of the cache and returns them to be released. Needs the lock.
+    private ArrayList<GLTFProgram> evictReleasedPrograms() {
+        ArrayList<GLTFProgram> evicted = new ArrayList<>();
+        Iterator<ArrayList<Program>> lists = programs.values().iterator();
+        while (lists.hasNext()) {
+            ArrayList<Program> candidates = lists.next();
+            Iterator<Program> iterator = candidates.iterator();
+            while (iterator.hasNext()) {
+                Program program = iterator.next();
+                if (program.refCount == 0) {
+                    evicted.add(program.program);
+                    iterator.remove();
+                }
+            }
+            if (candidates.isEmpty()) {
+                lists.remove();
+            }
+        }
+        return evicted;
+    }
+}
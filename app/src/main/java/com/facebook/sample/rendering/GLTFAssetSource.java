@@ -0,0 +1,33 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Where a renderer reads glTF files, the buffers and images they reference, and its shaders
+ * from. Paths are relative to the root of the source and use '/' as the separator.
+ */
+public interface GLTFAssetSource {
+    InputStream open(String path) throws IOException;
+
+    /**
+     * Returns a read-only mapping of the whole file, or null if the file can't be mapped, such as
+     * an asset stored compressed in the APK, in which case it is read with {@link #open}.
+     */
+    ByteBuffer map(String path) throws IOException;
+}
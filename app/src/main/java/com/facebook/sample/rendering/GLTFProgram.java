@@ -0,0 +1,86 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import com.facebook.sample.gles.GL;
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.ProgramBinaryCache;
+import com.facebook.sample.gles.ShaderProgram;
+
+/**
+ * One variant of the glTF object shaders: the shared sources compiled with the preprocessor
+ * defines of a set of features, and the locations of its uniforms and attributes, looked up once
+ * when it is linked rather than by every renderer that draws with it.
+ */
+final class GLTFProgram {
+    static final String VERTEX_SHADER = "gltfobjectvert.glsl";
+    static final String FRAGMENT_SHADER = "gltfobjectfrag.glsl";
+
+    /** Per-instance world matrices streamed through a GLES 3.0 instanced attribute. */
+    static final int FEATURE_INSTANCING = 1;
+
+    final int features;
+    final ShaderProgram program;
+    final int modelViewProjectionUniform;
+    final int baseColorFactorUniform;
+    final int positionAttribute;
+    final int texCoordAttribute;
+    final int instanceMatrixAttribute; // first of four consecutive columns, -1 without instancing
+
+    private GLTFProgram(int features, ShaderProgram program) {
+        this.features = features;
+        this.program = program;
+        modelViewProjectionUniform = program.getUniform("u_ModelViewProjection");
+        baseColorFactorUniform = program.getUniform("u_BaseColorFactor");
+        positionAttribute = program.getAttribute("a_Position");
+        texCoordAttribute = program.getAttribute("a_TexCoord");
+        instanceMatrixAttribute = (features & FEATURE_INSTANCING) != 0
+                ? program.getAttribute("a_InstanceMatrix") : -1;
+    }
+
+    /** Identifies the variant of {@code features} in the program cache. */
+    static String getKey(int features) {
+        return VERTEX_SHADER + ":" + FRAGMENT_SHADER + ":" + features;
+    }
+
+    /**
+     * Compiles and links the variant of {@code features} from the shader sources, or loads it
+     * from {@code binaryCache}, which may be null. Needs a current context.
+     */
+    static GLTFProgram link(int features, String vertexSource, String fragmentSource,
+            ProgramBinaryCache binaryCache) {
+        GL gl = GLBackend.get();
+        String defines = getDefines(features);
+        ShaderProgram program = new ShaderProgram(
+                defines + vertexSource, defines + fragmentSource, binaryCache);
+        // Every draw samples the base color texture from unit 0.
+        gl.glUseProgram(program.getShaderHandle());
+        gl.glUniform1i(program.getUniform("u_BaseColorTexture"), 0);
+        return new GLTFProgram(features, program);
+    }
+
+    // The sources have no #version directive, so the defines may simply come first.
+    private static String getDefines(int features) {
+        StringBuilder defines = new StringBuilder();
+        if ((features & FEATURE_INSTANCING) != 0) {
+            defines.append("#define INSTANCING\n");
+        }
+        return defines.toString();
+    }
+
+    void release() {
+        program.release();
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Packs the vertex and index data of many render objects into a few large GL buffers. Each
+ * bufferView, be it positions, texture coordinates or indices, is placed once, in a page of up to
+ * {@link #PAGE_SIZE} bytes, and every page becomes one {@link BufferUpload}.
+ *
+ * GLES 2.0 has no base vertex draw, so objects keep their indices relative to their own
+ * vertices: the byte offset of those vertices in the page is applied through the vertex
+ * attribute pointer, and the index offset through glDrawElements.
+ */
+final class GeometryPacker {
+    static final int PAGE_SIZE = 4 << 20;
+
+    private final int target;
+    private final ArrayList<BufferUpload> pages;
+    private final BufferUpload[] viewPage; // bufferView -> page, null if not placed
+    private final int[] viewOffset;        // bufferView -> byte offset in its page
+    private BufferUpload currentPage;
+
+    private GeometryPacker(int target, int bufferViewCount, ArrayList<BufferUpload> pages) {
+        this.target = target;
+        this.pages = pages;
+        viewPage = new BufferUpload[bufferViewCount];
+        viewOffset = new int[bufferViewCount];
+    }
+
+    /**
+     * Lays the geometry of {@code renderObjects} out in shared buffers and points each object at
+     * its range. Returns the uploads of the buffers, vertex and index pages in the order they were
+     * started, so that the first objects are the first to be complete. Makes no GL calls.
+     */
+    static ArrayList<BufferUpload> pack(
+            ArrayList<SampleGLTFRenderer.GLTFRenderObject> renderObjects, int bufferViewCount) {
+        ArrayList<BufferUpload> pages = new ArrayList<>();
+        GeometryPacker vertexPacker =
+                new GeometryPacker(GLES20.GL_ARRAY_BUFFER, bufferViewCount, pages);
+        GeometryPacker indexPacker =
+                new GeometryPacker(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferViewCount, pages);
+        for (SampleGLTFRenderer.GLTFRenderObject renderObject : renderObjects) {
+            int vertexView = renderObject.vertexBufferView;
+            vertexPacker.place(vertexView, renderObject.vertices,
+                    renderObject.vertexByteOffset, renderObject.vertexByteLength);
+            vertexPacker.viewPage[vertexView].addVertexUser(renderObject);
+            renderObject.vertexBufferOffset = vertexPacker.viewOffset[vertexView];
+            int texcoordView = renderObject.texcoordBufferView;
+            if (texcoordView >= 0) {
+                vertexPacker.place(texcoordView, renderObject.texcoords,
+                        renderObject.texcoordByteOffset, renderObject.texcoordByteLength);
+                vertexPacker.viewPage[texcoordView].addTexcoordUser(renderObject);
+                renderObject.texcoordBufferOffset = vertexPacker.viewOffset[texcoordView];
+            }
+            int indexView = renderObject.indexBufferView;
+            indexPacker.place(indexView, renderObject.indices,
+                    renderObject.indexByteOffset, renderObject.indexByteLength);
+            indexPacker.viewPage[indexView].addIndexUser(renderObject);
+            renderObject.indexBufferOffset = indexPacker.viewOffset[indexView];
+        }
+        return pages;
+    }
+
+    private void place(int bufferView, ByteBuffer source, int start, int byteLength) {
+        if (viewPage[bufferView] != null) {
+            return;
+        }
+        int offset = currentPage == null ? 0 : (currentPage.getSize() + 3) & ~3;
+        if (currentPage == null || (offset > 0 && offset + byteLength > PAGE_SIZE)) {
+            // Start a new page; data larger than a page gets one to itself.
+            currentPage = new BufferUpload(target);
+            pages.add(currentPage);
+        }
+        viewPage[bufferView] = currentPage;
+        viewOffset[bufferView] = currentPage.add(source, start, byteLength);
+    }
+}
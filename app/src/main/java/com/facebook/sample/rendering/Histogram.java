@@ -0,0 +1,97 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts non-negative values in a fixed set of log-linear buckets: values below 16 exactly, larger
+ * ones in eight buckets per power of two, which keeps percentiles within 12.5% of the recorded
+ * values. Recording is lock-free and never allocates, so one thread may record while others read;
+ * a reader sees every count, though not necessarily all of the same instant.
+ */
+final class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS; // values below it get a bucket each
+    private static final int LINEAR_BITS = 4;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    void record(long value) {
+        counts.incrementAndGet(getBucket(Math.max(value, 0)));
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts.set(i, 0);
+        }
+    }
+
+    /** Returns the number of values recorded since the last reset. */
+    long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the value below which {@code percentile} percent of the recorded values fall, to the
+     * precision of the buckets, or 0 if there are none.
+     */
+    long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(count * percentile / 100), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return getMidpoint(i);
+            }
+        }
+        // Counts kept arriving while summing; the largest bucket in use bounds them.
+        for (int i = BUCKET_COUNT - 1; i > 0; --i) {
+            if (counts.get(i) != 0) {
+                return getMidpoint(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int getBucket(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getMidpoint(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) * width) + width / 2;
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.sample.rendering;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A parsed KTX2 container, as referenced by KHR_texture_basisu. Only the formats GLES can upload
+ * as they are stored are supported: ETC2/EAC, ASTC LDR and uncompressed RGBA8, without
+ * supercompression. Basis Universal payloads would need transcoding first and are rejected, so
+ * that the texture falls back to its PNG or JPEG source.
+ *
+ * sRGB formats are uploaded as their UNORM twins. The renderer neither lights nor blends in
+ * linear space, so passing the stored values straight through matches how it shades untextured
+ * primitives.
+ */
+final class Ktx2Image {
+    private static final String TAG = Ktx2Image.class.getSimpleName();
+
+    static final int FAMILY_UNCOMPRESSED = 0;
+    static final int FAMILY_ETC2 = 1;
+    static final int FAMILY_ASTC = 2;
+
+    // From KHR_texture_compression_astc_ldr, which GLES20 and GLES30 don't define.
+    static final int GL_COMPRESSED_RGBA_ASTC_4x4 = 0x93B0;
+
+    private static final byte[] IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int HEADER_SIZE = 80;
+    private static final int LEVEL_INDEX_ENTRY_SIZE = 24;
+
+    private static final int VK_FORMAT_R8G8B8A8_UNORM = 37;
+    private static final int VK_FORMAT_R8G8B8A8_SRGB = 43;
+    private static final int VK_FORMAT_ETC2_R8G8B8_UNORM_BLOCK = 147;
+    private static final int VK_FORMAT_EAC_R11G11_SNORM_BLOCK = 156;
+    private static final int VK_FORMAT_ASTC_4x4_UNORM_BLOCK = 157;
+    private static final int VK_FORMAT_ASTC_12x12_SRGB_BLOCK = 184;
+
+    // GL formats of VK_FORMAT_ETC2_R8G8B8_UNORM_BLOCK to VK_FORMAT_EAC_R11G11_SNORM_BLOCK, sRGB
+    // ones mapped to UNORM.
+    private static final int[] ETC2_FORMATS = {
+            GLES30.GL_COMPRESSED_RGB8_ETC2, GLES30.GL_COMPRESSED_RGB8_ETC2,
+            GLES30.GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2,
+            GLES30.GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2,
+            GLES30.GL_COMPRESSED_RGBA8_ETC2_EAC, GLES30.GL_COMPRESSED_RGBA8_ETC2_EAC,
+            GLES30.GL_COMPRESSED_R11_EAC, GLES30.GL_COMPRESSED_SIGNED_R11_EAC,
+            GLES30.GL_COMPRESSED_RG11_EAC, GLES30.GL_COMPRESSED_SIGNED_RG11_EAC
+    };
+
+    final int family;
+    final int glFormat; // internal format for glCompressedTexImage2D, or GL_RGBA
+    final int width;
+    final int height;
+    // Zero when the file asks for mipmaps to be generated, which is only allowed uncompressed.
+    final int levelCount;
+    private final ByteBuffer data;
+    private final int[] levelOffsets;
+    private final int[] levelLengths;
+
+    private Ktx2Image(int family, int glFormat, int width, int height, int levelCount,
+            ByteBuffer data, int[] levelOffsets, int[] levelLengths) {
+        this.family = family;
+        this.glFormat = glFormat;
+        this.width = width;
+        this.height = height;
+        this.levelCount = levelCount;
+        this.data = data;
+        this.levelOffsets = levelOffsets;
+        this.levelLengths = levelLengths;
+    }
+
+    static boolean isKtx2(ByteBuffer data) {
+        if (data.remaining() < IDENTIFIER.length) {
+            return false;
+        }
+        for (int i = 0; i < IDENTIFIER.length; ++i) {
+            if (data.get(data.position() + i) != IDENTIFIER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Parses a KTX2 file, or returns null if it is malformed or its format isn't supported. */
+    static Ktx2Image parse(ByteBuffer source) {
+        ByteBuffer data = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (!isKtx2(data) || data.capacity() < HEADER_SIZE) {
+            Log.e(TAG, "Not a KTX2 file");
+            return null;
+        }
+        int vkFormat = data.getInt(12);
+        int width = data.getInt(20);
+        int height = data.getInt(24);
+        int depth = data.getInt(28);
+        int layerCount = data.getInt(32);
+        int faceCount = data.getInt(36);
+        int levelCount = data.getInt(40);
+        int supercompression = data.getInt(44);
+        if (supercompression != 0) {
+            Log.e(TAG, "KTX2 supercompression scheme " + supercompression + " isn't supported");
+            return null;
+        }
+        if (width <= 0 || height <= 0 || depth > 1 || layerCount > 1 || faceCount != 1
+                || levelCount < 0 || levelCount > 31) {
+            Log.e(TAG, "Only single 2D KTX2 textures are supported");
+            return null;
+        }
+
+        int family;
+        int glFormat;
+        if (vkFormat == VK_FORMAT_R8G8B8A8_UNORM || vkFormat == VK_FORMAT_R8G8B8A8_SRGB) {
+            family = FAMILY_UNCOMPRESSED;
+            glFormat = GLES20.GL_RGBA;
+        } else if (vkFormat >= VK_FORMAT_ETC2_R8G8B8_UNORM_BLOCK
+                && vkFormat <= VK_FORMAT_EAC_R11G11_SNORM_BLOCK) {
+            family = FAMILY_ETC2;
+            glFormat = ETC2_FORMATS[vkFormat - VK_FORMAT_ETC2_R8G8B8_UNORM_BLOCK];
+        } else if (vkFormat >= VK_FORMAT_ASTC_4x4_UNORM_BLOCK
+                && vkFormat <= VK_FORMAT_ASTC_12x12_SRGB_BLOCK) {
+            // UNORM and SRGB alternate, in the same block size order as the GL formats.
+            family = FAMILY_ASTC;
+            glFormat = GL_COMPRESSED_RGBA_ASTC_4x4
+                    + (vkFormat - VK_FORMAT_ASTC_4x4_UNORM_BLOCK) / 2;
+        } else {
+            Log.e(TAG, "KTX2 vkFormat " + vkFormat + " isn't supported");
+            return null;
+        }
+        if (levelCount == 0 && family != FAMILY_UNCOMPRESSED) {
+            Log.e(TAG, "Compressed KTX2 textures must store their mipmaps");
+            return null;
+        }
+
+        int storedLevels = Math.max(levelCount, 1);
+        if (data.capacity() < HEADER_SIZE + storedLevels * LEVEL_INDEX_ENTRY_SIZE) {
+            Log.e(TAG, "KTX2 level index is truncated");
+            return null;
+        }
+        int[] levelOffsets = new int[storedLevels];
+        int[] levelLengths = new int[storedLevels];
+        for (int level = 0; level < storedLevels; ++level) {
+            int entry = HEADER_SIZE + level * LEVEL_INDEX_ENTRY_SIZE;
+            long offset = data.getLong(entry);
+            long length = data.getLong(entry + 8);
+            if (offset < 0 || length <= 0 || offset + length > data.capacity()) {
+                Log.e(TAG, "KTX2 level " + level + " is out of range");
+                return null;
+            }
+            levelOffsets[level] = (int) offset;
+            levelLengths[level] = (int) length;
+        }
+        return new Ktx2Image(family, glFormat, width, height, levelCount, data, levelOffsets,
+                levelLengths);
+    }
+
+    /** Number of levels stored in the file, at least 1. */
+    int getStoredLevelCount() {
+        return levelLengths.length;
+    }
+
+    int getLevelWidth(int level) {
+        return Math.max(1, width >> level);
+    }
+
+    int getLevelHeight(int level) {
+        return Math.max(1, height >> level);
+    }
+
+    int getLevelByteLength(int level) {
+        return levelLengths[level];
+    }
+
+    ByteBuffer getLevel(int level) {
+        ByteBuffer levelData = data.duplicate();
+        levelData.limit(levelOffsets[level] + levelLengths[level]);
+        levelData.position(levelOffsets[level]);
+        return levelData.slice();
+    }
+}
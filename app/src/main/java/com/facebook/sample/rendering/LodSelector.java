@@ -0,0 +1,171 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.opengl.Matrix;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the level of detail of every node of a {@link TransformHierarchy} once per frame.
+ *
+ * Levels with an object space error are chosen by projecting the error at the distance of the
+ * mesh's bounding sphere: the coarsest level whose error stays under
+ * {@link #setErrorThreshold(float)} pixels wins. MSFT_lod levels carry a minimum screen coverage
+ * instead, the fraction of the viewport the projected bounding sphere covers; the finest level
+ * whose minimum is met wins, and none if even the last one's isn't.
+ *
+ * When a triangle budget is set, the error threshold is raised and the coverage lowered by a
+ * common bias while frames exceed it, and relaxed again once they are well below.
+ */
+final class LodSelector {
+    private static final float BIAS_STEP = 1.25f;
+    private static final float MAX_BIAS = 1024;
+    // Frames must drop below this fraction of the budget before the bias is relaxed, so that it
+    // doesn't flip between two values every frame.
+    private static final float BUDGET_HYSTERESIS = 0.8f;
+
+    private final CompactGLTFScene scene;
+    private final float[] meshBounds; // local bounds of each mesh's finest level
+    private final int[] entryMeshes;  // entry -> mesh, -1 for nodes without one
+    private final int[] entryLevels;  // entry -> level chosen this frame
+    private final int[] entryFrames;  // entry -> frame entryLevels was chosen in
+
+    private int frame;
+    private float[] modelViewMatrix;
+    private float[] projectionMatrix;
+    private final float[] nodeModelViewMatrix = new float[16];
+    private final float[] center = new float[4];
+    private final float[] viewCenter = new float[4];
+
+    private int viewportWidth;
+    private int viewportHeight;
+    private float errorThreshold = 1;
+    private float bias = 1;
+
+    LodSelector(CompactGLTFScene scene, TransformHierarchy hierarchy, float[] meshBounds) {
+        this.scene = scene;
+        this.meshBounds = meshBounds;
+        entryMeshes = new int[hierarchy.size()];
+        for (int entry = 0; entry < entryMeshes.length; ++entry) {
+            entryMeshes[entry] = scene.nodeMesh[hierarchy.getNode(entry)];
+        }
+        entryLevels = new int[entryMeshes.length];
+        entryFrames = new int[entryMeshes.length];
+        Arrays.fill(entryFrames, -1);
+    }
+
+    void setViewport(int width, int height) {
+        viewportWidth = width;
+        viewportHeight = height;
+    }
+
+    /** Sets the largest error, in pixels, a level may show on screen; 1 by default. */
+    void setErrorThreshold(float pixels) {
+        errorThreshold = pixels;
+    }
+
+    /** Starts a frame; world matrices are relative to {@code modelViewMatrix}. */
+    void beginFrame(float[] modelViewMatrix, float[] projectionMatrix) {
+        this.modelViewMatrix = modelViewMatrix;
+        this.projectionMatrix = projectionMatrix;
+        ++frame;
+    }
+
+    /** Adjusts the bias to how many triangles the frame drew, if {@code budget} is positive. */
+    void endFrame(int triangleCount, int budget) {
+        if (budget <= 0) {
+            bias = 1;
+        } else if (triangleCount > budget) {
+            bias = Math.min(bias * BIAS_STEP, MAX_BIAS);
+        } else if (triangleCount < budget * BUDGET_HYSTERESIS) {
+            bias = Math.max(bias / BIAS_STEP, 1);
+        }
+    }
+
+    /**
+     * Returns the level of detail of the mesh of {@code entry} to draw this frame, as an index
+     * into its levels, or -1 if none should be drawn. The choice is made once per entry and
+     * frame.
+     */
+    int getLevel(int entry, float[] worldMatrices) {
+        if (entryFrames[entry] != frame) {
+            entryFrames[entry] = frame;
+            entryLevels[entry] = selectLevel(entryMeshes[entry], worldMatrices,
+                    entry * TransformHierarchy.MATRIX_SIZE);
+        }
+        return entryLevels[entry];
+    }
+
+    private int selectLevel(int mesh, float[] worldMatrices, int offset) {
+        int start = scene.meshLodStart[mesh];
+        int levelCount = scene.meshLodStart[mesh + 1] - start;
+        boolean byCoverage = scene.meshLodByCoverage[mesh];
+        if (viewportHeight <= 0 || (levelCount == 1 && (!byCoverage
+                || scene.meshLodThresholds[start] <= 0))) {
+            return 0;
+        }
+
+        Matrix.multiplyMM(nodeModelViewMatrix, 0, modelViewMatrix, 0, worldMatrices, offset);
+        int bounds = mesh * BoundingVolumeHierarchy.BOUNDS_SIZE;
+        float radius = 0;
+        for (int c = 0; c < 3; ++c) {
+            float min = meshBounds[bounds + c];
+            float max = meshBounds[bounds + 3 + c];
+            center[c] = (min + max) / 2;
+            radius += (max - min) * (max - min) / 4;
+        }
+        center[3] = 1;
+        Matrix.multiplyMV(viewCenter, 0, nodeModelViewMatrix, 0, center, 0);
+        // The largest scale of the transform, so that errors are never underestimated.
+        float scale = 0;
+        for (int column = 0; column < 3; ++column) {
+            float x = nodeModelViewMatrix[column * 4];
+            float y = nodeModelViewMatrix[column * 4 + 1];
+            float z = nodeModelViewMatrix[column * 4 + 2];
+            scale = Math.max(scale, x * x + y * y + z * z);
+        }
+        scale = (float) Math.sqrt(scale);
+        radius = (float) Math.sqrt(radius) * scale;
+
+        // Pixels per unit of view space at the sphere's center; the camera looks down -z.
+        float pixelsPerUnit = projectionMatrix[5] * viewportHeight / 2;
+        if (projectionMatrix[11] != 0) {
+            float distance = -viewCenter[2];
+            if (distance <= radius) {
+                return 0; // the camera is inside the bounds
+            }
+            pixelsPerUnit /= distance;
+        }
+
+        if (byCoverage) {
+            float projectedRadius = radius * pixelsPerUnit;
+            float coverage = Math.min(1, (float) Math.PI * projectedRadius * projectedRadius
+                    / ((float) viewportWidth * viewportHeight)) / bias;
+            for (int level = 0; level < levelCount; ++level) {
+                if (coverage >= scene.meshLodThresholds[start + level]) {
+                    return level;
+                }
+            }
+            return -1;
+        }
+        float maxError = errorThreshold * bias / (scale * pixelsPerUnit);
+        int level = 0;
+        while (level + 1 < levelCount && scene.meshLodThresholds[start + level + 1] <= maxError) {
+            ++level;
+        }
+        return level;
+    }
+}
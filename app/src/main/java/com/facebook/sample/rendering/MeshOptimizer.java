@@ -0,0 +1,568 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * A load time optimization stage for indexed triangle primitives, run between reading and upload:
+ * <ol>
+ * <li>triangles are reordered for the post-transform vertex cache with Tipsify (Sander et al.,
+ * "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw", 2007);</li>
+ * <li>the resulting clusters are sorted front to back from the outside in, as in the same paper,
+ * to reduce overdraw at a small cost in cache efficiency;</li>
+ * <li>vertices are renumbered in order of first use so that vertex fetch walks memory linearly.
+ * </li>
+ * </ol>
+ * 8, 16 and 32 bit indices are all supported, and keep their type. Optimized data goes into new
+ * buffers, so the source buffers are never written. The output only depends on the input, which
+ * lets callers cache it. The ACMR (average cache miss ratio per triangle) of a FIFO cache of
+ * {@link #CACHE_SIZE} entries over all optimized primitives is logged before and after, once per
+ * scene.
+ */
+final class MeshOptimizer {
+    private static final String TAG = MeshOptimizer.class.getSimpleName();
+
+    static final int CACHE_SIZE = 16;
+    // Clusters are split where the cache efficiency so far is within this factor of the whole
+    // cluster's, which gives the overdraw sort more freedom for little cache loss.
+    private static final float OVERDRAW_THRESHOLD = 1.05f;
+
+    // Cluster start triangles, CSR style: cluster i covers starts[i] to starts[i + 1] - 1.
+    private static class Clusters {
+        int[] starts;
+        int count;
+
+        Clusters(int triangleCount) {
+            starts = new int[triangleCount + 1];
+        }
+
+        void add(int start) {
+            if (count == 0 || starts[count - 1] != start) {
+                starts[count++] = start;
+            }
+        }
+    }
+
+    private MeshOptimizer() {}
+
+    /** Optimizes every indexed triangle primitive of {@code scene} in place. */
+    static void optimize(SampleGLTFReader.GLTFScene scene) {
+        // Vertices can only be renumbered when no other primitive reads the same accessors.
+        int[] attributeUses = new int[scene.accessors.size()];
+        for (SampleGLTFReader.GLTFScene.Mesh mesh : scene.meshes) {
+            for (SampleGLTFReader.GLTFScene.Primitive primitive : mesh.primitives) {
+                for (int accessor : primitive.attributes.values()) {
+                    if (accessor >= 0 && accessor < attributeUses.length) {
+                        ++attributeUses[accessor];
+                    }
+                }
+            }
+        }
+        // Cache misses before and after, summed over the optimized primitives.
+        float[] misses = new float[2];
+        int primitiveCount = 0;
+        int triangleCount = 0;
+        for (SampleGLTFReader.GLTFScene.Mesh mesh : scene.meshes) {
+            for (SampleGLTFReader.GLTFScene.Primitive primitive : mesh.primitives) {
+                int triangles = optimizePrimitive(scene, primitive, attributeUses, misses);
+                if (triangles > 0) {
+                    ++primitiveCount;
+                    triangleCount += triangles;
+                }
+            }
+        }
+        if (triangleCount > 0 && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, String.format(Locale.US, "%d primitives, %d triangles: ACMR %.3f -> %.3f",
+                    primitiveCount, triangleCount, misses[0] / triangleCount,
+                    misses[1] / triangleCount));
+        }
+    }
+
+    // Returns the number of triangles optimized, 0 if the primitive was left alone, and adds their
+    // cache misses before and after to misses[0] and misses[1].
+    private static int optimizePrimitive(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Primitive primitive, int[] attributeUses, float[] misses) {
+        Integer position = primitive.attributes.get("POSITION");
+        if (primitive.mode != SampleGLTFReader.MODE_TRIANGLES || primitive.indices < 0
+                || position == null || !isReadable(scene, position)
+                || !isReadable(scene, primitive.indices)) {
+            return 0;
+        }
+        SampleGLTFReader.GLTFScene.Accessor indexAccessor =
+                scene.accessors.get(primitive.indices);
+        int indexType = indexAccessor.componentType;
+        if ((indexType != SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE
+                && indexType != SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT
+                && indexType != SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_INT)
+                || indexAccessor.count % 3 != 0) {
+            return 0;
+        }
+
+        int vertexCount = scene.accessors.get(position).count;
+        int[] indices = readIndices(scene, indexAccessor);
+        for (int index : indices) {
+            if (index < 0 || index >= vertexCount) {
+                Log.e(TAG, "Skipping primitive with out of range indices");
+                return 0;
+            }
+        }
+
+        float acmrBefore = computeAcmr(indices, vertexCount);
+        Clusters clusters = new Clusters(indices.length / 3);
+        indices = tipsify(indices, vertexCount, clusters);
+        indices = sortClusters(indices, vertexCount, clusters, readPositions(scene, position));
+        float acmrAfter = computeAcmr(indices, vertexCount);
+
+        if (canRenumberVertices(scene, primitive, attributeUses, vertexCount)) {
+            renumberVertices(scene, primitive, indices, vertexCount);
+        }
+        primitive.indices = appendIndices(scene, indexAccessor, indices);
+
+        int triangleCount = indices.length / 3;
+        misses[0] += acmrBefore * triangleCount;
+        misses[1] += acmrAfter * triangleCount;
+        return triangleCount;
+    }
+
+    /**
+     * Returns the average number of FIFO cache misses per triangle when drawing {@code indices}.
+     */
+    static float computeAcmr(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        if (triangleCount == 0) {
+            return 0;
+        }
+        int[] cacheTime = new int[vertexCount];
+        int time = CACHE_SIZE + 1;
+        int misses = 0;
+        for (int index : indices) {
+            if (time - cacheTime[index] > CACHE_SIZE) {
+                cacheTime[index] = time++;
+                ++misses;
+            }
+        }
+        return (float) misses / triangleCount;
+    }
+
+    // Tipsify: fans around the cached vertex whose triangles are most likely to still hit the
+    // cache, falling back to recently used vertices when none is left. Each fallback starts a new
+    // cluster in clusters.
+    private static int[] tipsify(int[] indices, int vertexCount, Clusters clusters) {
+        int triangleCount = indices.length / 3;
+        // Triangles around each vertex, CSR style.
+        int[] adjacencyStart = new int[vertexCount + 1];
+        for (int index : indices) {
+            ++adjacencyStart[index + 1];
+        }
+        for (int v = 0; v < vertexCount; ++v) {
+            adjacencyStart[v + 1] += adjacencyStart[v];
+        }
+        int[] adjacency = new int[indices.length];
+        int[] fill = Arrays.copyOf(adjacencyStart, vertexCount);
+        for (int i = 0; i < indices.length; ++i) {
+            adjacency[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] live = new int[vertexCount];
+        for (int v = 0; v < vertexCount; ++v) {
+            live[v] = adjacencyStart[v + 1] - adjacencyStart[v];
+        }
+        int[] cacheTime = new int[vertexCount];
+        int time = CACHE_SIZE + 1;
+        boolean[] emitted = new boolean[triangleCount];
+        int[] deadEnd = new int[indices.length];
+        int deadEndCount = 0;
+        int[] candidates = new int[indices.length];
+        int[] output = new int[indices.length];
+        int outputCount = 0;
+
+        int cursor = 0;
+        while (cursor < vertexCount && live[cursor] == 0) {
+            ++cursor;
+        }
+        int fan = cursor < vertexCount ? cursor : -1;
+        clusters.add(0);
+        while (fan >= 0) {
+            int candidateCount = 0;
+            for (int a = adjacencyStart[fan]; a < adjacencyStart[fan + 1]; ++a) {
+                int triangle = adjacency[a];
+                if (emitted[triangle]) {
+                    continue;
+                }
+                emitted[triangle] = true;
+                for (int c = 0; c < 3; ++c) {
+                    int v = indices[triangle * 3 + c];
+                    output[outputCount++] = v;
+                    deadEnd[deadEndCount++] = v;
+                    candidates[candidateCount++] = v;
+                    --live[v];
+                    if (time - cacheTime[v] > CACHE_SIZE) {
+                        cacheTime[v] = time++;
+                    }
+                }
+            }
+
+            // Prefer the candidate that stays in the cache while its remaining triangles are
+            // emitted, and among those the one that entered the cache first.
+            int next = -1;
+            int bestPriority = -1;
+            for (int i = 0; i < candidateCount; ++i) {
+                int v = candidates[i];
+                if (live[v] == 0) {
+                    continue;
+                }
+                int priority = 0;
+                if (time - cacheTime[v] + 2 * live[v] <= CACHE_SIZE) {
+                    priority = time - cacheTime[v];
+                }
+                if (priority > bestPriority) {
+                    next = v;
+                    bestPriority = priority;
+                }
+            }
+            if (next < 0) {
+                while (deadEndCount > 0 && next < 0) {
+                    int v = deadEnd[--deadEndCount];
+                    if (live[v] > 0) {
+                        next = v;
+                    }
+                }
+                while (next < 0 && cursor < vertexCount) {
+                    if (live[cursor] > 0) {
+                        next = cursor;
+                    } else {
+                        ++cursor;
+                    }
+                }
+                if (next >= 0) {
+                    clusters.add(outputCount / 3);
+                }
+            }
+            fan = next;
+        }
+        clusters.add(triangleCount);
+        return output;
+    }
+
+    // Splits clusters further where cache efficiency allows, then orders them so that clusters
+    // facing away from the mesh center, likely to occlude the others, are drawn first.
+    private static int[] sortClusters(int[] indices, int vertexCount, Clusters hardClusters,
+            float[] positions) {
+        if (positions == null) {
+            return indices;
+        }
+        int triangleCount = indices.length / 3;
+        Clusters clusters = new Clusters(triangleCount);
+        int[] cacheTime = new int[vertexCount];
+        int time = CACHE_SIZE + 1;
+        for (int i = 0; i + 1 < hardClusters.count; ++i) {
+            int start = hardClusters.starts[i];
+            int end = hardClusters.starts[i + 1];
+            // Misses of the whole cluster from a cold cache.
+            time += CACHE_SIZE + 1;
+            int clusterMisses = 0;
+            for (int j = start * 3; j < end * 3; ++j) {
+                if (time - cacheTime[indices[j]] > CACHE_SIZE) {
+                    cacheTime[indices[j]] = time++;
+                    ++clusterMisses;
+                }
+            }
+            float threshold = OVERDRAW_THRESHOLD * clusterMisses / (end - start);
+
+            clusters.add(start);
+            time += CACHE_SIZE + 1;
+            int subclusterStart = start;
+            int misses = 0;
+            for (int triangle = start; triangle < end; ++triangle) {
+                for (int j = triangle * 3; j < triangle * 3 + 3; ++j) {
+                    if (time - cacheTime[indices[j]] > CACHE_SIZE) {
+                        cacheTime[indices[j]] = time++;
+                        ++misses;
+                    }
+                }
+                if (triangle + 1 < end
+                        && misses <= threshold * (triangle + 1 - subclusterStart)) {
+                    clusters.add(triangle + 1);
+                    subclusterStart = triangle + 1;
+                    misses = 0;
+                    time += CACHE_SIZE + 1;
+                }
+            }
+        }
+        clusters.add(triangleCount);
+
+        // Area weighted centroids and normals of the mesh and of each cluster.
+        int clusterCount = clusters.count - 1;
+        float[] centroids = new float[clusterCount * 3];
+        float[] normals = new float[clusterCount * 3];
+        float[] meshCentroid = new float[3];
+        float meshArea = 0;
+        float[] areas = new float[clusterCount];
+        for (int cluster = 0; cluster < clusterCount; ++cluster) {
+            for (int triangle = clusters.starts[cluster];
+                    triangle < clusters.starts[cluster + 1]; ++triangle) {
+                int a = indices[triangle * 3] * 3;
+                int b = indices[triangle * 3 + 1] * 3;
+                int c = indices[triangle * 3 + 2] * 3;
+                float ux = positions[b] - positions[a];
+                float uy = positions[b + 1] - positions[a + 1];
+                float uz = positions[b + 2] - positions[a + 2];
+                float vx = positions[c] - positions[a];
+                float vy = positions[c + 1] - positions[a + 1];
+                float vz = positions[c + 2] - positions[a + 2];
+                float nx = uy * vz - uz * vy;
+                float ny = uz * vx - ux * vz;
+                float nz = ux * vy - uy * vx;
+                float area = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                normals[cluster * 3] += nx;
+                normals[cluster * 3 + 1] += ny;
+                normals[cluster * 3 + 2] += nz;
+                areas[cluster] += area;
+                for (int k = 0; k < 3; ++k) {
+                    float center = (positions[a + k] + positions[b + k] + positions[c + k]) / 3;
+                    centroids[cluster * 3 + k] += center * area;
+                    meshCentroid[k] += center * area;
+                }
+            }
+            meshArea += areas[cluster];
+        }
+        for (int k = 0; k < 3; ++k) {
+            meshCentroid[k] = meshArea > 0 ? meshCentroid[k] / meshArea : 0;
+        }
+        final float[] sortKeys = new float[clusterCount];
+        for (int cluster = 0; cluster < clusterCount; ++cluster) {
+            float length = (float) Math.sqrt(normals[cluster * 3] * normals[cluster * 3]
+                    + normals[cluster * 3 + 1] * normals[cluster * 3 + 1]
+                    + normals[cluster * 3 + 2] * normals[cluster * 3 + 2]);
+            if (areas[cluster] == 0 || length == 0) {
+                continue;
+            }
+            for (int k = 0; k < 3; ++k) {
+                float offset = centroids[cluster * 3 + k] / areas[cluster] - meshCentroid[k];
+                sortKeys[cluster] += offset * normals[cluster * 3 + k] / length;
+            }
+        }
+
+        // A stable sort keeps the result deterministic when keys tie.
+        ArrayList<Integer> order = new ArrayList<>(clusterCount);
+        for (int cluster = 0; cluster < clusterCount; ++cluster) {
+            order.add(cluster);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(sortKeys[b], sortKeys[a]);
+            }
+        });
+        int[] output = new int[indices.length];
+        int outputCount = 0;
+        for (int cluster : order) {
+            int start = clusters.starts[cluster] * 3;
+            int length = clusters.starts[cluster + 1] * 3 - start;
+            System.arraycopy(indices, start, output, outputCount, length);
+            outputCount += length;
+        }
+        return output;
+    }
+
+    private static boolean canRenumberVertices(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Primitive primitive, int[] attributeUses, int vertexCount) {
+        for (int accessor : primitive.attributes.values()) {
+            if (accessor < 0 || accessor >= attributeUses.length || attributeUses[accessor] != 1
+                    || !isReadable(scene, accessor)
+                    || scene.accessors.get(accessor).count != vertexCount) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Renumbers vertices in order of first use, rewriting indices in place and replacing every
+    // attribute by a reordered copy. Vertices no triangle uses are dropped.
+    private static void renumberVertices(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Primitive primitive, int[] indices, int vertexCount) {
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int usedCount = 0;
+        for (int i = 0; i < indices.length; ++i) {
+            int v = indices[i];
+            if (remap[v] < 0) {
+                remap[v] = usedCount++;
+            }
+            indices[i] = remap[v];
+        }
+
+        // Sorted names keep the order of the appended buffers deterministic.
+        ArrayList<String> names = new ArrayList<>(primitive.attributes.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            SampleGLTFReader.GLTFScene.Accessor source =
+                    scene.accessors.get(primitive.attributes.get(name));
+            SampleGLTFReader.GLTFScene.BufferView sourceView =
+                    scene.bufferViews.get(source.bufferView);
+            ByteBuffer sourceData = scene.buffers.get(sourceView.buffer).getData();
+            int elementSize = SampleGLTFReader.getComponentSize(source.componentType)
+                    * SampleGLTFReader.getComponentCount(source.type);
+            int sourceStride = sourceView.byteStride != 0 ? sourceView.byteStride : elementSize;
+            int sourceStart = sourceView.byteOffset + source.byteOffset;
+            // Vertex attributes must stay 4 byte aligned.
+            int stride = (elementSize + 3) & ~3;
+
+            ByteBuffer data = ByteBuffer.allocateDirect(usedCount * stride)
+                    .order(ByteOrder.nativeOrder());
+            for (int v = 0; v < vertexCount; ++v) {
+                if (remap[v] < 0) {
+                    continue;
+                }
+                int from = sourceStart + v * sourceStride;
+                for (int b = 0; b < elementSize; ++b) {
+                    data.put(remap[v] * stride + b, sourceData.get(from + b));
+                }
+            }
+
+            SampleGLTFReader.GLTFScene.Accessor accessor = copyAccessor(source);
+            accessor.bufferView = appendBufferView(scene, data,
+                    stride != elementSize ? stride : 0, SampleGLTFReader.TARGET_ARRAY_BUFFER);
+            accessor.count = usedCount;
+            scene.accessors.add(accessor);
+            primitive.attributes.put(name, scene.accessors.size() - 1);
+        }
+    }
+
+    // Appends an accessor holding indices with the component type of source; returns its index.
+    static int appendIndices(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Accessor source, int[] indices) {
+        int componentSize = SampleGLTFReader.getComponentSize(source.componentType);
+        ByteBuffer data = ByteBuffer.allocateDirect((indices.length * componentSize + 3) & ~3)
+                .order(ByteOrder.nativeOrder());
+        for (int i = 0; i < indices.length; ++i) {
+            switch (componentSize) {
+                case 1:
+                    data.put(i, (byte) indices[i]);
+                    break;
+                case 2:
+                    data.putShort(i * 2, (short) indices[i]);
+                    break;
+                default:
+                    data.putInt(i * 4, indices[i]);
+                    break;
+            }
+        }
+        SampleGLTFReader.GLTFScene.Accessor accessor = copyAccessor(source);
+        accessor.bufferView =
+                appendBufferView(scene, data, 0, SampleGLTFReader.TARGET_ELEMENT_ARRAY_BUFFER);
+        scene.accessors.add(accessor);
+        return scene.accessors.size() - 1;
+    }
+
+    private static SampleGLTFReader.GLTFScene.Accessor copyAccessor(
+            SampleGLTFReader.GLTFScene.Accessor source) {
+        SampleGLTFReader.GLTFScene.Accessor accessor = new SampleGLTFReader.GLTFScene.Accessor();
+        accessor.name = source.name;
+        accessor.componentType = source.componentType;
+        accessor.normalized = source.normalized;
+        accessor.count = source.count;
+        accessor.type = source.type;
+        accessor.min = source.min;
+        accessor.max = source.max;
+        return accessor;
+    }
+
+    private static int appendBufferView(SampleGLTFReader.GLTFScene scene, ByteBuffer data,
+            int byteStride, int target) {
+        SampleGLTFReader.GLTFScene.Buffer buffer = new SampleGLTFReader.GLTFScene.Buffer();
+        buffer.data = data;
+        buffer.byteLength = data.capacity();
+        scene.buffers.add(buffer);
+
+        SampleGLTFReader.GLTFScene.BufferView bufferView =
+                new SampleGLTFReader.GLTFScene.BufferView();
+        bufferView.buffer = scene.buffers.size() - 1;
+        bufferView.byteLength = buffer.byteLength;
+        bufferView.byteStride = byteStride;
+        bufferView.target = target;
+        scene.bufferViews.add(bufferView);
+        return scene.bufferViews.size() - 1;
+    }
+
+    static boolean isReadable(SampleGLTFReader.GLTFScene scene, int accessorIndex) {
+        if (accessorIndex < 0 || accessorIndex >= scene.accessors.size()) {
+            return false;
+        }
+        SampleGLTFReader.GLTFScene.Accessor accessor = scene.accessors.get(accessorIndex);
+        return accessor.valid && accessor.bufferView >= 0
+                && scene.buffers.get(scene.bufferViews.get(accessor.bufferView).buffer).getData()
+                        != null;
+    }
+
+    static int[] readIndices(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Accessor accessor) {
+        SampleGLTFReader.GLTFScene.BufferView bufferView =
+                scene.bufferViews.get(accessor.bufferView);
+        ByteBuffer data = scene.buffers.get(bufferView.buffer).getData();
+        int start = bufferView.byteOffset + accessor.byteOffset;
+        int componentSize = SampleGLTFReader.getComponentSize(accessor.componentType);
+        int[] indices = new int[accessor.count];
+        for (int i = 0; i < indices.length; ++i) {
+            int position = start + i * componentSize;
+            switch (componentSize) {
+                case 1:
+                    indices[i] = data.get(position) & 0xFF;
+                    break;
+                case 2:
+                    indices[i] = data.getShort(position) & 0xFFFF;
+                    break;
+                default:
+                    // Indices beyond 2^31 can't address a Java array anyway; they fail the range
+                    // check as negative values.
+                    indices[i] = data.getInt(position);
+                    break;
+            }
+        }
+        return indices;
+    }
+
+    // Returns x, y, z per vertex, or null for positions that aren't three components.
+    static float[] readPositions(SampleGLTFReader.GLTFScene scene, int accessorIndex) {
+        SampleGLTFReader.GLTFScene.Accessor accessor = scene.accessors.get(accessorIndex);
+        if (!"VEC3".equals(accessor.type)) {
+            return null;
+        }
+        SampleGLTFReader.GLTFScene.BufferView bufferView =
+                scene.bufferViews.get(accessor.bufferView);
+        ByteBuffer data = scene.buffers.get(bufferView.buffer).getData();
+        int componentSize = SampleGLTFReader.getComponentSize(accessor.componentType);
+        int stride = bufferView.byteStride != 0 ? bufferView.byteStride : componentSize * 3;
+        int start = bufferView.byteOffset + accessor.byteOffset;
+        float[] positions = new float[accessor.count * 3];
+        for (int i = 0; i < accessor.count; ++i) {
+            for (int c = 0; c < 3; ++c) {
+                positions[i * 3 + c] = CompactGLTFScene.readComponent(data,
+                        start + i * stride + c * componentSize, accessor.componentType,
+                        accessor.normalized);
+            }
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Optional load time quantization of float positions to normalized 16 bit integers, one of the
+ * encodings KHR_mesh_quantization allows. Positions then take 8 bytes per vertex instead of 12.
+ *
+ * The positions of each mesh, and of its levels of detail, are mapped into the unit cube by one
+ * uniform scale and an offset, so that normals stay valid. Nodes using the mesh must apply the
+ * inverse mapping, so the mesh moves to a new child node whose matrix dequantizes, exactly like a
+ * quantized file would do it.
+ */
+final class MeshQuantizer {
+    private static final String POSITION = "POSITION";
+    // Three unsigned shorts, padded so that every vertex stays 4 byte aligned.
+    private static final int QUANTIZED_STRIDE = 8;
+    private static final int QUANTIZED_MAX = 0xFFFF;
+
+    private MeshQuantizer() {}
+
+    /** Quantizes the float positions of every mesh of {@code scene} in place. */
+    static void quantizePositions(SampleGLTFReader.GLTFScene scene) {
+        int meshCount = scene.meshes.size();
+        // The levels of detail of a mesh are drawn with its node's transform, so they are
+        // quantized together with the mesh rather than on their own.
+        boolean[] isLod = new boolean[meshCount];
+        for (SampleGLTFReader.GLTFScene.Mesh mesh : scene.meshes) {
+            for (int lod : mesh.lods) {
+                isLod[lod] = true;
+            }
+        }
+        float[][] dequantization = new float[meshCount][];
+        for (int mesh = 0; mesh < meshCount; ++mesh) {
+            if (!isLod[mesh]) {
+                dequantization[mesh] = quantizeMesh(scene, getPrimitives(scene, mesh));
+            }
+        }
+
+        int nodeCount = scene.nodes.size();
+        for (int i = 0; i < nodeCount; ++i) {
+            SampleGLTFReader.GLTFScene.Node node = scene.nodes.get(i);
+            if (node.mesh < 0 || dequantization[node.mesh] == null) {
+                continue;
+            }
+            SampleGLTFReader.GLTFScene.Node child = new SampleGLTFReader.GLTFScene.Node();
+            child.name = node.name;
+            child.mesh = node.mesh;
+            child.matrix = dequantization[node.mesh];
+            node.mesh = -1;
+            node.children.add(scene.nodes.size());
+            scene.nodes.add(child);
+        }
+    }
+
+    // Returns the primitives of a mesh and of all its levels of detail.
+    private static ArrayList<SampleGLTFReader.GLTFScene.Primitive> getPrimitives(
+            SampleGLTFReader.GLTFScene scene, int mesh) {
+        ArrayList<SampleGLTFReader.GLTFScene.Primitive> primitives =
+                new ArrayList<>(scene.meshes.get(mesh).primitives);
+        for (int lod : scene.meshes.get(mesh).lods) {
+            if (lod != mesh) {
+                primitives.addAll(scene.meshes.get(lod).primitives);
+            }
+        }
+        return primitives;
+    }
+
+    // Replaces the float positions of the primitives by quantized copies and returns the
+    // dequantization matrix, or null if they have no float positions to quantize.
+    private static float[] quantizeMesh(SampleGLTFReader.GLTFScene scene,
+            ArrayList<SampleGLTFReader.GLTFScene.Primitive> primitives) {
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        boolean found = false;
+        for (SampleGLTFReader.GLTFScene.Primitive primitive : primitives) {
+            Integer position = primitive.attributes.get(POSITION);
+            ByteBuffer data = position != null ? getPositionData(scene, position) : null;
+            if (data == null) {
+                continue;
+            }
+            found = true;
+            SampleGLTFReader.GLTFScene.Accessor accessor = scene.accessors.get(position);
+            int stride = getStride(scene, accessor);
+            int start = getStart(scene, accessor);
+            for (int i = 0; i < accessor.count; ++i) {
+                for (int c = 0; c < 3; ++c) {
+                    float value = data.getFloat(start + i * stride + c * 4);
+                    min[c] = Math.min(min[c], value);
+                    max[c] = Math.max(max[c], value);
+                }
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        float extent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        if (extent <= 0) {
+            extent = 1;
+        }
+
+        // Primitives may share their positions; quantize each accessor once.
+        Map<Integer, Integer> quantizedAccessors = new HashMap<>();
+        for (SampleGLTFReader.GLTFScene.Primitive primitive : primitives) {
+            Integer position = primitive.attributes.get(POSITION);
+            if (position == null || getPositionData(scene, position) == null) {
+                continue;
+            }
+            Integer quantized = quantizedAccessors.get(position);
+            if (quantized == null) {
+                quantized = quantizeAccessor(scene, position, min, extent);
+                quantizedAccessors.put(position, quantized);
+            }
+            primitive.attributes.put(POSITION, quantized);
+        }
+
+        float[] matrix = new float[TransformHierarchy.MATRIX_SIZE];
+        matrix[0] = extent;
+        matrix[5] = extent;
+        matrix[10] = extent;
+        matrix[12] = min[0];
+        matrix[13] = min[1];
+        matrix[14] = min[2];
+        matrix[15] = 1;
+        return matrix;
+    }
+
+    // Appends a buffer, bufferView and accessor holding the quantized copy of a float VEC3
+    // accessor, and returns the index of the new accessor.
+    private static int quantizeAccessor(SampleGLTFReader.GLTFScene scene, int position,
+            float[] min, float extent) {
+        SampleGLTFReader.GLTFScene.Accessor source = scene.accessors.get(position);
+        ByteBuffer data = getPositionData(scene, position);
+        int stride = getStride(scene, source);
+        int start = getStart(scene, source);
+
+        SampleGLTFReader.GLTFScene.Buffer buffer = new SampleGLTFReader.GLTFScene.Buffer();
+        buffer.byteLength = source.count * QUANTIZED_STRIDE;
+        buffer.data = ByteBuffer.allocateDirect(buffer.byteLength).order(ByteOrder.nativeOrder());
+        float scale = QUANTIZED_MAX / extent;
+        int[] quantizedMin = {QUANTIZED_MAX, QUANTIZED_MAX, QUANTIZED_MAX};
+        int[] quantizedMax = {0, 0, 0};
+        for (int i = 0; i < source.count; ++i) {
+            for (int c = 0; c < 3; ++c) {
+                float value = data.getFloat(start + i * stride + c * 4);
+                int quantized = Math.round((value - min[c]) * scale);
+                quantized = Math.min(Math.max(quantized, 0), QUANTIZED_MAX);
+                quantizedMin[c] = Math.min(quantizedMin[c], quantized);
+                quantizedMax[c] = Math.max(quantizedMax[c], quantized);
+                buffer.data.putShort(i * QUANTIZED_STRIDE + c * 2, (short) quantized);
+            }
+        }
+        scene.buffers.add(buffer);
+
+        SampleGLTFReader.GLTFScene.BufferView bufferView =
+                new SampleGLTFReader.GLTFScene.BufferView();
+        bufferView.buffer = scene.buffers.size() - 1;
+        bufferView.byteLength = buffer.byteLength;
+        bufferView.byteStride = QUANTIZED_STRIDE;
+        bufferView.target = SampleGLTFReader.TARGET_ARRAY_BUFFER;
+        scene.bufferViews.add(bufferView);
+
+        SampleGLTFReader.GLTFScene.Accessor accessor = new SampleGLTFReader.GLTFScene.Accessor();
+        accessor.name = source.name;
+        accessor.bufferView = scene.bufferViews.size() - 1;
+        accessor.componentType = SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT;
+        accessor.normalized = true;
+        accessor.count = source.count;
+        accessor.type = source.type;
+        accessor.min = new float[3];
+        accessor.max = new float[3];
+        // glTF keeps the bounds of normalized accessors as the stored integers.
+        for (int c = 0; c < 3; ++c) {
+            accessor.min[c] = quantizedMin[c];
+            accessor.max[c] = quantizedMax[c];
+        }
+        scene.accessors.add(accessor);
+        return scene.accessors.size() - 1;
+    }
+
+    // Returns the data of a valid float VEC3 accessor, or null if the accessor is anything else.
+    private static ByteBuffer getPositionData(SampleGLTFReader.GLTFScene scene, int position) {
+        SampleGLTFReader.GLTFScene.Accessor accessor = scene.accessors.get(position);
+        if (!accessor.valid || accessor.bufferView < 0 || accessor.count == 0
+                || accessor.componentType != SampleGLTFReader.COMPONENT_TYPE_FLOAT
+                || !"VEC3".equals(accessor.type)) {
+            return null;
+        }
+        return scene.buffers.get(scene.bufferViews.get(accessor.bufferView).buffer).getData();
+    }
+
+    private static int getStride(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Accessor accessor) {
+        int byteStride = scene.bufferViews.get(accessor.bufferView).byteStride;
+        return byteStride != 0 ? byteStride : 12;
+    }
+
+    private static int getStart(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Accessor accessor) {
+        return scene.bufferViews.get(accessor.bufferView).byteOffset + accessor.byteOffset;
+    }
+}
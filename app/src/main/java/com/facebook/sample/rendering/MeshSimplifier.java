@@ -0,0 +1,370 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A load time simplifier that builds a chain of levels of detail for every mesh that doesn't
+ * already have one, e.g. from MSFT_lod.
+ *
+ * Simplification is vertex clustering (Rossignac and Borrel, "Multi-resolution 3D approximations
+ * for rendering complex scenes", 1993): the mesh is overlaid with a grid, all vertices of a cell
+ * collapse onto the one nearest to the cell's average, and triangles that become degenerate or
+ * duplicate are dropped. The representative is an existing vertex, so every level keeps using
+ * the vertex buffers of the original mesh and only adds an index buffer per primitive. One grid
+ * covers all primitives of a mesh, so that primitives sharing an edge collapse it the same way.
+ *
+ * Each level is roughly half the triangles of the previous one. Its error is the farthest any
+ * vertex moved, in the mesh's own space, which the renderer projects to pixels to choose a level.
+ */
+final class MeshSimplifier {
+    private static final String TAG = MeshSimplifier.class.getSimpleName();
+
+    static final int MAX_LODS = 4;
+    // Meshes this small aren't worth another draw's worth of index data.
+    static final int MIN_TRIANGLES = 64;
+    // A level must remove at least this fraction of the previous level's triangles.
+    private static final float MIN_REDUCTION = 0.25f;
+    // Each grid is this much coarser than the last, which halves the cells a surface touches.
+    private static final float GRID_STEP = 0.7071f;
+    private static final int MAX_ATTEMPTS_PER_LOD = 8;
+
+    // The indexed triangle primitives of a mesh and their positions; null entries are copied to
+    // every level unchanged.
+    private static class Source {
+        int[][] indices;
+        float[][] positions;
+        final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.POSITIVE_INFINITY};
+        final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                Float.NEGATIVE_INFINITY};
+        int triangleCount;
+        float averageEdgeLength;
+    }
+
+    private MeshSimplifier() {}
+
+    /** Appends levels of detail to every mesh of {@code scene} that has none yet. */
+    static void buildLods(SampleGLTFReader.GLTFScene scene) {
+        int meshCount = scene.meshes.size();
+        // Meshes that are a level of another mesh aren't simplified any further.
+        boolean[] isLod = new boolean[meshCount];
+        for (SampleGLTFReader.GLTFScene.Mesh mesh : scene.meshes) {
+            for (int lod : mesh.lods) {
+                isLod[lod] = true;
+            }
+        }
+        int simplifiedCount = 0;
+        int levelCount = 0;
+        int triangleCount = 0;
+        for (int i = 0; i < meshCount; ++i) {
+            SampleGLTFReader.GLTFScene.Mesh mesh = scene.meshes.get(i);
+            if (isLod[i] || !mesh.lods.isEmpty()) {
+                continue;
+            }
+            Source source = readSource(scene, mesh);
+            if (source != null && source.triangleCount >= MIN_TRIANGLES * 2) {
+                int levels = buildMeshLods(scene, i, source);
+                if (levels > 0) {
+                    ++simplifiedCount;
+                    levelCount += levels;
+                    triangleCount += source.triangleCount;
+                }
+            }
+        }
+        if (simplifiedCount > 0 && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, String.format(Locale.US, "%d levels of detail for %d meshes of %d triangles",
+                    levelCount, simplifiedCount, triangleCount));
+        }
+    }
+
+    private static Source readSource(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Mesh mesh) {
+        int primitiveCount = mesh.primitives.size();
+        Source source = new Source();
+        source.indices = new int[primitiveCount][];
+        source.positions = new float[primitiveCount][];
+        double edgeLengthSum = 0;
+        for (int p = 0; p < primitiveCount; ++p) {
+            SampleGLTFReader.GLTFScene.Primitive primitive = mesh.primitives.get(p);
+            Integer position = primitive.attributes.get("POSITION");
+            if (primitive.mode != SampleGLTFReader.MODE_TRIANGLES || position == null
+                    || !MeshOptimizer.isReadable(scene, position)
+                    || !MeshOptimizer.isReadable(scene, primitive.indices)) {
+                continue;
+            }
+            SampleGLTFReader.GLTFScene.Accessor indexAccessor =
+                    scene.accessors.get(primitive.indices);
+            float[] positions = MeshOptimizer.readPositions(scene, position);
+            if (positions == null || indexAccessor.count % 3 != 0) {
+                continue;
+            }
+            int vertexCount = positions.length / 3;
+            int[] indices = MeshOptimizer.readIndices(scene, indexAccessor);
+            boolean inRange = true;
+            for (int index : indices) {
+                inRange &= index >= 0 && index < vertexCount;
+            }
+            if (!inRange) {
+                continue;
+            }
+            source.indices[p] = indices;
+            source.positions[p] = positions;
+            source.triangleCount += indices.length / 3;
+            for (int i = 0; i < indices.length; ++i) {
+                int a = indices[i] * 3;
+                int b = indices[i % 3 == 2 ? i - 2 : i + 1] * 3;
+                float dx = positions[a] - positions[b];
+                float dy = positions[a + 1] - positions[b + 1];
+                float dz = positions[a + 2] - positions[b + 2];
+                edgeLengthSum += Math.sqrt(dx * dx + dy * dy + dz * dz);
+            }
+            for (int i = 0; i < positions.length; i += 3) {
+                for (int c = 0; c < 3; ++c) {
+                    source.min[c] = Math.min(source.min[c], positions[i + c]);
+                    source.max[c] = Math.max(source.max[c], positions[i + c]);
+                }
+            }
+        }
+        source.averageEdgeLength = (float) (edgeLengthSum / (source.triangleCount * 3));
+        return source.triangleCount > 0 && source.averageEdgeLength > 0 ? source : null;
+    }
+
+    // Returns the number of levels added.
+    private static int buildMeshLods(SampleGLTFReader.GLTFScene scene, int meshIndex,
+            Source source) {
+        SampleGLTFReader.GLTFScene.Mesh mesh = scene.meshes.get(meshIndex);
+        float extent = Math.max(source.max[0] - source.min[0],
+                Math.max(source.max[1] - source.min[1], source.max[2] - source.min[2]));
+        if (extent <= 0) {
+            return 0;
+        }
+        int primitiveCount = mesh.primitives.size();
+        float[] errors = new float[MAX_LODS + 1];
+        float[] vertexError = new float[1];
+
+        // Cells smaller than an edge merge next to nothing, so start at the average edge length.
+        float resolution = extent / source.averageEdgeLength;
+        int previousTriangles = source.triangleCount;
+        while (mesh.lods.size() < MAX_LODS && previousTriangles >= MIN_TRIANGLES * 2) {
+            int[][] levelIndices = null;
+            int levelTriangles = previousTriangles;
+            float levelError = 0;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS_PER_LOD && resolution >= 1; ++attempt) {
+                levelIndices = new int[primitiveCount][];
+                levelTriangles = 0;
+                levelError = 0;
+                float cellSize = extent / resolution;
+                for (int p = 0; p < primitiveCount; ++p) {
+                    if (source.indices[p] == null) {
+                        continue;
+                    }
+                    levelIndices[p] = cluster(source.indices[p], source.positions[p], source.min,
+                            cellSize, vertexError);
+                    levelTriangles += levelIndices[p].length / 3;
+                    levelError = Math.max(levelError, vertexError[0]);
+                }
+                resolution *= GRID_STEP;
+                if (levelTriangles <= previousTriangles * (1 - MIN_REDUCTION)) {
+                    break;
+                }
+            }
+            if (levelIndices == null || levelTriangles > previousTriangles * (1 - MIN_REDUCTION)
+                    || levelTriangles == 0) {
+                break;
+            }
+            mesh.lods.add(appendLodMesh(scene, mesh, levelIndices));
+            errors[mesh.lods.size()] = levelError;
+            previousTriangles = levelTriangles;
+        }
+        if (!mesh.lods.isEmpty()) {
+            mesh.lodErrors = Arrays.copyOf(errors, mesh.lods.size() + 1);
+        }
+        return mesh.lods.size();
+    }
+
+    /**
+     * Collapses the vertices of each grid cell of size {@code cellSize} onto one representative and
+     * returns the triangles that survive, in their original order and winding. The farthest any
+     * vertex moved is stored in {@code error[0]}.
+     */
+    static int[] cluster(int[] indices, float[] positions, float[] origin, float cellSize,
+            float[] error) {
+        int vertexCount = positions.length / 3;
+        // Cells are identified by their packed grid coordinates, then numbered densely by sorting.
+        long[] cellKeys = new long[vertexCount];
+        boolean[] used = new boolean[vertexCount];
+        for (int index : indices) {
+            used[index] = true;
+        }
+        for (int v = 0; v < vertexCount; ++v) {
+            long key = 0;
+            for (int c = 0; c < 3; ++c) {
+                long cell = (long) ((positions[v * 3 + c] - origin[c]) / cellSize);
+                key = (key << 21) | Math.min(Math.max(cell, 0), (1 << 21) - 1);
+            }
+            cellKeys[v] = used[v] ? key : Long.MAX_VALUE;
+        }
+        long[] sortedKeys = cellKeys.clone();
+        Arrays.sort(sortedKeys);
+        int cellCount = 0;
+        for (int i = 0; i < vertexCount; ++i) {
+            if (sortedKeys[i] != Long.MAX_VALUE
+                    && (cellCount == 0 || sortedKeys[cellCount - 1] != sortedKeys[i])) {
+                sortedKeys[cellCount++] = sortedKeys[i];
+            }
+        }
+        int[] vertexCells = new int[vertexCount];
+        float[] cellCenters = new float[cellCount * 3];
+        int[] cellSizes = new int[cellCount];
+        for (int v = 0; v < vertexCount; ++v) {
+            if (!used[v]) {
+                continue;
+            }
+            int cell = Arrays.binarySearch(sortedKeys, 0, cellCount, cellKeys[v]);
+            vertexCells[v] = cell;
+            ++cellSizes[cell];
+            for (int c = 0; c < 3; ++c) {
+                cellCenters[cell * 3 + c] += positions[v * 3 + c];
+            }
+        }
+
+        // The representative of a cell is its vertex nearest to the average of the cell.
+        int[] representatives = new int[cellCount];
+        float[] representativeDistances = new float[cellCount];
+        Arrays.fill(representatives, -1);
+        for (int v = 0; v < vertexCount; ++v) {
+            if (!used[v]) {
+                continue;
+            }
+            int cell = vertexCells[v];
+            float distance = 0;
+            for (int c = 0; c < 3; ++c) {
+                float d = positions[v * 3 + c] - cellCenters[cell * 3 + c] / cellSizes[cell];
+                distance += d * d;
+            }
+            if (representatives[cell] < 0 || distance < representativeDistances[cell]) {
+                representatives[cell] = v;
+                representativeDistances[cell] = distance;
+            }
+        }
+        float maxError = 0;
+        for (int v = 0; v < vertexCount; ++v) {
+            if (!used[v]) {
+                continue;
+            }
+            int r = representatives[vertexCells[v]];
+            float distance = 0;
+            for (int c = 0; c < 3; ++c) {
+                float d = positions[v * 3 + c] - positions[r * 3 + c];
+                distance += d * d;
+            }
+            maxError = Math.max(maxError, distance);
+        }
+        error[0] = (float) Math.sqrt(maxError);
+
+        int[] output = new int[indices.length];
+        long[] triangleKeys = new long[indices.length / 3];
+        int triangleCount = 0;
+        for (int i = 0; i < indices.length; i += 3) {
+            int a = representatives[vertexCells[indices[i]]];
+            int b = representatives[vertexCells[indices[i + 1]]];
+            int c = representatives[vertexCells[indices[i + 2]]];
+            if (a == b || b == c || c == a) {
+                continue;
+            }
+            output[triangleCount * 3] = a;
+            output[triangleCount * 3 + 1] = b;
+            output[triangleCount * 3 + 2] = c;
+            triangleKeys[triangleCount++] = getTriangleKey(a, b, c);
+        }
+        return Arrays.copyOf(output,
+                removeDuplicates(output, triangleKeys, triangleCount, vertexCount) * 3);
+    }
+
+    // Packs a triangle rotated to start at its smallest index, so that rotations of the same
+    // triangle share a key while the two windings don't.
+    private static long getTriangleKey(int a, int b, int c) {
+        if (b < a && b < c) {
+            return getTriangleKey(b, c, a);
+        }
+        if (c < a && c < b) {
+            return getTriangleKey(c, a, b);
+        }
+        return ((long) a << 42) | ((long) b << 21) | c;
+    }
+
+    // Drops later copies of triangles with equal keys, in place; returns how many remain.
+    private static int removeDuplicates(int[] triangles, long[] keys, int count,
+            int vertexCount) {
+        if (vertexCount > 1 << 21) {
+            return count; // indices don't fit a key
+        }
+        long[] sortedKeys = Arrays.copyOf(keys, count);
+        Arrays.sort(sortedKeys);
+        boolean[] emitted = new boolean[count];
+        int kept = 0;
+        for (int t = 0; t < count; ++t) {
+            int first = Arrays.binarySearch(sortedKeys, keys[t]);
+            while (first > 0 && sortedKeys[first - 1] == keys[t]) {
+                --first;
+            }
+            if (emitted[first]) {
+                continue;
+            }
+            emitted[first] = true;
+            System.arraycopy(triangles, t * 3, triangles, kept * 3, 3);
+            ++kept;
+        }
+        return kept;
+    }
+
+    // Appends a mesh with the primitives of mesh, their indices replaced where simplified, and
+    // returns its index. Primitives simplified away entirely are left out.
+    private static int appendLodMesh(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Mesh mesh, int[][] indices) {
+        SampleGLTFReader.GLTFScene.Mesh lod = new SampleGLTFReader.GLTFScene.Mesh();
+        lod.name = mesh.name;
+        for (int p = 0; p < mesh.primitives.size(); ++p) {
+            SampleGLTFReader.GLTFScene.Primitive source = mesh.primitives.get(p);
+            if (indices[p] != null && indices[p].length == 0) {
+                continue;
+            }
+            SampleGLTFReader.GLTFScene.Primitive primitive =
+                    new SampleGLTFReader.GLTFScene.Primitive();
+            primitive.attributes.putAll(source.attributes);
+            primitive.mode = source.mode;
+            primitive.material = source.material;
+            primitive.indices = source.indices;
+            if (indices[p] != null) {
+                primitive.indices = MeshOptimizer.appendIndices(
+                        scene, scene.accessors.get(source.indices), indices[p]);
+                SampleGLTFReader.GLTFScene.Accessor accessor =
+                        scene.accessors.get(primitive.indices);
+                accessor.count = indices[p].length;
+                accessor.min = null;
+                accessor.max = null;
+            }
+            lod.primitives.add(primitive);
+        }
+        scene.meshes.add(lod);
+        return scene.meshes.size() - 1;
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Decodes bufferViews compressed with EXT_meshopt_compression, see
+ * https://github.com/KhronosGroup/glTF/tree/main/extensions/2.0/Vendor/EXT_meshopt_compression
+ *
+ * The compressed bytes are copied into a byte[] once and decoded into another, which keeps the
+ * inner loops free of ByteBuffer calls; the result is then copied into a direct buffer for
+ * GLES20.glBufferData. Everything is little endian, as glTF data is. Malformed input fails with
+ * an IOException rather than reading out of bounds.
+ */
+final class MeshoptDecoder {
+    static final String MODE_ATTRIBUTES = "ATTRIBUTES";
+    static final String MODE_TRIANGLES = "TRIANGLES";
+    static final String MODE_INDICES = "INDICES";
+
+    static final String FILTER_NONE = "NONE";
+    static final String FILTER_OCTAHEDRAL = "OCTAHEDRAL";
+    static final String FILTER_QUATERNION = "QUATERNION";
+    static final String FILTER_EXPONENTIAL = "EXPONENTIAL";
+
+    private static final int VERTEX_HEADER = 0xa0;
+    private static final int INDEX_HEADER = 0xe0;
+    private static final int SEQUENCE_HEADER = 0xd0;
+
+    private static final int VERTEX_BLOCK_SIZE_BYTES = 8192;
+    private static final int VERTEX_BLOCK_MAX_SIZE = 256;
+    private static final int BYTE_GROUP_SIZE = 16;
+    // A byte group never reads more than this many bytes, so one check covers the whole group.
+    private static final int BYTE_GROUP_DECODE_LIMIT = 24;
+    private static final int TAIL_MAX_SIZE = 32;
+
+    private static final int INDEX_CODEAUX_TABLE_SIZE = 16;
+    private static final int SEQUENCE_TAIL_SIZE = 4;
+
+    private final byte[] data;
+    private int position;
+
+    private MeshoptDecoder(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Decodes {@code count} elements of {@code byteStride} bytes from {@code source}, from its
+     * position to its limit, into a new native order direct buffer.
+     */
+    static ByteBuffer decode(ByteBuffer source, int count, int byteStride, String mode,
+            String filter) throws IOException {
+        if (byteStride <= 0) {
+            throw new IOException("Invalid meshopt byte stride " + byteStride);
+        }
+        if (count < 0 || (long) count * byteStride > Integer.MAX_VALUE) {
+            throw new IOException("Invalid meshopt element count " + count);
+        }
+        byte[] input = new byte[source.remaining()];
+        source.duplicate().get(input);
+        byte[] output = new byte[count * byteStride];
+        MeshoptDecoder decoder = new MeshoptDecoder(input);
+        if (MODE_ATTRIBUTES.equals(mode)) {
+            if (byteStride <= 0 || byteStride > 256 || byteStride % 4 != 0) {
+                throw new IOException("Invalid meshopt attribute stride " + byteStride);
+            }
+            decoder.decodeVertexBuffer(output, count, byteStride);
+            applyFilter(output, count, byteStride, filter);
+        } else if (MODE_TRIANGLES.equals(mode)) {
+            if ((byteStride != 2 && byteStride != 4) || count % 3 != 0) {
+                throw new IOException("Invalid meshopt triangle list of " + count + " indices");
+            }
+            decoder.decodeIndexBuffer(output, count, byteStride);
+        } else if (MODE_INDICES.equals(mode)) {
+            if (byteStride != 2 && byteStride != 4) {
+                throw new IOException("Invalid meshopt index stride " + byteStride);
+            }
+            decoder.decodeIndexSequence(output, count, byteStride);
+        } else {
+            throw new IOException("Unsupported meshopt mode " + mode);
+        }
+        ByteBuffer result = ByteBuffer.allocateDirect(output.length).order(ByteOrder.nativeOrder());
+        result.put(output);
+        result.rewind();
+        return result;
+    }
+
+    // Vertex codec: blocks of up to 256 vertices, each stored as one delta encoded byte stream per
+    // byte of the vertex. The deltas of 16 vertices form a group packed with 0, 2, 4 or 8 bits.
+    private void decodeVertexBuffer(byte[] output, int vertexCount, int vertexSize)
+            throws IOException {
+        if (data.length < 1 + vertexSize) {
+            throw new IOException("Truncated meshopt vertex data");
+        }
+        int header = data[position++] & 0xFF;
+        if ((header & 0xf0) != VERTEX_HEADER || (header & 0x0f) > 0) {
+            throw new IOException("Unsupported meshopt vertex encoding " + header);
+        }
+        // The tail holds the vertex the first deltas are relative to.
+        byte[] lastVertex = new byte[vertexSize];
+        System.arraycopy(data, data.length - vertexSize, lastVertex, 0, vertexSize);
+
+        int blockSize = Math.min(
+                (VERTEX_BLOCK_SIZE_BYTES / vertexSize) & ~(BYTE_GROUP_SIZE - 1),
+                VERTEX_BLOCK_MAX_SIZE);
+        byte[] deltas = new byte[VERTEX_BLOCK_MAX_SIZE];
+        for (int vertexOffset = 0; vertexOffset < vertexCount; vertexOffset += blockSize) {
+            int blockCount = Math.min(blockSize, vertexCount - vertexOffset);
+            int alignedCount = (blockCount + BYTE_GROUP_SIZE - 1) & ~(BYTE_GROUP_SIZE - 1);
+            for (int k = 0; k < vertexSize; ++k) {
+                decodeBytes(deltas, alignedCount);
+                int out = vertexOffset * vertexSize + k;
+                int previous = lastVertex[k];
+                for (int i = 0; i < blockCount; ++i) {
+                    int delta = deltas[i] & 0xFF;
+                    previous += (-(delta & 1)) ^ (delta >>> 1);
+                    output[out] = (byte) previous;
+                    out += vertexSize;
+                }
+                lastVertex[k] = (byte) previous;
+            }
+        }
+        if (data.length - position != Math.max(vertexSize, TAIL_MAX_SIZE)) {
+            throw new IOException("Malformed meshopt vertex data");
+        }
+    }
+
+    private void decodeBytes(byte[] output, int count) throws IOException {
+        // Two header bits per group select its bit width.
+        int headerStart = position;
+        int headerSize = (count / BYTE_GROUP_SIZE + 3) / 4;
+        if (data.length - position < headerSize) {
+            throw new IOException("Truncated meshopt vertex data");
+        }
+        position += headerSize;
+        for (int i = 0; i < count; i += BYTE_GROUP_SIZE) {
+            if (data.length - position < BYTE_GROUP_DECODE_LIMIT) {
+                throw new IOException("Truncated meshopt vertex data");
+            }
+            int group = i / BYTE_GROUP_SIZE;
+            int bitsLog2 = (data[headerStart + group / 4] >> ((group % 4) * 2)) & 3;
+            switch (bitsLog2) {
+                case 0:
+                    for (int k = 0; k < BYTE_GROUP_SIZE; ++k) {
+                        output[i + k] = 0;
+                    }
+                    break;
+                case 1:
+                    decodeBytesGroup(output, i, 2);
+                    break;
+                case 2:
+                    decodeBytesGroup(output, i, 4);
+                    break;
+                default:
+                    System.arraycopy(data, position, output, i, BYTE_GROUP_SIZE);
+                    position += BYTE_GROUP_SIZE;
+                    break;
+            }
+        }
+    }
+
+    // Values are packed most significant bits first; the all ones value means the actual byte
+    // follows the packed bits.
+    private void decodeBytesGroup(byte[] output, int offset, int bits) {
+        int sentinel = (1 << bits) - 1;
+        int perByte = 8 / bits;
+        int packed = position;
+        int extra = position + BYTE_GROUP_SIZE / perByte;
+        for (int k = 0; k < BYTE_GROUP_SIZE; ++k) {
+            int value = ((data[packed + k / perByte] & 0xFF) >> (8 - bits * (k % perByte + 1)))
+                    & sentinel;
+            output[offset + k] = value == sentinel ? data[extra++] : (byte) value;
+        }
+        position = extra;
+    }
+
+    // Triangle codec: one code byte per triangle that refers back to recent edges and vertices
+    // through two 16 entry FIFOs; vertices that aren't in either are delta encoded.
+    private void decodeIndexBuffer(byte[] output, int indexCount, int indexSize)
+            throws IOException {
+        if (data.length < 1 + indexCount / 3 + INDEX_CODEAUX_TABLE_SIZE) {
+            throw new IOException("Truncated meshopt index data");
+        }
+        int header = data[0] & 0xFF;
+        int version = header & 0x0f;
+        if ((header & 0xf0) != INDEX_HEADER || version > 1) {
+            throw new IOException("Unsupported meshopt index encoding " + header);
+        }
+        int[] edgeFifo = new int[32];
+        int[] vertexFifo = new int[16];
+        Arrays.fill(edgeFifo, -1);
+        Arrays.fill(vertexFifo, -1);
+        int edgeFifoOffset = 0;
+        int vertexFifoOffset = 0;
+        int next = 0;
+        int last = 0;
+        int fecMax = version >= 1 ? 13 : 15;
+
+        int code = 1;
+        position = code + indexCount / 3;
+        int dataSafeEnd = data.length - INDEX_CODEAUX_TABLE_SIZE;
+        int codeauxTable = dataSafeEnd;
+
+        for (int i = 0; i < indexCount; i += 3) {
+            // A triangle reads at most 16 bytes, which the codeaux table is there to absorb.
+            if (position > dataSafeEnd) {
+                throw new IOException("Truncated meshopt index data");
+            }
+            int codetri = data[code++] & 0xFF;
+            int a;
+            int b;
+            int c;
+            if (codetri < 0xf0) {
+                int edge = ((edgeFifoOffset - 1 - (codetri >> 4)) & 15) * 2;
+                a = edgeFifo[edge];
+                b = edgeFifo[edge + 1];
+                int fec = codetri & 15;
+                if (fec < fecMax) {
+                    c = fec == 0 ? next++ : vertexFifo[(vertexFifoOffset - 1 - fec) & 15];
+                    if (fec == 0) {
+                        vertexFifo[vertexFifoOffset] = c;
+                        vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                    }
+                } else {
+                    // 13 and 14 are -1 and +1 from the last free index, 15 an explicit delta.
+                    c = last = fec != 15 ? last + (fec - (fec ^ 3)) : decodeIndex(last);
+                    vertexFifo[vertexFifoOffset] = c;
+                    vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                }
+                edgeFifo[edgeFifoOffset * 2] = c;
+                edgeFifo[edgeFifoOffset * 2 + 1] = b;
+                edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+            } else {
+                int codeaux;
+                int fea;
+                if (codetri < 0xfe) {
+                    codeaux = data[codeauxTable + (codetri & 15)] & 0xFF;
+                    fea = 0;
+                } else {
+                    codeaux = data[position++] & 0xFF;
+                    fea = codetri == 0xfe ? 0 : 15;
+                    if (codeaux == 0) {
+                        next = 0;
+                    }
+                }
+                int feb = codeaux >> 4;
+                int fec = codeaux & 15;
+                // next advances for all three vertices before any free index is decoded, as the
+                // encoder does.
+                a = fea == 0 ? next++ : 0;
+                b = feb == 0 ? next++ : vertexFifo[(vertexFifoOffset - feb) & 15];
+                c = fec == 0 ? next++ : vertexFifo[(vertexFifoOffset - fec) & 15];
+                if (fea == 15) {
+                    a = last = decodeIndex(last);
+                }
+                if (feb == 15) {
+                    b = last = decodeIndex(last);
+                }
+                if (fec == 15) {
+                    c = last = decodeIndex(last);
+                }
+                vertexFifo[vertexFifoOffset] = a;
+                vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                vertexFifo[vertexFifoOffset] = b;
+                if (feb == 0 || feb == 15) {
+                    vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                }
+                vertexFifo[vertexFifoOffset] = c;
+                if (fec == 0 || fec == 15) {
+                    vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                }
+                edgeFifo[edgeFifoOffset * 2] = b;
+                edgeFifo[edgeFifoOffset * 2 + 1] = a;
+                edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+                edgeFifo[edgeFifoOffset * 2] = c;
+                edgeFifo[edgeFifoOffset * 2 + 1] = b;
+                edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+            }
+            edgeFifo[edgeFifoOffset * 2] = a;
+            edgeFifo[edgeFifoOffset * 2 + 1] = c;
+            edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+
+            writeIndex(output, i, indexSize, a);
+            writeIndex(output, i + 1, indexSize, b);
+            writeIndex(output, i + 2, indexSize, c);
+        }
+        if (position != dataSafeEnd) {
+            throw new IOException("Malformed meshopt index data");
+        }
+    }
+
+    // Index sequence codec: each index is a delta from one of two previous indices, selected by
+    // the low bit of its varint.
+    private void decodeIndexSequence(byte[] output, int indexCount, int indexSize)
+            throws IOException {
+        if (data.length < 1 + indexCount + SEQUENCE_TAIL_SIZE) {
+            throw new IOException("Truncated meshopt index sequence");
+        }
+        int header = data[0] & 0xFF;
+        if ((header & 0xf0) != SEQUENCE_HEADER || (header & 0x0f) > 1) {
+            throw new IOException("Unsupported meshopt index sequence encoding " + header);
+        }
+        position = 1;
+        int dataSafeEnd = data.length - SEQUENCE_TAIL_SIZE;
+        int last0 = 0;
+        int last1 = 0;
+        for (int i = 0; i < indexCount; ++i) {
+            // A varint is at most 5 bytes, which the tail is there to absorb.
+            if (position >= dataSafeEnd) {
+                throw new IOException("Truncated meshopt index sequence");
+            }
+            int v = decodeVByte();
+            int delta = (v >>> 2) ^ -((v >>> 1) & 1);
+            int index;
+            if ((v & 1) == 0) {
+                index = last0 += delta;
+            } else {
+                index = last1 += delta;
+            }
+            writeIndex(output, i, indexSize, index);
+        }
+        if (position != dataSafeEnd) {
+            throw new IOException("Malformed meshopt index sequence");
+        }
+    }
+
+    private int decodeIndex(int last) {
+        int v = decodeVByte();
+        return last + ((v >>> 1) ^ -(v & 1));
+    }
+
+    // Little endian base 128 varint of at most 5 bytes.
+    private int decodeVByte() {
+        int lead = data[position++] & 0xFF;
+        if (lead < 128) {
+            return lead;
+        }
+        int result = lead & 127;
+        int shift = 7;
+        for (int i = 0; i < 4; ++i) {
+            int group = data[position++] & 0xFF;
+            result |= (group & 127) << shift;
+            shift += 7;
+            if (group < 128) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static void writeIndex(byte[] output, int index, int indexSize, int value) {
+        if (indexSize == 2) {
+            writeShort(output, index * 2, value);
+        } else {
+            writeInt(output, index * 4, value);
+        }
+    }
+
+    private static void applyFilter(byte[] output, int count, int byteStride, String filter)
+            throws IOException {
+        if (filter == null || FILTER_NONE.equals(filter)) {
+            return;
+        }
+        if (FILTER_OCTAHEDRAL.equals(filter)) {
+            if (byteStride == 4) {
+                decodeOctahedral8(output, count);
+            } else if (byteStride == 8) {
+                decodeOctahedral16(output, count);
+            } else {
+                throw new IOException("Invalid stride " + byteStride + " for octahedral filter");
+            }
+        } else if (FILTER_QUATERNION.equals(filter)) {
+            if (byteStride != 8) {
+                throw new IOException("Invalid stride " + byteStride + " for quaternion filter");
+            }
+            decodeQuaternion(output, count);
+        } else if (FILTER_EXPONENTIAL.equals(filter)) {
+            decodeExponential(output, count * byteStride / 4);
+        } else {
+            throw new IOException("Unsupported meshopt filter " + filter);
+        }
+    }
+
+    // Octahedral unit vectors: x and y in the first two components, the encoding's 1.0 in the
+    // third. The fourth component is left alone.
+    private static void decodeOctahedral8(byte[] data, int count) {
+        float[] xyz = new float[3];
+        for (int i = 0; i < count * 4; i += 4) {
+            decodeOctahedral(data[i], data[i + 1], data[i + 2], 127, xyz);
+            data[i] = (byte) roundSigned(xyz[0]);
+            data[i + 1] = (byte) roundSigned(xyz[1]);
+            data[i + 2] = (byte) roundSigned(xyz[2]);
+        }
+    }
+
+    private static void decodeOctahedral16(byte[] data, int count) {
+        float[] xyz = new float[3];
+        for (int i = 0; i < count * 8; i += 8) {
+            decodeOctahedral(readShort(data, i), readShort(data, i + 2), readShort(data, i + 4),
+                    32767, xyz);
+            writeShort(data, i, roundSigned(xyz[0]));
+            writeShort(data, i + 2, roundSigned(xyz[1]));
+            writeShort(data, i + 4, roundSigned(xyz[2]));
+        }
+    }
+
+    private static void decodeOctahedral(int xi, int yi, int zi, float max, float[] output) {
+        float x = xi;
+        float y = yi;
+        float z = zi - Math.abs(x) - Math.abs(y);
+        // Fold the lower hemisphere back out.
+        float t = Math.min(z, 0);
+        x += x >= 0 ? t : -t;
+        y += y >= 0 ? t : -t;
+        float scale = max / (float) Math.sqrt(x * x + y * y + z * z);
+        output[0] = x * scale;
+        output[1] = y * scale;
+        output[2] = z * scale;
+    }
+
+    // Rotations as the three smallest components; the low two bits of the fourth select which
+    // component was dropped and the rest hold the scale the others were encoded with.
+    private static void decodeQuaternion(byte[] data, int count) {
+        float scale = 1.f / (float) Math.sqrt(2);
+        for (int i = 0; i < count * 8; i += 8) {
+            int w0 = readShort(data, i + 6);
+            float s = scale / (w0 | 3);
+            float x = readShort(data, i) * s;
+            float y = readShort(data, i + 2) * s;
+            float z = readShort(data, i + 4) * s;
+            float w = (float) Math.sqrt(Math.max(0, 1 - x * x - y * y - z * z));
+            int qc = w0 & 3;
+            writeShort(data, i + ((qc + 1) & 3) * 2, roundSigned(x * 32767));
+            writeShort(data, i + ((qc + 2) & 3) * 2, roundSigned(y * 32767));
+            writeShort(data, i + ((qc + 3) & 3) * 2, roundSigned(z * 32767));
+            writeShort(data, i + qc * 2, roundSigned(w * 32767));
+        }
+    }
+
+    // Floats as a 24 bit signed mantissa and an 8 bit signed exponent.
+    private static void decodeExponential(byte[] data, int count) {
+        for (int i = 0; i < count * 4; i += 4) {
+            int v = readInt(data, i);
+            int mantissa = (v << 8) >> 8;
+            int exponent = v >> 24;
+            float value = Float.intBitsToFloat((exponent + 127) << 23) * mantissa;
+            writeInt(data, i, Float.floatToRawIntBits(value));
+        }
+    }
+
+    // Rounds half away from zero, like the reference decoder.
+    private static int roundSigned(float value) {
+        return (int) (value + (value >= 0 ? 0.5f : -0.5f));
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (short) ((data[offset] & 0xFF) | (data[offset + 1] << 8));
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16 | data[offset + 3] << 24;
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -14,41 +14,65 @@
 
 package com.facebook.sample.rendering;
 
-import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
- * This is a trivial example of a glTF file reader that parses the JSON of the helloworld.gltf,
- * creates the node mesh list, and decodes the data URI buffer in preparation for rendering with
- * OpenGL ES.
+ * A glTF 2.0 reader that parses a .gltf or .glb file into a {@link GLTFScene} of scenes, nodes,
+ * meshes, accessors, bufferViews and buffers, ready for rendering with OpenGL ES. Materials are
+ * read for their base color factor and texture, with the textures, samplers and images they use;
+ * textures may name a KHR_texture_basisu source. Nodes chained by MSFT_lod become mesh levels of
+ * detail, and bufferViews compressed with EXT_meshopt_compression are decoded.
+ *
+ * The JSON is pulled token by token with a {@link JsonReader} and written straight into the
+ * {@link GLTFScene}, so neither the file contents nor a JSON object tree is ever held in memory.
+ * Binary glTF (.glb) containers are memory mapped and their BIN chunk is used in place. Buffers
+ * with an external uri are only loaded, through a {@link BufferResolver}, the first time their
+ * data is requested. Given an executor, data URIs are decoded and accessors validated on it while
+ * the calling thread keeps parsing.
  *
- * This is not intended to be a generic glTF reader; it will only work for the helloworld.gltf
- * example. It should however help provide a basic understanding of how a glTF renderer goes from
- * loading a JSON file to rendering the glTF scene.
+ * Accessors are checked against the bufferViews and buffer data they read before they are used.
+ * Animations, skins, cameras and morph targets are skipped, and data URIs must be base64 encoded.
  */
 public class SampleGLTFReader {
     private static final String TAG = SampleGLTFReader.class.getSimpleName();
-    private static final String DATA_URI_PREFIX = "data:application/octet-stream;base64,";
+    private static final String BASE64_DATA_URI_MARKER = ";base64,";
+
+    // Binary glTF container layout, see
+    // https://github.com/KhronosGroup/glTF/tree/master/specification/2.0#glb-file-format-specification
+    private static final int GLB_MAGIC = 0x46546C67; // "glTF"
+    private static final int GLB_VERSION = 2;
+    private static final int GLB_HEADER_LENGTH = 12;
+    private static final int GLB_CHUNK_HEADER_LENGTH = 8;
+    private static final int GLB_CHUNK_TYPE_JSON = 0x4E4F534A; // "JSON"
+    private static final int GLB_CHUNK_TYPE_BIN = 0x004E4942; // "BIN\0"
 
     static final int TARGET_ARRAY_BUFFER = 34962;
     static final int TARGET_ELEMENT_ARRAY_BUFFER = 34963;
 
+    static final int MODE_TRIANGLES = 4;
+
+    static final int WRAP_REPEAT = 10497;
+
     static final int COMPONENT_TYPE_BYTE = 5120;
     static final int COMPONENT_TYPE_UNSIGNED_BYTE = 5121;
     static final int COMPONENT_TYPE_SHORT = 5122;
@@ -58,6 +82,16 @@ public class SampleGLTFReader {
     static final int COMPONENT_TYPE_FLOAT = 5126;
     static final int COMPONENT_TYPE_DOUBLE = 5127;
 
+    private static final int ACCESSORS_PER_VALIDATION_TASK = 1024;
+
+    /**
+     * Loads the contents of a buffer that references an external (relative) uri.
+     */
+    interface BufferResolver {
+        // A negative byteLength asks for the whole file, for images whose size isn't declared.
+        ByteBuffer resolve(String uri, int byteLength) throws IOException;
+    }
+
     static class GLTFScene {
         static class Scene {
             String name;
@@ -66,18 +100,106 @@ public class SampleGLTFReader {
 
         static class Node {
             String name;
-            int mesh;
+            int mesh = -1;
             ArrayList<Integer> children = new ArrayList<>();
+            // Either a column-major matrix or translation/rotation(quaternion)/scale; null if absent.
+            float[] matrix;
+            float[] translation;
+            float[] rotation;
+            float[] scale;
+            // MSFT_lod: nodes holding coarser versions of this one, finest first, and the minimum
+            // screen coverage of this node and each of them (extras.MSFT_screencoverage).
+            ArrayList<Integer> lods = new ArrayList<>();
+            float[] screenCoverage;
         }
 
         static class Primitive {
             HashMap<String, Integer> attributes = new HashMap<>();
-            int indices; // index of accessor containing indices
+            int indices = -1; // index of accessor containing indices
+            int mode = MODE_TRIANGLES;
+            int material = -1;
+        }
+
+        static class Material {
+            String name;
+            float[] baseColorFactor = {1, 1, 1, 1};
+            int baseColorTexture = -1;
+            int baseColorTexCoord;
+        }
+
+        static class Texture {
+            String name;
+            int sampler = -1;
+            int source = -1;
+            int ktx2Source = -1; // KHR_texture_basisu, preferred over source when usable
+        }
+
+        // Zero for filters the file leaves to the renderer.
+        static class Sampler {
+            int magFilter;
+            int minFilter;
+            int wrapS = WRAP_REPEAT;
+            int wrapT = WRAP_REPEAT;
+        }
+
+        static class Image {
+            String name;
+            String uri;
+            String mimeType;
+            int bufferView = -1;
+            BufferResolver resolver;
+            // The range of bufferView, set by resolveImages.
+            Buffer buffer;
+            int byteOffset;
+            int byteLength;
+            private ByteBuffer data;
+
+            // Image data is only loaded, decoded or sliced out of its buffer when first asked
+            // for, so that images no rendered material uses cost nothing.
+            synchronized ByteBuffer getData() {
+                if (data != null) {
+                    return data.duplicate();
+                }
+                try {
+                    if (buffer != null) {
+                        ByteBuffer bufferData = buffer.getData();
+                        if (bufferData != null
+                                && (long) byteOffset + byteLength <= bufferData.capacity()) {
+                            ByteBuffer slice = bufferData.duplicate();
+                            slice.limit(byteOffset + byteLength);
+                            slice.position(byteOffset);
+                            data = slice.slice();
+                        }
+                    } else if (uri != null && uri.startsWith("data:")) {
+                        int dataStart = uri.indexOf(',') + 1;
+                        int padding = uri.endsWith("==") ? 2 : uri.endsWith("=") ? 1 : 0;
+                        data = Base64Decoder.decode(
+                                uri, dataStart, (uri.length() - dataStart) / 4 * 3 - padding);
+                    } else if (uri != null && resolver != null) {
+                        data = resolver.resolve(uri, -1);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not load image " + (uri != null ? uri : name) + ": "
+                            + e.getMessage());
+                }
+                resolver = null;
+                if (data == null) {
+                    return null;
+                }
+                data.order(ByteOrder.LITTLE_ENDIAN);
+                return data.duplicate();
+            }
         }
 
         static class Mesh {
             String name;
             ArrayList<Primitive> primitives = new ArrayList<>();
+            // Meshes holding coarser versions of this one, finest first. Each level is chosen
+            // either by its object space error (lodErrors, this mesh first) or by the screen
+            // coverage it needs at least (lodScreenCoverage, likewise); both are null if absent.
+            ArrayList<Integer> lods = new ArrayList<>();
+            float[] lodErrors;
+            float[] lodScreenCoverage;
         }
 
         static class Buffer {
@@ -85,6 +207,36 @@ public class SampleGLTFReader {
             ByteBuffer data;
             int byteLength;
             String uri;
+            BufferResolver resolver;
+
+            // External buffers are resolved on first access so that buffers no node in the
+            // rendered scene refers to are never read.
+            synchronized ByteBuffer getData() {
+                if (data == null && resolver != null) {
+                    try {
+                        data = resolver.resolve(uri, byteLength);
+                        // Accessors were validated against byteLength, so shorter data is unusable.
+                        if (data != null && data.capacity() < byteLength) {
+                            Log.e(TAG, "Buffer " + uri + " is " + data.capacity()
+                                    + " bytes, not " + byteLength);
+                            data = null;
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not load buffer " + uri + ": " + e.getMessage());
+                    }
+                    resolver = null;
+                }
+                return data;
+            }
+
+            // The bytes that can be read: byteLength while the data is still to be resolved, at
+            // most the capacity of the data once it is known, and 0 if there is none to come.
+            synchronized long getReadableLength() {
+                if (data != null) {
+                    return Math.min(byteLength, data.capacity());
+                }
+                return resolver != null ? byteLength : 0;
+            }
         }
 
         static class BufferView {
@@ -94,66 +246,175 @@ public class SampleGLTFReader {
             int byteLength;
             int byteStride;
             int target;
+            MeshoptCompression meshoptCompression; // null unless EXT_meshopt_compression is used
+        }
+
+        // The compressed source of a bufferView; buffer, byteOffset and byteLength of the
+        // bufferView itself describe the decoded data, which may have no buffer of its own.
+        static class MeshoptCompression {
+            int buffer;
+            int byteOffset;
+            int byteLength;
+            int byteStride;
+            int count;
+            String mode;
+            String filter = MeshoptDecoder.FILTER_NONE;
         }
 
         static class Accessor {
             String name;
-            int bufferView;
+            int bufferView = -1;
             int byteOffset;
             int componentType;
+            boolean normalized; // integer components map to [0, 1] or [-1, 1]
             int count;
             String type;
+            float[] min; // per-component bounds, null if the file doesn't provide them
+            float[] max;
+            boolean valid = true; // false if the accessor doesn't fit its bufferView and buffer
         }
 
+        int scene = -1; // index of the scene to display, if the file specifies one
         ArrayList<Scene> scenes = new ArrayList<>();
         ArrayList<Node> nodes = new ArrayList<>();
         ArrayList<Mesh> meshes = new ArrayList<>();
         ArrayList<Buffer> buffers = new ArrayList<>();
         ArrayList<BufferView> bufferViews = new ArrayList<>();
         ArrayList<Accessor> accessors = new ArrayList<>();
+        ArrayList<Material> materials = new ArrayList<>();
+        ArrayList<Texture> textures = new ArrayList<>();
+        ArrayList<Sampler> samplers = new ArrayList<>();
+        ArrayList<Image> images = new ArrayList<>();
     }
 
-    private static String readFile(InputStream stream, Charset cs)
-            throws IOException {
-        try {
-            Reader reader = new BufferedReader(new InputStreamReader(stream, cs));
-            StringBuilder builder = new StringBuilder();
-            char[] buffer = new char[8192];
-            int read;
-            while ((read = reader.read(buffer, 0, buffer.length)) > 0) {
-                builder.append(buffer, 0, read);
-            }
-            return builder.toString();
-        } finally {
-            stream.close();
-        }
-    }
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     static GLTFScene read(InputStream gltfStream) {
+        return read(gltfStream, null, null);
+    }
+
+    /**
+     * Reads a glTF file, loading external buffers through {@code resolver}. If {@code executor}
+     * is not null, buffer decoding and accessor validation run on it in parallel; the resulting
+     * scene is identical to a serial read.
+     */
+    static GLTFScene read(
+            InputStream gltfStream, BufferResolver resolver, ExecutorService executor) {
         GLTFScene gltfScene = new GLTFScene();
+        ParseContext context = new ParseContext(resolver, executor);
+        // glTF JSON is always UTF-8. InputStreamReader decodes it incrementally, so the reader only
+        // ever holds a small window of the file.
+        JsonReader reader = new JsonReader(new InputStreamReader(gltfStream, UTF_8));
         try {
-            String gltfStr = readFile(gltfStream, Charset.defaultCharset());
+            parseRoot(gltfScene, reader, context);
+            finishDecodes(context);
+            decompressBufferViews(gltfScene, executor);
+            validateNodes(gltfScene);
+            resolveLods(gltfScene);
+            resolveImages(gltfScene);
+            validateAccessors(gltfScene, executor);
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage());
+            }
+        }
 
-            JSONObject root = new JSONObject(gltfStr);
+        return gltfScene;
+    }
 
-            JSONArray scenes = (JSONArray) root.get("scenes");
-            parseScenes(gltfScene, scenes);
+    /**
+     * Reads a binary glTF container from {@code size} bytes of {@code channel} starting at
+     * {@code position}. The region is memory mapped: the JSON chunk is parsed straight out of the
+     * mapping and the BIN chunk becomes the data of the first buffer without being copied to the
+     * heap. The mapping stays valid after the channel is closed.
+     */
+    static GLTFScene readBinary(FileChannel channel, long position, long size) {
+        return readBinary(channel, position, size, null, null);
+    }
 
-            JSONArray nodes = (JSONArray) root.get("nodes");
-            parseNodes(gltfScene, nodes);
+    static GLTFScene readBinary(FileChannel channel, long position, long size,
+            BufferResolver resolver, ExecutorService executor) {
+        MappedByteBuffer glb;
+        try {
+            glb = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+            return new GLTFScene();
+        }
+        return readBinary(glb, resolver, executor);
+    }
 
-            JSONArray meshes = (JSONArray) root.get("meshes");
-            parseMeshes(gltfScene, meshes);
+    /**
+     * Reads a binary glTF container from the remaining bytes of {@code data}, typically a memory
+     * mapping, which the scene's BIN chunk keeps referencing.
+     */
+    static GLTFScene readBinary(ByteBuffer data, BufferResolver resolver,
+            ExecutorService executor) {
+        GLTFScene gltfScene = new GLTFScene();
+        ParseContext context = new ParseContext(resolver, executor);
+        try {
+            ByteBuffer glb = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+            int size = glb.capacity();
 
-            JSONArray buffers = (JSONArray) root.get("buffers");
-            parseBuffers(gltfScene, buffers);
+            if (size < GLB_HEADER_LENGTH || glb.getInt(0) != GLB_MAGIC) {
+                throw new IOException("Not a binary glTF file");
+            }
+            if (glb.getInt(4) != GLB_VERSION) {
+                throw new IOException("Unsupported binary glTF version " + glb.getInt(4));
+            }
+            int length = Math.min(glb.getInt(8), size);
 
-            JSONArray bufferViews = (JSONArray) root.get("bufferViews");
-            parseBufferViews(gltfScene, bufferViews);
+            ByteBuffer jsonChunk = null;
+            ByteBuffer binChunk = null;
+            int offset = GLB_HEADER_LENGTH;
+            while (offset + GLB_CHUNK_HEADER_LENGTH <= length) {
+                int chunkLength = glb.getInt(offset);
+                int chunkType = glb.getInt(offset + 4);
+                offset += GLB_CHUNK_HEADER_LENGTH;
+                if (chunkLength < 0 || offset + chunkLength > length) {
+                    throw new IOException("Truncated binary glTF chunk");
+                }
+                if (chunkType == GLB_CHUNK_TYPE_JSON && jsonChunk == null) {
+                    jsonChunk = slice(glb, offset, chunkLength);
+                } else if (chunkType == GLB_CHUNK_TYPE_BIN && binChunk == null) {
+                    binChunk = slice(glb, offset, chunkLength);
+                }
+                // Unknown chunk types must be ignored.
+                offset += chunkLength;
+            }
+            if (jsonChunk == null) {
+                throw new IOException("Binary glTF file has no JSON chunk");
+            }
 
-            JSONArray accessors = (JSONArray) root.get("accessors");
-            parseAccessors(gltfScene, accessors);
+            JsonReader reader = new JsonReader(
+                    new InputStreamReader(new ByteBufferInputStream(jsonChunk), UTF_8));
+            try {
+                parseRoot(gltfScene, reader, context);
+            } finally {
+                reader.close();
+            }
+            finishDecodes(context);
 
+            // The BIN chunk is referenced by the first buffer, which has no uri.
+            if (binChunk != null && !gltfScene.buffers.isEmpty()) {
+                GLTFScene.Buffer buffer = gltfScene.buffers.get(0);
+                // The chunk may be padded by up to 3 bytes, but never shorter.
+                if (buffer.uri == null && binChunk.capacity() < buffer.byteLength) {
+                    Log.e(TAG, "BIN chunk of " + binChunk.capacity()
+                            + " bytes is shorter than its buffer of " + buffer.byteLength);
+                } else if (buffer.uri == null) {
+                    buffer.data = binChunk.order(ByteOrder.nativeOrder());
+                }
+            }
+            decompressBufferViews(gltfScene, executor);
+            validateNodes(gltfScene);
+            resolveLods(gltfScene);
+            resolveImages(gltfScene);
+            validateAccessors(gltfScene, executor);
         } catch(Exception e) {
             Log.e(TAG, e.getMessage());
         }
@@ -161,136 +422,1012 @@ public class SampleGLTFReader {
         return gltfScene;
     }
 
-    private static void parseScenes(GLTFScene output, JSONArray scenes) {
-        for (int i = 0; i < scenes.length(); ++i) {
-            try {
-                JSONObject jsonObject = scenes.getJSONObject(i);
-                GLTFScene.Scene scene = new GLTFScene.Scene();
-                if (jsonObject.has("name")) {
-                    scene.name = jsonObject.getString("name");
+    private static ByteBuffer slice(ByteBuffer source, int offset, int length) {
+        ByteBuffer duplicate = source.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    // Feeds a (mapped) ByteBuffer to the JsonReader without copying it into a byte[] first.
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    // State shared by the parse methods of a single read.
+    private static class ParseContext {
+        final BufferResolver resolver;
+        final ExecutorService executor;
+        final ArrayList<PendingDecode> pendingDecodes = new ArrayList<>();
+
+        ParseContext(BufferResolver resolver, ExecutorService executor) {
+            this.resolver = resolver;
+            this.executor = executor;
+        }
+    }
+
+    // A data URI buffer that is being decoded on the executor.
+    private static class PendingDecode {
+        final GLTFScene.Buffer buffer;
+        final int dataStart;
+        final ArrayList<Future<Boolean>> ranges = new ArrayList<>();
+
+        PendingDecode(GLTFScene.Buffer buffer, int dataStart) {
+            this.buffer = buffer;
+            this.dataStart = dataStart;
+        }
+    }
+
+    private static void parseRoot(GLTFScene output, JsonReader reader, ParseContext context)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "scene":
+                    output.scene = reader.nextInt();
+                    break;
+                case "scenes":
+                    parseScenes(output, reader);
+                    break;
+                case "nodes":
+                    parseNodes(output, reader);
+                    break;
+                case "meshes":
+                    parseMeshes(output, reader);
+                    break;
+                case "buffers":
+                    parseBuffers(output, reader, context);
+                    break;
+                case "bufferViews":
+                    parseBufferViews(output, reader);
+                    break;
+                case "accessors":
+                    parseAccessors(output, reader);
+                    break;
+                case "materials":
+                    parseMaterials(output, reader);
+                    break;
+                case "textures":
+                    parseTextures(output, reader);
+                    break;
+                case "samplers":
+                    parseSamplers(output, reader);
+                    break;
+                case "images":
+                    parseImages(output, reader, context);
+                    break;
+                default:
+                    // Skips asset, extensions, animations, etc. without building them.
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void parseIntArray(JsonReader reader, ArrayList<Integer> output) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            output.add(reader.nextInt());
+        }
+        reader.endArray();
+    }
+
+    private static float[] parseFloatArray(JsonReader reader) throws IOException {
+        float[] output = new float[16];
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (count == output.length) {
+                output = Arrays.copyOf(output, count * 2);
+            }
+            output[count++] = (float) reader.nextDouble();
+        }
+        reader.endArray();
+        return Arrays.copyOf(output, count);
+    }
+
+    private static float[] parseFloatArray(JsonReader reader, int length) throws IOException {
+        float[] output = new float[length];
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (count < length) {
+                output[count] = (float) reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+            ++count;
+        }
+        reader.endArray();
+        if (count != length) {
+            throw new IOException("Expected " + length + " numbers but found " + count);
+        }
+        return output;
+    }
+
+    private static void parseScenes(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Scene scene = new GLTFScene.Scene();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        scene.name = reader.nextString();
+                        break;
+                    case "nodes":
+                        parseIntArray(reader, scene.nodes);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                JSONArray nodes = jsonObject.getJSONArray("nodes");
-                for (int j = 0; j < nodes.length(); ++j) {
-                    scene.nodes.add((Integer)nodes.get(j));
+            }
+            reader.endObject();
+            output.scenes.add(scene);
+        }
+        reader.endArray();
+    }
+
+    private static void parseNodes(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Node node = new GLTFScene.Node();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        node.name = reader.nextString();
+                        break;
+                    case "mesh":
+                        node.mesh = reader.nextInt();
+                        break;
+                    case "children":
+                        parseIntArray(reader, node.children);
+                        break;
+                    case "matrix":
+                        node.matrix = parseFloatArray(reader, 16);
+                        break;
+                    case "translation":
+                        node.translation = parseFloatArray(reader, 3);
+                        break;
+                    case "rotation":
+                        node.rotation = parseFloatArray(reader, 4);
+                        break;
+                    case "scale":
+                        node.scale = parseFloatArray(reader, 3);
+                        break;
+                    case "extensions":
+                        parseNodeExtensions(node, reader);
+                        break;
+                    case "extras":
+                        parseNodeExtras(node, reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                output.scenes.add(scene);
-            } catch (JSONException e) {
-                Log.e(TAG, e.getMessage());
             }
+            reader.endObject();
+            output.nodes.add(node);
         }
+        reader.endArray();
     }
 
-    private static void parseNodes(GLTFScene output, JSONArray nodes) {
-        for (int i = 0; i < nodes.length(); ++i) {
-            try {
-                JSONObject jsonObject = nodes.getJSONObject(i);
-                GLTFScene.Node node = new GLTFScene.Node();
-                if (jsonObject.has("name")) {
-                    node.name = jsonObject.getString("name");
+    private static void parseNodeExtensions(GLTFScene.Node node, JsonReader reader)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("MSFT_lod")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("ids")) {
+                    parseIntArray(reader, node.lods);
+                } else {
+                    reader.skipValue();
                 }
-                node.mesh = jsonObject.getInt("mesh");
-                output.nodes.add(node);
-            } catch (JSONException e) {
-                Log.e(TAG, e.getMessage());
             }
+            reader.endObject();
         }
+        reader.endObject();
     }
 
-    private static void parseMeshes(GLTFScene output, JSONArray meshes) {
-        for (int i = 0; i < meshes.length(); ++i) {
-            try {
-                JSONObject jsonObject = meshes.getJSONObject(i);
-                GLTFScene.Mesh mesh = new GLTFScene.Mesh();
-                if (jsonObject.has("name")) {
-                    mesh.name = jsonObject.getString("name");
+    private static void parseNodeExtras(GLTFScene.Node node, JsonReader reader)
+            throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            // extras may hold any JSON value.
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("MSFT_screencoverage")) {
+                node.screenCoverage = parseFloatArray(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Drops references to nodes that don't exist, and child references that would give a node a
+    // second parent or close a cycle, so that the nodes of the file form trees the renderer can
+    // traverse. Like invalid accessors, dropped references are logged.
+    private static void validateNodes(GLTFScene scene) {
+        int nodeCount = scene.nodes.size();
+        for (int i = 0; i < scene.scenes.size(); ++i) {
+            Iterator<Integer> nodes = scene.scenes.get(i).nodes.iterator();
+            while (nodes.hasNext()) {
+                int node = nodes.next();
+                if (node < 0 || node >= nodeCount) {
+                    Log.e(TAG, "Scene " + i + " references missing node " + node);
+                    nodes.remove();
+                }
+            }
+        }
+
+        int[] parents = new int[nodeCount];
+        Arrays.fill(parents, -1);
+        for (int node = 0; node < nodeCount; ++node) {
+            Iterator<Integer> children = scene.nodes.get(node).children.iterator();
+            while (children.hasNext()) {
+                int child = children.next();
+                if (child < 0 || child >= nodeCount) {
+                    Log.e(TAG, "Node " + node + " references missing child " + child);
+                    children.remove();
+                } else if (parents[child] >= 0) {
+                    Log.e(TAG, "Ignoring node " + child + " as a child of node " + node
+                            + ", it already has parent " + parents[child]);
+                    children.remove();
+                } else {
+                    parents[child] = node;
+                }
+            }
+        }
+
+        // With one parent each, a node is on a cycle if following its parents comes back to it.
+        // Each walk stops at the nodes earlier walks covered, so every node is visited once.
+        byte[] states = new byte[nodeCount]; // 0 unvisited, 1 on the current walk, 2 done
+        int[] walk = new int[nodeCount];
+        for (int start = 0; start < nodeCount; ++start) {
+            int length = 0;
+            int node = start;
+            while (node >= 0 && states[node] == 0) {
+                states[node] = 1;
+                walk[length++] = node;
+                node = parents[node];
+            }
+            if (node >= 0 && states[node] == 1) {
+                Log.e(TAG, "Ignoring node " + node + " as a child of node " + parents[node]
+                        + ", which closes a cycle");
+                scene.nodes.get(parents[node]).children.remove(Integer.valueOf(node));
+                parents[node] = -1;
+            }
+            for (int i = 0; i < length; ++i) {
+                states[walk[i]] = 2;
+            }
+        }
+    }
+
+    // MSFT_lod chains nodes, but every node of a chain refers to a mesh; the chain is moved to the
+    // mesh of its first node so that renderers can treat it like generated LODs. The transforms
+    // of the other nodes are ignored, the extension expects them to match.
+    private static void resolveLods(GLTFScene scene) {
+        int meshCount = scene.meshes.size();
+        for (GLTFScene.Node node : scene.nodes) {
+            if (node.lods.isEmpty() || node.mesh < 0 || node.mesh >= meshCount) {
+                continue;
+            }
+            GLTFScene.Mesh mesh = scene.meshes.get(node.mesh);
+            if (!mesh.lods.isEmpty()) {
+                continue; // another node already chained this mesh
+            }
+            for (int lod : node.lods) {
+                int lodMesh = lod >= 0 && lod < scene.nodes.size() ? scene.nodes.get(lod).mesh : -1;
+                if (lodMesh < 0 || lodMesh >= meshCount) {
+                    Log.e(TAG, "Ignoring MSFT_lod node " + lod + " without a mesh");
+                    continue;
+                }
+                mesh.lods.add(lodMesh);
+            }
+            mesh.lodScreenCoverage = node.screenCoverage;
+        }
+    }
+
+    // Points images stored in a bufferView at their range; the buffer itself still loads lazily.
+    private static void resolveImages(GLTFScene scene) {
+        for (GLTFScene.Image image : scene.images) {
+            if (image.bufferView < 0) {
+                continue;
+            }
+            if (image.bufferView >= scene.bufferViews.size()) {
+                Log.e(TAG, "Image " + image.name + " references a missing bufferView");
+                continue;
+            }
+            GLTFScene.BufferView view = scene.bufferViews.get(image.bufferView);
+            if (view.buffer < 0 || view.buffer >= scene.buffers.size()) {
+                Log.e(TAG, "Image " + image.name + " references a missing buffer");
+                continue;
+            }
+            image.buffer = scene.buffers.get(view.buffer);
+            image.byteOffset = view.byteOffset;
+            image.byteLength = view.byteLength;
+        }
+    }
+
+    private static void parseMeshes(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Mesh mesh = new GLTFScene.Mesh();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        mesh.name = reader.nextString();
+                        break;
+                    case "primitives":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            mesh.primitives.add(parsePrimitive(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                JSONArray primitives = jsonObject.getJSONArray("primitives");
-                for (int j = 0; j < primitives.length(); ++j) {
-                    GLTFScene.Primitive primitive = new GLTFScene.Primitive();
-                    JSONObject jsonPrimitive = (JSONObject)primitives.get(i);
-                    JSONObject attributes = (JSONObject)jsonPrimitive.get("attributes");
-                    Iterator<String> iter = attributes.keys();
-
-                    while (iter.hasNext()) {
-                       String key = iter.next();
-                       primitive.attributes.put(key, (Integer)attributes.get(key));
-                       primitive.indices = jsonPrimitive.getInt("indices");
+            }
+            reader.endObject();
+            output.meshes.add(mesh);
+        }
+        reader.endArray();
+    }
+
+    private static GLTFScene.Primitive parsePrimitive(JsonReader reader) throws IOException {
+        GLTFScene.Primitive primitive = new GLTFScene.Primitive();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "attributes":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String key = reader.nextName();
+                        primitive.attributes.put(key, reader.nextInt());
                     }
-                    mesh.primitives.add(primitive);
+                    reader.endObject();
+                    break;
+                case "indices":
+                    primitive.indices = reader.nextInt();
+                    break;
+                case "mode":
+                    primitive.mode = reader.nextInt();
+                    break;
+                case "material":
+                    primitive.material = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return primitive;
+    }
+
+    // Only the base color of the metallic-roughness model is read; this renderer doesn't light.
+    private static void parseMaterials(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Material material = new GLTFScene.Material();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        material.name = reader.nextString();
+                        break;
+                    case "pbrMetallicRoughness":
+                        parsePbrMetallicRoughness(material, reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
+            }
+            reader.endObject();
+            output.materials.add(material);
+        }
+        reader.endArray();
+    }
 
-                output.meshes.add(mesh);
+    private static void parsePbrMetallicRoughness(GLTFScene.Material material, JsonReader reader)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "baseColorFactor":
+                    material.baseColorFactor = parseFloatArray(reader, 4);
+                    break;
+                case "baseColorTexture":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "index":
+                                material.baseColorTexture = reader.nextInt();
+                                break;
+                            case "texCoord":
+                                material.baseColorTexCoord = reader.nextInt();
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
 
-            } catch (JSONException e) {
-                Log.e(TAG, e.getMessage());
+    private static void parseTextures(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Texture texture = new GLTFScene.Texture();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        texture.name = reader.nextString();
+                        break;
+                    case "sampler":
+                        texture.sampler = reader.nextInt();
+                        break;
+                    case "source":
+                        texture.source = reader.nextInt();
+                        break;
+                    case "extensions":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals("KHR_texture_basisu")) {
+                                texture.ktx2Source = parseSource(reader);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
             }
+            reader.endObject();
+            output.textures.add(texture);
         }
+        reader.endArray();
     }
 
-    private static void parseBuffers(GLTFScene output, JSONArray buffers) {
-        for (int i = 0; i < buffers.length(); ++i) {
-            try {
-                JSONObject jsonObject = buffers.getJSONObject(i);
-                GLTFScene.Buffer buffer = new GLTFScene.Buffer();
-                if (jsonObject.has("name")) {
-                    buffer.name = jsonObject.getString("name");
+    private static int parseSource(JsonReader reader) throws IOException {
+        int source = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("source")) {
+                source = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return source;
+    }
+
+    private static void parseSamplers(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Sampler sampler = new GLTFScene.Sampler();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "magFilter":
+                        sampler.magFilter = reader.nextInt();
+                        break;
+                    case "minFilter":
+                        sampler.minFilter = reader.nextInt();
+                        break;
+                    case "wrapS":
+                        sampler.wrapS = reader.nextInt();
+                        break;
+                    case "wrapT":
+                        sampler.wrapT = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                buffer.byteLength = jsonObject.getInt("byteLength");
-                // For this hello-world loader we'll only support loading from a data URI
-                buffer.uri = jsonObject.getString("uri");
-                String dataURI = buffer.uri.replaceFirst(DATA_URI_PREFIX, "");
-                byte[] bufferData = Base64.decode(dataURI, Base64.DEFAULT);
-                // Important to allocateDirect(...); wrap(...) doesn't work as GLES20.glBufferData wants a direct buffer.
-                buffer.data = ByteBuffer.allocateDirect(bufferData.length).order(ByteOrder.nativeOrder());
-                buffer.data.put(bufferData);
-                buffer.data.rewind();
-                output.buffers.add(buffer);
-
-            } catch (JSONException e) {
-                Log.e(TAG, e.getMessage());
             }
+            reader.endObject();
+            output.samplers.add(sampler);
         }
+        reader.endArray();
     }
 
-    private static void parseBufferViews(GLTFScene output, JSONArray bufferViews) {
-        for (int i = 0; i < bufferViews.length(); ++i) {
-            try {
-                JSONObject jsonObject = bufferViews.getJSONObject(i);
-                GLTFScene.BufferView bufferView = new GLTFScene.BufferView();
-                if (jsonObject.has("name")) {
-                    bufferView.name = jsonObject.getString("name");
+    private static void parseImages(GLTFScene output, JsonReader reader, ParseContext context)
+            throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Image image = new GLTFScene.Image();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        image.name = reader.nextString();
+                        break;
+                    case "uri":
+                        image.uri = reader.nextString();
+                        break;
+                    case "mimeType":
+                        image.mimeType = reader.nextString();
+                        break;
+                    case "bufferView":
+                        image.bufferView = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                bufferView.buffer = jsonObject.getInt("buffer"); // index to list of buffers
-                bufferView.byteLength = jsonObject.getInt("byteLength");
-                bufferView.byteOffset = jsonObject.getInt("byteOffset");
-                if (jsonObject.has("byteStride")) {
-                    bufferView.byteStride = jsonObject.getInt("byteStride");
+            }
+            reader.endObject();
+            image.resolver = context.resolver;
+            output.images.add(image);
+        }
+        reader.endArray();
+    }
+
+    private static void parseBuffers(GLTFScene output, JsonReader reader, ParseContext context)
+            throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Buffer buffer = new GLTFScene.Buffer();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        buffer.name = reader.nextString();
+                        break;
+                    case "byteLength":
+                        buffer.byteLength = reader.nextInt();
+                        break;
+                    case "uri":
+                        buffer.uri = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                bufferView.target = jsonObject.getInt("target");
-                output.bufferViews.add(bufferView);
-            } catch (JSONException e) {
-                Log.e(TAG, e.getMessage());
             }
+            reader.endObject();
+            // JSON members are unordered, so the data can only be decoded once the whole object
+            // has been read.
+            if (buffer.uri != null && !buffer.uri.startsWith("data:")) {
+                buffer.resolver = context.resolver;
+                if (context.resolver == null) {
+                    Log.e(TAG, "No resolver for external buffer " + buffer.uri);
+                }
+            } else {
+                decodeBuffer(buffer, context);
+            }
+            output.buffers.add(buffer);
         }
+        reader.endArray();
     }
 
-    private static void parseAccessors(GLTFScene output, JSONArray accessors) {
-         for (int i = 0; i < accessors.length(); ++i) {
-            try {
-                JSONObject jsonObject = accessors.getJSONObject(i);
-                GLTFScene.Accessor accessor = new GLTFScene.Accessor();
-                if (jsonObject.has("name")) {
-                    accessor.name = jsonObject.getString("name");
+    private static void decodeBuffer(GLTFScene.Buffer buffer, ParseContext context)
+            throws IOException {
+        if (buffer.uri == null) {
+            // The GLB BIN chunk; filled in by readBinary once the JSON chunk has been parsed.
+            return;
+        }
+        // Embedded buffer; external uris are handled by the BufferResolver. The payload is decoded
+        // in place from the uri string rather than from a trimmed copy of it.
+        int dataStart = buffer.uri.indexOf(',') + 1;
+        if (!buffer.uri.regionMatches(
+                dataStart - BASE64_DATA_URI_MARKER.length(),
+                BASE64_DATA_URI_MARKER, 0, BASE64_DATA_URI_MARKER.length())) {
+            throw new IOException("Only base64 data URIs are supported");
+        }
+        if (context.executor == null) {
+            // Base64Decoder allocates a direct buffer, as GLES20.glBufferData wants a direct buffer.
+            buffer.data = Base64Decoder.decode(buffer.uri, dataStart, buffer.byteLength);
+            return;
+        }
+
+        // Decode on the executor while the rest of the file is parsed. Large payloads are split
+        // into ranges so that a file with one big buffer still uses every core.
+        buffer.data = ByteBuffer.allocateDirect(buffer.byteLength).order(ByteOrder.nativeOrder());
+        int rangeCount = Math.min(Runtime.getRuntime().availableProcessors(),
+                1 + (buffer.uri.length() - dataStart) / Base64Decoder.SPLIT_LENGTH);
+        PendingDecode pendingDecode = new PendingDecode(buffer, dataStart);
+        for (Callable<Boolean> range : Base64Decoder.split(buffer.uri, dataStart, buffer.data, rangeCount)) {
+            pendingDecode.ranges.add(context.executor.submit(range));
+        }
+        context.pendingDecodes.add(pendingDecode);
+    }
+
+    private static void finishDecodes(ParseContext context) throws IOException {
+        for (PendingDecode pendingDecode : context.pendingDecodes) {
+            boolean decoded = true;
+            for (Future<Boolean> range : pendingDecode.ranges) {
+                decoded &= await(range);
+            }
+            ByteBuffer data = pendingDecode.buffer.data;
+            if (!decoded) {
+                // Whitespace in the payload throws off the range offsets; decode it in one go.
+                data.clear();
+                Base64Decoder.decodeFully(pendingDecode.buffer.uri, pendingDecode.dataStart, data);
+            }
+            data.rewind();
+        }
+        context.pendingDecodes.clear();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading glTF");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException
+                    ? (IOException) cause : new IOException(String.valueOf(cause));
+        }
+    }
+
+    private static void parseBufferViews(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.BufferView bufferView = new GLTFScene.BufferView();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        bufferView.name = reader.nextString();
+                        break;
+                    case "buffer":
+                        bufferView.buffer = reader.nextInt(); // index to list of buffers
+                        break;
+                    case "byteOffset":
+                        bufferView.byteOffset = reader.nextInt();
+                        break;
+                    case "byteLength":
+                        bufferView.byteLength = reader.nextInt();
+                        break;
+                    case "byteStride":
+                        bufferView.byteStride = reader.nextInt();
+                        break;
+                    case "target":
+                        bufferView.target = reader.nextInt();
+                        break;
+                    case "extensions":
+                        bufferView.meshoptCompression = parseBufferViewExtensions(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            output.bufferViews.add(bufferView);
+        }
+        reader.endArray();
+    }
+
+    private static GLTFScene.MeshoptCompression parseBufferViewExtensions(JsonReader reader)
+            throws IOException {
+        GLTFScene.MeshoptCompression compression = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("EXT_meshopt_compression")) {
+                reader.skipValue();
+                continue;
+            }
+            compression = new GLTFScene.MeshoptCompression();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "buffer":
+                        compression.buffer = reader.nextInt();
+                        break;
+                    case "byteOffset":
+                        compression.byteOffset = reader.nextInt();
+                        break;
+                    case "byteLength":
+                        compression.byteLength = reader.nextInt();
+                        break;
+                    case "byteStride":
+                        compression.byteStride = reader.nextInt();
+                        break;
+                    case "count":
+                        compression.count = reader.nextInt();
+                        break;
+                    case "mode":
+                        compression.mode = reader.nextString();
+                        break;
+                    case "filter":
+                        compression.filter = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return compression;
+    }
+
+    // Decodes every EXT_meshopt_compression bufferView into a buffer of its own and points the
+    // bufferView at it, so nothing downstream needs to know about the compression. bufferViews
+    // are independent of each other and are decoded in parallel on the executor.
+    private static void decompressBufferViews(final GLTFScene scene, ExecutorService executor)
+            throws IOException {
+        ArrayList<GLTFScene.BufferView> compressedViews = new ArrayList<>();
+        for (GLTFScene.BufferView bufferView : scene.bufferViews) {
+            if (bufferView.meshoptCompression != null) {
+                compressedViews.add(bufferView);
+            }
+        }
+        if (compressedViews.isEmpty()) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        ByteBuffer[] decoded = new ByteBuffer[compressedViews.size()];
+        if (executor == null) {
+            for (int i = 0; i < decoded.length; ++i) {
+                decoded[i] = decompressBufferView(scene, compressedViews.get(i).meshoptCompression);
+            }
+        } else {
+            ArrayList<Future<ByteBuffer>> tasks = new ArrayList<>();
+            for (GLTFScene.BufferView bufferView : compressedViews) {
+                final GLTFScene.MeshoptCompression compression = bufferView.meshoptCompression;
+                tasks.add(executor.submit(new Callable<ByteBuffer>() {
+                    @Override
+                    public ByteBuffer call() throws IOException {
+                        return decompressBufferView(scene, compression);
+                    }
+                }));
+            }
+            for (int i = 0; i < decoded.length; ++i) {
+                decoded[i] = await(tasks.get(i));
+            }
+        }
+        long elapsedTime = System.nanoTime() - startTime;
+
+        long compressedBytes = 0;
+        long decodedBytes = 0;
+        for (int i = 0; i < decoded.length; ++i) {
+            GLTFScene.BufferView bufferView = compressedViews.get(i);
+            GLTFScene.Buffer buffer = new GLTFScene.Buffer();
+            buffer.data = decoded[i];
+            buffer.byteLength = decoded[i].capacity();
+            scene.buffers.add(buffer);
+            bufferView.buffer = scene.buffers.size() - 1;
+            bufferView.byteOffset = 0;
+            bufferView.byteLength = buffer.byteLength;
+            compressedBytes += bufferView.meshoptCompression.byteLength;
+            decodedBytes += buffer.byteLength;
+            bufferView.meshoptCompression = null;
+        }
+        // Decode throughput, in MB of decoded data per second of wall time.
+        Log.d(TAG, String.format(Locale.US,
+                "meshopt: %d bufferViews, %d -> %d bytes in %.2f ms (%.1f MB/s)",
+                decoded.length, compressedBytes, decodedBytes, elapsedTime / 1e6,
+                decodedBytes / 1e6 / Math.max(elapsedTime / 1e9, 1e-9)));
+    }
+
+    private static ByteBuffer decompressBufferView(
+            GLTFScene scene, GLTFScene.MeshoptCompression compression) throws IOException {
+        if (compression.buffer < 0 || compression.buffer >= scene.buffers.size()) {
+            throw new IOException("meshopt buffer " + compression.buffer + " does not exist");
+        }
+        ByteBuffer data = scene.buffers.get(compression.buffer).getData();
+        if (data == null || compression.byteOffset < 0 || compression.byteLength < 0
+                || (long) compression.byteOffset + compression.byteLength > data.capacity()) {
+            throw new IOException("meshopt data exceeds buffer " + compression.buffer);
+        }
+        ByteBuffer source = data.duplicate();
+        source.limit(compression.byteOffset + compression.byteLength);
+        source.position(compression.byteOffset);
+        return MeshoptDecoder.decode(source, compression.count, compression.byteStride,
+                compression.mode, compression.filter);
+    }
+
+    private static void parseAccessors(GLTFScene output, JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            GLTFScene.Accessor accessor = new GLTFScene.Accessor();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        accessor.name = reader.nextString();
+                        break;
+                    case "bufferView":
+                        accessor.bufferView = reader.nextInt(); // index to list of bufferViews
+                        break;
+                    case "byteOffset":
+                        accessor.byteOffset = reader.nextInt();
+                        break;
+                    case "componentType":
+                        accessor.componentType = reader.nextInt();
+                        break;
+                    case "normalized":
+                        accessor.normalized = reader.nextBoolean();
+                        break;
+                    case "count":
+                        accessor.count = reader.nextInt();
+                        break;
+                    case "type":
+                        accessor.type = reader.nextString();
+                        break;
+                    case "min":
+                        accessor.min = parseFloatArray(reader);
+                        break;
+                    case "max":
+                        accessor.max = parseFloatArray(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                accessor.bufferView = jsonObject.getInt("bufferView"); // index to list of buffers
-                accessor.byteOffset = jsonObject.getInt("byteOffset");
-                accessor.componentType = jsonObject.getInt("componentType");
-                accessor.count = jsonObject.getInt("count");
-                accessor.type = jsonObject.getString("type");
-                output.accessors.add(accessor);
-            } catch (JSONException e) {
-                Log.e(TAG, e.getMessage());
             }
+            reader.endObject();
+            output.accessors.add(accessor);
+        }
+        reader.endArray();
+    }
+
+    static int getComponentSize(int componentType) {
+        switch (componentType) {
+            case COMPONENT_TYPE_BYTE:
+            case COMPONENT_TYPE_UNSIGNED_BYTE:
+                return 1;
+            case COMPONENT_TYPE_SHORT:
+            case COMPONENT_TYPE_UNSIGNED_SHORT:
+                return 2;
+            case COMPONENT_TYPE_INT:
+            case COMPONENT_TYPE_UNSIGNED_INT:
+            case COMPONENT_TYPE_FLOAT:
+                return 4;
+            case COMPONENT_TYPE_DOUBLE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    static int getComponentCount(String type) {
+        if (type == null) {
+            return 0;
+        }
+        switch (type) {
+            case "SCALAR":
+                return 1;
+            case "VEC2":
+                return 2;
+            case "VEC3":
+                return 3;
+            case "VEC4":
+            case "MAT2":
+                return 4;
+            case "MAT3":
+                return 9;
+            case "MAT4":
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    // Checks that every accessor fits inside its bufferView and buffer, so the renderer can't
+    // read past the end of a buffer. Large files are validated in chunks on the executor.
+    private static void validateAccessors(final GLTFScene scene, ExecutorService executor)
+            throws IOException {
+        final int accessorCount = scene.accessors.size();
+        final String[] errors = new String[accessorCount];
+        if (executor == null) {
+            validateAccessors(scene, 0, accessorCount, errors);
+        } else {
+            ArrayList<Future<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < accessorCount; i += ACCESSORS_PER_VALIDATION_TASK) {
+                final int start = i;
+                final int end = Math.min(accessorCount, i + ACCESSORS_PER_VALIDATION_TASK);
+                tasks.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        validateAccessors(scene, start, end, errors);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                await(task);
+            }
+        }
+        // Logged in accessor order so that the output doesn't depend on thread scheduling.
+        for (int i = 0; i < accessorCount; ++i) {
+            if (errors[i] != null) {
+                Log.e(TAG, "Accessor " + i + " is invalid: " + errors[i]);
+            }
+        }
+    }
+
+    private static void validateAccessors(GLTFScene scene, int start, int end, String[] errors) {
+        for (int i = start; i < end; ++i) {
+            GLTFScene.Accessor accessor = scene.accessors.get(i);
+            errors[i] = validateAccessor(scene, accessor);
+            accessor.valid = errors[i] == null;
+        }
+    }
+
+    // Returns why the accessor can't be read, or null if it is valid.
+    private static String validateAccessor(GLTFScene scene, GLTFScene.Accessor accessor) {
+        int componentSize = getComponentSize(accessor.componentType);
+        int componentCount = getComponentCount(accessor.type);
+        if (componentSize == 0 || componentCount == 0) {
+            return "unsupported " + accessor.type + " of componentType " + accessor.componentType;
+        }
+        if (accessor.bufferView < 0 || accessor.bufferView >= scene.bufferViews.size()) {
+            return "bufferView " + accessor.bufferView + " does not exist";
+        }
+        GLTFScene.BufferView bufferView = scene.bufferViews.get(accessor.bufferView);
+        if (bufferView.buffer < 0 || bufferView.buffer >= scene.buffers.size()) {
+            return "buffer " + bufferView.buffer + " does not exist";
+        }
+        GLTFScene.Buffer buffer = scene.buffers.get(bufferView.buffer);
+        if ((long) bufferView.byteOffset + bufferView.byteLength > buffer.getReadableLength()) {
+            return "bufferView " + accessor.bufferView + " exceeds the data of its buffer";
+        }
+        long elementSize = componentSize * componentCount;
+        long stride = bufferView.byteStride != 0 ? bufferView.byteStride : elementSize;
+        if (accessor.count > 0
+                && accessor.byteOffset + stride * (accessor.count - 1) + elementSize
+                        > bufferView.byteLength) {
+            return "exceeds bufferView " + accessor.bufferView;
         }
+        return null;
     }
 }
@@ -19,16 +19,33 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import com.facebook.sample.gles.GL;
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.GLFence;
 import com.facebook.sample.gles.GLHelpers;
-import com.facebook.sample.gles.ShaderProgram;
+import com.facebook.sample.gles.GLStateCache;
+import com.facebook.sample.gles.GLUploadThread;
+import com.facebook.sample.gles.ProgramBinaryCache;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is a trivial glTF renderer that issues GLES draw commands to render the primitive meshes
@@ -39,115 +56,462 @@ import java.util.ArrayList;
 public class SampleGLTFRenderer {
     private static final String TAG = SampleGLTFRenderer.class.getSimpleName();
 
-    private static final int COORDS_PER_VERTEX = 3;
     private static final int BYTES_PER_FLOAT = 4;
-    private static final int BYTES_PER_SHORT = 2;
+    private static final int INSTANCE_MATRIX_BYTES =
+            TransformHierarchy.MATRIX_SIZE * BYTES_PER_FLOAT;
 
+    // Most mip level bytes a frame streams into the texture cache.
+    private static final int MIP_STREAM_BYTES_PER_FRAME = 1 << 20;
+
+    // How often a blocking load checks the fence its next upload step waits for.
+    private static final long FENCE_POLL_NANOS = 1000000;
+
+    // Primitives without a material keep the red this sample has always drawn them in.
+    private static final float[] DEFAULT_BASE_COLOR_FACTOR = {1, 0, 0, 1};
+
+    // Decodes buffers and validates accessors for every renderer in parallel with parsing. The
+    // threads are daemons, so the pool never keeps the process alive.
+    private static ExecutorService loadExecutor;
+    // Runs the loads started by loadAsync, one at a time. Loads wait for the decoding they hand
+    // to loadExecutor, so they can't run on its threads.
+    private static ExecutorService assetLoadExecutor;
+
+    private GLTFAssetCache assetCache;
+    private GLTFAssetCache.Asset asset;
+    private Load load; // the load in progress, null once it completes
+    private GLUploadThread uploadThread;
+    private ProgramBinaryCache programBinaryCache;
     private ArrayList<GLTFRenderObject> gltfRenderObjects;
+    private boolean geometryPacking = true;
+    private boolean positionQuantization;
+    private boolean meshOptimization = true;
+    private boolean lodGeneration = true;
+    private boolean uintIndices;
+    // Of the renderer's context, and so of the share group the uploads run in.
+    private int glesVersion;
+    private ArrayList<GLTFRenderInstance> gltfRenderInstances;
+    private TransformHierarchy transformHierarchy;
+    private float[] instanceBounds; // world space, BoundingVolumeHierarchy.BOUNDS_SIZE per instance
+    private BoundingVolumeHierarchy instanceHierarchy;
+    private final Frustum frustum = new Frustum();
+    private int[] visibleInstances;
+    private int visibleInstanceCount;
+    private int culledInstanceCount;
+    private int finestInstanceCount; // instances of level of detail 0
+    private LodSelector lodSelector;
+    private int viewportWidth;
+    private int viewportHeight;
+    private float lodErrorThreshold = 1;
+    private int triangleBudget;
+    private int triangleCount;
+    private int[] instanceDrawKeys;
+    private DrawList drawList;
+    private final GL gl = GLBackend.get();
+    private final GLStateCache glState = new GLStateCache();
+    private float[] baseColorFactor; // last set in the bound program, null if unknown
 
-    private ShaderProgram shaderProgram;
+    private GLTFProgram program;
 
-    private int modelViewProjectionUniform;
-    private int positionAttribute;
+    // GLES 3.0 instancing, null when every node is drawn with a draw call of its own.
+    private boolean instancing = true;
+    private GLTFProgram instancedProgram;
+    private int instanceBufferId;
+    private FloatBuffer instanceMatrices; // world matrices of the visible instances, draw order
+    private int drawCallCount;
+    private FrameProfiler frameProfiler;
 
     private final float[] modelMatrix = new float[16];
+    private final float[] scaleMatrix = new float[16];
     private final float[] modelViewMatrix = new float[16];
     private final float[] modelViewProjectionMatrix = new float[16];
+    private final float[] nodeModelViewProjectionMatrix = new float[16];
 
     public SampleGLTFRenderer() {}
 
-    // For simplicity we're hardcoding the component types for our render objects rather than
-    // creating the typed Buffers based on the accessor's componentType.
+    // Positions and indices are uploaded as-is, whatever their component type, and described to
+    // GL by the layout fields. Render objects belong to a cached asset, shared by every renderer
+    // that draws it, and don't change once it is published. Until then, the renderer loading the
+    // asset draws each object as soon as its uploads are done.
     //
     // We'll reference the BufferView buffers directly to avoid copying data. So we need the
     // byte offset and length for the vertex and index buffers.
     public static class GLTFRenderObject {
-        ShortBuffer indices;
+        ByteBuffer indices;
+        int indexBufferView;
         int indexByteOffset, indexByteLength;
         int indexBufferId;
+        int indexBufferOffset; // byte offset of the indices in indexBufferId
+        // Layout of the indices within the bufferView.
+        int indexAccessorOffset;
+        int indexComponentType;
+        int indexCount;
+        int mode;
+        int triangleCount;
 
-        FloatBuffer vertices;
+        ByteBuffer vertices;
+        int vertexBufferView;
         int vertexByteOffset, vertexByteLength;
         int vertexBufferId;
+        int vertexBufferOffset; // byte offset of the vertices in vertexBufferId
+        // Layout of the positions within the bufferView.
+        int vertexAttributeOffset;
+        int vertexComponentCount;
+        int vertexComponentType;
+        boolean vertexNormalized;
+        int vertexStride;
+
+        // Layout of the texture coordinates the base color texture is sampled with, in the
+        // positions' bufferView or one of their own. texcoordBufferView is -1 without them.
+        ByteBuffer texcoords;
+        int texcoordBufferView = -1;
+        int texcoordByteOffset, texcoordByteLength;
+        int texcoordBufferId;
+        int texcoordBufferOffset; // byte offset of the bufferView in texcoordBufferId
+        int texcoordAttributeOffset;
+        int texcoordComponentType;
+        boolean texcoordNormalized;
+        int texcoordStride;
+
+        int texture; // base color texture, white when the material has none or until it loads
+        int sourceTexture = -1; // glTF texture texture is uploaded from, -1 for none
+        float[] baseColorFactor;
+
+        int pendingUploads; // buffer uploads still to complete before the object can be drawn
+
+        int drawKey; // rank in the order that groups draws by GL state, see rankDrawKeys
+        // Local space bounds of the positions.
+        final float[] bounds = new float[BoundingVolumeHierarchy.BOUNDS_SIZE];
     }
 
-    // Prepares render data for each glTF mesh primitive.
-    private ArrayList<GLTFRenderObject> CreateGLTFRenderObjects(SampleGLTFReader.GLTFScene gltfScene) {
+    // A load started by loadAsync. Its GL work is skipped once it is cancelled.
+    private static final class Load {
+        volatile boolean cancelled;
+        // The asset being uploaded, once its buffers exist. The renderer owns it until it is
+        // published.
+        GLTFAssetCache.Asset asset;
+    }
+
+    // A render object drawn with the world transform of one of the nodes that reference its mesh.
+    // Every level of detail of the mesh has instances of its own, of which only those of the
+    // level chosen for the node are drawn.
+    public static class GLTFRenderInstance {
+        GLTFRenderObject renderObject;
+        int transform; // entry in the TransformHierarchy
+        int lod; // level of detail of the node's mesh, 0 for the mesh itself
+    }
+
+    // Prepares render data for each glTF mesh primitive in the displayed scene into asset, and
+    // returns the uploads of its buffers. Only the buffers these primitives use are touched, so
+    // external buffers of other scenes are never loaded. Makes no GL calls. Package-private for
+    // the benchmarks.
+    ArrayList<BufferUpload> CreateGLTFRenderObjects(CompactGLTFScene scene,
+            TransformHierarchy hierarchy, GLTFAssetCache.Asset asset) {
         ArrayList<GLTFRenderObject> renderObjects = new ArrayList<>();
-        // Note in real glTF nodes can have children. Here we're only loading top level siblings for the sample.
-        for (int i = 0; i < gltfScene.meshes.size(); ++i) {
-            SampleGLTFReader.GLTFScene.Mesh mesh = gltfScene.meshes.get(i);
+        float[] meshBounds = new float[scene.meshCount * BoundingVolumeHierarchy.BOUNDS_SIZE];
+        asset.textureEntries = new TextureCache.Entry[scene.textureCount];
+        boolean[] sceneMeshes = new boolean[scene.meshCount];
+        for (int entry = 0; entry < hierarchy.size(); ++entry) {
+            int mesh = scene.nodeMesh[hierarchy.getNode(entry)];
+            if (mesh >= 0) {
+                for (int level = scene.meshLodStart[mesh]; level < scene.meshLodStart[mesh + 1];
+                        ++level) {
+                    sceneMeshes[scene.meshLods[level]] = true;
+                }
+            }
+        }
+        // Meshes are uploaded once, however many nodes share them.
+        int[] meshFirstObject = new int[scene.meshCount];
+        int[] meshObjectCount = new int[scene.meshCount];
+        for (int mesh = 0; mesh < scene.meshCount; ++mesh) {
+            if (!sceneMeshes[mesh]) {
+                continue;
+            }
+            meshFirstObject[mesh] = renderObjects.size();
             // Add each primitive into the render object list.
-            for (int j = 0; j < mesh.primitives.size(); ++j) {
+            for (int primitive = scene.meshPrimitiveStart[mesh];
+                    primitive < scene.meshPrimitiveStart[mesh + 1]; ++primitive) {
                 GLTFRenderObject renderObject = new GLTFRenderObject();
 
-                SampleGLTFReader.GLTFScene.Primitive primitive = mesh.primitives.get(j);
                 // Find which accessor contains the data for this attribute
-                int accessorIdx = primitive.attributes.get("POSITION");
-                SampleGLTFReader.GLTFScene.Accessor accessor = gltfScene.accessors.get(accessorIdx);
-                SampleGLTFReader.GLTFScene.BufferView bufferView = gltfScene.bufferViews.get(accessor.bufferView);
-                SampleGLTFReader.GLTFScene.Buffer buffer = gltfScene.buffers.get(bufferView.buffer);
-
-                // Load vertex data embedded in JSON
-                if (accessor.componentType == SampleGLTFReader.COMPONENT_TYPE_FLOAT) {
-                    renderObject.vertices = buffer.data.asFloatBuffer();
-                    renderObject.vertexByteLength = bufferView.byteLength;
-                    renderObject.vertexByteOffset = bufferView.byteOffset;
-                    renderObject.vertices.position(bufferView.byteOffset / BYTES_PER_FLOAT);
+                int positionAccessor =
+                        scene.getAttribute(primitive, CompactGLTFScene.ATTRIBUTE_POSITION);
+                int indicesAccessor = scene.primitiveIndices[primitive];
+                if (positionAccessor < 0 || indicesAccessor < 0
+                        || !scene.accessorValid[positionAccessor]
+                        || !scene.accessorValid[indicesAccessor]) {
+                    Log.e(TAG, "Skipping primitive without valid positions and indices");
+                    continue;
+                }
+                scene.getAccessorBounds(positionAccessor, renderObject.bounds, 0);
+                int bufferView = scene.accessorBufferView[positionAccessor];
+                SampleGLTFReader.GLTFScene.Buffer buffer =
+                        scene.buffers[scene.bufferViewBuffer[bufferView]];
+
+                // Load vertex data embedded in JSON. Quantized positions (KHR_mesh_quantization)
+                // are uploaded without expansion; the node transforms that reference them carry
+                // the dequantization.
+                ByteBuffer vertexData = buffer.getData();
+                if (vertexData == null) {
+                    // A lazy buffer that failed to load or was shorter than declared.
+                    Log.e(TAG, "Skipping primitive whose vertex buffer has no data");
+                    continue;
+                }
+                if (isVertexComponentType(scene.accessorComponentType[positionAccessor])) {
+                    renderObject.vertices = vertexData.duplicate();
+                    renderObject.vertexByteLength = scene.bufferViewByteLength[bufferView];
+                    renderObject.vertexByteOffset = scene.bufferViewByteOffset[bufferView];
+                    renderObject.vertices.position(renderObject.vertexByteOffset);
+                    renderObject.vertexBufferView = bufferView;
+                    renderObject.vertexAttributeOffset = scene.accessorByteOffset[positionAccessor];
+                    renderObject.vertexComponentCount =
+                            scene.accessorComponentCount[positionAccessor];
+                    renderObject.vertexComponentType =
+                            scene.accessorComponentType[positionAccessor];
+                    renderObject.vertexNormalized = scene.accessorNormalized[positionAccessor];
+                    renderObject.vertexStride = scene.bufferViewByteStride[bufferView];
                 } else {
-                    // Not needed for our example.
-                    // Would need to initialize the correct Buffer type given the componentType.
-                    Log.e(TAG, "Not implemented");
+                    Log.e(TAG, "Unsupported position component type "
+                            + scene.accessorComponentType[positionAccessor]);
+                    continue;
                 }
 
                 // Load index data embedded in JSON
-                int indicesAccessor = primitive.indices;
-                accessor = gltfScene.accessors.get(indicesAccessor);
-                bufferView = gltfScene.bufferViews.get(accessor.bufferView);
-                buffer = gltfScene.buffers.get(bufferView.buffer);
-
-                if (bufferView.target == SampleGLTFReader.TARGET_ELEMENT_ARRAY_BUFFER) {
-                    renderObject.indices = buffer.data.asShortBuffer();
-                    renderObject.indexByteLength = bufferView.byteLength;
-                    renderObject.indexByteOffset = bufferView.byteOffset;
-                    renderObject.indices.position(bufferView.byteOffset / BYTES_PER_SHORT);
-                } else {
+                bufferView = scene.accessorBufferView[indicesAccessor];
+                buffer = scene.buffers[scene.bufferViewBuffer[bufferView]];
+
+                int indexType = scene.accessorComponentType[indicesAccessor];
+                if (scene.bufferViewTarget[bufferView] != SampleGLTFReader.TARGET_ELEMENT_ARRAY_BUFFER) {
                     Log.e(TAG, "Index buffer is invalid");
+                    continue;
+                }
+                if (!isIndexComponentType(indexType)) {
+                    Log.e(TAG, "Unsupported index component type " + indexType);
+                    continue;
                 }
+                ByteBuffer indexData = buffer.getData();
+                if (indexData == null) {
+                    Log.e(TAG, "Skipping primitive whose index buffer has no data");
+                    continue;
+                }
+                renderObject.indices = indexData.duplicate();
+                renderObject.indexByteLength = scene.bufferViewByteLength[bufferView];
+                renderObject.indexByteOffset = scene.bufferViewByteOffset[bufferView];
+                renderObject.indices.position(renderObject.indexByteOffset);
+                renderObject.indexBufferView = bufferView;
+                renderObject.indexAccessorOffset = scene.accessorByteOffset[indicesAccessor];
+                renderObject.indexComponentType = indexType;
+                renderObject.indexCount = scene.accessorElementCount[indicesAccessor];
+                renderObject.mode = scene.primitiveMode[primitive];
+                renderObject.triangleCount =
+                        getTriangleCount(renderObject.mode, renderObject.indexCount);
+                setMaterial(scene, primitive, renderObject);
+                // Until they are ranked, objects are drawn in the order they were created.
+                renderObject.drawKey = renderObjects.size();
 
-                // Prepare and upload GPU data.
-                int[] buffers = new int[2];
+                renderObjects.add(renderObject);
+            }
+            meshObjectCount[mesh] = renderObjects.size() - meshFirstObject[mesh];
 
-                GLES20.glGenBuffers(2, buffers, 0);
-                renderObject.vertexBufferId = buffers[0];
-                renderObject.indexBufferId = buffers[1];
+            int bounds = mesh * BoundingVolumeHierarchy.BOUNDS_SIZE;
+            for (int i = meshFirstObject[mesh]; i < renderObjects.size(); ++i) {
+                float[] objectBounds = renderObjects.get(i).bounds;
+                for (int c = 0; c < 3; ++c) {
+                    boolean first = i == meshFirstObject[mesh];
+                    meshBounds[bounds + c] = first
+                            ? objectBounds[c] : Math.min(meshBounds[bounds + c], objectBounds[c]);
+                    meshBounds[bounds + 3 + c] = first ? objectBounds[3 + c]
+                            : Math.max(meshBounds[bounds + 3 + c], objectBounds[3 + c]);
+                }
+            }
+        }
 
-                // Upload vertex buffer to GPU
-                renderObject.vertices.position(renderObject.vertexByteOffset / BYTES_PER_FLOAT);
-                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, renderObject.vertexBufferId);
-                GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, renderObject.vertexByteLength, renderObject.vertices, GLES20.GL_STATIC_DRAW);
+        // Lay out the GPU data.
+        ArrayList<BufferUpload> uploads = geometryPacking
+                ? GeometryPacker.pack(renderObjects, scene.bufferViewCount)
+                : createUploads(renderObjects);
+        asset.byteSize = 0;
+        for (BufferUpload upload : uploads) {
+            asset.byteSize += upload.getSize();
+        }
+        // The uploads hold on to the data until the GPU has its copy, and cached assets
+        // shouldn't pin the file's.
+        for (GLTFRenderObject renderObject : renderObjects) {
+            renderObject.vertices = null;
+            renderObject.texcoords = null;
+            renderObject.indices = null;
+        }
 
-                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        asset.renderObjects = renderObjects;
+        asset.meshFirstObject = meshFirstObject;
+        asset.meshObjectCount = meshObjectCount;
+        asset.meshBounds = meshBounds;
+        return uploads;
+    }
 
-                // Upload index buffer to GPU
-                renderObject.indices.position(renderObject.indexByteOffset / BYTES_PER_SHORT);
-                GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, renderObject.indexBufferId);
-                GLES20.glBufferData(
-                        GLES20.GL_ELEMENT_ARRAY_BUFFER, renderObject.indexByteLength, renderObject.indices, GLES20.GL_STATIC_DRAW);
+    // Creates an instance of an asset's render objects for every node of the hierarchy that
+    // references their mesh, at every level of detail of the mesh.
+    private static ArrayList<GLTFRenderInstance> createRenderInstances(
+            GLTFAssetCache.Asset asset, TransformHierarchy hierarchy) {
+        CompactGLTFScene scene = asset.scene;
+        ArrayList<GLTFRenderInstance> renderInstances = new ArrayList<>();
+        for (int entry = 0; entry < hierarchy.size(); ++entry) {
+            int mesh = scene.nodeMesh[hierarchy.getNode(entry)];
+            if (mesh < 0) {
+                continue;
+            }
+            int firstLevel = scene.meshLodStart[mesh];
+            for (int level = firstLevel; level < scene.meshLodStart[mesh + 1]; ++level) {
+                int lodMesh = scene.meshLods[level];
+                for (int i = 0; i < asset.meshObjectCount[lodMesh]; ++i) {
+                    GLTFRenderInstance renderInstance = new GLTFRenderInstance();
+                    renderInstance.renderObject =
+                            asset.renderObjects.get(asset.meshFirstObject[lodMesh] + i);
+                    renderInstance.transform = entry;
+                    renderInstance.lod = level - firstLevel;
+                    renderInstances.add(renderInstance);
+                }
+            }
+        }
+        return renderInstances;
+    }
+
+    // Points a render object at the base color of its primitive's material, and at the texture
+    // and its texture coordinates when it has one. The texture itself is acquired later, on the
+    // GL thread.
+    private static void setMaterial(CompactGLTFScene scene, int primitive,
+            GLTFRenderObject renderObject) {
+        int material = scene.primitiveMaterial[primitive];
+        if (material < 0 || material >= scene.materialCount) {
+            renderObject.baseColorFactor = DEFAULT_BASE_COLOR_FACTOR;
+            return;
+        }
+        renderObject.baseColorFactor = Arrays.copyOfRange(
+                scene.materialBaseColorFactor, material * 4, material * 4 + 4);
+        int texture = scene.materialBaseColorTexture[material];
+        if (texture < 0 || texture >= scene.textureCount) {
+            return;
+        }
+        int texCoord = scene.materialBaseColorTexCoord[material];
+        int texcoordAccessor = texCoord == 0 || texCoord == 1
+                ? scene.getAttribute(primitive, CompactGLTFScene.ATTRIBUTE_TEXCOORD_0 + texCoord)
+                : -1;
+        if (texcoordAccessor < 0 || !scene.accessorValid[texcoordAccessor]
+                || scene.accessorComponentCount[texcoordAccessor] != 2
+                || !isTexCoordComponentType(scene.accessorComponentType[texcoordAccessor],
+                        scene.accessorNormalized[texcoordAccessor])) {
+            Log.e(TAG, "Ignoring base color texture without usable TEXCOORD_" + texCoord);
+            return;
+        }
+        int bufferView = scene.accessorBufferView[texcoordAccessor];
+        ByteBuffer texcoords = scene.buffers[scene.bufferViewBuffer[bufferView]].getData();
+        if (texcoords == null) {
+            Log.e(TAG, "Ignoring base color texture whose TEXCOORD_" + texCoord + " has no data");
+            return;
+        }
+        renderObject.sourceTexture = texture;
+        renderObject.texcoords = texcoords;
+        renderObject.texcoordBufferView = bufferView;
+        renderObject.texcoordByteOffset = scene.bufferViewByteOffset[bufferView];
+        renderObject.texcoordByteLength = scene.bufferViewByteLength[bufferView];
+        renderObject.texcoordAttributeOffset = scene.accessorByteOffset[texcoordAccessor];
+        renderObject.texcoordComponentType = scene.accessorComponentType[texcoordAccessor];
+        renderObject.texcoordNormalized = scene.accessorNormalized[texcoordAccessor];
+        renderObject.texcoordStride = scene.bufferViewByteStride[bufferView];
+    }
 
-                GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    // The component types glTF allows for texture coordinates.
+    private static boolean isTexCoordComponentType(int componentType, boolean normalized) {
+        switch (componentType) {
+            case SampleGLTFReader.COMPONENT_TYPE_FLOAT:
+                return true;
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE:
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT:
+                return normalized;
+            default:
+                return false;
+        }
+    }
 
-                GLHelpers.checkGlError("glTF buffer load");
+    private static int getTriangleCount(int mode, int indexCount) {
+        switch (mode) {
+            case GLES20.GL_TRIANGLES:
+                return indexCount / 3;
+            case GLES20.GL_TRIANGLE_STRIP:
+            case GLES20.GL_TRIANGLE_FAN:
+                return Math.max(indexCount - 2, 0);
+            default:
+                return 0;
+        }
+    }
 
-                renderObjects.add(renderObject);
+    // The component types glVertexAttribPointer accepts in GLES 2.0, and that glTF allows for
+    // positions with KHR_mesh_quantization.
+    private static boolean isVertexComponentType(int componentType) {
+        switch (componentType) {
+            case SampleGLTFReader.COMPONENT_TYPE_BYTE:
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE:
+            case SampleGLTFReader.COMPONENT_TYPE_SHORT:
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT:
+            case SampleGLTFReader.COMPONENT_TYPE_FLOAT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // 32 bit indices need GLES 3.0 or OES_element_index_uint.
+    private boolean isIndexComponentType(int componentType) {
+        switch (componentType) {
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE:
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT:
+                return true;
+            case SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_INT:
+                return uintIndices;
+            default:
+                return false;
+        }
+    }
+
+    // Lays each render object out in a vertex and an index buffer of its own, plus one for
+    // texture coordinates outside the vertex bufferView, and returns the uploads of all the
+    // buffers.
+    private static ArrayList<BufferUpload> createUploads(
+            ArrayList<GLTFRenderObject> renderObjects) {
+        ArrayList<BufferUpload> uploads = new ArrayList<>();
+        for (GLTFRenderObject renderObject : renderObjects) {
+            BufferUpload vertexUpload = new BufferUpload(GLES20.GL_ARRAY_BUFFER);
+            vertexUpload.add(renderObject.vertices, renderObject.vertexByteOffset,
+                    renderObject.vertexByteLength);
+            vertexUpload.addVertexUser(renderObject);
+            uploads.add(vertexUpload);
+
+            if (hasSeparateTexcoords(renderObject)) {
+                BufferUpload texcoordUpload = new BufferUpload(GLES20.GL_ARRAY_BUFFER);
+                texcoordUpload.add(renderObject.texcoords, renderObject.texcoordByteOffset,
+                        renderObject.texcoordByteLength);
+                texcoordUpload.addTexcoordUser(renderObject);
+                uploads.add(texcoordUpload);
+            } else if (renderObject.texcoordBufferView >= 0) {
+                vertexUpload.addTexcoordUser(renderObject);
             }
+
+            BufferUpload indexUpload = new BufferUpload(GLES20.GL_ELEMENT_ARRAY_BUFFER);
+            indexUpload.add(renderObject.indices, renderObject.indexByteOffset,
+                    renderObject.indexByteLength);
+            indexUpload.addIndexUser(renderObject);
+            uploads.add(indexUpload);
         }
-        return renderObjects;
+        return uploads;
     }
 
-    private static String readAsset(Context context, String asset) {
+    private static boolean hasSeparateTexcoords(GLTFRenderObject renderObject) {
+        return renderObject.texcoordBufferView >= 0
+                && renderObject.texcoordBufferView != renderObject.vertexBufferView;
+    }
+
+    private static String readAsset(GLTFAssetSource source, String asset) {
         try {
-            InputStream is = context.getAssets().open(asset);
+            InputStream is = source.open(asset);
             InputStreamReader reader = new InputStreamReader(is);
             BufferedReader buf = new BufferedReader(reader);
             StringBuilder text = new StringBuilder();
@@ -161,27 +525,655 @@ public class SampleGLTFRenderer {
         }
     }
 
+    private static synchronized ExecutorService getLoadExecutor() {
+        if (loadExecutor == null) {
+            loadExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    createDaemonThreadFactory("GLTFLoader-"));
+        }
+        return loadExecutor;
+    }
+
+    private static synchronized ExecutorService getAssetLoadExecutor() {
+        if (assetLoadExecutor == null) {
+            assetLoadExecutor = Executors.newSingleThreadExecutor(
+                    createDaemonThreadFactory("GLTFAssetLoader-"));
+        }
+        return assetLoadExecutor;
+    }
+
+    private static ThreadFactory createDaemonThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static SampleGLTFReader.GLTFScene readGLTFAsset(GLTFAssetSource source,
+            String glTFAssetName) throws IOException {
+        SampleGLTFReader.BufferResolver resolver =
+                new AssetBufferResolver(source, glTFAssetName);
+        if (glTFAssetName.endsWith(".glb")) {
+            // Binary glTF is memory mapped, straight out of the APK for assets stored
+            // uncompressed (see aaptOptions in build.gradle).
+            ByteBuffer glb = source.map(glTFAssetName);
+            if (glb == null) {
+                throw new IOException(glTFAssetName + " can't be memory mapped");
+            }
+            return SampleGLTFReader.readBinary(glb, resolver, getLoadExecutor());
+        }
+        InputStream gltfInput = source.open(glTFAssetName);
+        return SampleGLTFReader.read(gltfInput, resolver, getLoadExecutor());
+    }
+
+    /**
+     * Chooses whether a load packs the geometry of all primitives into a few shared
+     * buffers, the default, or gives every primitive buffers of its own.
+     */
+    public void setGeometryPacking(boolean enabled) {
+        geometryPacking = enabled;
+    }
+
+    /**
+     * Chooses whether a load reorders triangles and vertices of indexed primitives for
+     * the vertex cache, overdraw and vertex fetch before upload, the default.
+     */
+    public void setMeshOptimization(boolean enabled) {
+        meshOptimization = enabled;
+    }
+
+    /**
+     * Chooses whether a load builds simplified levels of detail for meshes that have
+     * none in the file, the default.
+     */
+    public void setLevelOfDetail(boolean enabled) {
+        lodGeneration = enabled;
+    }
+
+    /**
+     * Sets the size of the viewport draw renders to, which levels of detail are chosen for. Until
+     * it is set, every node is drawn at its finest level.
+     */
+    public void setViewport(int width, int height) {
+        viewportWidth = width;
+        viewportHeight = height;
+        if (lodSelector != null) {
+            lodSelector.setViewport(width, height);
+        }
+    }
+
+    /** Sets the largest error, in pixels, a level of detail may show; 1 by default. */
+    public void setLodErrorThreshold(float pixels) {
+        lodErrorThreshold = pixels;
+        if (lodSelector != null) {
+            lodSelector.setErrorThreshold(pixels);
+        }
+    }
+
+    /**
+     * Sets how many triangles a frame should draw at most, or 0 for no limit, the default. Frames
+     * over budget make the following ones choose coarser levels of detail.
+     */
+    public void setTriangleBudget(int triangleCount) {
+        triangleBudget = triangleCount;
+    }
+
+    /** Returns how many triangles the last draw submitted. */
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * Chooses whether a load quantizes float positions to normalized 16 bit integers
+     * before upload. Off by default; files already using KHR_mesh_quantization need no help.
+     */
+    public void setPositionQuantization(boolean enabled) {
+        positionQuantization = enabled;
+    }
+
+    /**
+     * Chooses whether a load sets up instanced drawing of the nodes that share a mesh,
+     * the default. Instancing needs a GLES 3.0 context; on GLES 2.0 every node is drawn on its
+     * own regardless.
+     */
+    public void setInstancing(boolean enabled) {
+        instancing = enabled;
+    }
+
+    /**
+     * Sets the thread loads upload buffers on, in a context of its own, or null, the default, to
+     * upload them in the steps of the upload queue on the GL thread. Textures are uploaded in the
+     * queue's steps either way, so on GLES 2.0 a load with textures still ends with a glFinish on
+     * the GL thread before its asset is published.
+     */
+    public void setUploadThread(GLUploadThread thread) {
+        uploadThread = thread;
+    }
+
+    /**
+     * Sets the cache loads look the asset, its textures and the shader programs up
+     * in, and add them to on a miss. Must be called before loading; renderers use
+     * {@link GLTFAssetCache#getShared()} by default.
+     */
+    public void setAssetCache(GLTFAssetCache cache) {
+        assetCache = cache;
+    }
+
+    public GLTFAssetCache getAssetCache() {
+        return assetCache;
+    }
+
+    /**
+     * Sets the profiler draws mark the end of their update and cull phases in, and record their
+     * draw call, triangle and state change counts to, or null, the default, for none.
+     */
+    public void setFrameProfiler(FrameProfiler profiler) {
+        frameProfiler = profiler;
+    }
+
+    // Asset identity: the name, and every option that changes what gets uploaded.
+    private String getAssetKey(String glTFAssetName) {
+        return glTFAssetName
+                + (geometryPacking ? ":packed" : "")
+                + (meshOptimization ? ":optimized" : "")
+                + (positionQuantization ? ":quantized" : "")
+                + (lodGeneration ? ":lods" : "")
+                + (uintIndices ? ":uint" : "");
+    }
+
+    // Returns the program variant of the features from the cache. On a miss, its binary is
+    // loaded from disk, or its shaders read and compiled, and it is added.
+    private GLTFProgram acquireProgram(GLTFAssetSource source, int features) {
+        String key = GLTFProgram.getKey(features);
+        GLTFProgram variant = assetCache.acquireProgram(key);
+        if (variant == null) {
+            variant = GLTFProgram.link(features,
+                    readAsset(source, GLTFProgram.VERTEX_SHADER),
+                    readAsset(source, GLTFProgram.FRAGMENT_SHADER),
+                    programBinaryCache);
+            assetCache.putProgram(key, variant);
+        }
+        return variant;
+    }
+
+    /**
+     * Loads a gltf file, returning once it is ready to draw. The GL thread is blocked for the
+     * whole load; {@link #loadAsync} loads without stalling frames.
+     */
     public void createOnGlThread(Context context, String glTFAssetName)
             throws IOException {
+        UploadQueue uploadQueue = new UploadQueue();
+        awaitLoad(loadAsync(context, glTFAssetName, uploadQueue), uploadQueue, glTFAssetName);
+    }
 
-        shaderProgram = new ShaderProgram(
-                readAsset(context, "gltfobjectvert.glsl"),
-                readAsset(context, "gltfobjectfrag.glsl"));
+    /**
+     * Loads a gltf file from {@code source} like {@link #createOnGlThread(Context, String)}. Needs
+     * no Android Context, so with a {@link com.facebook.sample.gles.GLBackend} that records the
+     * calls, the whole load runs on a plain JVM.
+     */
+    public void createOnGlThread(GLTFAssetSource source, String glTFAssetName)
+            throws IOException {
+        UploadQueue uploadQueue = new UploadQueue();
+        awaitLoad(loadAsync(source, glTFAssetName, uploadQueue), uploadQueue, glTFAssetName);
+    }
 
-        GLES20.glUseProgram(shaderProgram.getShaderHandle());
+    private void awaitLoad(Future<Void> future, UploadQueue uploadQueue, String glTFAssetName)
+            throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted loading " + glTFAssetName);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        // With an upload thread, steps keep arriving, and fences signaling, while this drains.
+        // When nothing can run, this blocks until a step is posted, polling for the fences.
+        try {
+            while (!isLoaded()) {
+                if (uploadQueue.drain(Long.MAX_VALUE) == 0) {
+                    uploadQueue.awaitTask(FENCE_POLL_NANOS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted uploading " + glTFAssetName);
+        }
+    }
 
-        modelViewProjectionUniform = shaderProgram.getUniform("u_ModelViewProjection");
-        positionAttribute = shaderProgram.getAttribute("a_Position");
+    /**
+     * Starts loading a gltf file, and returns the future of the work done on a loader thread:
+     * reading, parsing and processing the file. It fails with the IOException of a file that
+     * can't be read. Must be called on the GL thread, which must also drain {@code uploadQueue},
+     * where the GL work of the load is posted. The scene then draws progressively, each render
+     * object as soon as its buffers are uploaded; {@link #isLoaded} tells when all of it is. An
+     * asset found in the asset cache is ready after the queue's first step.
+     *
+     * The file, its buffers and images, and the shaders are read from the APK assets, and linked
+     * programs are kept in the asset cache's {@link GLTFAssetCache#getProgramBinaryCache}.
+     */
+    public Future<Void> loadAsync(Context context, String glTFAssetName,
+            UploadQueue uploadQueue) {
+        if (assetCache == null) {
+            assetCache = GLTFAssetCache.getShared();
+        }
+        programBinaryCache = assetCache.getProgramBinaryCache(context);
+        return loadAsync(new AndroidAssetSource(context.getAssets()), glTFAssetName, uploadQueue);
+    }
+
+    /**
+     * Starts loading a gltf file read from {@code source}, as {@link #loadAsync(Context, String,
+     * UploadQueue)} does from the APK assets.
+     */
+    public Future<Void> loadAsync(final GLTFAssetSource source, final String glTFAssetName,
+            final UploadQueue uploadQueue) {
+        if (assetCache == null) {
+            assetCache = GLTFAssetCache.getShared();
+        }
+        glesVersion = GLHelpers.getGlesMajorVersion();
+        boolean gles3 = glesVersion >= 3;
+        uintIndices = gles3 || GLHelpers.hasExtension("GL_OES_element_index_uint");
+
+        program = acquireProgram(source, 0);
         Matrix.setIdentityM(modelMatrix, 0);
 
-        // Read the gltf file and create render objects.
-        InputStream gltfInput = context.getAssets().open(glTFAssetName);
-        SampleGLTFReader.GLTFScene gltfScene = SampleGLTFReader.read(gltfInput);
-        gltfRenderObjects = CreateGLTFRenderObjects(gltfScene);
+        if (instancing && gles3) {
+            instancedProgram = acquireProgram(source, GLTFProgram.FEATURE_INSTANCING);
+        }
+        gl.glActiveTexture(GLES20.GL_TEXTURE0);
+
+        // Only read the gltf file if no renderer left its render objects in the cache.
+        final Load load = new Load();
+        this.load = load;
+        final String assetKey = getAssetKey(glTFAssetName);
+        asset = assetCache.acquire(assetKey);
+        final GLTFAssetCache.Asset cachedAsset = asset;
+        return getAssetLoadExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                if (cachedAsset != null) {
+                    post(uploadQueue, load, new UploadQueue.Task() {
+                        @Override
+                        public boolean run() {
+                            instantiate(cachedAsset);
+                            SampleGLTFRenderer.this.load = null;
+                            return true;
+                        }
+                    });
+                } else {
+                    loadAsset(source, glTFAssetName, assetKey, load, uploadQueue);
+                }
+                return null;
+            }
+        });
+    }
+
+    /** Returns whether the last load has completed, every buffer and texture included. */
+    public boolean isLoaded() {
+        return load == null && gltfRenderInstances != null;
+    }
+
+    // Reads and processes a gltf file on a loader thread, then posts the GL work of the load:
+    // instantiating the scene, uploading buffers and textures, and publishing the asset.
+    private void loadAsset(GLTFAssetSource source, String glTFAssetName, String key,
+            final Load load, final UploadQueue uploadQueue) throws IOException {
+        SampleGLTFReader.GLTFScene gltfScene = readGLTFAsset(source, glTFAssetName);
+        if (meshOptimization) {
+            MeshOptimizer.optimize(gltfScene);
+        }
+        if (positionQuantization) {
+            MeshQuantizer.quantizePositions(gltfScene);
+        }
+        if (lodGeneration) {
+            // After quantization, so that levels share the quantized positions.
+            MeshSimplifier.buildLods(gltfScene);
+        }
+        if (load.cancelled) {
+            return;
+        }
+        final GLTFAssetCache.Asset loadedAsset = new GLTFAssetCache.Asset(key);
+        final CompactGLTFScene scene = CompactGLTFScene.from(gltfScene);
+        loadedAsset.scene = scene;
+        final ArrayList<BufferUpload> uploads = CreateGLTFRenderObjects(
+                scene, new TransformHierarchy(scene, scene.defaultScene), loadedAsset);
+        // Textures are decoded on the GL thread, but their files are read here.
+        boolean[] textureUsed = new boolean[scene.textureCount];
+        for (GLTFRenderObject renderObject : loadedAsset.renderObjects) {
+            int texture = renderObject.sourceTexture;
+            if (texture >= 0 && !textureUsed[texture]) {
+                textureUsed[texture] = true;
+                loadImages(scene, texture);
+            }
+        }
+
+        // Textures follow the buffers, and the asset is published last.
+        final ArrayList<UploadQueue.Task> finishTasks = new ArrayList<>();
+        for (int texture = 0; texture < textureUsed.length; ++texture) {
+            if (!textureUsed[texture]) {
+                continue;
+            }
+            final int usedTexture = texture;
+            finishTasks.add(new UploadQueue.Task() {
+                @Override
+                public boolean run() {
+                    acquireTexture(loadedAsset, usedTexture);
+                    return true;
+                }
+            });
+        }
+        final boolean hasTextures = !finishTasks.isEmpty();
+        finishTasks.add(new UploadQueue.Task() {
+            @Override
+            public boolean run() {
+                publish(loadedAsset, load, uploadQueue, hasTextures);
+                return true;
+            }
+        });
+
+        post(uploadQueue, load, new UploadQueue.Task() {
+            @Override
+            public boolean run() {
+                int[] bufferIds = new int[uploads.size()];
+                gl.glGenBuffers(bufferIds.length, bufferIds, 0);
+                for (int i = 0; i < bufferIds.length; ++i) {
+                    uploads.get(i).setBufferId(bufferIds[i]);
+                }
+                loadedAsset.bufferIds = bufferIds;
+                load.asset = loadedAsset;
+                int whiteTexture = assetCache.getTextureCache().getWhiteTexture();
+                for (GLTFRenderObject renderObject : loadedAsset.renderObjects) {
+                    renderObject.texture = whiteTexture;
+                }
+                instantiate(loadedAsset);
+                postUploads(uploads, finishTasks, load, uploadQueue);
+                return true;
+            }
+        });
+    }
+
+    // Queues the upload of every buffer, followed by finishTasks. With an upload thread, buffers
+    // are uploaded there in one go each, and handed back through the queue behind a fence.
+    private void postUploads(ArrayList<BufferUpload> uploads,
+            final ArrayList<UploadQueue.Task> finishTasks, final Load load,
+            final UploadQueue uploadQueue) {
+        if (uploadThread == null) {
+            for (BufferUpload upload : uploads) {
+                post(uploadQueue, load, upload);
+            }
+            for (UploadQueue.Task task : finishTasks) {
+                post(uploadQueue, load, task);
+            }
+            return;
+        }
+        for (final BufferUpload upload : uploads) {
+            uploadThread.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (load.cancelled) {
+                        return;
+                    }
+                    // One chunk at a time, to bound the staging memory. A release in between
+                    // queues the deletion of the buffer behind this, see discard.
+                    while (!upload.upload()) {
+                        if (load.cancelled) {
+                            return;
+                        }
+                    }
+                    post(uploadQueue, load, new UploadQueue.Task() {
+                        @Override
+                        public boolean run() {
+                            upload.complete();
+                            return true;
+                        }
+                    }, GLFence.insert(glesVersion));
+                }
+            });
+        }
+        // Posted from the upload thread, so that they are queued after the last upload.
+        uploadThread.post(new Runnable() {
+            @Override
+            public void run() {
+                for (UploadQueue.Task task : finishTasks) {
+                    post(uploadQueue, load, task);
+                }
+            }
+        });
+    }
+
+    // Loads the files of the images a texture may be uploaded from, so that the GL thread finds
+    // their data in memory.
+    private static void loadImages(CompactGLTFScene scene, int texture) {
+        int[] sources = { scene.textureKtx2Source[texture], scene.textureSource[texture] };
+        for (int source : sources) {
+            if (source >= 0 && source < scene.images.length) {
+                scene.images[source].getData();
+            }
+        }
+    }
+
+    // Queues a step of a load's GL work, skipped once the load is abandoned. Steps bind objects
+    // behind the state cache's back.
+    private void post(UploadQueue uploadQueue, Load load, UploadQueue.Task task) {
+        post(uploadQueue, load, task, null);
+    }
+
+    // Queues a step to run once fence, if any, has signaled.
+    private void post(UploadQueue uploadQueue, final Load load, final UploadQueue.Task task,
+            GLFence fence) {
+        uploadQueue.post(new UploadQueue.Task() {
+            @Override
+            public boolean run() {
+                if (load.cancelled) {
+                    return true;
+                }
+                boolean complete = task.run();
+                glState.invalidate();
+                return complete;
+            }
+        }, fence);
+    }
+
+    // Acquires a texture of a loading asset, and points the render objects that use it at it.
+    // Objects keep the white texture if it can't be uploaded.
+    private void acquireTexture(GLTFAssetCache.Asset loadingAsset, int texture) {
+        TextureCache.Entry entry =
+                assetCache.getTextureCache().acquire(loadingAsset.scene, texture);
+        loadingAsset.textureEntries[texture] = entry;
+        if (entry == null) {
+            return;
+        }
+        for (GLTFRenderObject renderObject : loadingAsset.renderObjects) {
+            if (renderObject.sourceTexture == texture) {
+                renderObject.texture = entry.texture;
+            }
+        }
+    }
+
+    // Sets the renderer up to draw the nodes of an asset's default scene.
+    private void instantiate(GLTFAssetCache.Asset instancedAsset) {
+        CompactGLTFScene scene = instancedAsset.scene;
+        transformHierarchy = new TransformHierarchy(scene, scene.defaultScene);
+        gltfRenderObjects = instancedAsset.renderObjects;
+        gltfRenderInstances = createRenderInstances(instancedAsset, transformHierarchy);
+        lodSelector = new LodSelector(scene, transformHierarchy, instancedAsset.meshBounds);
+        lodSelector.setViewport(viewportWidth, viewportHeight);
+        lodSelector.setErrorThreshold(lodErrorThreshold);
+
+        int instanceCount = gltfRenderInstances.size();
+        instanceDrawKeys = new int[instanceCount];
+        finestInstanceCount = 0;
+        for (int i = 0; i < instanceCount; ++i) {
+            instanceDrawKeys[i] = gltfRenderInstances.get(i).renderObject.drawKey;
+            if (gltfRenderInstances.get(i).lod == 0) {
+                ++finestInstanceCount;
+            }
+        }
+        drawList = new DrawList(instanceCount, gltfRenderObjects.size());
+        instanceBounds = new float[instanceCount * BoundingVolumeHierarchy.BOUNDS_SIZE];
+        updateInstanceBounds();
+        instanceHierarchy = new BoundingVolumeHierarchy(instanceBounds, instanceCount);
+        visibleInstances = new int[instanceCount];
+
+        if (instancedProgram != null) {
+            createInstanceBuffer(instanceCount);
+        }
+    }
+
+    // Completes a load once every upload has: the render objects are ranked for drawing, and the
+    // asset is published to the cache.
+    //
+    // Renderers in other contexts of the share group may draw the asset as soon as it is
+    // published, which they can only rely on once the GPU has completed its uploads. Buffers
+    // uploaded on the upload thread were handed over behind fences already, so without textures,
+    // which are always uploaded in this context, an asset is published right away. Otherwise it
+    // waits for a fence inserted here, which on GLES 2.0 is a glFinish that stalls this thread.
+    private void publish(final GLTFAssetCache.Asset loadedAsset, Load load,
+            UploadQueue uploadQueue, boolean hasTextures) {
+        rankDrawKeys(loadedAsset.renderObjects);
+        loadedAsset.scene.releaseData();
+        boolean uploadedHere = uploadThread == null || hasTextures;
+        post(uploadQueue, load, new UploadQueue.Task() {
+            @Override
+            public boolean run() {
+                asset = assetCache.put(loadedAsset);
+                if (asset != loadedAsset) {
+                    // Another renderer published the asset first. Both were loaded from the same
+                    // file with the same options, so their render objects correspond one to one.
+                    gltfRenderObjects = asset.renderObjects;
+                    gltfRenderInstances = createRenderInstances(asset, transformHierarchy);
+                }
+                for (int i = 0; i < gltfRenderInstances.size(); ++i) {
+                    instanceDrawKeys[i] = gltfRenderInstances.get(i).renderObject.drawKey;
+                }
+                SampleGLTFRenderer.this.load = null;
+                return true;
+            }
+        }, uploadedHere ? GLFence.insert(glesVersion) : null);
+    }
+
+    // Creates the buffer that streams the world matrix of each drawn instance. Its storage is
+    // respecified every frame, but the buffer object and the staging memory persist.
+    private void createInstanceBuffer(int instanceCount) {
+        instanceMatrices = ByteBuffer.allocateDirect(instanceCount * INSTANCE_MATRIX_BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        int[] buffers = new int[1];
+        gl.glGenBuffers(1, buffers, 0);
+        instanceBufferId = buffers[0];
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+        gl.glBufferData(GLES20.GL_ARRAY_BUFFER, instanceCount * INSTANCE_MATRIX_BYTES, null,
+                GLES20.GL_STREAM_DRAW);
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // A mat4 attribute takes one location per column, each advancing once per instance.
+        for (int column = 0; column < 4; ++column) {
+            gl.glVertexAttribDivisor(instancedProgram.instanceMatrixAttribute + column, 1);
+        }
+        GLHelpers.checkGlError("glTF instance buffer");
+    }
+
+    // Ranks render objects by texture, then vertex buffers, then index buffer, so that sorting
+    // draws by rank changes each piece of state as rarely as possible. Every object of a renderer
+    // is drawn with the same program. Objects never share a rank, which keeps the instances of
+    // one object together as well.
+    private static void rankDrawKeys(ArrayList<GLTFRenderObject> renderObjects) {
+        ArrayList<GLTFRenderObject> sorted = new ArrayList<>(renderObjects);
+        Collections.sort(sorted, new Comparator<GLTFRenderObject>() {
+            @Override
+            public int compare(GLTFRenderObject a, GLTFRenderObject b) {
+                if (a.texture != b.texture) {
+                    return a.texture < b.texture ? -1 : 1;
+                }
+                if (a.vertexBufferId != b.vertexBufferId) {
+                    return a.vertexBufferId < b.vertexBufferId ? -1 : 1;
+                }
+                if (a.texcoordBufferId != b.texcoordBufferId) {
+                    return a.texcoordBufferId < b.texcoordBufferId ? -1 : 1;
+                }
+                if (a.indexBufferId != b.indexBufferId) {
+                    return a.indexBufferId < b.indexBufferId ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+        for (int i = 0; i < sorted.size(); ++i) {
+            sorted.get(i).drawKey = i;
+        }
+    }
+
+    /**
+     * Forgets the GL state the renderer believes is bound. Call this before draw when other code
+     * renders into the same context.
+     */
+    public void invalidateGlState() {
+        glState.invalidate();
+    }
+
+    /** Returns how many draw calls the last draw issued. */
+    public int getDrawCallCount() {
+        return drawCallCount;
+    }
+
+    /** Returns how many state changing GL calls the last draw issued. */
+    public int getGlCallsIssued() {
+        return glState.getIssuedCallCount();
+    }
+
+    /** Returns how many state changing GL calls the last draw skipped as redundant. */
+    public int getGlCallsSkipped() {
+        return glState.getSkippedCallCount();
+    }
+
+    private void updateInstanceBounds() {
+        float[] worldMatrices = transformHierarchy.getWorldMatrices();
+        for (int i = 0; i < gltfRenderInstances.size(); ++i) {
+            GLTFRenderInstance renderInstance = gltfRenderInstances.get(i);
+            BoundingVolumeHierarchy.transformBounds(
+                    worldMatrices, renderInstance.transform * TransformHierarchy.MATRIX_SIZE,
+                    renderInstance.renderObject.bounds, 0,
+                    instanceBounds, i * BoundingVolumeHierarchy.BOUNDS_SIZE);
+        }
+    }
+
+    /** Returns how many render objects the last draw submitted. */
+    public int getVisibleObjectCount() {
+        return visibleInstanceCount;
+    }
+
+    /**
+     * Returns how many render objects the last draw skipped as outside the view frustum. Only the
+     * finest level of detail of each node is counted.
+     */
+    public int getCulledObjectCount() {
+        return culledInstanceCount;
+    }
+
+    /**
+     * Replaces the local transform of a glTF node of the displayed scene. The world transforms of
+     * the node and its descendants are recomputed on the next draw.
+     */
+    public void setNodeLocalMatrix(int node, float[] matrix, int offset) {
+        if (transformHierarchy == null) {
+            return;
+        }
+        int entry = transformHierarchy.getEntry(node);
+        if (entry >= 0) {
+            transformHierarchy.setLocalMatrix(entry, matrix, offset);
+        }
     }
 
     public void updateModelMatrix(float[] modelMatrix, float scaleFactor) {
-        float[] scaleMatrix = new float[16];
         Matrix.setIdentityM(scaleMatrix, 0);
         scaleMatrix[0] = scaleFactor;
         scaleMatrix[5] = scaleFactor;
@@ -190,45 +1182,232 @@ public class SampleGLTFRenderer {
     }
 
     public void draw(float[] cameraView, float[] cameraPerspective) {
+        if (gltfRenderInstances == null) {
+            return; // not instantiated by the load yet
+        }
         GLHelpers.checkGlError("Before draw");
 
         Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
         Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
 
-        GLES20.glUseProgram(shaderProgram.getShaderHandle());
+        if (transformHierarchy.update()) {
+            updateInstanceBounds();
+            instanceHierarchy.refit();
+        }
+        float[] worldMatrices = transformHierarchy.getWorldMatrices();
+        if (frameProfiler != null) {
+            frameProfiler.endPhase(FrameProfiler.METRIC_UPDATE);
+        }
+
+        // World matrices are relative to the model matrix, so are the planes.
+        frustum.set(modelViewProjectionMatrix, 0);
+        int candidateCount = instanceHierarchy.query(frustum, visibleInstances);
+        selectLevelsOfDetail(candidateCount, worldMatrices, cameraPerspective);
+
+        drawList.sort(visibleInstances, visibleInstanceCount, instanceDrawKeys);
+        if (frameProfiler != null) {
+            frameProfiler.endPhase(FrameProfiler.METRIC_CULL);
+        }
+
+        assetCache.getTextureCache().streamMips(glState, MIP_STREAM_BYTES_PER_FRAME);
 
-        GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
+        // State is left bound after the frame, so the next one only changes what differs.
+        glState.resetCounters();
+        baseColorFactor = null;
+        drawCallCount = 0;
+        if (instancedProgram != null) {
+            drawInstanced(worldMatrices);
+        } else {
+            drawIndividually(worldMatrices);
+        }
 
-        for (int i = 0; i < gltfRenderObjects.size(); ++i) {
-            GLTFRenderObject renderObject = gltfRenderObjects.get(i);
+        lodSelector.endFrame(triangleCount, triangleBudget);
+        if (frameProfiler != null) {
+            frameProfiler.record(FrameProfiler.METRIC_DRAW_CALLS, drawCallCount);
+            frameProfiler.record(FrameProfiler.METRIC_TRIANGLES, triangleCount);
+            frameProfiler.record(
+                    FrameProfiler.METRIC_STATE_CHANGES, glState.getIssuedCallCount());
+        }
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, renderObject.vertexBufferId);
+        GLHelpers.checkGlError("After draw");
+    }
 
-            int verticesBaseAddress = 0;
+    // Keeps the instances within the frustum that belong to the level of detail chosen for their
+    // node and are uploaded, and counts their triangles.
+    private void selectLevelsOfDetail(int candidateCount, float[] worldMatrices,
+            float[] cameraPerspective) {
+        lodSelector.beginFrame(modelViewMatrix, cameraPerspective);
+        visibleInstanceCount = 0;
+        triangleCount = 0;
+        int finestCandidateCount = 0;
+        for (int i = 0; i < candidateCount; ++i) {
+            GLTFRenderInstance renderInstance = gltfRenderInstances.get(visibleInstances[i]);
+            if (renderInstance.lod == 0) {
+                ++finestCandidateCount;
+            }
+            if (renderInstance.renderObject.pendingUploads == 0 && lodSelector.getLevel(
+                    renderInstance.transform, worldMatrices) == renderInstance.lod) {
+                visibleInstances[visibleInstanceCount++] = visibleInstances[i];
+                triangleCount += renderInstance.renderObject.triangleCount;
+            }
+        }
+        culledInstanceCount = finestInstanceCount - finestCandidateCount;
+    }
 
-            GLES20.glVertexAttribPointer(
-                    positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, verticesBaseAddress);
+    // Draws every instance with a draw call and matrix upload of its own, as GLES 2.0 requires.
+    private void drawIndividually(float[] worldMatrices) {
+        glState.useProgram(program.program.getShaderHandle());
+        glState.enableVertexAttribArray(program.positionAttribute);
+        for (int i = 0; i < drawList.size(); ++i) {
+            GLTFRenderInstance renderInstance = gltfRenderInstances.get(drawList.get(i));
+            GLTFRenderObject renderObject = renderInstance.renderObject;
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            Matrix.multiplyMM(nodeModelViewProjectionMatrix, 0, modelViewProjectionMatrix, 0,
+                    worldMatrices, renderInstance.transform * TransformHierarchy.MATRIX_SIZE);
+            gl.glUniformMatrix4fv(program.modelViewProjectionUniform, 1, false,
+                    nodeModelViewProjectionMatrix, 0);
+            setMaterialState(program, renderObject);
 
-            GLES20.glEnableVertexAttribArray(positionAttribute);
+            glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, renderObject.vertexBufferId);
+            glState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, renderObject.indexBufferId);
 
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, renderObject.indexBufferId);
-            int numElements = renderObject.indexByteLength / BYTES_PER_SHORT;
-            GLES20.glDrawElements(GLES20.GL_TRIANGLES, numElements, GLES20.GL_UNSIGNED_SHORT, 0);
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+            // The vertex offset stands in for a base vertex, which GLES 2.0 lacks.
+            setPositionPointer(program.positionAttribute, renderObject);
+            gl.glDrawElements(renderObject.mode, renderObject.indexCount,
+                    renderObject.indexComponentType,
+                    renderObject.indexBufferOffset + renderObject.indexAccessorOffset);
+            ++drawCallCount;
+        }
+    }
 
-            GLES20.glDisableVertexAttribArray(positionAttribute);
+    // Binds the base color texture and points the texture coordinates at the object's, leaving
+    // GL_ARRAY_BUFFER bound to whichever buffer holds them.
+    private void setMaterialState(GLTFProgram variant, GLTFRenderObject renderObject) {
+        glState.bindTexture2D(renderObject.texture);
+        if (renderObject.baseColorFactor != baseColorFactor) {
+            baseColorFactor = renderObject.baseColorFactor;
+            gl.glUniform4fv(variant.baseColorFactorUniform, 1, baseColorFactor, 0);
         }
+        int texCoordAttribute = variant.texCoordAttribute;
+        if (renderObject.texcoordBufferView >= 0) {
+            glState.enableVertexAttribArray(texCoordAttribute);
+            glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, renderObject.texcoordBufferId);
+            glState.vertexAttribPointer(texCoordAttribute, 2, renderObject.texcoordComponentType,
+                    renderObject.texcoordNormalized, renderObject.texcoordStride,
+                    renderObject.texcoordBufferOffset + renderObject.texcoordAttributeOffset);
+        } else {
+            // Untextured objects sample their white texture anywhere.
+            glState.disableVertexAttribArray(texCoordAttribute);
+            gl.glVertexAttrib2f(texCoordAttribute, 0, 0);
+        }
+    }
 
-        GLHelpers.checkGlError("After draw");
+    private void setPositionPointer(int attribute, GLTFRenderObject renderObject) {
+        glState.vertexAttribPointer(attribute, renderObject.vertexComponentCount,
+                renderObject.vertexComponentType, renderObject.vertexNormalized,
+                renderObject.vertexStride,
+                renderObject.vertexBufferOffset + renderObject.vertexAttributeOffset);
     }
 
+    // Draws each run of instances that share a render object with one instanced draw call.
+    private void drawInstanced(float[] worldMatrices) {
+        // Stream the world matrices of all visible instances, in draw order, in one upload.
+        instanceMatrices.clear();
+        for (int i = 0; i < drawList.size(); ++i) {
+            int transform = gltfRenderInstances.get(drawList.get(i)).transform;
+            instanceMatrices.put(worldMatrices, transform * TransformHierarchy.MATRIX_SIZE,
+                    TransformHierarchy.MATRIX_SIZE);
+        }
+        instanceMatrices.flip();
+        glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+        // Orphan last frame's storage so the driver needn't wait for draws still reading it.
+        gl.glBufferData(GLES20.GL_ARRAY_BUFFER, instanceMatrices.capacity() * BYTES_PER_FLOAT,
+                null, GLES20.GL_STREAM_DRAW);
+        gl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0,
+                drawList.size() * INSTANCE_MATRIX_BYTES, instanceMatrices);
+
+        glState.useProgram(instancedProgram.program.getShaderHandle());
+        gl.glUniformMatrix4fv(instancedProgram.modelViewProjectionUniform, 1, false,
+                modelViewProjectionMatrix, 0);
+        glState.enableVertexAttribArray(instancedProgram.positionAttribute);
+        int instanceMatrixAttribute = instancedProgram.instanceMatrixAttribute;
+        for (int column = 0; column < 4; ++column) {
+            glState.enableVertexAttribArray(instanceMatrixAttribute + column);
+        }
+
+        int first = 0;
+        while (first < drawList.size()) {
+            GLTFRenderObject renderObject = gltfRenderInstances.get(drawList.get(first)).renderObject;
+            int end = first + 1;
+            while (end < drawList.size()
+                    && gltfRenderInstances.get(drawList.get(end)).renderObject == renderObject) {
+                ++end;
+            }
+
+            setMaterialState(instancedProgram, renderObject);
+
+            // GLES 3.0 has no base instance, so the matrix pointers move to the run's first matrix.
+            glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+            for (int column = 0; column < 4; ++column) {
+                glState.vertexAttribPointer(instanceMatrixAttribute + column, 4, GLES20.GL_FLOAT,
+                        false, INSTANCE_MATRIX_BYTES,
+                        first * INSTANCE_MATRIX_BYTES + column * 4 * BYTES_PER_FLOAT);
+            }
+
+            glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, renderObject.vertexBufferId);
+            glState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, renderObject.indexBufferId);
+            setPositionPointer(instancedProgram.positionAttribute, renderObject);
+            gl.glDrawElementsInstanced(renderObject.mode, renderObject.indexCount,
+                    renderObject.indexComponentType,
+                    renderObject.indexBufferOffset + renderObject.indexAccessorOffset,
+                    end - first);
+            ++drawCallCount;
+            first = end;
+        }
+    }
+
+    // Deletes what an abandoned load uploaded. The upload thread may still be uploading its
+    // buffers, so there the deletion is queued behind that work, which stops at the next chunk;
+    // buffer names deleted under it would be recreated by its next bind, or reused by another
+    // asset's.
+    private void discard(final GLTFAssetCache.Asset abandoned) {
+        if (uploadThread == null) {
+            assetCache.discard(abandoned);
+            return;
+        }
+        uploadThread.post(new Runnable() {
+            @Override
+            public void run() {
+                assetCache.discard(abandoned);
+            }
+        });
+    }
+
+    // The asset and programs go back to the cache, which keeps them for the next renderer. A
+    // load still in progress is abandoned, and what it uploaded deleted.
     public void release() {
-       shaderProgram.release();
-       for (GLTFRenderObject object : gltfRenderObjects) {
-           int[] buffers = { object.vertexBufferId, object.indexBufferId };
-           GLES20.glDeleteBuffers(2, buffers,0);
+       if (load != null) {
+           load.cancelled = true;
+           if (load.asset != null) {
+               discard(load.asset);
+           }
+           load = null;
+       }
+       assetCache.releaseProgram(program);
+       if (instancedProgram != null) {
+           assetCache.releaseProgram(instancedProgram);
+           instancedProgram = null;
+           gl.glDeleteBuffers(1, new int[] { instanceBufferId }, 0);
+           instanceBufferId = 0;
+       }
+       if (asset != null) {
+           assetCache.release(asset);
+           asset = null;
        }
+       gltfRenderObjects = null;
+       gltfRenderInstances = null;
+       transformHierarchy = null;
+       lodSelector = null;
+       glState.invalidate();
     }
 }
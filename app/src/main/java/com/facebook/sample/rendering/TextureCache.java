@@ -0,0 +1,537 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.sample.rendering;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.facebook.sample.gles.GL;
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.GLHelpers;
+import com.facebook.sample.gles.GLStateCache;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * GL textures shared by every renderer given the same cache, keyed by the SHA-1 of the image file
+ * and the sampler state, so an image that several materials, files or renderers reference is
+ * uploaded once.
+ *
+ * Textures are reference counted. Released textures stay resident, least recently used first,
+ * until the GPU byte budget needs their memory; textures in use are never evicted. When eviction
+ * can't make room, new textures leave out their finest mip levels instead.
+ *
+ * KTX2 textures upload their coarsest levels first. On GLES 3.0 the finer levels are streamed in
+ * over the following frames by {@link #streamMips}, which lowers GL_TEXTURE_BASE_LEVEL as each one
+ * arrives. GLES 2.0 has no base level, so there all levels are uploaded at once. PNG and JPEG
+ * images, which have to be decoded to RGBA8, are the fallback for textures without a usable KTX2
+ * source.
+ *
+ * Methods must be called with a context of the share group the textures belong to current. Render
+ * threads of several views may share a cache, so every method is synchronized.
+ */
+public final class TextureCache {
+    private static final String TAG = TextureCache.class.getSimpleName();
+
+    public static final long DEFAULT_BUDGET_BYTES = 64L << 20;
+
+    // Levels no larger than this are uploaded with the texture, finer ones are streamed.
+    private static final int INITIAL_LEVEL_SIZE = 64;
+
+    static final class Entry {
+        final String key;
+        int texture;
+        long byteSize;
+        int refCount;
+        // While streaming, levels firstLevel to residentLevel - 1 of image are still to come.
+        Ktx2Image image;
+        int firstLevel;
+        int residentLevel;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    // Access ordered, so iteration starts at the least recently used entry.
+    private final GL gl = GLBackend.get();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ArrayList<Entry> streamingEntries = new ArrayList<>();
+    private long budgetBytes = DEFAULT_BUDGET_BYTES;
+    private long residentBytes;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    private boolean capabilitiesKnown;
+    private boolean gles3; // ETC2 and GL_TEXTURE_BASE_LEVEL
+    private boolean astc;
+    private int whiteTexture;
+
+    /**
+     * Sets how many bytes of GPU memory the cache's textures should stay within, evicting
+     * released textures right away if they no longer fit.
+     */
+    public synchronized void setBudgetBytes(long bytes) {
+        budgetBytes = bytes;
+        makeRoom(0);
+    }
+
+    public synchronized long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /** Returns the estimated GPU memory of all resident textures, released ones included. */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /** Returns how many acquisitions found their texture resident. */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /** Returns how many acquisitions had to upload their texture. */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /** Returns how many released textures were deleted to stay within the budget. */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Deletes every texture. Renderers that use the cache must be released first; the cache can
+     * be used again afterwards.
+     */
+    public synchronized void release() {
+        for (Entry entry : entries.values()) {
+            deleteTexture(entry);
+        }
+        entries.clear();
+        streamingEntries.clear();
+        residentBytes = 0;
+        if (whiteTexture != 0) {
+            gl.glDeleteTextures(1, new int[] { whiteTexture }, 0);
+            whiteTexture = 0;
+        }
+    }
+
+    /** A 1x1 opaque white texture, for materials without a base color texture. */
+    synchronized int getWhiteTexture() {
+        if (whiteTexture == 0) {
+            int[] textures = new int[1];
+            gl.glGenTextures(1, textures, 0);
+            whiteTexture = textures[0];
+            ByteBuffer white = ByteBuffer.allocateDirect(4);
+            white.put(new byte[] { -1, -1, -1, -1 }).rewind();
+            gl.glBindTexture(GLES20.GL_TEXTURE_2D, whiteTexture);
+            gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0, GLES20.GL_RGBA,
+                    GLES20.GL_UNSIGNED_BYTE, white);
+            gl.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+            gl.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            GLHelpers.checkGlError("glTF white texture");
+        }
+        return whiteTexture;
+    }
+
+    /**
+     * Returns the resident entry for a glTF texture of {@code scene}, uploading it if needed, and
+     * takes a reference to it. Returns null if the texture has no image the context can use.
+     */
+    synchronized Entry acquire(CompactGLTFScene scene, int textureIndex) {
+        queryCapabilities();
+        int magFilter = 0;
+        int minFilter = 0;
+        int wrapS = GLES20.GL_REPEAT;
+        int wrapT = GLES20.GL_REPEAT;
+        int sampler = scene.textureSampler[textureIndex];
+        if (sampler >= 0 && sampler < scene.samplerCount) {
+            magFilter = scene.samplerMagFilter[sampler];
+            minFilter = scene.samplerMinFilter[sampler];
+            wrapS = scene.samplerWrapS[sampler];
+            wrapT = scene.samplerWrapT[sampler];
+        }
+
+        // Prefer the KHR_texture_basisu source, and fall back to the core one when the context
+        // can't upload its format.
+        ByteBuffer data = null;
+        Ktx2Image ktx2 = null;
+        int ktx2Source = scene.textureKtx2Source[textureIndex];
+        if (ktx2Source >= 0 && ktx2Source < scene.images.length) {
+            data = scene.images[ktx2Source].getData();
+            ktx2 = data != null ? parseSupported(data) : null;
+            if (ktx2 == null) {
+                data = null;
+            }
+        }
+        if (data == null) {
+            int source = scene.textureSource[textureIndex];
+            if (source < 0 || source >= scene.images.length) {
+                Log.e(TAG, "Texture " + textureIndex + " has no usable image");
+                return null;
+            }
+            data = scene.images[source].getData();
+            if (data == null) {
+                return null;
+            }
+            if (Ktx2Image.isKtx2(data)) {
+                ktx2 = parseSupported(data);
+                if (ktx2 == null) {
+                    return null;
+                }
+            }
+        }
+
+        String key = hash(data) + ':' + magFilter + ':' + minFilter + ':' + wrapS + ':' + wrapT;
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            ++hitCount;
+            ++entry.refCount;
+            return entry;
+        }
+        ++missCount;
+        entry = new Entry(key);
+        int[] textures = new int[1];
+        gl.glGenTextures(1, textures, 0);
+        entry.texture = textures[0];
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, entry.texture);
+        boolean uploaded = ktx2 != null
+                ? uploadKtx2(entry, ktx2, magFilter, minFilter, wrapS, wrapT)
+                : uploadBitmap(entry, data, magFilter, minFilter, wrapS, wrapT);
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        if (!uploaded) {
+            deleteTexture(entry);
+            return null;
+        }
+        GLHelpers.checkGlError("glTF texture upload");
+        entry.refCount = 1;
+        entries.put(key, entry);
+        residentBytes += entry.byteSize;
+        return entry;
+    }
+
+    /**
+     * Evicts released textures, least recently used first, until at most {@code bytes} remain
+     * resident or none are left.
+     */
+    synchronized void trimTo(long bytes) {
+        evict(bytes);
+    }
+
+    /** Gives up a reference taken by {@link #acquire}. */
+    synchronized void release(Entry entry) {
+        if (--entry.refCount == 0) {
+            makeRoom(0);
+        }
+    }
+
+    /**
+     * Uploads up to about {@code maxBytes} of mip levels still missing from resident textures,
+     * each texture's next finer level at a time. Textures are bound through {@code glState}.
+     */
+    synchronized void streamMips(GLStateCache glState, int maxBytes) {
+        int uploadedBytes = 0;
+        int i = 0;
+        while (i < streamingEntries.size() && uploadedBytes < maxBytes) {
+            Entry entry = streamingEntries.get(i);
+            int level = entry.residentLevel - 1;
+            int length = entry.image.getLevelByteLength(level);
+            if (makeRoom(length) > 0) {
+                // Deleted textures may have been bound, and their names reused.
+                glState.invalidate();
+                // Evicted entries left the list, possibly this one.
+                i = streamingEntries.indexOf(entry);
+                if (i < 0) {
+                    i = 0;
+                    continue;
+                }
+            }
+            if (residentBytes + length > budgetBytes) {
+                // It stays at its current resolution.
+                entry.image = null;
+                streamingEntries.remove(i);
+                continue;
+            }
+            glState.bindTexture2D(entry.texture);
+            uploadLevel(entry.image, level, level);
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES30.GL_TEXTURE_BASE_LEVEL, level);
+            entry.residentLevel = level;
+            entry.byteSize += length;
+            residentBytes += length;
+            uploadedBytes += length;
+            if (level == entry.firstLevel) {
+                entry.image = null;
+                streamingEntries.remove(i);
+            } else {
+                ++i;
+            }
+        }
+        if (uploadedBytes > 0) {
+            GLHelpers.checkGlError("glTF mip streaming");
+        }
+    }
+
+    private void queryCapabilities() {
+        if (!capabilitiesKnown) {
+            gles3 = GLHelpers.getGlesMajorVersion() >= 3;
+            astc = GLHelpers.hasExtension("GL_KHR_texture_compression_astc_ldr");
+            capabilitiesKnown = true;
+        }
+    }
+
+    private Ktx2Image parseSupported(ByteBuffer data) {
+        Ktx2Image image = Ktx2Image.parse(data);
+        if (image == null) {
+            return null;
+        }
+        if ((image.family == Ktx2Image.FAMILY_ETC2 && !gles3)
+                || (image.family == Ktx2Image.FAMILY_ASTC && !astc)) {
+            Log.i(TAG, "Context can't sample KTX2 format 0x" + Integer.toHexString(image.glFormat));
+            return null;
+        }
+        return image;
+    }
+
+    // Evicts released entries, least recently used first, until bytes more fit in the budget or
+    // none are left. Returns how many were evicted.
+    private int makeRoom(long bytes) {
+        return evict(budgetBytes - bytes);
+    }
+
+    private int evict(long maxResidentBytes) {
+        int evicted = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (residentBytes > maxResidentBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.refCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            streamingEntries.remove(entry);
+            entry.image = null;
+            residentBytes -= entry.byteSize;
+            deleteTexture(entry);
+            ++evictionCount;
+            ++evicted;
+        }
+        return evicted;
+    }
+
+    private void deleteTexture(Entry entry) {
+        if (entry.texture != 0) {
+            gl.glDeleteTextures(1, new int[] { entry.texture }, 0);
+            entry.texture = 0;
+        }
+    }
+
+    private boolean uploadKtx2(Entry entry, Ktx2Image image, int magFilter, int minFilter,
+            int wrapS, int wrapT) {
+        int storedLevels = image.getStoredLevelCount();
+        long totalBytes = 0;
+        for (int level = 0; level < storedLevels; ++level) {
+            totalBytes += image.getLevelByteLength(level);
+        }
+        // Files asking for generated mipmaps have a single, uncompressed level.
+        boolean generateMipmaps = image.levelCount == 0 && gles3 && isMipmapFilter(minFilter);
+        if (generateMipmaps) {
+            totalBytes = totalBytes * 4 / 3;
+        }
+        makeRoom(totalBytes);
+        int firstLevel = 0;
+        while (firstLevel < storedLevels - 1 && residentBytes + totalBytes > budgetBytes) {
+            totalBytes -= image.getLevelByteLength(firstLevel++);
+        }
+
+        if (!gles3) {
+            // Levels are renumbered from the first one kept. GLES 2.0 can't limit the mip chain,
+            // so a partial chain or a non power of two size can't be mipmapped at all.
+            int width = image.getLevelWidth(firstLevel);
+            int height = image.getLevelHeight(firstLevel);
+            boolean fullChain = storedLevels - firstLevel
+                    == 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+            boolean powerOfTwo = isPowerOfTwo(width) && isPowerOfTwo(height);
+            int levelCount = fullChain && powerOfTwo ? storedLevels - firstLevel : 1;
+            entry.byteSize = 0;
+            for (int i = 0; i < levelCount; ++i) {
+                uploadLevel(image, firstLevel + i, i);
+                entry.byteSize += image.getLevelByteLength(firstLevel + i);
+            }
+            boolean mipmapped = levelCount > 1;
+            if (image.levelCount == 0 && powerOfTwo && isMipmapFilter(minFilter)) {
+                gl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+                entry.byteSize = entry.byteSize * 4 / 3;
+                mipmapped = true;
+            }
+            if (!powerOfTwo) {
+                wrapS = GLES20.GL_CLAMP_TO_EDGE;
+                wrapT = GLES20.GL_CLAMP_TO_EDGE;
+            }
+            setSamplerState(magFilter, minFilter, wrapS, wrapT, mipmapped);
+            return true;
+        }
+
+        int residentLevel = firstLevel;
+        while (residentLevel < storedLevels - 1
+                && Math.max(image.getLevelWidth(residentLevel), image.getLevelHeight(residentLevel))
+                        > INITIAL_LEVEL_SIZE) {
+            ++residentLevel;
+        }
+        entry.byteSize = 0;
+        for (int level = residentLevel; level < storedLevels; ++level) {
+            uploadLevel(image, level, level);
+            entry.byteSize += image.getLevelByteLength(level);
+        }
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES30.GL_TEXTURE_BASE_LEVEL, residentLevel);
+        if (generateMipmaps) {
+            gl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+            entry.byteSize = entry.byteSize * 4 / 3;
+        } else {
+            gl.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAX_LEVEL, storedLevels - 1);
+        }
+        setSamplerState(magFilter, minFilter, wrapS, wrapT, generateMipmaps || storedLevels > 1);
+        if (residentLevel > firstLevel) {
+            entry.image = image;
+            entry.firstLevel = firstLevel;
+            entry.residentLevel = residentLevel;
+            streamingEntries.add(entry);
+        }
+        return true;
+    }
+
+    private void uploadLevel(Ktx2Image image, int level, int glLevel) {
+        ByteBuffer data = image.getLevel(level);
+        int width = image.getLevelWidth(level);
+        int height = image.getLevelHeight(level);
+        if (image.family == Ktx2Image.FAMILY_UNCOMPRESSED) {
+            gl.glTexImage2D(GLES20.GL_TEXTURE_2D, glLevel, GLES20.GL_RGBA, width, height, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
+        } else {
+            gl.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, glLevel, image.glFormat, width,
+                    height, 0, data.remaining(), data);
+        }
+    }
+
+    // Decodes a PNG or JPEG to RGBA8, downsampled by powers of two while it wouldn't fit.
+    private boolean uploadBitmap(Entry entry, ByteBuffer data, int magFilter, int minFilter,
+            int wrapS, int wrapT) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            Log.e(TAG, "Could not decode image");
+            return false;
+        }
+        int sampleSize = 1;
+        long byteSize = getBitmapByteSize(bounds.outWidth, bounds.outHeight, minFilter);
+        makeRoom(byteSize);
+        while (residentBytes + byteSize > budgetBytes
+                && Math.max(bounds.outWidth, bounds.outHeight) / sampleSize > 1) {
+            sampleSize *= 2;
+            byteSize = getBitmapByteSize(
+                    bounds.outWidth / sampleSize, bounds.outHeight / sampleSize, minFilter);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (bitmap == null) {
+            Log.e(TAG, "Could not decode image");
+            return false;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        bitmap.recycle();
+
+        boolean powerOfTwo = isPowerOfTwo(width) && isPowerOfTwo(height);
+        boolean mipmapped = isMipmapFilter(minFilter) && (gles3 || powerOfTwo);
+        if (mipmapped) {
+            gl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        }
+        if (!gles3 && !powerOfTwo) {
+            wrapS = GLES20.GL_CLAMP_TO_EDGE;
+            wrapT = GLES20.GL_CLAMP_TO_EDGE;
+        }
+        setSamplerState(magFilter, minFilter, wrapS, wrapT, mipmapped);
+        entry.byteSize = (long) width * height * 4 * (mipmapped ? 4 : 3) / 3;
+        return true;
+    }
+
+    private static long getBitmapByteSize(int width, int height, int minFilter) {
+        long size = (long) Math.max(width, 1) * Math.max(height, 1) * 4;
+        return isMipmapFilter(minFilter) ? size * 4 / 3 : size;
+    }
+
+    // Filters of 0 are left to the renderer by the file: trilinear when mipmapped.
+    private void setSamplerState(int magFilter, int minFilter, int wrapS, int wrapT,
+            boolean mipmapped) {
+        if (minFilter == 0) {
+            minFilter = mipmapped ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR;
+        } else if (!mipmapped && isMipmapFilter(minFilter)) {
+            minFilter = minFilter == GLES20.GL_NEAREST_MIPMAP_NEAREST
+                    || minFilter == GLES20.GL_NEAREST_MIPMAP_LINEAR
+                    ? GLES20.GL_NEAREST : GLES20.GL_LINEAR;
+        }
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, minFilter);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                magFilter != 0 ? magFilter : GLES20.GL_LINEAR);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrapS);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrapT);
+    }
+
+    private static boolean isMipmapFilter(int minFilter) {
+        switch (minFilter) {
+            case GLES20.GL_LINEAR:
+            case GLES20.GL_NEAREST:
+                return false;
+            default:
+                return true; // the mipmap filters, and 0 which defaults to one
+        }
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return (value & (value - 1)) == 0;
+    }
+
+    private static String hash(ByteBuffer data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Android release provides SHA-1
+        }
+        digest.update(data.duplicate());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.opengl.Matrix;
+
+import java.util.Arrays;
+
+/**
+ * The node hierarchy of one glTF scene, flattened in depth-first order so that every node comes
+ * after its parent and each subtree is a contiguous range. Local and world matrices are kept in
+ * two float arrays, 16 floats per entry.
+ *
+ * Changing a local matrix only flags the entry; {@link #update()} then recomputes the world
+ * matrices of the flagged subtrees and nothing else. Neither call allocates.
+ */
+final class TransformHierarchy {
+    static final int MATRIX_SIZE = 16;
+
+    private final int count;
+    private final int[] nodes;      // entry -> glTF node index
+    private final int[] parents;    // entry -> parent entry, -1 for scene roots
+    private final int[] subtreeEnds; // entry -> first entry after its subtree
+    private final int[] entries;    // glTF node index -> entry, -1 if not in the scene
+    private final float[] localMatrices;
+    private final float[] worldMatrices;
+    private final boolean[] dirty;
+    private boolean hasDirtyEntries;
+
+    TransformHierarchy(CompactGLTFScene scene, int sceneIndex) {
+        nodes = new int[scene.nodeCount];
+        parents = new int[scene.nodeCount];
+        entries = new int[scene.nodeCount];
+        Arrays.fill(entries, -1);
+
+        // Iterative pre-order traversal; a node is only ever pushed once, so the stack never
+        // holds more than nodeCount entries even for malformed files.
+        int[] pendingNodes = new int[scene.nodeCount];
+        int[] pendingParents = new int[scene.nodeCount];
+        int pendingCount = 0;
+        int entryCount = 0;
+        if (sceneIndex < scene.sceneNodeStart.length - 1) {
+            for (int i = scene.sceneNodeStart[sceneIndex + 1] - 1;
+                    i >= scene.sceneNodeStart[sceneIndex]; --i) {
+                int node = scene.sceneNodes[i];
+                if (entries[node] == -1) {
+                    entries[node] = -2; // pending
+                    pendingNodes[pendingCount] = node;
+                    pendingParents[pendingCount++] = -1;
+                }
+            }
+        }
+        while (pendingCount > 0) {
+            int node = pendingNodes[--pendingCount];
+            int entry = entryCount++;
+            nodes[entry] = node;
+            parents[entry] = pendingParents[pendingCount];
+            entries[node] = entry;
+            for (int i = scene.nodeChildStart[node + 1] - 1; i >= scene.nodeChildStart[node]; --i) {
+                int child = scene.nodeChildren[i];
+                if (entries[child] == -1) {
+                    entries[child] = -2;
+                    pendingNodes[pendingCount] = child;
+                    pendingParents[pendingCount++] = entry;
+                }
+            }
+        }
+        count = entryCount;
+
+        // Children follow their parents, so subtree sizes accumulate in a single reverse pass.
+        subtreeEnds = new int[count];
+        int[] subtreeSizes = new int[count];
+        Arrays.fill(subtreeSizes, 1);
+        for (int entry = count - 1; entry > 0; --entry) {
+            if (parents[entry] >= 0) {
+                subtreeSizes[parents[entry]] += subtreeSizes[entry];
+            }
+        }
+        for (int entry = 0; entry < count; ++entry) {
+            subtreeEnds[entry] = entry + subtreeSizes[entry];
+        }
+
+        localMatrices = new float[count * MATRIX_SIZE];
+        worldMatrices = new float[count * MATRIX_SIZE];
+        for (int entry = 0; entry < count; ++entry) {
+            System.arraycopy(scene.nodeLocalMatrix, nodes[entry] * MATRIX_SIZE,
+                    localMatrices, entry * MATRIX_SIZE, MATRIX_SIZE);
+        }
+        dirty = new boolean[count];
+        if (count > 0) {
+            // Every root is dirty initially.
+            for (int entry = 0; entry < count; entry = subtreeEnds[entry]) {
+                dirty[entry] = true;
+            }
+            hasDirtyEntries = true;
+        }
+        update();
+    }
+
+    /** Number of nodes in the scene, i.e. of entries in the hierarchy. */
+    int size() {
+        return count;
+    }
+
+    /** glTF node index of an entry. */
+    int getNode(int entry) {
+        return nodes[entry];
+    }
+
+    /** Entry of a glTF node, or -1 if the node isn't part of the scene. */
+    int getEntry(int node) {
+        return node >= 0 && node < entries.length ? entries[node] : -1;
+    }
+
+    /** The world matrix of {@code entry} starts at {@code getWorldMatrices()[entry * 16]}. */
+    float[] getWorldMatrices() {
+        return worldMatrices;
+    }
+
+    void setLocalMatrix(int entry, float[] matrix, int offset) {
+        System.arraycopy(matrix, offset, localMatrices, entry * MATRIX_SIZE, MATRIX_SIZE);
+        dirty[entry] = true;
+        hasDirtyEntries = true;
+    }
+
+    /**
+     * Recomputes the world matrices of every subtree whose root was changed since the last call.
+     * Returns whether any world matrix changed.
+     */
+    boolean update() {
+        if (!hasDirtyEntries) {
+            return false;
+        }
+        int entry = 0;
+        while (entry < count) {
+            if (!dirty[entry]) {
+                ++entry;
+                continue;
+            }
+            int end = subtreeEnds[entry];
+            for (int i = entry; i < end; ++i) {
+                dirty[i] = false;
+                int parent = parents[i];
+                if (parent < 0) {
+                    System.arraycopy(localMatrices, i * MATRIX_SIZE,
+                            worldMatrices, i * MATRIX_SIZE, MATRIX_SIZE);
+                } else {
+                    Matrix.multiplyMM(worldMatrices, i * MATRIX_SIZE,
+                            worldMatrices, parent * MATRIX_SIZE, localMatrices, i * MATRIX_SIZE);
+                }
+            }
+            entry = end;
+        }
+        hasDirtyEntries = false;
+        return true;
+    }
+
+    /**
+     * Writes the column-major matrix translation * rotation * scale, as defined for glTF nodes.
+     * Any of the components may be null for its identity value.
+     */
+    static void composeMatrix(float[] output, int offset,
+            float[] translation, float[] rotation, float[] scale) {
+        float x = 0, y = 0, z = 0, w = 1;
+        if (rotation != null) {
+            x = rotation[0];
+            y = rotation[1];
+            z = rotation[2];
+            w = rotation[3];
+        }
+        float sx = 1, sy = 1, sz = 1;
+        if (scale != null) {
+            sx = scale[0];
+            sy = scale[1];
+            sz = scale[2];
+        }
+        output[offset] = (1 - 2 * (y * y + z * z)) * sx;
+        output[offset + 1] = 2 * (x * y + z * w) * sx;
+        output[offset + 2] = 2 * (x * z - y * w) * sx;
+        output[offset + 3] = 0;
+        output[offset + 4] = 2 * (x * y - z * w) * sy;
+        output[offset + 5] = (1 - 2 * (x * x + z * z)) * sy;
+        output[offset + 6] = 2 * (y * z + x * w) * sy;
+        output[offset + 7] = 0;
+        output[offset + 8] = 2 * (x * z + y * w) * sz;
+        output[offset + 9] = 2 * (y * z - x * w) * sz;
+        output[offset + 10] = (1 - 2 * (x * x + y * y)) * sz;
+        output[offset + 11] = 0;
+        output[offset + 12] = translation != null ? translation[0] : 0;
+        output[offset + 13] = translation != null ? translation[1] : 0;
+        output[offset + 14] = translation != null ? translation[2] : 0;
+        output[offset + 15] = 1;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import com.facebook.sample.gles.GLFence;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GL work that loader threads hand to a render thread, run in small steps so that it can be
+ * spread over frames. Loader threads {@link #post} tasks; the thread whose context they need runs
+ * them with {@link #drain}, typically once per vsync with what the frame leaves of its time.
+ *
+ * Tasks run in the order they were posted, each to completion before the next starts. A task
+ * may be posted behind a {@link GLFence}, for work another context did that it hands over;
+ * draining stops at it until the fence has signaled. A queue must only be drained by one thread.
+ */
+public final class UploadQueue {
+    /** A piece of GL work, run one step at a time. */
+    interface Task {
+        /** Runs the next step, returning true once the task is complete. */
+        boolean run();
+    }
+
+    private static final class Entry {
+        final Task task;
+        final GLFence fence; // null for tasks that needn't wait
+
+        Entry(Task task, GLFence fence) {
+            this.task = task;
+            this.fence = fence;
+        }
+    }
+
+    private final ArrayDeque<Entry> tasks = new ArrayDeque<>();
+    private int stepCount;
+    private int postCount;
+
+    synchronized void post(Task task) {
+        tasks.addLast(new Entry(task, null));
+        ++postCount;
+        notifyAll();
+    }
+
+    /** Posts a task that only runs once {@code fence} has signaled. */
+    synchronized void post(Task task, GLFence fence) {
+        tasks.addLast(new Entry(task, fence));
+        ++postCount;
+        notifyAll();
+    }
+
+    /**
+     * Blocks the draining thread for at most {@code timeoutNanos}, until a task is posted, and
+     * returns at once if the next task can already run. Fences signal without notice, so a
+     * thread waiting for one should keep the timeout short.
+     */
+    void awaitTask(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (this) {
+            Entry next = tasks.peekFirst();
+            if (next != null && next.fence == null) {
+                return;
+            }
+            int seenPostCount = postCount;
+            long remaining = timeoutNanos;
+            while (postCount == seenPostCount && remaining > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    /** Returns whether tasks are waiting to run. */
+    public synchronized boolean isEmpty() {
+        return tasks.isEmpty();
+    }
+
+    /** Returns how many steps have run on the queue so far. */
+    public synchronized int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Runs queued steps until {@code budgetNanos} have elapsed, the queue is empty or its next
+     * task waits for a fence, and returns how many ran. A step that has started always
+     * completes, so the budget may be overrun by one step; at least one step runs if any can.
+     */
+    public int drain(long budgetNanos) {
+        long start = System.nanoTime();
+        int steps = 0;
+        do {
+            Entry entry;
+            synchronized (this) {
+                entry = tasks.peekFirst();
+            }
+            if (entry == null || (entry.fence != null && !entry.fence.isSignaled())) {
+                break;
+            }
+            // Only this thread removes tasks, so the head is still the task that just ran.
+            boolean complete = entry.task.run();
+            synchronized (this) {
+                if (complete) {
+                    tasks.removeFirst();
+                }
+                ++stepCount;
+            }
+            ++steps;
+        } while (System.nanoTime() - start < budgetNanos);
+        return steps;
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the data URI of an 8 MB buffer into a direct buffer, with Base64Decoder and the way the
+ * reader did before it, through a prefix-stripped copy of the URI and a byte[] of the data. An
+ * operation is a decoded byte, so the throughput, in operations per microsecond, reads as MB/s.
+ * Both paths allocate the same direct output, which the gc profiler doesn't count; its allocation
+ * per operation is what each path copies on the heap for every byte decoded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Base64DecoderBenchmark {
+    private static final String DATA_URI_PREFIX = "data:application/octet-stream;base64,";
+    private static final int BYTE_COUNT = 8 << 20;
+
+    private String uri;
+
+    @Setup
+    public void setUp() {
+        byte[] data = new byte[BYTE_COUNT];
+        new Random(1).nextBytes(data);
+        uri = DATA_URI_PREFIX + Base64.getEncoder().encodeToString(data);
+
+        // Checks that both paths decode the same bytes, so that neither measures a failure.
+        ByteBuffer decoded = BaselineGLTFReader.decodeDataUri(uri);
+        if (!decoded.equals(ByteBuffer.wrap(data))) {
+            throw new IllegalStateException("The baseline doesn't decode the data URI");
+        }
+        try {
+            if (!decode().equals(decoded)) {
+                throw new IllegalStateException("Base64Decoder doesn't decode the data URI");
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BYTE_COUNT)
+    public ByteBuffer decode() throws IOException {
+        return Base64Decoder.decode(uri, DATA_URI_PREFIX.length(), BYTE_COUNT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BYTE_COUNT)
+    public ByteBuffer decodeBaseline() {
+        return BaselineGLTFReader.decodeDataUri(uri);
+    }
+}
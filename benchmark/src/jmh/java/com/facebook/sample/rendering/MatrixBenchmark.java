@@ -0,0 +1,112 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.opengl.Matrix;
+
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.RecordingGL;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame matrix work: recomputing the world matrices of the whole hierarchy after its root
+ * moves, and a frame of updateModelMatrix and draw, which also culls, selects levels of detail and
+ * issues the draws, to a RecordingGL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MatrixBenchmark {
+    @Param({"1", "100", "10000", "100000"})
+    public int nodeCount;
+
+    private final float[] rootMatrix = new float[16];
+    private final float[] modelMatrix = new float[16];
+    private final float[] viewMatrix = new float[16];
+    private final float[] projectionMatrix = new float[16];
+    private TransformHierarchy hierarchy;
+    private RecordingGL gl;
+    private SampleGLTFRenderer renderer;
+
+    @Setup
+    public void setUp() throws IOException {
+        gl = new RecordingGL();
+        GLBackend.set(gl);
+        SyntheticScene syntheticScene = new SyntheticScene(nodeCount);
+        MemoryAssetSource source = new MemoryAssetSource();
+        syntheticScene.writeTo(source);
+
+        CompactGLTFScene scene = CompactGLTFScene.from(SampleGLTFReader.read(
+                source.open(syntheticScene.getName()), null, null));
+        hierarchy = new TransformHierarchy(scene, scene.defaultScene);
+        Matrix.setIdentityM(rootMatrix, 0);
+
+        renderer = new SampleGLTFRenderer();
+        renderer.setViewport(1920, 1080);
+        renderer.createOnGlThread(source, syntheticScene.getName());
+        Matrix.setIdentityM(modelMatrix, 0);
+        Matrix.setIdentityM(viewMatrix, 0);
+        viewMatrix[13] = -10;
+        viewMatrix[14] = -40;
+        setPerspective(projectionMatrix, 60, 16f / 9, 0.1f, 1000);
+        gl.reset();
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.release();
+    }
+
+    @Benchmark
+    public boolean updateHierarchy() {
+        hierarchy.setLocalMatrix(0, rootMatrix, 0);
+        return hierarchy.update();
+    }
+
+    @Benchmark
+    public int draw() {
+        renderer.updateModelMatrix(modelMatrix, 1);
+        renderer.draw(viewMatrix, projectionMatrix);
+        // Keeps the recorded stream from growing across invocations.
+        gl.reset();
+        return renderer.getDrawCallCount();
+    }
+
+    // Matrix.perspectiveM, which the JVM Matrix of this module leaves out.
+    private static void setPerspective(float[] m, float fovy, float aspect, float zNear,
+            float zFar) {
+        float f = 1 / (float) Math.tan(Math.toRadians(fovy) / 2);
+        float rangeReciprocal = 1 / (zNear - zFar);
+        Matrix.setIdentityM(m, 0);
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (zFar + zNear) * rangeReciprocal;
+        m[11] = -1;
+        m[14] = 2 * zFar * zNear * rangeReciprocal;
+        m[15] = 0;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a terrain grid compressed with each codec of EXT_meshopt_compression: its quantized
+ * vertices with the attribute codec, and its triangles with the triangle and the index sequence
+ * codecs. An operation is a decoded byte, so the throughput, in operations per microsecond, reads
+ * as MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MeshoptDecoderBenchmark {
+    private static final int GRID_SIZE = 256;
+    private static final int VERTEX_COUNT = GRID_SIZE * GRID_SIZE;
+    // Position as 4 shorts, normal as 4 bytes and texture coordinates as 2 unsigned shorts.
+    private static final int VERTEX_SIZE = 16;
+    private static final int INDEX_COUNT = (GRID_SIZE - 1) * (GRID_SIZE - 1) * 6;
+    private static final int INDEX_SIZE = 2;
+    private static final int VERTEX_BYTES = VERTEX_COUNT * VERTEX_SIZE;
+    private static final int INDEX_BYTES = INDEX_COUNT * INDEX_SIZE;
+
+    private ByteBuffer vertices;
+    private ByteBuffer triangles;
+    private ByteBuffer indexSequence;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] vertexData = createVertices();
+        int[] indices = createIndices();
+        vertices = ByteBuffer.wrap(MeshoptEncoder.encodeVertexBuffer(
+                vertexData, VERTEX_COUNT, VERTEX_SIZE));
+        triangles = ByteBuffer.wrap(MeshoptEncoder.encodeIndexBuffer(indices));
+        indexSequence = ByteBuffer.wrap(MeshoptEncoder.encodeIndexSequence(indices));
+
+        // Checks the round trips, so that what is measured is a successful decode.
+        ByteBuffer decodedVertices = decodeAttributes();
+        for (int i = 0; i < vertexData.length; ++i) {
+            if (decodedVertices.get(i) != vertexData[i]) {
+                throw new IllegalStateException("Vertex byte " + i + " doesn't round trip");
+            }
+        }
+        ByteBuffer decodedTriangles = decodeTriangles();
+        for (int i = 0; i < INDEX_COUNT; i += 3) {
+            if (!isSameTriangle(decodedTriangles, i, indices)) {
+                throw new IllegalStateException("Triangle " + i / 3 + " doesn't round trip");
+            }
+        }
+        ByteBuffer decodedSequence = decodeIndexSequence();
+        for (int i = 0; i < INDEX_COUNT; ++i) {
+            if ((decodedSequence.getShort(i * INDEX_SIZE) & 0xFFFF) != indices[i]) {
+                throw new IllegalStateException("Index " + i + " doesn't round trip");
+            }
+        }
+    }
+
+    // A height field with smooth normals, the kind of data the vertex codec's deltas suit.
+    private static byte[] createVertices() {
+        ByteBuffer vertices = ByteBuffer.allocate(VERTEX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < GRID_SIZE; ++y) {
+            for (int x = 0; x < GRID_SIZE; ++x) {
+                double height = Math.sin(x * 0.05) * Math.cos(y * 0.07);
+                double dx = 0.05 * Math.cos(x * 0.05) * Math.cos(y * 0.07);
+                double dy = -0.07 * Math.sin(x * 0.05) * Math.sin(y * 0.07);
+                double length = Math.sqrt(dx * dx + dy * dy + 1);
+                vertices.putShort((short) (x * 64));
+                vertices.putShort((short) (height * 4096));
+                vertices.putShort((short) (y * 64));
+                vertices.putShort((short) 0);
+                vertices.put((byte) Math.round(-dx / length * 127));
+                vertices.put((byte) Math.round(1 / length * 127));
+                vertices.put((byte) Math.round(-dy / length * 127));
+                vertices.put((byte) 0);
+                vertices.putShort((short) (x * 65535 / (GRID_SIZE - 1)));
+                vertices.putShort((short) (y * 65535 / (GRID_SIZE - 1)));
+            }
+        }
+        return vertices.array();
+    }
+
+    // Two triangles per grid cell, row by row.
+    private static int[] createIndices() {
+        int[] indices = new int[INDEX_COUNT];
+        int i = 0;
+        for (int y = 0; y < GRID_SIZE - 1; ++y) {
+            for (int x = 0; x < GRID_SIZE - 1; ++x) {
+                int corner = y * GRID_SIZE + x;
+                indices[i++] = corner;
+                indices[i++] = corner + GRID_SIZE;
+                indices[i++] = corner + 1;
+                indices[i++] = corner + 1;
+                indices[i++] = corner + GRID_SIZE;
+                indices[i++] = corner + GRID_SIZE + 1;
+            }
+        }
+        return indices;
+    }
+
+    // The triangle codec may rotate triangles, which keeps them the same.
+    private static boolean isSameTriangle(ByteBuffer decoded, int offset, int[] indices) {
+        int a = decoded.getShort(offset * INDEX_SIZE) & 0xFFFF;
+        int b = decoded.getShort((offset + 1) * INDEX_SIZE) & 0xFFFF;
+        int c = decoded.getShort((offset + 2) * INDEX_SIZE) & 0xFFFF;
+        for (int rotation = 0; rotation < 3; ++rotation) {
+            if (indices[offset] == a && indices[offset + 1] == b && indices[offset + 2] == c) {
+                return true;
+            }
+            int first = a;
+            a = b;
+            b = c;
+            c = first;
+        }
+        return false;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VERTEX_BYTES)
+    public ByteBuffer decodeAttributes() throws IOException {
+        return MeshoptDecoder.decode(vertices, VERTEX_COUNT, VERTEX_SIZE,
+                MeshoptDecoder.MODE_ATTRIBUTES, MeshoptDecoder.FILTER_NONE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INDEX_BYTES)
+    public ByteBuffer decodeTriangles() throws IOException {
+        return MeshoptDecoder.decode(triangles, INDEX_COUNT, INDEX_SIZE,
+                MeshoptDecoder.MODE_TRIANGLES, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INDEX_BYTES)
+    public ByteBuffer decodeIndexSequence() throws IOException {
+        return MeshoptDecoder.decode(indexSequence, INDEX_COUNT, INDEX_SIZE,
+                MeshoptDecoder.MODE_INDICES, null);
+    }
+}
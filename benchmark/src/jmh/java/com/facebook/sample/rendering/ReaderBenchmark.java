@@ -0,0 +1,62 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a glTF file with SampleGLTFReader.read: the JSON, and the base64 decoding of its
+ * embedded buffer. readBaseline parses the same file the way the reader did before it streamed
+ * its JSON, into an org.json object tree, for comparison; the gc profiler's allocation per
+ * operation shows the heap each path goes through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReaderBenchmark {
+    @Param({"1", "100", "10000", "100000"})
+    public int nodeCount;
+
+    private byte[] gltf;
+
+    @Setup
+    public void setUp() {
+        SyntheticScene scene = new SyntheticScene(nodeCount);
+        gltf = scene.createFiles().get(scene.getName());
+    }
+
+    @Benchmark
+    public Object read() {
+        return SampleGLTFReader.read(new ByteArrayInputStream(gltf), null, null);
+    }
+
+    @Benchmark
+    public Object readBaseline() throws IOException, JSONException {
+        return BaselineGLTFReader.read(new ByteArrayInputStream(gltf));
+    }
+}
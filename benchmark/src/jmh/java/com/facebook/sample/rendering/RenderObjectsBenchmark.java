@@ -0,0 +1,67 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.RecordingGL;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preparing the render objects of a parsed scene with CreateGLTFRenderObjects: validating the
+ * primitives, computing mesh bounds and laying the geometry out in upload buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RenderObjectsBenchmark {
+    @Param({"1", "100", "10000", "100000"})
+    public int nodeCount;
+
+    @Param({"true", "false"})
+    public boolean geometryPacking;
+
+    private String name;
+    private CompactGLTFScene scene;
+    private TransformHierarchy hierarchy;
+    private SampleGLTFRenderer renderer;
+
+    @Setup
+    public void setUp() {
+        GLBackend.set(new RecordingGL());
+        SyntheticScene syntheticScene = new SyntheticScene(nodeCount);
+        name = syntheticScene.getName();
+        scene = CompactGLTFScene.from(SampleGLTFReader.read(
+                new ByteArrayInputStream(syntheticScene.createFiles().get(name)), null, null));
+        hierarchy = new TransformHierarchy(scene, scene.defaultScene);
+        renderer = new SampleGLTFRenderer();
+        renderer.setGeometryPacking(geometryPacking);
+    }
+
+    @Benchmark
+    public Object createRenderObjects() {
+        return renderer.CreateGLTFRenderObjects(scene, hierarchy, new GLTFAssetCache.Asset(name));
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.opengl;
+
+/**
+ * The methods of android.opengl.Matrix the renderer uses, for the JVM. multiplyMM and multiplyMV
+ * are native on Android, so android-all can't run them; these compute the same column-major
+ * products without allocating, as the native ones do.
+ */
+public class Matrix {
+    private Matrix() {}
+
+    // As on Android, the result is undefined if it overlaps lhs or rhs.
+    public static void multiplyMM(float[] result, int resultOffset,
+            float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int column = 0; column < 4; ++column) {
+            float r0 = rhs[rhsOffset + column * 4];
+            float r1 = rhs[rhsOffset + column * 4 + 1];
+            float r2 = rhs[rhsOffset + column * 4 + 2];
+            float r3 = rhs[rhsOffset + column * 4 + 3];
+            for (int row = 0; row < 4; ++row) {
+                result[resultOffset + column * 4 + row] = lhs[lhsOffset + row] * r0
+                        + lhs[lhsOffset + 4 + row] * r1
+                        + lhs[lhsOffset + 8 + row] * r2
+                        + lhs[lhsOffset + 12 + row] * r3;
+            }
+        }
+    }
+
+    public static void multiplyMV(float[] resultVec, int resultVecOffset,
+            float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        float x = rhsVec[rhsVecOffset];
+        float y = rhsVec[rhsVecOffset + 1];
+        float z = rhsVec[rhsVecOffset + 2];
+        float w = rhsVec[rhsVecOffset + 3];
+        for (int row = 0; row < 4; ++row) {
+            resultVec[resultVecOffset + row] = lhsMat[lhsMatOffset + row] * x
+                    + lhsMat[lhsMatOffset + 4 + row] * y
+                    + lhsMat[lhsMatOffset + 8 + row] * z
+                    + lhsMat[lhsMatOffset + 12 + row] * w;
+        }
+    }
+
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; ++i) {
+            sm[smOffset + i] = i % 5 == 0 ? 1 : 0;
+        }
+    }
+}
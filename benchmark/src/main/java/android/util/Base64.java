@@ -0,0 +1,75 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * The decoding half of android.util.Base64 for the JVM, where android-all's relies on an
+ * Android-only System.arraycopy. It makes the same copies as the framework's: the string's bytes,
+ * an output of three quarters of their length, and a copy of that trimmed to the decoded length.
+ * Only the standard alphabet is supported; whitespace is skipped and decoding stops at padding.
+ */
+public final class Base64 {
+    public static final int DEFAULT = 0;
+
+    private static final int SKIP = -1;
+    private static final int INVALID = -2;
+    private static final int[] DECODE_TABLE = new int[256];
+
+    static {
+        Arrays.fill(DECODE_TABLE, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); ++i) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+        DECODE_TABLE[' '] = SKIP;
+        DECODE_TABLE['\t'] = SKIP;
+        DECODE_TABLE['\r'] = SKIP;
+        DECODE_TABLE['\n'] = SKIP;
+    }
+
+    private Base64() {}
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        byte[] output = new byte[input.length * 3 / 4];
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (byte c : input) {
+            if (c == '=') {
+                break;
+            }
+            int value = DECODE_TABLE[c & 0xFF];
+            if (value == SKIP) {
+                continue;
+            }
+            if (value == INVALID) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+            bits = bits << 6 | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                output[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        return length == output.length ? output : Arrays.copyOf(output, length);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * android.util.JsonReader for the JVM. android-all's reads its input with an Android-only
+ * overload of System.arraycopy, so this one delegates to gson's streaming reader, which has the
+ * same API and semantics.
+ */
+public final class JsonReader implements Closeable {
+    private final com.google.gson.stream.JsonReader reader;
+
+    public JsonReader(Reader in) {
+        reader = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void setLenient(boolean lenient) {
+        reader.setLenient(lenient);
+    }
+
+    public boolean isLenient() {
+        return reader.isLenient();
+    }
+
+    public void beginArray() throws IOException {
+        reader.beginArray();
+    }
+
+    public void endArray() throws IOException {
+        reader.endArray();
+    }
+
+    public void beginObject() throws IOException {
+        reader.beginObject();
+    }
+
+    public void endObject() throws IOException {
+        reader.endObject();
+    }
+
+    public boolean hasNext() throws IOException {
+        return reader.hasNext();
+    }
+
+    public JsonToken peek() throws IOException {
+        return JsonToken.valueOf(reader.peek().name());
+    }
+
+    public String nextName() throws IOException {
+        return reader.nextName();
+    }
+
+    public String nextString() throws IOException {
+        return reader.nextString();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        return reader.nextBoolean();
+    }
+
+    public void nextNull() throws IOException {
+        reader.nextNull();
+    }
+
+    public double nextDouble() throws IOException {
+        return reader.nextDouble();
+    }
+
+    public long nextLong() throws IOException {
+        return reader.nextLong();
+    }
+
+    public int nextInt() throws IOException {
+        return reader.nextInt();
+    }
+
+    public void skipValue() throws IOException {
+        reader.skipValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    @Override
+    public String toString() {
+        return reader.toString();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package android.util;
+
+/**
+ * android.util.Log for the JVM, where android-all's native logging isn't available. Warnings and
+ * errors go to stderr; other levels are dropped so they don't weigh on the measurements.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    private Log() {}
+
+    public static boolean isLoggable(String tag, int level) {
+        return level >= WARN;
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println("E", tag, msg, tr);
+    }
+
+    private static int println(String priority, String tag, String msg, Throwable tr) {
+        String line = priority + "/" + tag + ": " + msg;
+        System.err.println(line);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return line.length();
+    }
+}
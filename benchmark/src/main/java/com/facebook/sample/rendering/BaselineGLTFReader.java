@@ -0,0 +1,149 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * The glTF reader as it was before SampleGLTFReader streamed its JSON, kept for the benchmarks to
+ * compare against: the whole file is read into a String, parsed into an org.json object tree, and
+ * data URIs are decoded by stripping their prefix into a copy, decoding that into a byte[] and
+ * copying it into a direct buffer.
+ *
+ * Only what the benchmarks need differs from the original: the primitives of a mesh are indexed
+ * with their own index, byteOffset defaults to 0 as glTF allows, and errors are thrown rather
+ * than logged, so that a benchmark can't measure a parse that gave up early.
+ */
+final class BaselineGLTFReader {
+    private static final String DATA_URI_PREFIX = "data:application/octet-stream;base64,";
+
+    static final class Scene {
+        final ArrayList<ArrayList<Integer>> scenes = new ArrayList<>();
+        final ArrayList<Integer> nodeMeshes = new ArrayList<>();
+        final ArrayList<ArrayList<HashMap<String, Integer>>> meshes = new ArrayList<>();
+        final ArrayList<ByteBuffer> buffers = new ArrayList<>();
+        final ArrayList<int[]> bufferViews = new ArrayList<>(); // buffer, offset, length, target
+        final ArrayList<int[]> accessors = new ArrayList<>(); // bufferView, offset, type, count
+    }
+
+    private BaselineGLTFReader() {}
+
+    static Scene read(InputStream stream) throws IOException, JSONException {
+        Scene scene = new Scene();
+        JSONObject root = new JSONObject(readFile(stream, Charset.defaultCharset()));
+
+        JSONArray scenes = root.getJSONArray("scenes");
+        for (int i = 0; i < scenes.length(); ++i) {
+            JSONArray nodes = scenes.getJSONObject(i).getJSONArray("nodes");
+            ArrayList<Integer> sceneNodes = new ArrayList<>();
+            for (int j = 0; j < nodes.length(); ++j) {
+                sceneNodes.add((Integer) nodes.get(j));
+            }
+            scene.scenes.add(sceneNodes);
+        }
+
+        JSONArray nodes = root.getJSONArray("nodes");
+        for (int i = 0; i < nodes.length(); ++i) {
+            scene.nodeMeshes.add(nodes.getJSONObject(i).getInt("mesh"));
+        }
+
+        JSONArray meshes = root.getJSONArray("meshes");
+        for (int i = 0; i < meshes.length(); ++i) {
+            JSONArray primitives = meshes.getJSONObject(i).getJSONArray("primitives");
+            ArrayList<HashMap<String, Integer>> mesh = new ArrayList<>();
+            for (int j = 0; j < primitives.length(); ++j) {
+                JSONObject jsonPrimitive = primitives.getJSONObject(j);
+                JSONObject attributes = jsonPrimitive.getJSONObject("attributes");
+                HashMap<String, Integer> primitive = new HashMap<>();
+                Iterator<String> iter = attributes.keys();
+                while (iter.hasNext()) {
+                    String key = iter.next();
+                    primitive.put(key, (Integer) attributes.get(key));
+                }
+                primitive.put("indices", jsonPrimitive.getInt("indices"));
+                mesh.add(primitive);
+            }
+            scene.meshes.add(mesh);
+        }
+
+        JSONArray buffers = root.getJSONArray("buffers");
+        for (int i = 0; i < buffers.length(); ++i) {
+            scene.buffers.add(decodeDataUri(buffers.getJSONObject(i).getString("uri")));
+        }
+
+        JSONArray bufferViews = root.getJSONArray("bufferViews");
+        for (int i = 0; i < bufferViews.length(); ++i) {
+            JSONObject jsonObject = bufferViews.getJSONObject(i);
+            scene.bufferViews.add(new int[] {
+                    jsonObject.getInt("buffer"),
+                    jsonObject.optInt("byteOffset"),
+                    jsonObject.getInt("byteLength"),
+                    jsonObject.getInt("target") });
+        }
+
+        JSONArray accessors = root.getJSONArray("accessors");
+        for (int i = 0; i < accessors.length(); ++i) {
+            JSONObject jsonObject = accessors.getJSONObject(i);
+            scene.accessors.add(new int[] {
+                    jsonObject.getInt("bufferView"),
+                    jsonObject.optInt("byteOffset"),
+                    jsonObject.getInt("componentType"),
+                    jsonObject.getInt("count") });
+        }
+        return scene;
+    }
+
+    /** Decodes a base64 data URI the way the original reader did. */
+    static ByteBuffer decodeDataUri(String uri) {
+        String dataURI = uri.replaceFirst(DATA_URI_PREFIX, "");
+        byte[] bufferData = Base64.decode(dataURI, Base64.DEFAULT);
+        ByteBuffer data = ByteBuffer.allocateDirect(bufferData.length)
+                .order(ByteOrder.nativeOrder());
+        data.put(bufferData);
+        data.rewind();
+        return data;
+    }
+
+    private static String readFile(InputStream stream, Charset cs) throws IOException {
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(stream, cs));
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer, 0, buffer.length)) > 0) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            stream.close();
+        }
+    }
+}
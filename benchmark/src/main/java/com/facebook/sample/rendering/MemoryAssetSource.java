@@ -0,0 +1,53 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Serves files held in memory, and anything else, such as the shaders, from the classpath, so
+ * that reading doesn't touch the disk while it is measured.
+ */
+final class MemoryAssetSource implements GLTFAssetSource {
+    private final HashMap<String, byte[]> files = new HashMap<>();
+
+    void put(String path, byte[] data) {
+        files.put(path, data);
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        byte[] data = files.get(path);
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+        InputStream resource = MemoryAssetSource.class.getResourceAsStream("/" + path);
+        if (resource == null) {
+            throw new FileNotFoundException(path);
+        }
+        return resource;
+    }
+
+    @Override
+    public ByteBuffer map(String path) throws IOException {
+        byte[] data = files.get(path);
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks MeshOptimizer on fixed meshes with 8, 16 and 32 bit indices, and exits with status 1
+ * when a check fails.
+ *
+ * Each mesh is a grid of vertices, with a position and texture coordinates, whose triangles are
+ * shuffled and rotated with a fixed seed, as a badly ordered export would be. Two scenes built
+ * from the same grid are optimized separately, and their indices and attributes must come out
+ * byte for byte the same. The optimized primitive must keep its index type, draw the same
+ * triangles with the same winding, number vertices in order of first use with every vertex's
+ * attributes kept together, and have a lower ACMR than the shuffled input.
+ *
+ * Usage: MeshOptimizerCheck
+ */
+final class MeshOptimizerCheck {
+    private static final class Grid {
+        final int columns;
+        final int rows;
+        final int indexBits;
+        final boolean flat;
+
+        Grid(int columns, int rows, int indexBits, boolean flat) {
+            this.columns = columns;
+            this.rows = rows;
+            this.indexBits = indexBits;
+            this.flat = flat;
+        }
+    }
+
+    // The 32-bit grid has more vertices than 16 bits can index. On a flat grid, every cluster
+    // has the same overdraw sort key, and ties must be broken the same way every time.
+    private static final Grid[] GRIDS = {
+            new Grid(16, 16, 8, false),
+            new Grid(100, 100, 16, false),
+            new Grid(100, 100, 16, true),
+            new Grid(300, 300, 32, false),
+    };
+    private static final long SEED = 1;
+
+    private static boolean passed = true;
+
+    private MeshOptimizerCheck() {}
+
+    public static void main(String[] args) {
+        for (Grid grid : GRIDS) {
+            checkGrid(grid);
+        }
+        System.out.println(passed ? "All mesh optimizer checks passed"
+                : "Mesh optimizer checks failed");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void checkGrid(Grid grid) {
+        String name = grid.columns + "x" + grid.rows + (grid.flat ? " flat" : "") + " grid, "
+                + grid.indexBits + "-bit";
+        int vertexCount = grid.columns * grid.rows;
+        SampleGLTFReader.GLTFScene scene = createScene(grid);
+        SampleGLTFReader.GLTFScene.Primitive primitive = getPrimitive(scene);
+        int[] inputIndices = MeshOptimizer.readIndices(
+                scene, scene.accessors.get(primitive.indices));
+        float acmrBefore = MeshOptimizer.computeAcmr(inputIndices, vertexCount);
+
+        MeshOptimizer.optimize(scene);
+        SampleGLTFReader.GLTFScene.Accessor indexAccessor =
+                scene.accessors.get(primitive.indices);
+        int[] indices = MeshOptimizer.readIndices(scene, indexAccessor);
+        int positionAccessor = primitive.attributes.get("POSITION");
+        float[] positions = MeshOptimizer.readPositions(scene, positionAccessor);
+        float acmrAfter = MeshOptimizer.computeAcmr(indices,
+                scene.accessors.get(positionAccessor).count);
+        System.out.println(String.format(Locale.US, "%s: ACMR %.3f -> %.3f", name, acmrBefore,
+                acmrAfter));
+
+        check(name + ": index type", indexAccessor.componentType == getComponentType(grid));
+        check(name + ": ACMR", acmrAfter < acmrBefore);
+        check(name + ": triangles", getTriangles(indices, positions, grid.columns)
+                .equals(getTriangles(inputIndices, createPositions(grid), grid.columns)));
+        check(name + ": vertex order", isInFirstUseOrder(indices));
+        check(name + ": attributes", hasMatchingTexCoords(scene, primitive, positions, grid));
+
+        // A second scene from the same grid must optimize to the same bytes.
+        SampleGLTFReader.GLTFScene again = createScene(grid);
+        MeshOptimizer.optimize(again);
+        check(name + ": determinism", Arrays.equals(getPrimitiveBytes(scene),
+                getPrimitiveBytes(again)));
+    }
+
+    // A scene of one node with a mesh of one primitive: the grid's triangles in shuffled order,
+    // each starting at a random corner.
+    private static SampleGLTFReader.GLTFScene createScene(Grid grid) {
+        Random random = new Random(SEED);
+        ArrayList<int[]> triangles = new ArrayList<>();
+        for (int y = 0; y + 1 < grid.rows; ++y) {
+            for (int x = 0; x + 1 < grid.columns; ++x) {
+                int corner = y * grid.columns + x;
+                triangles.add(rotate(new int[] {corner, corner + 1, corner + grid.columns + 1},
+                        random.nextInt(3)));
+                triangles.add(rotate(new int[] {corner, corner + grid.columns + 1,
+                        corner + grid.columns}, random.nextInt(3)));
+            }
+        }
+        Collections.shuffle(triangles, random);
+
+        int indexSize = grid.indexBits / 8;
+        ByteBuffer indexData = allocate(triangles.size() * 3 * indexSize);
+        for (int[] triangle : triangles) {
+            for (int index : triangle) {
+                if (indexSize == 1) {
+                    indexData.put((byte) index);
+                } else if (indexSize == 2) {
+                    indexData.putShort((short) index);
+                } else {
+                    indexData.putInt(index);
+                }
+            }
+        }
+        int vertexCount = grid.columns * grid.rows;
+        ByteBuffer positionData = allocate(vertexCount * 12);
+        positionData.asFloatBuffer().put(createPositions(grid));
+        ByteBuffer texCoordData = allocate(vertexCount * 8);
+        for (int v = 0; v < vertexCount; ++v) {
+            texCoordData.putFloat((float) (v % grid.columns) / grid.columns)
+                    .putFloat((float) (v / grid.columns) / grid.rows);
+        }
+
+        SampleGLTFReader.GLTFScene scene = new SampleGLTFReader.GLTFScene();
+        SampleGLTFReader.GLTFScene.Primitive primitive =
+                new SampleGLTFReader.GLTFScene.Primitive();
+        primitive.attributes.put("POSITION", addAccessor(scene, positionData,
+                SampleGLTFReader.COMPONENT_TYPE_FLOAT, "VEC3", vertexCount,
+                SampleGLTFReader.TARGET_ARRAY_BUFFER));
+        primitive.attributes.put("TEXCOORD_0", addAccessor(scene, texCoordData,
+                SampleGLTFReader.COMPONENT_TYPE_FLOAT, "VEC2", vertexCount,
+                SampleGLTFReader.TARGET_ARRAY_BUFFER));
+        primitive.indices = addAccessor(scene, indexData, getComponentType(grid), "SCALAR",
+                triangles.size() * 3, SampleGLTFReader.TARGET_ELEMENT_ARRAY_BUFFER);
+        SampleGLTFReader.GLTFScene.Mesh mesh = new SampleGLTFReader.GLTFScene.Mesh();
+        mesh.primitives.add(primitive);
+        scene.meshes.add(mesh);
+        SampleGLTFReader.GLTFScene.Node node = new SampleGLTFReader.GLTFScene.Node();
+        node.mesh = 0;
+        scene.nodes.add(node);
+        SampleGLTFReader.GLTFScene.Scene root = new SampleGLTFReader.GLTFScene.Scene();
+        root.nodes.add(0);
+        scene.scenes.add(root);
+        return scene;
+    }
+
+    // Positions on a gently curved surface, unless the grid is flat, so that the overdraw sort
+    // has depth to work with.
+    // x and y are the vertex's column and row, which identify it after renumbering.
+    private static float[] createPositions(Grid grid) {
+        float[] positions = new float[grid.columns * grid.rows * 3];
+        for (int y = 0; y < grid.rows; ++y) {
+            for (int x = 0; x < grid.columns; ++x) {
+                int v = (y * grid.columns + x) * 3;
+                positions[v] = x;
+                positions[v + 1] = y;
+                positions[v + 2] = grid.flat ? 0 : (float) (Math.sin(x * 0.1) * Math.cos(y * 0.1));
+            }
+        }
+        return positions;
+    }
+
+    private static int addAccessor(SampleGLTFReader.GLTFScene scene, ByteBuffer data,
+            int componentType, String type, int count, int target) {
+        data.rewind();
+        SampleGLTFReader.GLTFScene.Buffer buffer = new SampleGLTFReader.GLTFScene.Buffer();
+        buffer.data = data;
+        buffer.byteLength = data.capacity();
+        scene.buffers.add(buffer);
+        SampleGLTFReader.GLTFScene.BufferView bufferView =
+                new SampleGLTFReader.GLTFScene.BufferView();
+        bufferView.buffer = scene.buffers.size() - 1;
+        bufferView.byteLength = buffer.byteLength;
+        bufferView.target = target;
+        scene.bufferViews.add(bufferView);
+        SampleGLTFReader.GLTFScene.Accessor accessor = new SampleGLTFReader.GLTFScene.Accessor();
+        accessor.bufferView = scene.bufferViews.size() - 1;
+        accessor.componentType = componentType;
+        accessor.count = count;
+        accessor.type = type;
+        scene.accessors.add(accessor);
+        return scene.accessors.size() - 1;
+    }
+
+    private static SampleGLTFReader.GLTFScene.Primitive getPrimitive(
+            SampleGLTFReader.GLTFScene scene) {
+        return scene.meshes.get(0).primitives.get(0);
+    }
+
+    private static int getComponentType(Grid grid) {
+        return grid.indexBits == 8 ? SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE
+                : grid.indexBits == 16 ? SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT
+                : SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_INT;
+    }
+
+    // The triangles as sorted grid vertex triples, each rotated to start at its lowest vertex,
+    // which keeps its winding.
+    private static ArrayList<String> getTriangles(int[] indices, float[] positions,
+            int columns) {
+        ArrayList<String> triangles = new ArrayList<>();
+        int[] triangle = new int[3];
+        for (int i = 0; i < indices.length; i += 3) {
+            for (int k = 0; k < 3; ++k) {
+                int v = indices[i + k] * 3;
+                triangle[k] = Math.round(positions[v + 1]) * columns + Math.round(positions[v]);
+            }
+            int lowest = triangle[0] < triangle[1]
+                    ? (triangle[0] < triangle[2] ? 0 : 2) : (triangle[1] < triangle[2] ? 1 : 2);
+            triangles.add(Arrays.toString(rotate(triangle.clone(), lowest)));
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+
+    private static boolean isInFirstUseOrder(int[] indices) {
+        int next = 0;
+        for (int index : indices) {
+            if (index > next) {
+                return false;
+            }
+            if (index == next) {
+                ++next;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasMatchingTexCoords(SampleGLTFReader.GLTFScene scene,
+            SampleGLTFReader.GLTFScene.Primitive primitive, float[] positions, Grid grid) {
+        ByteBuffer texCoords = getAccessorData(scene, primitive.attributes.get("TEXCOORD_0"));
+        for (int v = 0; v < positions.length / 3; ++v) {
+            if (texCoords.getFloat(v * 8) != positions[v * 3] / grid.columns
+                    || texCoords.getFloat(v * 8 + 4) != positions[v * 3 + 1] / grid.rows) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The index type and indices, then the bytes of each attribute in name order.
+    private static byte[] getPrimitiveBytes(SampleGLTFReader.GLTFScene scene) {
+        SampleGLTFReader.GLTFScene.Primitive primitive = getPrimitive(scene);
+        SampleGLTFReader.GLTFScene.Accessor indexAccessor =
+                scene.accessors.get(primitive.indices);
+        int[] indices = MeshOptimizer.readIndices(scene, indexAccessor);
+        ArrayList<String> names = new ArrayList<>(primitive.attributes.keySet());
+        Collections.sort(names);
+        ArrayList<ByteBuffer> attributes = new ArrayList<>();
+        int size = 4 + indices.length * 4;
+        for (String name : names) {
+            ByteBuffer data = getAccessorData(scene, primitive.attributes.get(name));
+            attributes.add(data);
+            size += data.remaining();
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        bytes.putInt(indexAccessor.componentType);
+        bytes.asIntBuffer().put(indices);
+        bytes.position(bytes.position() + indices.length * 4);
+        for (ByteBuffer data : attributes) {
+            bytes.put(data);
+        }
+        return bytes.array();
+    }
+
+    // The bytes of an accessor's buffer view from the accessor's offset on.
+    private static ByteBuffer getAccessorData(SampleGLTFReader.GLTFScene scene,
+            int accessorIndex) {
+        SampleGLTFReader.GLTFScene.Accessor accessor = scene.accessors.get(accessorIndex);
+        SampleGLTFReader.GLTFScene.BufferView bufferView =
+                scene.bufferViews.get(accessor.bufferView);
+        ByteBuffer data = scene.buffers.get(bufferView.buffer).getData().duplicate();
+        data.limit(bufferView.byteOffset + bufferView.byteLength);
+        data.position(bufferView.byteOffset + accessor.byteOffset);
+        return data.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static int[] rotate(int[] triangle, int rotation) {
+        for (int i = 0; i < rotation; ++i) {
+            int first = triangle[0];
+            triangle[0] = triangle[1];
+            triangle[1] = triangle[2];
+            triangle[2] = first;
+        }
+        return triangle;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect((size + 3) & ~3).order(ByteOrder.nativeOrder());
+    }
+
+    private static void check(String name, boolean condition) {
+        if (!condition) {
+            passed = false;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks MeshoptDecoder, which decodes untrusted data bit by bit, and exits with status 1 when a
+ * check fails.
+ *
+ * Known encodings are decoded in every mode: meshoptimizer's own test vector of the triangle
+ * codec, and triangle, vertex and index sequence data assembled by hand from the
+ * EXT_meshopt_compression specification. Data from MeshoptEncoder is decoded back across strides,
+ * index sizes and block boundaries, and through each filter, whose outputs are worked out from the
+ * specification.
+ * Malformed data, truncated at every length, with bad headers or parameters, or with random bytes
+ * changed, must fail with an IOException and nothing else.
+ *
+ * Usage: MeshoptDecoderCheck
+ */
+final class MeshoptDecoderCheck {
+    // kIndexDataV0 of meshoptimizer's tests: version 0 of the triangle codec, where vertex FIFO
+    // hits go up to 15.
+    private static final int[] TRIANGLES_V0 = {
+            0xe0, 0xf0, 0x10, 0xfe, 0xff, 0xf0, 0x0c, 0xff, 0x02, 0x02, 0x02, 0x00, 0x76, 0x87,
+            0x56, 0x67, 0x78, 0xa9, 0x86, 0x65, 0x89, 0x68, 0x98, 0x01, 0x69, 0x00, 0x00,
+    };
+    private static final int[] TRIANGLES_V0_INDICES = {0, 1, 2, 2, 1, 3, 4, 6, 5, 7, 8, 9};
+    // Five triangles of new vertices, then one on the last edge whose third vertex is 13 back in
+    // the vertex FIFO, followed by the codeaux table of the reference encoder.
+    private static final int[] TRIANGLES_FIFO_13 = {
+            0xe0, 0xf0, 0xf0, 0xf0, 0xf0, 0xf0, 0x0d, 0x00, 0x76, 0x87, 0x56, 0x67, 0x78, 0xa9,
+            0x86, 0x65, 0x89, 0x68, 0x98, 0x01, 0x69, 0x00, 0x00,
+    };
+    private static final int[] TRIANGLES_FIFO_13_INDICES = {
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 12, 14, 1,
+    };
+    // Version 1, where a code of 13 is one less than the last explicit index: a triangle of
+    // three explicit indices, 10, 11 and 12 as deltas, then one on its last edge with that code.
+    private static final int[] TRIANGLES_V1 = {
+            0xe1, 0xff, 0x0d, 0xff, 0x14, 0x02, 0x02, 0x00, 0x76, 0x87, 0x56, 0x67, 0x78, 0xa9,
+            0x86, 0x65, 0x89, 0x68, 0x98, 0x01, 0x69, 0x00, 0x00,
+    };
+    private static final int[] TRIANGLES_V1_INDICES = {10, 11, 12, 10, 12, 11};
+
+    // Four vertices of 12 bytes: three unsigned shorts of position, two bytes of normal and two
+    // unsigned shorts of texture coordinates, with positions and texture coordinates on the
+    // corners of a square of 300 and 500.
+    private static final int[] VERTICES_DECODED = {
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            44, 1, 0, 0, 0, 0, 0, 0, 244, 1, 0, 0,
+            0, 0, 44, 1, 0, 0, 0, 0, 0, 0, 244, 1,
+            44, 1, 44, 1, 0, 0, 0, 0, 244, 1, 244, 1,
+    };
+    // One block of one group per byte of the vertex, each a header selecting 0, 2 or 4 bits and
+    // the zigzag deltas packed with that many bits, followed by a tail of 32 bytes ending with
+    // the first vertex. Byte 0, with deltas 0, 44, -44 and 44, takes 2 bits with a sentinel and
+    // an extra byte for each.
+    private static final int[] VERTICES = {
+            0xa0,
+            0x01, 0x3f, 0x00, 0x00, 0x00, 0x58, 0x57, 0x58,
+            0x01, 0x26, 0x00, 0x00, 0x00,
+            0x01, 0x0c, 0x00, 0x00, 0x00, 0x58,
+            0x01, 0x08, 0x00, 0x00, 0x00,
+            0x00,
+            0x00,
+            0x00,
+            0x00,
+            0x01, 0x3f, 0x00, 0x00, 0x00, 0x17, 0x18, 0x17,
+            0x01, 0x26, 0x00, 0x00, 0x00,
+            0x01, 0x0c, 0x00, 0x00, 0x00, 0x17,
+            0x01, 0x08, 0x00, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    // Varints of deltas, with the low bit selecting the previous index they are relative to and
+    // the next bit their sign: a run from 0 relative to the first, 1000 and 1001 relative to the
+    // second, and a step back by 3. The 4 byte tail follows.
+    private static final int[] SEQUENCE = {
+            0xd1, 0x00, 0x04, 0x04, 0x04, 0xa1, 0x1f, 0x04, 0x05, 0x04, 0x0a,
+            0x00, 0x00, 0x00, 0x00,
+    };
+    private static final int[] SEQUENCE_INDICES = {0, 1, 2, 3, 1000, 4, 1001, 5, 2};
+
+    private static final int[] ROUND_TRIP_STRIDES = {4, 8, 12, 16, 64, 256};
+    private static final int[] ROUND_TRIP_COUNTS = {1, 15, 16, 17, 255, 256, 257, 1000};
+    private static final int CORRUPTION_COUNT = 20000;
+
+    private static boolean passed = true;
+
+    private MeshoptDecoderCheck() {}
+
+    public static void main(String[] args) {
+        checkKnownEncodings();
+        checkRoundTrips();
+        checkFilters();
+        checkMalformedInput();
+        System.out.println(passed ? "All meshopt decoder checks passed"
+                : "Meshopt decoder checks failed");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void checkKnownEncodings() {
+        checkIndices("v0 triangles, 16-bit", TRIANGLES_V0, MeshoptDecoder.MODE_TRIANGLES, 2,
+                TRIANGLES_V0_INDICES);
+        checkIndices("v0 triangles, 32-bit", TRIANGLES_V0, MeshoptDecoder.MODE_TRIANGLES, 4,
+                TRIANGLES_V0_INDICES);
+        checkIndices("v0 triangles, FIFO hit 13", TRIANGLES_FIFO_13,
+                MeshoptDecoder.MODE_TRIANGLES, 2, TRIANGLES_FIFO_13_INDICES);
+        checkIndices("v1 triangles", TRIANGLES_V1, MeshoptDecoder.MODE_TRIANGLES, 4,
+                TRIANGLES_V1_INDICES);
+        checkIndices("index sequence, 16-bit", SEQUENCE, MeshoptDecoder.MODE_INDICES, 2,
+                SEQUENCE_INDICES);
+        checkIndices("index sequence, 32-bit", SEQUENCE, MeshoptDecoder.MODE_INDICES, 4,
+                SEQUENCE_INDICES);
+        try {
+            ByteBuffer decoded = decode(toBytes(VERTICES), 4, 12, MeshoptDecoder.MODE_ATTRIBUTES,
+                    MeshoptDecoder.FILTER_NONE);
+            check("vertices", ByteBuffer.wrap(toBytes(VERTICES_DECODED)).equals(decoded));
+        } catch (IOException e) {
+            fail("vertices", e);
+        }
+        // The hand assembled vertex data is what MeshoptEncoder writes too, which makes the round
+        // trips below more than the encoder agreeing with itself.
+        check("vertex encoder", Arrays.equals(toBytes(VERTICES),
+                MeshoptEncoder.encodeVertexBuffer(toBytes(VERTICES_DECODED), 4, 12)));
+    }
+
+    private static void checkRoundTrips() {
+        Random random = new Random(1);
+        for (int stride : ROUND_TRIP_STRIDES) {
+            for (int count : ROUND_TRIP_COUNTS) {
+                byte[] vertices = createVertices(random, count, stride);
+                String name = "vertices, stride " + stride + ", count " + count;
+                try {
+                    ByteBuffer decoded = decode(
+                            MeshoptEncoder.encodeVertexBuffer(vertices, count, stride), count,
+                            stride, MeshoptDecoder.MODE_ATTRIBUTES, null);
+                    check(name, ByteBuffer.wrap(vertices).equals(decoded));
+                } catch (IOException e) {
+                    fail(name, e);
+                }
+            }
+        }
+
+        for (int vertexCount : new int[] {3, 200, 70000}) {
+            int[] triangles = createTriangles(random, vertexCount);
+            byte[] encodedTriangles = MeshoptEncoder.encodeIndexBuffer(triangles);
+            int[] sequence = createSequence(random, vertexCount);
+            byte[] encodedSequence = MeshoptEncoder.encodeIndexSequence(sequence);
+            for (int indexSize = vertexCount <= 0x10000 ? 2 : 4; indexSize <= 4; indexSize += 2) {
+                String suffix = ", " + vertexCount + " vertices, " + indexSize * 8 + "-bit";
+                try {
+                    ByteBuffer decoded = decode(encodedTriangles, triangles.length, indexSize,
+                            MeshoptDecoder.MODE_TRIANGLES, null);
+                    check("triangles" + suffix, isSameTriangles(decoded, indexSize, triangles));
+                } catch (IOException e) {
+                    fail("triangles" + suffix, e);
+                }
+                checkIndices("index sequence" + suffix, encodedSequence,
+                        MeshoptDecoder.MODE_INDICES, indexSize, sequence);
+            }
+        }
+    }
+
+    private static void checkFilters() {
+        // Octahedral: x and y, and the encoding's 1.0 as the third component. The poles and the
+        // equator decode exactly; the fourth component is left alone.
+        checkFilter("octahedral, 8-bit", MeshoptDecoder.FILTER_OCTAHEDRAL, 4,
+                new int[] {0, 0, 127, 9, 127, 0, 127, -9, 0, -127, 127, 1, 127, 127, 127, 0},
+                new int[] {0, 0, 127, 9, 127, 0, 0, -9, 0, -127, 0, 1, 0, 0, -127, 0});
+        checkFilter("octahedral, 16-bit", MeshoptDecoder.FILTER_OCTAHEDRAL, 8,
+                new int[] {0, 0, 32767, 1000, -32767, 0, 32767, 7},
+                new int[] {0, 0, 32767, 1000, -32767, 0, 0, 7});
+        // Halfway between a pole and the equator: (64, 0, 63) scaled to a length of 127.
+        checkFilter("octahedral, off axis", MeshoptDecoder.FILTER_OCTAHEDRAL, 4,
+                new int[] {64, 0, 127, 0}, new int[] {round(64 * 127 / Math.hypot(64, 63)), 0,
+                        round(63 * 127 / Math.hypot(64, 63)), 0});
+
+        // Quaternion: three components scaled by the fourth's high bits, which the decoder ORs
+        // with 3, and its low two bits naming the component that was dropped.
+        int halfTurn = round(32767 * Math.sqrt(0.5));
+        checkFilter("quaternion", MeshoptDecoder.FILTER_QUATERNION, 8,
+                new int[] {0, 0, 0, 32767, 0, 0, 32767, 32767, 0, 0, 0, 32764},
+                new int[] {0, 0, 0, 32767, 0, 0, halfTurn, halfTurn, 32767, 0, 0, 0});
+
+        // Exponential: a 24-bit signed mantissa and an 8-bit signed exponent.
+        byte[] exponential = new byte[16];
+        ByteBuffer input = ByteBuffer.wrap(exponential).order(ByteOrder.LITTLE_ENDIAN);
+        input.putInt(-1 << 24 | 3).putInt(2 << 24 | (-5 & 0xFFFFFF)).putInt(0)
+                .putInt(-10 << 24 | 1024);
+        float[] expected = {1.5f, -20f, 0f, 1f};
+        try {
+            ByteBuffer decoded = decode(MeshoptEncoder.encodeVertexBuffer(exponential, 2, 8), 2,
+                    8, MeshoptDecoder.MODE_ATTRIBUTES, MeshoptDecoder.FILTER_EXPONENTIAL);
+            boolean equal = true;
+            for (int i = 0; i < expected.length; ++i) {
+                equal &= decoded.getFloat(i * 4) == expected[i];
+            }
+            check("exponential", equal);
+        } catch (IOException e) {
+            fail("exponential", e);
+        }
+
+        // Random octahedral encodings must all decode to unit vectors.
+        Random random = new Random(2);
+        int count = 256;
+        byte[] normals = new byte[count * 8];
+        ByteBuffer normalInput = ByteBuffer.wrap(normals).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; ++i) {
+            int x = random.nextInt(65535) - 32767;
+            int y = random.nextInt(65535 - 2 * Math.abs(x)) - (32767 - Math.abs(x));
+            normalInput.putShort((short) x).putShort((short) y).putShort((short) 32767)
+                    .putShort((short) 0);
+        }
+        try {
+            ByteBuffer decoded = decode(MeshoptEncoder.encodeVertexBuffer(normals, count, 8),
+                    count, 8, MeshoptDecoder.MODE_ATTRIBUTES, MeshoptDecoder.FILTER_OCTAHEDRAL);
+            boolean unit = true;
+            for (int i = 0; i < count; ++i) {
+                double x = decoded.getShort(i * 8);
+                double y = decoded.getShort(i * 8 + 2);
+                double z = decoded.getShort(i * 8 + 4);
+                unit &= Math.abs(Math.sqrt(x * x + y * y + z * z) - 32767) < 2;
+            }
+            check("octahedral, unit length", unit);
+        } catch (IOException e) {
+            fail("octahedral, unit length", e);
+        }
+    }
+
+    private static void checkMalformedInput() {
+        byte[] triangles = toBytes(TRIANGLES_V0);
+        byte[] vertices = toBytes(VERTICES);
+        byte[] sequence = toBytes(SEQUENCE);
+        for (int length = 0; length < triangles.length; ++length) {
+            expectFailure("triangles truncated to " + length, Arrays.copyOf(triangles, length),
+                    TRIANGLES_V0_INDICES.length, 2, MeshoptDecoder.MODE_TRIANGLES, null);
+        }
+        for (int length = 0; length < vertices.length; ++length) {
+            expectFailure("vertices truncated to " + length, Arrays.copyOf(vertices, length), 4,
+                    12, MeshoptDecoder.MODE_ATTRIBUTES, null);
+        }
+        for (int length = 0; length < sequence.length; ++length) {
+            expectFailure("sequence truncated to " + length, Arrays.copyOf(sequence, length),
+                    SEQUENCE_INDICES.length, 2, MeshoptDecoder.MODE_INDICES, null);
+        }
+        // Trailing bytes are as malformed as missing ones.
+        expectFailure("triangles with a trailing byte",
+                Arrays.copyOf(triangles, triangles.length + 1), TRIANGLES_V0_INDICES.length, 2,
+                MeshoptDecoder.MODE_TRIANGLES, null);
+        expectFailure("vertices with a trailing byte", Arrays.copyOf(vertices, vertices.length + 1),
+                4, 12, MeshoptDecoder.MODE_ATTRIBUTES, null);
+        expectFailure("sequence with a trailing byte", Arrays.copyOf(sequence, sequence.length + 1),
+                SEQUENCE_INDICES.length, 2, MeshoptDecoder.MODE_INDICES, null);
+
+        expectFailure("triangles version 2", withHeader(triangles, 0xe2),
+                TRIANGLES_V0_INDICES.length, 2, MeshoptDecoder.MODE_TRIANGLES, null);
+        expectFailure("vertices version 1", withHeader(vertices, 0xa1), 4, 12,
+                MeshoptDecoder.MODE_ATTRIBUTES, null);
+        expectFailure("sequence version 2", withHeader(sequence, 0xd2), SEQUENCE_INDICES.length,
+                2, MeshoptDecoder.MODE_INDICES, null);
+        expectFailure("triangles as vertices", triangles, 4, 12, MeshoptDecoder.MODE_ATTRIBUTES,
+                null);
+
+        expectFailure("unknown mode", vertices, 4, 12, "STRIPS", null);
+        expectFailure("unknown filter", vertices, 4, 12, MeshoptDecoder.MODE_ATTRIBUTES, "LOG");
+        expectFailure("octahedral stride 12", vertices, 4, 12, MeshoptDecoder.MODE_ATTRIBUTES,
+                MeshoptDecoder.FILTER_OCTAHEDRAL);
+        expectFailure("quaternion stride 12", vertices, 4, 12, MeshoptDecoder.MODE_ATTRIBUTES,
+                MeshoptDecoder.FILTER_QUATERNION);
+        for (int stride : new int[] {-4, 0, 6, 260}) {
+            expectFailure("vertex stride " + stride, vertices, 4, stride,
+                    MeshoptDecoder.MODE_ATTRIBUTES, null);
+        }
+        expectFailure("triangle index stride 1", triangles, TRIANGLES_V0_INDICES.length, 1,
+                MeshoptDecoder.MODE_TRIANGLES, null);
+        expectFailure("partial triangle", triangles, TRIANGLES_V0_INDICES.length - 1, 2,
+                MeshoptDecoder.MODE_TRIANGLES, null);
+        expectFailure("sequence index stride 8", sequence, SEQUENCE_INDICES.length, 8,
+                MeshoptDecoder.MODE_INDICES, null);
+        expectFailure("negative count", sequence, -1, 2, MeshoptDecoder.MODE_INDICES, null);
+        expectFailure("overflowing count", vertices, Integer.MAX_VALUE / 4, 12,
+                MeshoptDecoder.MODE_ATTRIBUTES, null);
+
+        // Changed bytes may still decode to something, but must never fail any other way.
+        Random random = new Random(3);
+        byte[] roundTripVertices = MeshoptEncoder.encodeVertexBuffer(
+                createVertices(random, 300, 16), 300, 16);
+        int[] meshTriangles = createTriangles(random, 200);
+        byte[] roundTripTriangles = MeshoptEncoder.encodeIndexBuffer(meshTriangles);
+        int[] meshSequence = createSequence(random, 200);
+        byte[] roundTripSequence = MeshoptEncoder.encodeIndexSequence(meshSequence);
+        for (int i = 0; i < CORRUPTION_COUNT; ++i) {
+            checkCorrupted(random, triangles, TRIANGLES_V0_INDICES.length, 2,
+                    MeshoptDecoder.MODE_TRIANGLES);
+            checkCorrupted(random, vertices, 4, 12, MeshoptDecoder.MODE_ATTRIBUTES);
+            checkCorrupted(random, sequence, SEQUENCE_INDICES.length, 4,
+                    MeshoptDecoder.MODE_INDICES);
+            checkCorrupted(random, roundTripVertices, 300, 16, MeshoptDecoder.MODE_ATTRIBUTES);
+            checkCorrupted(random, roundTripTriangles, meshTriangles.length, 4,
+                    MeshoptDecoder.MODE_TRIANGLES);
+            checkCorrupted(random, roundTripSequence, meshSequence.length, 2,
+                    MeshoptDecoder.MODE_INDICES);
+        }
+    }
+
+    private static void checkIndices(String name, int[] encoded, String mode, int indexSize,
+            int[] expected) {
+        checkIndices(name, toBytes(encoded), mode, indexSize, expected);
+    }
+
+    private static void checkIndices(String name, byte[] encoded, String mode, int indexSize,
+            int[] expected) {
+        try {
+            ByteBuffer decoded = decode(encoded, expected.length, indexSize, mode, null);
+            boolean equal = true;
+            for (int i = 0; i < expected.length; ++i) {
+                equal &= readIndex(decoded, i, indexSize) == expected[i];
+            }
+            check(name, equal);
+        } catch (IOException e) {
+            fail(name, e);
+        }
+    }
+
+    private static void checkFilter(String name, String filter, int stride, int[] input,
+            int[] expected) {
+        int componentSize = stride == 4 ? 1 : 2;
+        int count = input.length * componentSize / stride;
+        ByteBuffer data = ByteBuffer.allocate(input.length * componentSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int value : input) {
+            if (componentSize == 1) {
+                data.put((byte) value);
+            } else {
+                data.putShort((short) value);
+            }
+        }
+        try {
+            ByteBuffer decoded = decode(MeshoptEncoder.encodeVertexBuffer(data.array(), count,
+                    stride), count, stride, MeshoptDecoder.MODE_ATTRIBUTES, filter);
+            boolean equal = true;
+            for (int i = 0; i < expected.length; ++i) {
+                int value = componentSize == 1 ? decoded.get(i) : decoded.getShort(i * 2);
+                equal &= value == expected[i];
+            }
+            check(name, equal);
+        } catch (IOException e) {
+            fail(name, e);
+        }
+    }
+
+    private static void checkCorrupted(Random random, byte[] encoded, int count, int byteStride,
+            String mode) {
+        byte[] corrupted = encoded.clone();
+        int changeCount = 1 + random.nextInt(4);
+        for (int i = 0; i < changeCount; ++i) {
+            corrupted[random.nextInt(corrupted.length)] = (byte) random.nextInt(256);
+        }
+        try {
+            decode(corrupted, count, byteStride, mode, null);
+        } catch (IOException e) {
+            // Expected for most changes.
+        } catch (RuntimeException e) {
+            fail(mode.toLowerCase() + " with changed bytes " + Arrays.toString(corrupted), e);
+        }
+    }
+
+    private static void expectFailure(String name, byte[] encoded, int count, int byteStride,
+            String mode, String filter) {
+        try {
+            decode(encoded, count, byteStride, mode, filter);
+            fail(name, null);
+        } catch (IOException e) {
+            // Expected.
+        } catch (RuntimeException e) {
+            fail(name, e);
+        }
+    }
+
+    private static ByteBuffer decode(byte[] encoded, int count, int byteStride, String mode,
+            String filter) throws IOException {
+        return MeshoptDecoder.decode(ByteBuffer.wrap(encoded), count, byteStride, mode, filter)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // The triangle codec may rotate triangles, which keeps them the same.
+    private static boolean isSameTriangles(ByteBuffer decoded, int indexSize, int[] indices) {
+        for (int offset = 0; offset < indices.length; offset += 3) {
+            int a = readIndex(decoded, offset, indexSize);
+            int b = readIndex(decoded, offset + 1, indexSize);
+            int c = readIndex(decoded, offset + 2, indexSize);
+            boolean same = false;
+            for (int rotation = 0; rotation < 3 && !same; ++rotation) {
+                same = indices[offset] == a && indices[offset + 1] == b
+                        && indices[offset + 2] == c;
+                int first = a;
+                a = b;
+                b = c;
+                c = first;
+            }
+            if (!same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readIndex(ByteBuffer decoded, int index, int indexSize) {
+        return indexSize == 2 ? decoded.getShort(index * 2) & 0xFFFF : decoded.getInt(index * 4);
+    }
+
+    // Vertices that drift a little from each other, as attributes of neighbouring vertices do,
+    // with every few bytes random so that all group widths occur.
+    private static byte[] createVertices(Random random, int count, int stride) {
+        byte[] vertices = new byte[count * stride];
+        random.nextBytes(vertices);
+        for (int i = stride; i < vertices.length; ++i) {
+            if (i % 5 != 0) {
+                vertices[i] = (byte) (vertices[i - stride] + random.nextInt(7) - 3);
+            }
+        }
+        return vertices;
+    }
+
+    // Triangles that mostly share vertices with recent ones, with some jumps and reused vertices
+    // far back, so that every code of the triangle codec occurs.
+    private static int[] createTriangles(Random random, int vertexCount) {
+        int[] indices = new int[Math.max(vertexCount, 3) * 3];
+        int next = 0;
+        for (int i = 0; i < indices.length; ++i) {
+            int choice = random.nextInt(8);
+            if (choice < 3 && i >= 3) {
+                indices[i] = indices[i - 1 - random.nextInt(Math.min(i, 30))];
+            } else if (choice == 3) {
+                indices[i] = random.nextInt(vertexCount);
+            } else {
+                indices[i] = next;
+                next = (next + 1) % vertexCount;
+            }
+            // A triangle needs three different vertices.
+            while (i % 3 != 0 && (indices[i] == indices[i - 1]
+                    || (i % 3 == 2 && indices[i] == indices[i - 2]))) {
+                indices[i] = random.nextInt(vertexCount);
+            }
+        }
+        return indices;
+    }
+
+    private static int[] createSequence(Random random, int vertexCount) {
+        int[] indices = new int[vertexCount * 2];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = random.nextInt(4) == 0 ? random.nextInt(vertexCount) : i / 2;
+        }
+        return indices;
+    }
+
+    private static void check(String name, boolean condition) {
+        if (!condition) {
+            fail(name, null);
+        }
+    }
+
+    private static void fail(String name, Exception e) {
+        passed = false;
+        System.out.println("FAILED: " + name + (e != null ? ": " + e : ""));
+    }
+
+    private static int round(double value) {
+        return (int) Math.round(value);
+    }
+
+    private static byte[] toBytes(int[] values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] withHeader(byte[] encoded, int header) {
+        byte[] changed = encoded.clone();
+        changed[0] = (byte) header;
+        return changed;
+    }
+}
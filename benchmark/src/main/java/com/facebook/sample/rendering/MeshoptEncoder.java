@@ -0,0 +1,338 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes data for MeshoptDecoder with the three codecs of EXT_meshopt_compression, so that the
+ * decoder can be measured on generated meshes. It makes the same choices as meshoptimizer's
+ * encoders where they matter to the decoder, the group bit widths and the FIFO hits, but doesn't
+ * search as hard for the smallest output.
+ */
+final class MeshoptEncoder {
+    private static final int VERTEX_HEADER = 0xa0;
+    private static final int INDEX_HEADER = 0xe1;
+    private static final int SEQUENCE_HEADER = 0xd1;
+
+    private static final int VERTEX_BLOCK_SIZE_BYTES = 8192;
+    private static final int VERTEX_BLOCK_MAX_SIZE = 256;
+    private static final int BYTE_GROUP_SIZE = 16;
+    private static final int TAIL_MAX_SIZE = 32;
+
+    // Version 1 of the triangle codec: vertex FIFO hits from 13 on are explicit indices.
+    private static final int FEC_MAX = 13;
+    // meshoptimizer's table of the codeaux values of codes 0xf0 to 0xfd. Only the first one, for
+    // three new vertices, is used here, but the decoder reads them all from the end of the data.
+    private static final byte[] CODEAUX_TABLE = {
+            0x00, 0x76, (byte) 0x87, 0x56, 0x67, 0x78, (byte) 0xa9, (byte) 0x86,
+            0x65, (byte) 0x89, 0x68, (byte) 0x98, 0x01, 0x69, 0x00, 0x00,
+    };
+    private static final int SEQUENCE_TAIL_SIZE = 4;
+
+    private MeshoptEncoder() {}
+
+    /** Encodes {@code vertexCount} vertices of {@code vertexSize} bytes for MODE_ATTRIBUTES. */
+    static byte[] encodeVertexBuffer(byte[] vertices, int vertexCount, int vertexSize) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(VERTEX_HEADER);
+        byte[] lastVertex = Arrays.copyOf(vertices, vertexSize);
+        int blockSize = Math.min(
+                (VERTEX_BLOCK_SIZE_BYTES / vertexSize) & ~(BYTE_GROUP_SIZE - 1),
+                VERTEX_BLOCK_MAX_SIZE);
+        byte[] deltas = new byte[VERTEX_BLOCK_MAX_SIZE];
+        for (int vertexOffset = 0; vertexOffset < vertexCount; vertexOffset += blockSize) {
+            int blockCount = Math.min(blockSize, vertexCount - vertexOffset);
+            int alignedCount = (blockCount + BYTE_GROUP_SIZE - 1) & ~(BYTE_GROUP_SIZE - 1);
+            for (int k = 0; k < vertexSize; ++k) {
+                int previous = lastVertex[k];
+                Arrays.fill(deltas, (byte) 0);
+                for (int i = 0; i < blockCount; ++i) {
+                    int value = vertices[(vertexOffset + i) * vertexSize + k];
+                    int delta = (byte) (value - previous);
+                    deltas[i] = (byte) ((delta << 1) ^ (delta >> 7));
+                    previous = value;
+                }
+                lastVertex[k] = (byte) previous;
+                encodeBytes(output, deltas, alignedCount);
+            }
+        }
+        // The tail holds the first vertex, which the first deltas are relative to.
+        int tailSize = Math.max(vertexSize, TAIL_MAX_SIZE);
+        for (int i = vertexSize; i < tailSize; ++i) {
+            output.write(0);
+        }
+        output.write(vertices, 0, vertexSize);
+        return output.toByteArray();
+    }
+
+    // Packs each group of 16 deltas with the bit width that stores it in the fewest bytes.
+    private static void encodeBytes(ByteArrayOutputStream output, byte[] deltas, int count) {
+        byte[] header = new byte[(count / BYTE_GROUP_SIZE + 3) / 4];
+        ByteArrayOutputStream groups = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i += BYTE_GROUP_SIZE) {
+            int bitsLog2 = 0;
+            int bestSize = getGroupSize(deltas, i, 0);
+            for (int candidate = 1; candidate < 4; ++candidate) {
+                int size = getGroupSize(deltas, i, 1 << candidate);
+                if (size < bestSize) {
+                    bitsLog2 = candidate;
+                    bestSize = size;
+                }
+            }
+            int group = i / BYTE_GROUP_SIZE;
+            header[group / 4] |= bitsLog2 << ((group % 4) * 2);
+            if (bitsLog2 == 3) {
+                groups.write(deltas, i, BYTE_GROUP_SIZE);
+            } else if (bitsLog2 > 0) {
+                encodeBytesGroup(groups, deltas, i, 1 << bitsLog2);
+            }
+        }
+        output.write(header, 0, header.length);
+        byte[] packed = groups.toByteArray();
+        output.write(packed, 0, packed.length);
+    }
+
+    // The bytes a group takes at a bit width, MAX_VALUE at 0 bits unless all its deltas are 0.
+    private static int getGroupSize(byte[] deltas, int offset, int bits) {
+        if (bits == 0) {
+            for (int k = 0; k < BYTE_GROUP_SIZE; ++k) {
+                if (deltas[offset + k] != 0) {
+                    return Integer.MAX_VALUE;
+                }
+            }
+            return 0;
+        }
+        if (bits == 8) {
+            return BYTE_GROUP_SIZE;
+        }
+        int sentinel = (1 << bits) - 1;
+        int size = BYTE_GROUP_SIZE * bits / 8;
+        for (int k = 0; k < BYTE_GROUP_SIZE; ++k) {
+            if ((deltas[offset + k] & 0xFF) >= sentinel) {
+                ++size;
+            }
+        }
+        return size;
+    }
+
+    private static void encodeBytesGroup(ByteArrayOutputStream output, byte[] deltas, int offset,
+            int bits) {
+        int sentinel = (1 << bits) - 1;
+        int perByte = 8 / bits;
+        byte[] packed = new byte[BYTE_GROUP_SIZE / perByte];
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+        for (int k = 0; k < BYTE_GROUP_SIZE; ++k) {
+            int value = deltas[offset + k] & 0xFF;
+            if (value >= sentinel) {
+                extra.write(value);
+                value = sentinel;
+            }
+            packed[k / perByte] |= value << (8 - bits * (k % perByte + 1));
+        }
+        output.write(packed, 0, packed.length);
+        byte[] extraBytes = extra.toByteArray();
+        output.write(extraBytes, 0, extraBytes.length);
+    }
+
+    /**
+     * Encodes a triangle list for MODE_TRIANGLES. Triangles may come out rotated, which keeps
+     * their winding.
+     */
+    static byte[] encodeIndexBuffer(int[] indices) {
+        int triangleCount = indices.length / 3;
+        byte[] codes = new byte[triangleCount];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] edgeFifo = new int[32];
+        int[] vertexFifo = new int[16];
+        Arrays.fill(edgeFifo, -1);
+        Arrays.fill(vertexFifo, -1);
+        int edgeFifoOffset = 0;
+        int vertexFifoOffset = 0;
+        int next = 0;
+        int last = 0;
+
+        for (int t = 0; t < triangleCount; ++t) {
+            int a = indices[t * 3];
+            int b = indices[t * 3 + 1];
+            int c = indices[t * 3 + 2];
+            int edge = -1;
+            for (int rotation = 0; rotation < 3 && edge < 0; ++rotation) {
+                edge = getEdgeFifo(edgeFifo, a, b, edgeFifoOffset);
+                if (edge < 0) {
+                    int first = a;
+                    a = b;
+                    b = c;
+                    c = first;
+                }
+            }
+
+            if (edge >= 0) {
+                int fec;
+                if (c == next) {
+                    fec = 0;
+                    ++next;
+                } else {
+                    fec = getVertexFifo(vertexFifo, c, vertexFifoOffset, 1);
+                    if (fec < 1 || fec >= FEC_MAX) {
+                        fec = c == last - 1 ? 13 : c == last + 1 ? 14 : 15;
+                        if (fec == 15) {
+                            writeVByte(data, zigzag(c - last));
+                        }
+                        last = c;
+                    }
+                }
+                if (fec == 0 || fec >= FEC_MAX) {
+                    vertexFifo[vertexFifoOffset] = c;
+                    vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                }
+                codes[t] = (byte) ((edge << 4) | fec);
+                edgeFifo[edgeFifoOffset * 2] = c;
+                edgeFifo[edgeFifoOffset * 2 + 1] = b;
+                edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+            } else {
+                // Rotates a new vertex first, if there is one, to save its explicit index.
+                for (int rotation = 0; rotation < 3 && a != next; ++rotation) {
+                    int first = a;
+                    a = b;
+                    b = c;
+                    c = first;
+                }
+                int fea = a == next ? 0 : 15;
+                int nextAfterA = fea == 0 ? next + 1 : next;
+                int feb = b == nextAfterA ? 0 : getFreeFifoCode(vertexFifo, b, vertexFifoOffset);
+                int nextAfterB = feb == 0 ? nextAfterA + 1 : nextAfterA;
+                int fec = c == nextAfterB ? 0 : getFreeFifoCode(vertexFifo, c, vertexFifoOffset);
+                // A codeaux of 0 after 0xff restarts the new vertices from 0.
+                if (fea == 15 && feb == 0 && fec == 0) {
+                    feb = 15;
+                    fec = 15;
+                }
+                if (fea == 0 && feb == 0 && fec == 0) {
+                    codes[t] = (byte) 0xf0;
+                } else {
+                    codes[t] = (byte) (fea == 0 ? 0xfe : 0xff);
+                    data.write((feb << 4) | fec);
+                }
+                next = fea == 0 ? next + 1 : next;
+                next = feb == 0 ? next + 1 : next;
+                next = fec == 0 ? next + 1 : next;
+                if (fea == 15) {
+                    writeVByte(data, zigzag(a - last));
+                    last = a;
+                }
+                if (feb == 15) {
+                    writeVByte(data, zigzag(b - last));
+                    last = b;
+                }
+                if (fec == 15) {
+                    writeVByte(data, zigzag(c - last));
+                    last = c;
+                }
+                vertexFifo[vertexFifoOffset] = a;
+                vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                vertexFifo[vertexFifoOffset] = b;
+                if (feb == 0 || feb == 15) {
+                    vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                }
+                vertexFifo[vertexFifoOffset] = c;
+                if (fec == 0 || fec == 15) {
+                    vertexFifoOffset = (vertexFifoOffset + 1) & 15;
+                }
+                edgeFifo[edgeFifoOffset * 2] = b;
+                edgeFifo[edgeFifoOffset * 2 + 1] = a;
+                edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+                edgeFifo[edgeFifoOffset * 2] = c;
+                edgeFifo[edgeFifoOffset * 2 + 1] = b;
+                edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+            }
+            edgeFifo[edgeFifoOffset * 2] = a;
+            edgeFifo[edgeFifoOffset * 2 + 1] = c;
+            edgeFifoOffset = (edgeFifoOffset + 1) & 15;
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(INDEX_HEADER);
+        output.write(codes, 0, codes.length);
+        byte[] dataBytes = data.toByteArray();
+        output.write(dataBytes, 0, dataBytes.length);
+        output.write(CODEAUX_TABLE, 0, CODEAUX_TABLE.length);
+        return output.toByteArray();
+    }
+
+    // How many edges back a..b was pushed, or -1. The 16th edge back isn't used, as its codes
+    // would be the 0xf0 to 0xff of triangles without a known edge.
+    private static int getEdgeFifo(int[] fifo, int a, int b, int offset) {
+        for (int i = 0; i < 15; ++i) {
+            int index = (offset - 1 - i) & 15;
+            if (fifo[index * 2] == a && fifo[index * 2 + 1] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // How many vertices back, from first on, v was pushed, or -1.
+    private static int getVertexFifo(int[] fifo, int v, int offset, int first) {
+        for (int i = first; i < 16; ++i) {
+            if (fifo[(offset - 1 - i) & 15] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The code of v among the vertices of a triangle without a known edge, whose FIFO lookups
+    // are made before its first vertex is pushed: 1 to 14 for a hit, 15 for an explicit index.
+    private static int getFreeFifoCode(int[] fifo, int v, int offset) {
+        int back = getVertexFifo(fifo, v, offset, 0);
+        return back >= 0 && back < 14 ? back + 1 : 15;
+    }
+
+    /** Encodes a sequence of indices for MODE_INDICES. */
+    static byte[] encodeIndexSequence(int[] indices) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(SEQUENCE_HEADER);
+        int[] last = new int[2];
+        int current = 0;
+        for (int index : indices) {
+            // Stays on the baseline of the previous index unless the other one is closer.
+            int other = current ^ 1;
+            if (Math.abs((long) index - last[other]) < Math.abs((long) index - last[current])) {
+                current = other;
+            }
+            int delta = index - last[current];
+            writeVByte(output, (zigzag(delta) << 1) | current);
+            last[current] = index;
+        }
+        for (int i = 0; i < SEQUENCE_TAIL_SIZE; ++i) {
+            output.write(0);
+        }
+        return output.toByteArray();
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static void writeVByte(ByteArrayOutputStream output, int value) {
+        while ((value & ~127) != 0) {
+            output.write((value & 127) | 128);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+}
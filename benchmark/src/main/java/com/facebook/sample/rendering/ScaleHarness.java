@@ -0,0 +1,330 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import com.facebook.sample.gles.GLBackend;
+import com.facebook.sample.gles.RecordingGL;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Loads synthetic scenes of growing size headless, with GL calls recorded, and fails when the
+ * time a load takes, or the buffer data it uploads, grows faster than the scene.
+ *
+ * Each variant of {@link SyntheticScene} is generated at every size in {@link #NODE_COUNTS}, then
+ * read with SampleGLTFReader alone, and loaded in full by a renderer: read, prepared into render
+ * objects, instantiated and uploaded. The best time of a few runs is kept. Memory is measured
+ * twice: exactly, as the bytes of buffers and textures the load hands to GL, and as the median of
+ * the heap a loaded renderer retains over a few loads. The results are printed as a table with a
+ * chart of the load times, and written to scale.csv in the report directory.
+ *
+ * The growth exponent of each measure is the slope of a least squares fit of log measure against
+ * log node count, from {@link #MIN_FIT_NODE_COUNT} nodes on, where fixed costs no longer dominate.
+ * Linear growth has an exponent of 1; times or uploaded bytes above their maximum exit with
+ * status 1. The retained heap depends on the collector, and off-heap buffers escape it, so its
+ * exponent is reported but not checked.
+ *
+ * Usage: ScaleHarness [reportDirectory]
+ */
+final class ScaleHarness {
+    private static final int[] NODE_COUNTS = {1024, 4096, 16384, 65536};
+    private static final int MIN_FIT_NODE_COUNT = 4096;
+    // Above 1 for measurement noise and for collections growing by doubling, and well below the
+    // 2 of quadratic growth.
+    private static final double MAX_TIME_EXPONENT = 1.4;
+    private static final double MAX_UPLOAD_EXPONENT = 1.1;
+    private static final int WARMUP_RUN_COUNT = 5;
+    private static final int RUN_COUNT = 3;
+    private static final int HEAP_SAMPLE_COUNT = 5;
+    private static final int GC_COUNT = 4;
+    private static final long GC_PAUSE_MS = 20;
+    private static final int CHART_WIDTH = 40;
+
+    private static final class Variant {
+        final String label;
+        final int depth;
+        final int meshReuse;
+        final int vertexCount;
+        final int indexBits;
+        final boolean externalBuffer;
+        final boolean binary;
+
+        Variant(String label, int depth, int meshReuse, int vertexCount, int indexBits,
+                boolean externalBuffer, boolean binary) {
+            this.label = label;
+            this.depth = depth;
+            this.meshReuse = meshReuse;
+            this.vertexCount = vertexCount;
+            this.indexBits = indexBits;
+            this.externalBuffer = externalBuffer;
+            this.binary = binary;
+        }
+
+        SyntheticScene create(int nodeCount) {
+            return new SyntheticScene(nodeCount)
+                    .setDepth(depth)
+                    .setMeshReuse(meshReuse)
+                    .setVertexCount(vertexCount)
+                    .setIndexBits(indexBits)
+                    .setExternalBuffer(externalBuffer)
+                    .setBinary(binary);
+        }
+    }
+
+    private static final Variant[] VARIANTS = {
+            new Variant("glTF, embedded buffer", 8, 4, 4, 16, false, false),
+            new Variant("GLB, 8-bit indices", 8, 4, 64, 8, false, true),
+            new Variant("glTF, external buffer, 32-bit indices, no mesh reuse", 8, 1, 16, 32,
+                    true, false),
+            new Variant("GLB, external buffer, 256 levels deep", 256, 16, 4, 16, true, true),
+    };
+
+    private ScaleHarness() {}
+
+    public static void main(String[] args) throws IOException {
+        File reportDirectory = new File(args.length > 0 ? args[0] : "build/reports/scale");
+        RecordingGL gl = new RecordingGL();
+        GLBackend.set(gl);
+
+        // Compiles the hot paths before the small scenes are measured, which would otherwise
+        // make growth look slower than it is.
+        SyntheticScene warmupScene = VARIANTS[0].create(MIN_FIT_NODE_COUNT);
+        MemoryAssetSource warmupSource = new MemoryAssetSource();
+        warmupScene.writeTo(warmupSource);
+        for (int run = 0; run < WARMUP_RUN_COUNT; ++run) {
+            read(warmupScene, warmupSource);
+            load(warmupScene, warmupSource).release();
+            gl.reset();
+        }
+
+        StringBuilder csv = new StringBuilder(
+                "variant,nodes,meshes,file_bytes,read_ms,load_ms,uploaded_bytes,heap_bytes\n");
+        boolean passed = true;
+        for (Variant variant : VARIANTS) {
+            int sizeCount = NODE_COUNTS.length;
+            double[] readMs = new double[sizeCount];
+            double[] loadMs = new double[sizeCount];
+            double[] uploadedBytes = new double[sizeCount];
+            double[] heapBytes = new double[sizeCount];
+            int[] meshCounts = new int[sizeCount];
+            long[] fileBytes = new long[sizeCount];
+            for (int i = 0; i < sizeCount; ++i) {
+                SyntheticScene scene = variant.create(NODE_COUNTS[i]);
+                MemoryAssetSource source = new MemoryAssetSource();
+                for (Map.Entry<String, byte[]> file : scene.createFiles().entrySet()) {
+                    source.put(file.getKey(), file.getValue());
+                    fileBytes[i] += file.getValue().length;
+                }
+                meshCounts[i] = scene.getMeshCount();
+
+                // The first run of each is left out.
+                readMs[i] = Double.MAX_VALUE;
+                for (int run = 0; run <= RUN_COUNT; ++run) {
+                    long start = System.nanoTime();
+                    read(scene, source);
+                    double ms = (System.nanoTime() - start) / 1e6;
+                    if (run > 0) {
+                        readMs[i] = Math.min(readMs[i], ms);
+                    }
+                }
+                loadMs[i] = Double.MAX_VALUE;
+                for (int run = 0; run <= RUN_COUNT; ++run) {
+                    long start = System.nanoTime();
+                    SampleGLTFRenderer renderer = load(scene, source);
+                    double ms = (System.nanoTime() - start) / 1e6;
+                    if (run > 0) {
+                        loadMs[i] = Math.min(loadMs[i], ms);
+                    }
+                    renderer.release();
+                    gl.reset();
+                }
+
+                gl.reset();
+                load(scene, source).release();
+                uploadedBytes[i] = gl.getUploadedBytes();
+                gl.reset();
+                heapBytes[i] = getRetainedHeap(scene, source, gl);
+            }
+
+            System.out.println();
+            System.out.println(variant.label);
+            System.out.println(String.format(Locale.US, "%8s %8s %11s %10s %10s %11s %11s",
+                    "nodes", "meshes", "file bytes", "read ms", "load ms", "uploaded", "heap"));
+            double maxLoadMs = 0;
+            for (double ms : loadMs) {
+                maxLoadMs = Math.max(maxLoadMs, ms);
+            }
+            for (int i = 0; i < sizeCount; ++i) {
+                StringBuilder bar = new StringBuilder(" |");
+                for (int c = 0; c < Math.round(loadMs[i] / maxLoadMs * CHART_WIDTH); ++c) {
+                    bar.append('#');
+                }
+                boolean heapKnown = !Double.isNaN(heapBytes[i]);
+                String heap = heapKnown ? Long.toString((long) heapBytes[i]) : "n/a";
+                System.out.println(String.format(Locale.US, "%8d %8d %11d %10.2f %10.2f %11d %11s",
+                        NODE_COUNTS[i], meshCounts[i], fileBytes[i], readMs[i], loadMs[i],
+                        (long) uploadedBytes[i], heap) + bar);
+                csv.append(String.format(Locale.US, "\"%s\",%d,%d,%d,%.3f,%.3f,%d,%s\n",
+                        variant.label, NODE_COUNTS[i], meshCounts[i], fileBytes[i], readMs[i],
+                        loadMs[i], (long) uploadedBytes[i], heapKnown ? heap : ""));
+            }
+            passed &= checkGrowth("read time", readMs, MAX_TIME_EXPONENT);
+            passed &= checkGrowth("load time", loadMs, MAX_TIME_EXPONENT);
+            passed &= checkGrowth("uploaded bytes", uploadedBytes, MAX_UPLOAD_EXPONENT);
+            reportGrowth("retained heap", heapBytes);
+        }
+
+        if (!reportDirectory.isDirectory() && !reportDirectory.mkdirs()) {
+            throw new IOException("Can't create " + reportDirectory);
+        }
+        File report = new File(reportDirectory, "scale.csv");
+        OutputStream output = new FileOutputStream(report);
+        try {
+            output.write(csv.toString().getBytes(Charset.forName("UTF-8")));
+        } finally {
+            output.close();
+        }
+        System.out.println();
+        System.out.println("Wrote " + report);
+        if (!passed) {
+            System.err.println("Loading grows super-linearly with scene size");
+        }
+        // The renderer's loader threads don't keep the JVM alive, but exit for the status.
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static SampleGLTFReader.GLTFScene read(SyntheticScene scene,
+            MemoryAssetSource source) throws IOException {
+        String name = scene.getName();
+        SampleGLTFReader.BufferResolver resolver = new AssetBufferResolver(source, name);
+        if (name.endsWith(".glb")) {
+            return SampleGLTFReader.readBinary(source.map(name), resolver, null);
+        }
+        return SampleGLTFReader.read(source.open(name), resolver, null);
+    }
+
+    // Loads the scene into a new renderer with an asset cache of its own, so that nothing is
+    // found cached from an earlier run.
+    private static SampleGLTFRenderer load(SyntheticScene scene, MemoryAssetSource source)
+            throws IOException {
+        SampleGLTFRenderer renderer = new SampleGLTFRenderer();
+        renderer.setAssetCache(new GLTFAssetCache());
+        renderer.createOnGlThread(source, scene.getName());
+        return renderer;
+    }
+
+    // Returns the median of the heap a loaded renderer retains over a few loads, or NaN if fewer
+    // than half of the samples are usable. A sample that isn't positive is a measurement error,
+    // such as garbage of the previous load outliving the collections, and is dropped.
+    private static double getRetainedHeap(SyntheticScene scene, MemoryAssetSource source,
+            RecordingGL gl) throws IOException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long[] samples = new long[HEAP_SAMPLE_COUNT];
+        int sampleCount = 0;
+        for (int run = 0; run < HEAP_SAMPLE_COUNT; ++run) {
+            long retained = getRetainedHeapSample(memory, scene, source, gl);
+            if (retained > 0) {
+                samples[sampleCount++] = retained;
+            } else {
+                System.err.println("Dropped heap sample of " + retained + " bytes for "
+                        + scene.getName());
+            }
+        }
+        if (sampleCount * 2 < HEAP_SAMPLE_COUNT) {
+            return Double.NaN;
+        }
+        Arrays.sort(samples, 0, sampleCount);
+        return samples[sampleCount / 2];
+    }
+
+    // In a frame of its own, so that the renderer of the previous sample, which an interpreted
+    // frame would keep alive in its local, is garbage by the time the heap is measured.
+    private static long getRetainedHeapSample(MemoryMXBean memory, SyntheticScene scene,
+            MemoryAssetSource source, RecordingGL gl) throws IOException {
+        long before = getUsedHeap(memory);
+        SampleGLTFRenderer renderer = load(scene, source);
+        gl.reset();
+        long retained = getUsedHeap(memory) - before;
+        renderer.release();
+        gl.reset();
+        return retained;
+    }
+
+    // Returns the least heap in use over a few collections. The loader threads let go of what
+    // they hold only once they are idle again, so the collections are spaced out for them to
+    // get there, rather than repeated until one frees nothing.
+    private static long getUsedHeap(MemoryMXBean memory) {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < GC_COUNT; ++i) {
+            memory.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+            try {
+                Thread.sleep(GC_PAUSE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return used;
+    }
+
+    private static boolean checkGrowth(String measure, double[] values, double maxExponent) {
+        double exponent = getGrowthExponent(values);
+        boolean passed = exponent <= maxExponent;
+        System.out.println(String.format(Locale.US, "%s grows as nodes^%.2f%s", measure,
+                exponent, passed ? "" : String.format(Locale.US, ", FAILED: over %.2f",
+                        maxExponent)));
+        return passed;
+    }
+
+    private static void reportGrowth(String measure, double[] values) {
+        double exponent = getGrowthExponent(values);
+        System.out.println(Double.isNaN(exponent)
+                ? measure + " has too few usable samples to fit"
+                : String.format(Locale.US, "%s grows as nodes^%.2f, not checked", measure,
+                        exponent));
+    }
+
+    // The slope of the least squares fit, NaN if any of the values fitted is.
+    private static double getGrowthExponent(double[] values) {
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumXY = 0;
+        int count = 0;
+        for (int i = 0; i < NODE_COUNTS.length; ++i) {
+            if (NODE_COUNTS[i] < MIN_FIT_NODE_COUNT) {
+                continue;
+            }
+            double x = Math.log(NODE_COUNTS[i]);
+            double y = Math.log(values[i]);
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+            ++count;
+        }
+        return (count * sumXY - sumX * sumY) / (count * sumXX - sumX * sumX);
+    }
+}
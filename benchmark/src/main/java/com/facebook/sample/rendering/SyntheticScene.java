@@ -0,0 +1,420 @@
+/**
+ * Copyright 2018 Facebook Inc. All Rights Reserved.
+ *
+ * Licensed under the Creative Commons CC BY-NC 4.0 Attribution-NonCommercial
+ * License (the "License"). You may obtain a copy of the License at
+ * https://creativecommons.org/licenses/by-nc/4.0/.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.sample.rendering;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes valid glTF and GLB files of any size, for measuring how loading and drawing scale.
+ *
+ * The nodes are laid out level by level, the number of nodes per level growing geometrically so
+ * that the hierarchy has exactly the requested depth: 1 makes every node a root, and a depth of
+ * the node count a single chain. Each node has a translation from its parent and a mesh, which
+ * it shares with the nodes next to it as the mesh reuse says.
+ *
+ * Every mesh is a single triangle primitive, a ribbon of two columns of vertices, with buffer
+ * views of its own for positions and indices. The buffer is embedded as base64 in glTF files and
+ * as the binary chunk of GLB files, or written to a .bin file of its own next to either.
+ *
+ * Run the class to write a scene to a directory:
+ *
+ *     SyntheticScene directory nodeCount [--depth n] [--mesh-reuse n] [--vertices n]
+ *             [--index-bits 8|16|32] [--external] [--glb]
+ */
+final class SyntheticScene {
+    static final int DEFAULT_DEPTH = 8;
+    static final int DEFAULT_MESH_REUSE = 4;
+    static final int DEFAULT_VERTEX_COUNT = 4;
+    static final int DEFAULT_INDEX_BITS = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int GLB_MAGIC = 0x46546C67; // "glTF"
+    private static final int GLB_VERSION = 2;
+    private static final int GLB_CHUNK_TYPE_JSON = 0x4E4F534A; // "JSON"
+    private static final int GLB_CHUNK_TYPE_BIN = 0x004E4942; // "BIN\0"
+
+    private final int nodeCount;
+    private int depth = DEFAULT_DEPTH;
+    private int meshReuse = DEFAULT_MESH_REUSE;
+    private int vertexCount = DEFAULT_VERTEX_COUNT;
+    private int indexBits = DEFAULT_INDEX_BITS;
+    private boolean externalBuffer;
+    private boolean binary;
+
+    SyntheticScene(int nodeCount) {
+        if (nodeCount < 1) {
+            throw new IllegalArgumentException("A scene needs a node, not " + nodeCount);
+        }
+        this.nodeCount = nodeCount;
+    }
+
+    /** Sets the number of levels of the hierarchy, at most the node count. */
+    SyntheticScene setDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Invalid depth " + depth);
+        }
+        this.depth = depth;
+        return this;
+    }
+
+    /** Sets how many consecutive nodes share each mesh. */
+    SyntheticScene setMeshReuse(int nodesPerMesh) {
+        if (nodesPerMesh < 1) {
+            throw new IllegalArgumentException("Invalid mesh reuse " + nodesPerMesh);
+        }
+        meshReuse = nodesPerMesh;
+        return this;
+    }
+
+    /** Sets the number of vertices of each primitive, rounded up to an even number. */
+    SyntheticScene setVertexCount(int vertexCount) {
+        if (vertexCount < 4) {
+            throw new IllegalArgumentException("A primitive needs 4 vertices, not " + vertexCount);
+        }
+        this.vertexCount = (vertexCount + 1) & ~1;
+        checkIndexRange();
+        return this;
+    }
+
+    /** Sets the index width, 8, 16 or 32 bits. */
+    SyntheticScene setIndexBits(int bits) {
+        if (bits != 8 && bits != 16 && bits != 32) {
+            throw new IllegalArgumentException("Invalid index width " + bits);
+        }
+        indexBits = bits;
+        checkIndexRange();
+        return this;
+    }
+
+    /** Chooses whether the buffer goes to a .bin file of its own rather than into the file. */
+    SyntheticScene setExternalBuffer(boolean external) {
+        externalBuffer = external;
+        return this;
+    }
+
+    /** Chooses between a GLB and a glTF file. */
+    SyntheticScene setBinary(boolean binary) {
+        this.binary = binary;
+        return this;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    int getMeshCount() {
+        return (nodeCount + meshReuse - 1) / meshReuse;
+    }
+
+    /**
+     * Returns the name of the file, which tells every setting apart. Assets are cached by name,
+     * so scenes that differ need different ones.
+     */
+    String getName() {
+        return String.format(Locale.US, "synthetic-%dn-%dd-%dr-%dv-%di%s.%s", nodeCount, depth,
+                meshReuse, vertexCount, indexBits, externalBuffer ? "-ext" : "",
+                binary ? "glb" : "gltf");
+    }
+
+    /** Returns the name of the external buffer. */
+    String getBufferName() {
+        String name = getName();
+        return name.substring(0, name.lastIndexOf('.')) + ".bin";
+    }
+
+    /** Returns the files of the scene by name, the glTF or GLB file first. */
+    Map<String, byte[]> createFiles() {
+        int[] levelSizes = getLevelSizes();
+        int rowCount = vertexCount / 2;
+        int indexCount = (rowCount - 1) * 6;
+        int positionBytes = vertexCount * 3 * 4;
+        int indexBytes = (indexCount * indexBits / 8 + 3) & ~3;
+        int meshBytes = positionBytes + indexBytes;
+        int meshCount = getMeshCount();
+
+        StringBuilder json = new StringBuilder(256 + nodeCount * 64 + meshCount * 512);
+        json.append("{\"asset\":{\"version\":\"2.0\",\"generator\":\"SyntheticScene\"},")
+                .append("\"scene\":0,\"scenes\":[{\"nodes\":[");
+        for (int node = 0; node < levelSizes[0]; ++node) {
+            if (node > 0) {
+                json.append(',');
+            }
+            json.append(node);
+        }
+        json.append("]}],");
+
+        // Nodes are numbered level by level. The children of a level are spread evenly over
+        // its nodes, so each node has a contiguous range of them.
+        json.append("\"nodes\":[");
+        int levelStart = 0;
+        for (int level = 0; level < levelSizes.length; ++level) {
+            int levelSize = levelSizes[level];
+            int childLevelStart = levelStart + levelSize;
+            int childLevelSize = level + 1 < levelSizes.length ? levelSizes[level + 1] : 0;
+            for (int i = 0; i < levelSize; ++i) {
+                int node = levelStart + i;
+                if (node > 0) {
+                    json.append(',');
+                }
+                json.append("{\"mesh\":").append(node / meshReuse);
+                if (level > 0) {
+                    json.append(",\"translation\":[").append(i % 7 - 3).append(",1,0]");
+                }
+                int firstChild = (int) (((long) i * childLevelSize + levelSize - 1) / levelSize);
+                int endChild =
+                        (int) (((long) (i + 1) * childLevelSize + levelSize - 1) / levelSize);
+                if (firstChild < endChild) {
+                    json.append(",\"children\":[");
+                    for (int child = firstChild; child < endChild; ++child) {
+                        if (child > firstChild) {
+                            json.append(',');
+                        }
+                        json.append(childLevelStart + child);
+                    }
+                    json.append(']');
+                }
+                json.append('}');
+            }
+            levelStart = childLevelStart;
+        }
+        json.append("],");
+
+        // Mesh m has position accessor and buffer view 2m, and index accessor and view 2m + 1.
+        json.append("\"meshes\":[");
+        for (int mesh = 0; mesh < meshCount; ++mesh) {
+            if (mesh > 0) {
+                json.append(',');
+            }
+            json.append("{\"primitives\":[{\"attributes\":{\"POSITION\":").append(mesh * 2)
+                    .append("},\"indices\":").append(mesh * 2 + 1).append("}]}");
+        }
+        json.append("],");
+
+        int indexComponentType = indexBits == 8 ? SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_BYTE
+                : indexBits == 16 ? SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_SHORT
+                : SampleGLTFReader.COMPONENT_TYPE_UNSIGNED_INT;
+        json.append("\"accessors\":[");
+        for (int mesh = 0; mesh < meshCount; ++mesh) {
+            if (mesh > 0) {
+                json.append(',');
+            }
+            json.append("{\"bufferView\":").append(mesh * 2)
+                    .append(",\"componentType\":5126,\"count\":").append(vertexCount)
+                    .append(",\"type\":\"VEC3\",\"min\":[0,0,0],\"max\":[1,1,0]},");
+            json.append("{\"bufferView\":").append(mesh * 2 + 1)
+                    .append(",\"componentType\":").append(indexComponentType)
+                    .append(",\"count\":").append(indexCount)
+                    .append(",\"type\":\"SCALAR\"}");
+        }
+        json.append("],");
+
+        json.append("\"bufferViews\":[");
+        for (int mesh = 0; mesh < meshCount; ++mesh) {
+            if (mesh > 0) {
+                json.append(',');
+            }
+            long offset = (long) mesh * meshBytes;
+            json.append("{\"buffer\":0,\"byteOffset\":").append(offset)
+                    .append(",\"byteLength\":").append(positionBytes)
+                    .append(",\"target\":34962},");
+            json.append("{\"buffer\":0,\"byteOffset\":").append(offset + positionBytes)
+                    .append(",\"byteLength\":").append(indexCount * indexBits / 8)
+                    .append(",\"target\":34963}");
+        }
+        json.append("],");
+
+        long bufferSize = (long) meshCount * meshBytes;
+        if (bufferSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Buffer of " + bufferSize + " bytes is too large");
+        }
+        byte[] data = createBuffer(meshCount, meshBytes, rowCount);
+        json.append("\"buffers\":[{\"byteLength\":").append(data.length);
+        if (externalBuffer) {
+            json.append(",\"uri\":\"").append(getBufferName()).append('"');
+        } else if (!binary) {
+            json.append(",\"uri\":\"data:application/octet-stream;base64,")
+                    .append(Base64.getEncoder().encodeToString(data)).append('"');
+        }
+        json.append("}]}");
+
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        byte[] jsonBytes = json.toString().getBytes(UTF_8);
+        files.put(getName(), binary
+                ? createGlb(jsonBytes, externalBuffer ? null : data) : jsonBytes);
+        if (externalBuffer) {
+            files.put(getBufferName(), data);
+        }
+        return files;
+    }
+
+    /** Adds the files of the scene to {@code source}. */
+    void writeTo(MemoryAssetSource source) {
+        for (Map.Entry<String, byte[]> file : createFiles().entrySet()) {
+            source.put(file.getKey(), file.getValue());
+        }
+    }
+
+    /** Writes the files of the scene to {@code directory}, which is created if needed. */
+    void writeTo(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        for (Map.Entry<String, byte[]> file : createFiles().entrySet()) {
+            OutputStream output = new FileOutputStream(new File(directory, file.getKey()));
+            try {
+                output.write(file.getValue());
+            } finally {
+                output.close();
+            }
+        }
+    }
+
+    private void checkIndexRange() {
+        if (indexBits < 32 && vertexCount > 1 << indexBits) {
+            throw new IllegalArgumentException(
+                    vertexCount + " vertices can't be indexed with " + indexBits + " bits");
+        }
+    }
+
+    // Returns how many nodes each level has: one root, then a geometric progression, the last
+    // levels trimmed so that the sizes add up to the node count.
+    private int[] getLevelSizes() {
+        int levelCount = Math.min(depth, nodeCount);
+        int[] sizes = new int[levelCount];
+        if (levelCount == 1) {
+            sizes[0] = nodeCount;
+            return sizes;
+        }
+        double low = 1;
+        double high = nodeCount;
+        for (int i = 0; i < 64; ++i) {
+            double ratio = (low + high) / 2;
+            if (getLevelSizes(ratio, sizes) >= nodeCount) {
+                high = ratio;
+            } else {
+                low = ratio;
+            }
+        }
+        long excess = getLevelSizes(high, sizes) - nodeCount;
+        for (int level = levelCount - 1; level >= 0 && excess > 0; --level) {
+            int trimmed = (int) Math.min(excess, sizes[level] - 1);
+            sizes[level] -= trimmed;
+            excess -= trimmed;
+        }
+        return sizes;
+    }
+
+    private static long getLevelSizes(double ratio, int[] sizes) {
+        long total = 0;
+        for (int level = 0; level < sizes.length; ++level) {
+            sizes[level] = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    Math.round(Math.pow(ratio, level))));
+            total += sizes[level];
+        }
+        return total;
+    }
+
+    // Every mesh has the same ribbon: rows of two vertices, and two triangles between rows.
+    private byte[] createBuffer(int meshCount, int meshBytes, int rowCount) {
+        ByteBuffer mesh = ByteBuffer.allocate(meshBytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int row = 0; row < rowCount; ++row) {
+            float y = (float) row / (rowCount - 1);
+            mesh.putFloat(0).putFloat(y).putFloat(0);
+            mesh.putFloat(1).putFloat(y).putFloat(0);
+        }
+        for (int row = 0; row + 1 < rowCount; ++row) {
+            int first = row * 2;
+            int[] triangles = {first, first + 1, first + 3, first, first + 3, first + 2};
+            for (int index : triangles) {
+                if (indexBits == 8) {
+                    mesh.put((byte) index);
+                } else if (indexBits == 16) {
+                    mesh.putShort((short) index);
+                } else {
+                    mesh.putInt(index);
+                }
+            }
+        }
+        byte[] data = new byte[meshCount * meshBytes];
+        for (int i = 0; i < meshCount; ++i) {
+            System.arraycopy(mesh.array(), 0, data, i * meshBytes, meshBytes);
+        }
+        return data;
+    }
+
+    // A GLB file: the header, the JSON chunk padded with spaces and, if there is one, the binary
+    // chunk padded with zeros.
+    private static byte[] createGlb(byte[] json, byte[] bin) {
+        int jsonLength = (json.length + 3) & ~3;
+        int binLength = bin != null ? (bin.length + 3) & ~3 : 0;
+        int length = 12 + 8 + jsonLength + (bin != null ? 8 + binLength : 0);
+        ByteBuffer glb = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        glb.putInt(GLB_MAGIC).putInt(GLB_VERSION).putInt(length);
+        glb.putInt(jsonLength).putInt(GLB_CHUNK_TYPE_JSON).put(json);
+        while (glb.position() % 4 != 0) {
+            glb.put((byte) ' ');
+        }
+        if (bin != null) {
+            glb.putInt(binLength).putInt(GLB_CHUNK_TYPE_BIN).put(bin);
+        }
+        return glb.array();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticScene directory nodeCount [--depth n]"
+                    + " [--mesh-reuse n] [--vertices n] [--index-bits 8|16|32] [--external]"
+                    + " [--glb]");
+            System.exit(2);
+        }
+        SyntheticScene scene = new SyntheticScene(Integer.parseInt(args[1]));
+        for (int i = 2; i < args.length; ++i) {
+            String option = args[i];
+            if (option.equals("--external")) {
+                scene.setExternalBuffer(true);
+            } else if (option.equals("--glb")) {
+                scene.setBinary(true);
+            } else if (i + 1 < args.length) {
+                int value = Integer.parseInt(args[++i]);
+                if (option.equals("--depth")) {
+                    scene.setDepth(value);
+                } else if (option.equals("--mesh-reuse")) {
+                    scene.setMeshReuse(value);
+                } else if (option.equals("--vertices")) {
+                    scene.setVertexCount(value);
+                } else if (option.equals("--index-bits")) {
+                    scene.setIndexBits(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        File directory = new File(args[0]);
+        scene.writeTo(directory);
+        System.out.println("Wrote " + new File(directory, scene.getName()));
+    }
+}